@@ -12,6 +12,7 @@ plugins {
     id("xyz.jpenilla.run-paper") version "3.0.2"
     id("com.gradleup.shadow") version "9.3.1"
     id("net.minecrell.plugin-yml.bukkit") version "0.5.1"
+    id("me.champeau.jmh") version "0.7.3"
 }
 
 group = "cat.maki.makiscreen"
@@ -33,6 +34,37 @@ dependencies {
     implementation("org.bytedeco:javacpp:1.5.10:linux-x86_64")
     //  yt-dlp output parsing
     implementation("com.alibaba:fastjson:1.2.83")
+
+    testImplementation(platform("org.junit:junit-bom:5.11.4"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+// Benchmarks and tests run outside of a server, so they need the Paper API on their runtime classpath
+configurations {
+    jmhImplementation {
+        extendsFrom(configurations.compileOnly.get())
+    }
+    testImplementation {
+        extendsFrom(configurations.compileOnly.get())
+    }
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    fork.set(1)
+    jvmArgsAppend.add("--add-modules=jdk.incubator.vector")
+    warmupIterations.set(3)
+    iterations.set(5)
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    // MapBroadcastBenchmark sends on the test's PlayConnectionFixture
+    includeTests.set(true)
+    // Recorded frames: ./gradlew jmh -Pmccinema.bench.frames=/path/to/frames
+    (project.findProperty("mccinema.bench.frames") as String?)?.let {
+        jvmArgsAppend.add("-Dmccinema.bench.frames=$it")
+        benchmarkParameters.put("source", objects.listProperty<String>().value(listOf("GRADIENT", "NOISE", "STATIC_OVERLAY", "RECORDED")))
+    }
 }
 
 paperweight {
@@ -49,10 +81,27 @@ tasks {
     compileJava {
         options.encoding = "UTF-8"
         options.release.set(25)
+        // SIMD dithering kernels, only used at runtime if the server also enables the module
+        options.compilerArgs.add("--add-modules=jdk.incubator.vector")
+        // The module is used on purpose, don't warn about it on every compile
+        options.compilerArgs.add("-Xlint:-incubating")
+    }
+
+    compileTestJava {
+        options.encoding = "UTF-8"
+        options.release.set(25)
+        options.compilerArgs.add("--add-modules=jdk.incubator.vector")
+        options.compilerArgs.add("-Xlint:-incubating")
+    }
+
+    test {
+        useJUnitPlatform()
+        jvmArgs("--add-modules=jdk.incubator.vector")
     }
 
     runServer {
         minecraftVersion("26.1.2")
+        jvmArgs("--add-modules=jdk.incubator.vector")
     }
 
     reobfJar {
@@ -99,6 +148,10 @@ tasks {
                 description = "Allows pause/resume/stop/seek"
                 default = BukkitPluginDescription.Permission.Default.OP
             }
+            register("mccinema.bake") {
+                description = "Allows baking videos for a screen"
+                default = BukkitPluginDescription.Permission.Default.OP
+            }
             register("mccinema.download") {
                 description = "Allows downloading videos from YouTube"
                 default = BukkitPluginDescription.Permission.Default.OP
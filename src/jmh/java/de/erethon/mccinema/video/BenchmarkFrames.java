@@ -0,0 +1,170 @@
+package de.erethon.mccinema.video;
+
+import de.erethon.mccinema.screen.AspectRatio;
+import de.erethon.mccinema.screen.MapTile;
+import de.erethon.mccinema.screen.Screen;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Frame sources shared by the benchmarks. Synthetic sources are deterministic so runs are comparable,
+ * recorded frames are loaded from the directory given by the {@code mccinema.bench.frames} system property.
+ */
+final class BenchmarkFrames {
+
+    static final String RECORDED_FRAMES_PROPERTY = "mccinema.bench.frames";
+
+    // Enough frames for temporal reuse and motion detection to behave like real playback
+    private static final int SYNTHETIC_FRAME_COUNT = 8;
+
+    private BenchmarkFrames() {
+    }
+
+    static int[] parseResolution(String resolution) {
+        String[] parts = resolution.toLowerCase().split("x");
+        int width = Integer.parseInt(parts[0]);
+        int height = Integer.parseInt(parts[1]);
+        if (width % MapTile.SIZE != 0 || height % MapTile.SIZE != 0) {
+            throw new IllegalArgumentException("Resolution must be a multiple of " + MapTile.SIZE + ": " + resolution);
+        }
+        return new int[]{width, height};
+    }
+
+    static Screen createScreen(int width, int height) {
+        int mapWidth = width / MapTile.SIZE;
+        int mapHeight = height / MapTile.SIZE;
+        Screen screen = new Screen("benchmark", mapWidth, mapHeight, AspectRatio.CUSTOM);
+        for (int y = 0; y < mapHeight; y++) {
+            for (int x = 0; x < mapWidth; x++) {
+                int tileIndex = y * mapWidth + x;
+                screen.addTile(new MapTile(tileIndex, x, y, tileIndex));
+            }
+        }
+        return screen;
+    }
+
+    static BufferedImage[] load(String source, int width, int height) {
+        return switch (source.toUpperCase()) {
+            case "GRADIENT" -> gradient(width, height);
+            case "NOISE" -> noise(width, height);
+            case "STATIC_OVERLAY" -> staticOverlay(width, height);
+            case "RECORDED" -> recorded(width, height);
+            default -> throw new IllegalArgumentException("Unknown frame source: " + source);
+        };
+    }
+
+    /**
+     * Scales frames to another size, e.g. to feed the processor a source that needs letterboxing or upscaling.
+     */
+    static BufferedImage[] resize(BufferedImage[] frames, int width, int height) {
+        BufferedImage[] resized = new BufferedImage[frames.length];
+        for (int i = 0; i < frames.length; i++) {
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+            Graphics2D g = image.createGraphics();
+            g.drawImage(frames[i], 0, 0, width, height, null);
+            g.dispose();
+            resized[i] = image;
+        }
+        return resized;
+    }
+
+    static byte[] bgr(BufferedImage image) {
+        return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * Smooth diagonal gradients scrolling a few pixels per frame. Worst case for banding, best case for temporal reuse.
+     */
+    private static BufferedImage[] gradient(int width, int height) {
+        BufferedImage[] frames = new BufferedImage[SYNTHETIC_FRAME_COUNT];
+        for (int i = 0; i < frames.length; i++) {
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+            byte[] data = bgr(image);
+            int shift = i * 8;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int pos = (y * width + x) * 3;
+                    data[pos] = (byte) (((x + shift) * 255) / width);
+                    data[pos + 1] = (byte) ((y * 255) / height);
+                    data[pos + 2] = (byte) ((((x + y + shift) & 511) * 255) / 511);
+                }
+            }
+            frames[i] = image;
+        }
+        return frames;
+    }
+
+    /**
+     * Uncorrelated noise. Defeats temporal reuse and produces the maximum amount of diffused error.
+     */
+    private static BufferedImage[] noise(int width, int height) {
+        BufferedImage[] frames = new BufferedImage[SYNTHETIC_FRAME_COUNT];
+        for (int i = 0; i < frames.length; i++) {
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+            new Random(42L + i).nextBytes(bgr(image));
+            frames[i] = image;
+        }
+        return frames;
+    }
+
+    /**
+     * Static noise with a changing noise window over the center quarter of the frame, like a slideshow or a video
+     * with a large static overlay. Everything outside of the window can reuse the previous result.
+     */
+    private static BufferedImage[] staticOverlay(int width, int height) {
+        BufferedImage[] frames = new BufferedImage[SYNTHETIC_FRAME_COUNT];
+        byte[] background = new byte[width * height * 3];
+        new Random(7L).nextBytes(background);
+        int windowX = width / 4;
+        int windowY = height / 4;
+        int windowWidth = width / 2;
+        int windowHeight = height / 2;
+        for (int i = 0; i < frames.length; i++) {
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+            byte[] data = bgr(image);
+            System.arraycopy(background, 0, data, 0, background.length);
+            Random random = new Random(42L + i);
+            byte[] row = new byte[windowWidth * 3];
+            for (int y = windowY; y < windowY + windowHeight; y++) {
+                random.nextBytes(row);
+                System.arraycopy(row, 0, data, (y * width + windowX) * 3, row.length);
+            }
+            frames[i] = image;
+        }
+        return frames;
+    }
+
+    private static BufferedImage[] recorded(int width, int height) {
+        String path = System.getProperty(RECORDED_FRAMES_PROPERTY);
+        if (path == null || path.isBlank()) {
+            throw new IllegalStateException("Recorded frames need -D" + RECORDED_FRAMES_PROPERTY + "=<directory>");
+        }
+        File[] files = new File(path).listFiles((dir, name) -> {
+            String lower = name.toLowerCase();
+            return lower.endsWith(".png") || lower.endsWith(".jpg") || lower.endsWith(".jpeg");
+        });
+        if (files == null || files.length == 0) {
+            throw new IllegalStateException("No png/jpg frames found in " + path);
+        }
+        Arrays.sort(files);
+        BufferedImage[] frames = new BufferedImage[files.length];
+        for (int i = 0; i < files.length; i++) {
+            try {
+                BufferedImage original = ImageIO.read(files[i]);
+                BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+                image.getGraphics().drawImage(original, 0, 0, width, height, null);
+                frames[i] = image;
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read recorded frame " + files[i], e);
+            }
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,175 @@
+package de.erethon.mccinema.video;
+
+import de.erethon.mccinema.dither.DitherLookupUtil;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded cost of each dithering kernel over a whole frame, without band splitting or tile extraction.
+ * Uses the default config values (strength 0.8, error threshold 4, temporal threshold 4, 2 quantization bits).
+ * The ordered kernels run both as SIMD (if the Vector API is available) and scalar.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class DitherKernelBenchmark {
+
+    private static final int ERROR_STRENGTH_FIXED = (int) (0.8f * 256.0f);
+    private static final int TEMPORAL_THRESHOLD = 4;
+    private static final int HASH_BUCKET = TEMPORAL_THRESHOLD * 2;
+    private static final int ERROR_MASK = -(1 << 2);
+    private static final int ERROR_THRESHOLD = 4;
+
+    @Param({"896x512", "2176x896", "3840x2176"})
+    public String resolution;
+
+    @Param({"GRADIENT", "NOISE"})
+    public String source;
+
+    @Param({"true", "false"})
+    public boolean temporal;
+
+    private FrameProcessor processor;
+    private byte[][] frames;
+    private int width;
+    private int height;
+    private int nextFrame;
+
+    private int[] currentRow;
+    private int[] nextRow;
+    private int[] nextNextRow;
+    private byte[] previousFrame;
+    private int[] previousHash;
+    private byte[] output;
+    private FrameProcessor.DitherTarget target;
+
+    @Setup
+    public void setup() {
+        DitherLookupUtil.init();
+        int[] size = BenchmarkFrames.parseResolution(resolution);
+        width = size[0];
+        height = size[1];
+
+        var images = BenchmarkFrames.load(source, width, height);
+        frames = new byte[images.length][];
+        for (int i = 0; i < images.length; i++) {
+            frames[i] = BenchmarkFrames.bgr(images[i]);
+        }
+
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("performance.processing-threads", 1);
+        processor = new FrameProcessor(BenchmarkFrames.createScreen(width, height), config);
+        currentRow = new int[width * 3];
+        nextRow = new int[width * 3];
+        nextNextRow = new int[width * 3];
+        previousFrame = new byte[width * height];
+        previousHash = new int[width * height];
+        output = new byte[width * height];
+        target = FrameProcessor.DitherTarget.frame(output, previousFrame, width);
+        nextFrame = 0;
+    }
+
+    @TearDown
+    public void tearDown() {
+        processor.shutdown();
+    }
+
+    private byte[] nextFrame() {
+        byte[] frame = frames[nextFrame];
+        nextFrame = (nextFrame + 1) % frames.length;
+        return frame;
+    }
+
+    private void resetRows() {
+        Arrays.fill(currentRow, 0);
+        Arrays.fill(nextRow, 0);
+        Arrays.fill(nextNextRow, 0);
+    }
+
+    private void keepOutput() {
+        System.arraycopy(output, 0, previousFrame, 0, output.length);
+    }
+
+    @Benchmark
+    public byte[] floydSteinberg() {
+        resetRows();
+        FrameProcessor.ditherBand(nextFrame(), width, width - 1, 0, height, ERROR_STRENGTH_FIXED,
+            currentRow, nextRow, temporal, HASH_BUCKET, TEMPORAL_THRESHOLD, ERROR_MASK, ERROR_THRESHOLD,
+            previousHash, previousHash.length, target, null);
+        keepOutput();
+        return output;
+    }
+
+    @Benchmark
+    public byte[] atkinson() {
+        resetRows();
+        FrameProcessor.ditherBandAtkinson(nextFrame(), width, 0, height, ERROR_STRENGTH_FIXED,
+            currentRow, nextRow, nextNextRow, temporal, HASH_BUCKET, TEMPORAL_THRESHOLD, ERROR_MASK, ERROR_THRESHOLD,
+            previousHash, previousHash.length, target, null);
+        keepOutput();
+        return output;
+    }
+
+    @Benchmark
+    public byte[] stucki() {
+        resetRows();
+        FrameProcessor.ditherBandStucki(nextFrame(), width, 0, height, ERROR_STRENGTH_FIXED,
+            currentRow, nextRow, nextNextRow, temporal, HASH_BUCKET, TEMPORAL_THRESHOLD, ERROR_MASK, ERROR_THRESHOLD,
+            previousHash, previousHash.length, target, null);
+        keepOutput();
+        return output;
+    }
+
+    @Benchmark
+    public FrameProcessor bayer() {
+        processor.setUseVectorKernels(true);
+        processor.ditherFrameBayer(nextFrame(), width, height);
+        return processor;
+    }
+
+    @Benchmark
+    public FrameProcessor bayerScalar() {
+        processor.setUseVectorKernels(false);
+        processor.ditherFrameBayer(nextFrame(), width, height);
+        return processor;
+    }
+
+    @Benchmark
+    public FrameProcessor blueNoise() {
+        processor.setUseVectorKernels(true);
+        processor.ditherFrameBlueNoise(nextFrame(), width, height);
+        return processor;
+    }
+
+    @Benchmark
+    public FrameProcessor blueNoiseScalar() {
+        processor.setUseVectorKernels(false);
+        processor.ditherFrameBlueNoise(nextFrame(), width, height);
+        return processor;
+    }
+
+    @Benchmark
+    public FrameProcessor none() {
+        processor.setUseVectorKernels(true);
+        processor.ditherFrameNone(nextFrame(), width, height);
+        return processor;
+    }
+
+    @Benchmark
+    public FrameProcessor noneScalar() {
+        processor.setUseVectorKernels(false);
+        processor.ditherFrameNone(nextFrame(), width, height);
+        return processor;
+    }
+}
@@ -0,0 +1,94 @@
+package de.erethon.mccinema.video;
+
+import de.erethon.mccinema.dither.DitherLookupUtil;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steady-state allocation of {@link FrameProcessor#processFrame} at full screen size, as {@code gc.alloc.rate.norm}
+ * of the gc profiler. That counts the calling thread only, {@code FrameAllocationTest} enforces the budget over the
+ * processing pool as well.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class FrameAllocationBenchmark {
+
+    // Warm-up frames before measuring, lets the buffers, the JIT and the static block map settle
+    private static final int WARMUP_FRAMES = 16;
+
+    @Param({"FLOYD_STEINBERG_REDUCED", "BAYER_8X8"})
+    public String mode;
+
+    // 17x7 maps
+    @Param({"2176x896"})
+    public String resolution;
+
+    @Param({"GRADIENT", "STATIC_OVERLAY"})
+    public String source;
+
+    // DIRECT: source matches the screen, LETTERBOX: wider source that gets black bars, UPSCALE: half resolution
+    @Param({"DIRECT", "LETTERBOX", "UPSCALE"})
+    public String input;
+
+    @Param({"true", "false"})
+    public boolean fusedTiles;
+
+    @Param({"true", "false"})
+    public boolean vectorKernels;
+
+    private FrameProcessor processor;
+    private BufferedImage[] frames;
+    private int width;
+    private int height;
+    private int nextFrame;
+
+    @Setup
+    public void setup() {
+        DitherLookupUtil.init();
+        int[] size = BenchmarkFrames.parseResolution(resolution);
+        width = size[0];
+        height = size[1];
+
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("dithering.mode", mode);
+        config.set("performance.processing-threads", 2);
+        config.set("performance.fused-tile-output", fusedTiles);
+        config.set("dithering.vector-kernels", vectorKernels);
+        processor = new FrameProcessor(BenchmarkFrames.createScreen(width, height), config);
+
+        BufferedImage[] loaded = BenchmarkFrames.load(source, width, height);
+        frames = switch (input) {
+            case "LETTERBOX" -> BenchmarkFrames.resize(loaded, width, height * 3 / 4);
+            case "UPSCALE" -> BenchmarkFrames.resize(loaded, width / 2, height / 2);
+            default -> loaded;
+        };
+        nextFrame = 0;
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            processFrame();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        processor.shutdown();
+    }
+
+    @Benchmark
+    public FrameProcessor.ProcessedFrame processFrame() {
+        BufferedImage frame = frames[nextFrame];
+        nextFrame = (nextFrame + 1) % frames.length;
+        return processor.processFrame(frame, width, height, null);
+    }
+}
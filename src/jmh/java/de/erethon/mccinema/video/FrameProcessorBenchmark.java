@@ -0,0 +1,90 @@
+package de.erethon.mccinema.video;
+
+import de.erethon.mccinema.dither.DitherLookupUtil;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end cost of {@link FrameProcessor#processFrame} (analysis, dithering, tile extraction and dirty regions)
+ * per dithering mode, screen size, thread count, parallel strategy, tile output mode and source size.
+ * Run with {@code ./gradlew jmh}.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class FrameProcessorBenchmark {
+
+    @Param({"FLOYD_STEINBERG", "FLOYD_STEINBERG_REDUCED", "ATKINSON", "STUCKI", "BAYER_8X8", "BLUE_NOISE", "NONE"})
+    public String mode;
+
+    // 7x4, 17x7 and 30x17 maps
+    @Param({"896x512", "2176x896", "3840x2176"})
+    public String resolution;
+
+    @Param({"GRADIENT", "NOISE", "STATIC_OVERLAY"})
+    public String source;
+
+    // 0 = automatic, same as performance.processing-threads
+    @Param({"1", "2", "4", "0"})
+    public int threads;
+
+    @Param({"WAVEFRONT", "BANDS"})
+    public String strategy;
+
+    // Dither into the tile buffers directly, or into a frame buffer and extract the tiles
+    @Param({"true", "false"})
+    public boolean fusedTiles;
+
+    // Source at 1/n of the screen size, dithered at that size and upscaled by the processor (3 = 720p on a 4K wall)
+    @Param({"1", "3"})
+    public int sourceDivisor;
+
+    private FrameProcessor processor;
+    private BufferedImage[] frames;
+    private int width;
+    private int height;
+    private int nextFrame;
+
+    @Setup
+    public void setup() {
+        DitherLookupUtil.init();
+        int[] size = BenchmarkFrames.parseResolution(resolution);
+        width = size[0];
+        height = size[1];
+
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("dithering.mode", mode);
+        config.set("performance.processing-threads", threads);
+        config.set("dithering.parallel-strategy", strategy);
+        config.set("performance.fused-tile-output", fusedTiles);
+        processor = new FrameProcessor(BenchmarkFrames.createScreen(width, height), config);
+        frames = BenchmarkFrames.load(source, width, height);
+        if (sourceDivisor > 1) {
+            frames = BenchmarkFrames.resize(frames, width / sourceDivisor, height / sourceDivisor);
+        }
+        nextFrame = 0;
+    }
+
+    @TearDown
+    public void tearDown() {
+        processor.shutdown();
+    }
+
+    @Benchmark
+    public FrameProcessor.ProcessedFrame processFrame() {
+        BufferedImage frame = frames[nextFrame];
+        nextFrame = (nextFrame + 1) % frames.length;
+        return processor.processFrame(frame, width, height, null);
+    }
+}
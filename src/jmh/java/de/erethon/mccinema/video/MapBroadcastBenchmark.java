@@ -0,0 +1,92 @@
+package de.erethon.mccinema.video;
+
+import de.erethon.mccinema.screen.MapTile;
+import io.netty.channel.embedded.EmbeddedChannel;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.game.ClientGamePacketListener;
+import net.minecraft.network.protocol.game.ClientboundBundlePacket;
+import net.minecraft.network.protocol.game.ClientboundMapItemDataPacket;
+import net.minecraft.world.level.saveddata.maps.MapId;
+import net.minecraft.world.level.saveddata.maps.MapItemSavedData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of sending one frame of full map packets (a 7x4 block screen) to a number of viewers: every connection
+ * encoding and compressing the bundle itself, as {@code Connection.send} does, against encoding it once with
+ * {@link MapPacketBroadcast} and writing duplicates of the buffer. The viewers are the connections of
+ * {@code PlayConnectionFixture}, which {@code MapPacketBroadcastTest} checks the broadcast's bytes against.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class MapBroadcastBenchmark {
+
+    private static final int TILES = 28;
+
+    @Param({"1", "10", "40"})
+    public int viewers;
+
+    @Param({"-1", "256"})
+    public int compressionThreshold;
+
+    private List<ClientboundMapItemDataPacket> packets;
+    private ClientboundBundlePacket bundle;
+    private MapPacketBroadcast broadcast;
+    private EmbeddedChannel[] channels;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        packets = new ArrayList<>(TILES);
+        for (int tile = 0; tile < TILES; tile++) {
+            byte[] data = PlayConnectionFixture.ditheredPixels(random, MapTile.TOTAL_PIXELS);
+            packets.add(new ClientboundMapItemDataPacket(new MapId(tile), (byte) 0, false, null,
+                new MapItemSavedData.MapPatch(0, 0, 128, 128, data)));
+        }
+        bundle = new ClientboundBundlePacket(new ArrayList<Packet<? super ClientGamePacketListener>>(packets));
+        broadcast = new MapPacketBroadcast(PlayConnectionFixture.protocol());
+
+        channels = new EmbeddedChannel[viewers];
+        for (int i = 0; i < viewers; i++) {
+            channels[i] = PlayConnectionFixture.channel(compressionThreshold);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (EmbeddedChannel channel : channels) {
+            channel.finishAndReleaseAll();
+        }
+    }
+
+    @Benchmark
+    public void perConnection() {
+        for (EmbeddedChannel channel : channels) {
+            channel.writeAndFlush(bundle);
+            channel.releaseOutbound();
+        }
+    }
+
+    @Benchmark
+    public void encodeOnce() {
+        try (MapPacketBroadcast.Frame frame = broadcast.encode(packets, true)) {
+            for (EmbeddedChannel channel : channels) {
+                frame.writeTo(channel);
+                channel.releaseOutbound();
+            }
+        }
+    }
+}
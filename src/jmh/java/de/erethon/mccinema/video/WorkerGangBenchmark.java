@@ -0,0 +1,70 @@
+package de.erethon.mccinema.video;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Cost of dispatching one parallel phase with a trivial chunk per thread: the worker gang against submitting a task
+ * per chunk to a fixed pool and waiting on the futures, which is what the frame processor did before.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class WorkerGangBenchmark {
+
+    @Param({"2", "4", "8"})
+    public int threads;
+
+    private WorkerGang gang;
+    private ExecutorService executor;
+    private AtomicIntegerArray counters;
+
+    @Setup
+    public void setup() {
+        gang = new WorkerGang(threads, "Benchmark-Gang");
+        executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "Benchmark-Pool");
+            t.setDaemon(true);
+            return t;
+        });
+        counters = new AtomicIntegerArray(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        gang.shutdown();
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public void gang() {
+        AtomicIntegerArray counters = this.counters;
+        gang.run(threads, counters::incrementAndGet);
+    }
+
+    @Benchmark
+    public void executor() throws Exception {
+        AtomicIntegerArray counters = this.counters;
+        Future<?>[] futures = new Future<?>[threads];
+        for (int chunk = 0; chunk < threads; chunk++) {
+            int index = chunk;
+            futures[chunk] = executor.submit(() -> counters.incrementAndGet(index));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+    }
+}
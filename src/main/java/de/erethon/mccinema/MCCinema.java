@@ -1,26 +1,37 @@
 package de.erethon.mccinema;
 
 import de.erethon.mccinema.commands.MCommandCache;
+import de.erethon.mccinema.dither.ColorMetric;
 import de.erethon.mccinema.dither.DitherLookupUtil;
 import de.erethon.mccinema.download.YoutubeDownloadManager;
 import de.erethon.mccinema.resourcepack.ResourcePackManager;
 import de.erethon.mccinema.screen.Screen;
 import de.erethon.mccinema.screen.ScreenManager;
+import de.erethon.mccinema.screen.ViewerSync;
 import de.erethon.mccinema.video.PacketDispatcher;
+import de.erethon.mccinema.video.ProcessingScheduler;
 import de.erethon.mccinema.video.VideoPlayer;
 import de.erethon.bedrock.compatibility.Internals;
 import de.erethon.bedrock.plugin.EPlugin;
 import de.erethon.bedrock.plugin.EPluginSettings;
+import io.papermc.paper.event.player.PlayerTrackEntityEvent;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.entity.ItemFrame;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
-import org.bukkit.event.player.PlayerJoinEvent;
-import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.MapMeta;
 import org.bytedeco.ffmpeg.global.avutil;
 import org.bytedeco.javacv.FFmpegLogCallback;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
@@ -36,8 +47,14 @@ public final class MCCinema extends EPlugin implements Listener {
     private ResourcePackManager resourcePackManager;
     private YoutubeDownloadManager youtubeDownloadManager;
     private ResourcePackListener resourcePackListener;
+    private ProcessingScheduler processingScheduler;
+    // Sends catch-ups and fills, which happen on the main thread outside of playback
+    private PacketDispatcher mainThreadDispatcher;
     private final Map<UUID, VideoPlayer> videoPlayers = new ConcurrentHashMap<>();
 
+    // Screens whose tiles a player is waiting for, main thread only
+    private final Map<UUID, Set<Screen>> pendingCatchUps = new HashMap<>();
+
     public MCCinema() {
         settings = EPluginSettings.builder()
                 .internals(Internals.NEW)
@@ -69,8 +86,20 @@ public final class MCCinema extends EPlugin implements Listener {
         new File(getDataFolder(), "audio").mkdirs();
         new File(getDataFolder(), "resourcepack").mkdirs();
 
-        logger.info("Initializing color lookup tables... This can take a few seconds, please wait.");
-        DitherLookupUtil.init();
+        logger.info("Initializing color lookup tables...");
+        ColorMetric colorMetric = ColorMetric.fromString(getConfig().getString("dithering.color-metric", "REDMEAN"));
+        DitherLookupUtil.init(new File(getDataFolder(), "cache"), logger, colorMetric);
+        if (!DitherLookupUtil.isLoadedFromCache()) {
+            logger.info("Color lookup tables (" + colorMetric + ") computed and cached for the next start.");
+        }
+
+        // Before the screens, every frame processor takes a lane of it
+        int configuredBudget = getConfig().getInt("performance.core-budget", 0);
+        int coreBudget = configuredBudget > 0
+            ? configuredBudget
+            : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        // The video thread of each playing screen works on its own frames as well
+        processingScheduler = new ProcessingScheduler(coreBudget - 1);
 
         screenManager = new ScreenManager(this);
         screenManager.loadScreens();
@@ -126,10 +155,15 @@ public final class MCCinema extends EPlugin implements Listener {
 
     @Override
     public void onDisable() {
-        for (VideoPlayer player : videoPlayers.values()) {
+        // A player is registered for every screen it shows
+        for (VideoPlayer player : videoPlayers.values().stream().distinct().toList()) {
             player.shutdown();
         }
         videoPlayers.clear();
+        closeMainThreadDispatcher();
+        if (processingScheduler != null) {
+            processingScheduler.shutdown();
+        }
         if (resourcePackManager != null) {
             resourcePackManager.shutdown();
         }
@@ -140,31 +174,61 @@ public final class MCCinema extends EPlugin implements Listener {
     }
 
     @EventHandler
-    public void onPlayerJoin(PlayerJoinEvent event) {
-        // Send last frame to joining players
-        resendScreenFramesAfterJoin(event.getPlayer(), 20L);
-        resendScreenFramesAfterJoin(event.getPlayer(), 60L);
-        resendScreenFramesAfterJoin(event.getPlayer(), 120L);
-    }
-
-    private void resendScreenFramesAfterJoin(Player player, long delayTicks) {
-        new BukkitRunnable() {
-            @Override
-            public void run() {
-                if (!player.isOnline()) {
-                    return;
-                }
-
-                PacketDispatcher dispatcher = new PacketDispatcher(MCCinema.this);
-                for (Screen screen : screenManager.getAllScreens()) {
-                    VideoPlayer videoPlayer = getVideoPlayer(screen);
-                    if (videoPlayer != null && !videoPlayer.canSendTo(player)) {
-                        continue;
-                    }
-                    dispatcher.sendLastFrameToPlayer(player, screen);
-                }
+    public void onPlayerTrackEntity(PlayerTrackEntityEvent event) {
+        if (!(event.getEntity() instanceof ItemFrame frame)) {
+            return;
+        }
+        ItemStack item = frame.getItem();
+        if (item.getType() != Material.FILLED_MAP || !(item.getItemMeta() instanceof MapMeta meta) || !meta.hasMapView()) {
+            return;
+        }
+        int mapId = meta.getMapView().getId();
+        Screen screen = screenManager.getScreenByMapId(mapId);
+        if (screen == null) {
+            return;
+        }
+        int tileIndex = screen.getTileByMapId(mapId).getTileIndex();
+        Player player = event.getPlayer();
+        // The server sends the player its own copy of the map first, the tile is sent again after that
+        Bukkit.getScheduler().runTaskLater(this, () -> {
+            if (!player.isOnline()) {
+                return;
+            }
+            screen.getViewerSync().invalidate(player.getUniqueId(), tileIndex);
+            Set<Screen> pending = pendingCatchUps.computeIfAbsent(player.getUniqueId(), id -> new HashSet<>());
+            if (pending.isEmpty()) {
+                // The frames of a screen are tracked at about the same time, their tiles are sent together
+                Bukkit.getScheduler().runTask(this, () -> catchUpPlayer(player));
+            }
+            pending.add(screen);
+        }, ViewerSync.SERVER_MAP_SEND_TICKS);
+    }
+
+    private void catchUpPlayer(Player player) {
+        Set<Screen> screens = pendingCatchUps.remove(player.getUniqueId());
+        if (screens == null || !player.isOnline()) {
+            return;
+        }
+        for (Screen screen : screens) {
+            VideoPlayer videoPlayer = getVideoPlayer(screen);
+            if (videoPlayer != null && !videoPlayer.canSendTo(player)) {
+                continue;
             }
-        }.runTaskLater(this, delayTicks);
+            // A playing screen catches its viewers up with the next frame
+            if (videoPlayer != null && videoPlayer.getState() == VideoPlayer.State.PLAYING) {
+                continue;
+            }
+            getMainThreadDispatcher().catchUpPlayer(player, screen);
+        }
+    }
+
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        UUID playerId = event.getPlayer().getUniqueId();
+        pendingCatchUps.remove(playerId);
+        for (Screen screen : screenManager.getAllScreens()) {
+            screen.getViewerSync().forget(playerId);
+        }
     }
 
     public static MCCinema getInstance() {
@@ -175,6 +239,10 @@ public final class MCCinema extends EPlugin implements Listener {
         return screenManager;
     }
 
+    public ProcessingScheduler getProcessingScheduler() {
+        return processingScheduler;
+    }
+
     public ResourcePackManager getResourcePackManager() {
         return resourcePackManager;
     }
@@ -189,15 +257,69 @@ public final class MCCinema extends EPlugin implements Listener {
 
     public void unregisterVideoPlayer(Screen screen) {
         VideoPlayer player = videoPlayers.remove(screen.getId());
-        if (player != null) {
-            player.shutdown();
+        if (player == null) {
+            return;
+        }
+        if (!player.isOwnScreen(screen)) {
+            // Only attached to the player, which keeps playing on its other screens
+            player.detachScreen(screen);
+            return;
+        }
+        videoPlayers.values().removeIf(other -> other == player);
+        player.shutdown();
+    }
+
+    /**
+     * Forgets a screen that joined the given player's playback, once the player let go of it, e.g. because it
+     * stopped. Does nothing if the screen has moved on to another player.
+     */
+    public void releaseAttachedScreen(Screen screen, VideoPlayer player) {
+        videoPlayers.remove(screen.getId(), player);
+    }
+
+    /**
+     * The dispatcher for packets sent on the main thread, e.g. screen fills. Only to be used from the main thread.
+     */
+    public PacketDispatcher getMainThreadDispatcher() {
+        if (mainThreadDispatcher == null) {
+            mainThreadDispatcher = new PacketDispatcher(this);
         }
+        return mainThreadDispatcher;
+    }
+
+    private void closeMainThreadDispatcher() {
+        if (mainThreadDispatcher != null) {
+            mainThreadDispatcher.close();
+            mainThreadDispatcher = null;
+        }
+    }
+
+    @Override
+    public void reloadConfig() {
+        super.reloadConfig();
+        // Created again with the new settings when next needed
+        closeMainThreadDispatcher();
     }
 
     public VideoPlayer getVideoPlayer(Screen screen) {
         return videoPlayers.get(screen.getId());
     }
 
+    /**
+     * A player that is playing or paused on the given source, for other screens to join instead of decoding it
+     * again. See {@link VideoPlayer#getSourceId()}.
+     */
+    public VideoPlayer getPlayerForSource(String sourceId) {
+        for (VideoPlayer player : videoPlayers.values()) {
+            VideoPlayer.State state = player.getState();
+            if ((state == VideoPlayer.State.PLAYING || state == VideoPlayer.State.PAUSED)
+                && sourceId.equals(player.getSourceId())) {
+                return player;
+            }
+        }
+        return null;
+    }
+
     public ResourcePackListener getResourcePackListener() {
         return resourcePackListener;
     }
@@ -0,0 +1,143 @@
+package de.erethon.mccinema.commands;
+
+import de.erethon.mccinema.MCCinema;
+import de.erethon.mccinema.screen.Screen;
+import de.erethon.mccinema.video.FrameProcessor;
+import de.erethon.mccinema.video.VideoBaker;
+import de.erethon.bedrock.command.ECommand;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import org.bukkit.command.CommandSender;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+
+public class BakeCommand extends ECommand {
+
+    private final MCCinema plugin = MCCinema.getInstance();
+    private static final MiniMessage MM = MiniMessage.miniMessage();
+
+    // Baked files currently being written
+    private final Set<String> bakesInProgress = Collections.synchronizedSet(new HashSet<>());
+
+    public BakeCommand() {
+        setCommand("bake");
+        setPermission("mccinema.bake");
+        setPlayerCommand(true);
+        setConsoleCommand(true);
+        setMinArgs(0);
+        setMaxArgs(4);
+        setHelp("/mcc bake <screen> <file> [--dither <mode>]");
+    }
+
+    @Override
+    public void onExecute(String[] args, CommandSender sender) {
+        if (args.length < 3) {
+            sender.sendMessage(MM.deserialize("<red>Usage: /mcc bake <screen> <file> [--dither <mode>]"));
+            return;
+        }
+
+        String screenName = args[1];
+        String fileName = args[2];
+
+        // Same default as /mcc play, the baked file is only used for playback with the same mode
+        FrameProcessor.DitheringMode ditheringMode = FrameProcessor.DitheringMode.FLOYD_STEINBERG_REDUCED;
+        if (args.length > 3) {
+            if (!args[3].equalsIgnoreCase("--dither") || args.length < 5) {
+                sender.sendMessage(MM.deserialize("<red>Usage: /mcc bake <screen> <file> [--dither <mode>]"));
+                return;
+            }
+            try {
+                ditheringMode = FrameProcessor.DitheringMode.valueOf(args[4].toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                sender.sendMessage(MM.deserialize("<red>Invalid dithering mode: " + args[4]));
+                return;
+            }
+        }
+
+        Optional<Screen> screenOpt = plugin.getScreenManager().getScreen(screenName);
+        if (screenOpt.isEmpty()) {
+            sender.sendMessage(MM.deserialize("<red>Screen '" + screenName + "' not found!"));
+            return;
+        }
+        Screen screen = screenOpt.get();
+
+        File videoFile = new File(plugin.getDataFolder(), "videos/" + fileName);
+        if (!videoFile.exists()) {
+            videoFile = new File(plugin.getDataFolder(), fileName);
+        }
+        if (!videoFile.isFile()) {
+            sender.sendMessage(MM.deserialize("<red>Video file '" + fileName + "' not found!"));
+            return;
+        }
+
+        VideoBaker baker = new VideoBaker(plugin, screen);
+        QualityCommand.applyScreenPreset(baker, screen);
+        baker.getFrameProcessor().setDitheringMode(ditheringMode);
+
+        File bakedFile = baker.getBakedFile(videoFile);
+        if (!bakesInProgress.add(bakedFile.getAbsolutePath())) {
+            baker.shutdown();
+            sender.sendMessage(MM.deserialize("<red>This video is already being baked for that screen."));
+            return;
+        }
+
+        sender.sendMessage(MM.deserialize("<yellow>Baking <white>" + videoFile.getName() + "</white> for screen <white>"
+            + screen.getName() + "</white> (" + screen.getQualityPreset().toLowerCase(Locale.ROOT) + ", "
+            + ditheringMode.name().toLowerCase(Locale.ROOT) + ")..."));
+        File finalVideoFile = videoFile;
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+            try {
+                int frames = baker.bake(finalVideoFile);
+                sender.sendMessage(MM.deserialize("<green>✓ Baked " + frames + " frames to <white>" + bakedFile.getName()
+                    + "</white>. Playback on this screen will use it."));
+            } catch (Exception e) {
+                plugin.getLogger().warning("Failed to bake " + finalVideoFile.getName() + ": " + e.getMessage());
+                sender.sendMessage(MM.deserialize("<red>Baking failed: " + e.getMessage()));
+            } finally {
+                baker.shutdown();
+                bakesInProgress.remove(bakedFile.getAbsolutePath());
+            }
+        });
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender sender, String[] args) {
+        if (args.length == 2) {
+            return plugin.getScreenManager().getAllScreens().stream()
+                .map(Screen::getName)
+                .filter(s -> s.toLowerCase().startsWith(args[1].toLowerCase()))
+                .toList();
+        }
+
+        if (args.length == 3) {
+            File videosDir = new File(plugin.getDataFolder(), "videos");
+            String[] files = videosDir.list((dir, name) ->
+                name.endsWith(".mp4") || name.endsWith(".mkv") ||
+                name.endsWith(".avi") || name.endsWith(".webm"));
+            if (files != null) {
+                return Arrays.stream(files)
+                    .filter(s -> s.toLowerCase().startsWith(args[2].toLowerCase()))
+                    .toList();
+            }
+        }
+
+        if (args.length == 4) {
+            return List.of("--dither");
+        }
+
+        if (args.length == 5) {
+            return Arrays.stream(FrameProcessor.DitheringMode.values())
+                .map(mode -> mode.name().toLowerCase(Locale.ROOT))
+                .filter(s -> s.startsWith(args[4].toLowerCase(Locale.ROOT)))
+                .toList();
+        }
+
+        return List.of();
+    }
+}
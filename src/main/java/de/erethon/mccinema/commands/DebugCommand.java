@@ -10,6 +10,7 @@ import net.kyori.adventure.text.minimessage.MiniMessage;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 
+import java.util.Collection;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -70,7 +71,7 @@ public class DebugCommand extends ECommand {
         PacketDispatcher dispatcher = videoPlayer.getPacketDispatcher();
 
         switch (setting) {
-            case "show", "status" -> showOptimizationStatus(sender, processor, dispatcher, screenName);
+            case "show", "status" -> showOptimizationStatus(sender, processor, dispatcher, videoPlayer.getPlaybackViewers(), screenName);
             case "temporal", "temp" -> {
                 if (args.length == 3) {
                     boolean newValue = !processor.isUsingTemporalDithering();
@@ -127,14 +128,14 @@ public class DebugCommand extends ECommand {
             case "mode", "dither-mode", "dm" -> {
                 if (args.length < 4) {
                     sender.sendMessage(MM.deserialize("<yellow>Current dithering mode: <white>" + processor.getDitheringMode()));
-                    sender.sendMessage(MM.deserialize("<gray>Available: FLOYD_STEINBERG, FLOYD_STEINBERG_REDUCED, ATKINSON, STUCKI, BAYER_8X8, NONE"));
+                    sender.sendMessage(MM.deserialize("<gray>Available: FLOYD_STEINBERG, FLOYD_STEINBERG_REDUCED, ATKINSON, STUCKI, BAYER_8X8, BLUE_NOISE, NONE"));
                 } else {
                     try {
                         FrameProcessor.DitheringMode mode = FrameProcessor.DitheringMode.valueOf(args[3].toUpperCase());
                         processor.setDitheringMode(mode);
                         sender.sendMessage(MM.deserialize("<green>Dithering mode set to: <white>" + mode));
                     } catch (IllegalArgumentException e) {
-                        sender.sendMessage(MM.deserialize("<red>Invalid mode. Available: FLOYD_STEINBERG, FLOYD_STEINBERG_REDUCED, ATKINSON, STUCKI, BAYER_8X8, NONE"));
+                        sender.sendMessage(MM.deserialize("<red>Invalid mode. Available: FLOYD_STEINBERG, FLOYD_STEINBERG_REDUCED, ATKINSON, STUCKI, BAYER_8X8, BLUE_NOISE, NONE"));
                     }
                 }
             }
@@ -224,15 +225,21 @@ public class DebugCommand extends ECommand {
         }
     }
 
-    private void showOptimizationStatus(CommandSender sender, FrameProcessor processor, PacketDispatcher dispatcher, String screenName) {
+    private void showOptimizationStatus(CommandSender sender, FrameProcessor processor, PacketDispatcher dispatcher,
+                                        Collection<Player> viewers, String screenName) {
         sender.sendMessage(MM.deserialize("<gold>===== Optimization Settings for <white>" + screenName + "</white> ====="));
         sender.sendMessage(MM.deserialize("<gray>Dithering Mode: <white>" + processor.getDitheringMode()));
         sender.sendMessage(MM.deserialize("<gray>Error Diffusion Strength: <white>" + String.format("%.2f", processor.getErrorDiffusionStrength())));
         sender.sendMessage(MM.deserialize("<gray>Error Threshold: <white>" + processor.getErrorThreshold()));
+        sender.sendMessage(MM.deserialize("<gray>Vector Kernels: " + formatBoolean(processor.isUsingVectorKernels())));
+        sender.sendMessage(MM.deserialize("<gray>Parallel Strategy: <white>" + processor.getParallelStrategy()));
         sender.sendMessage(MM.deserialize(""));
         sender.sendMessage(MM.deserialize("<yellow>Temporal Optimizations:"));
         sender.sendMessage(MM.deserialize("<gray>  Temporal Dithering: " + formatBoolean(processor.isUsingTemporalDithering())));
         sender.sendMessage(MM.deserialize("<gray>  Temporal Threshold: <white>" + processor.getTemporalThreshold()));
+        sender.sendMessage(MM.deserialize("<gray>  Static Block Reuse: " + formatBoolean(processor.isUsingStaticBlockReuse())
+            + " <gray>(" + String.format("%.1f", processor.getLastReusedBlockRatio() * 100) + "% of last frame)"));
+        sender.sendMessage(MM.deserialize("<gray>  Fused Tile Output: " + formatBoolean(processor.isUsingFusedTileOutput())));
         sender.sendMessage(MM.deserialize(""));
         sender.sendMessage(MM.deserialize("<aqua>Patch Optimizations:"));
         sender.sendMessage(MM.deserialize("<gray>  Mode: <white>" + dispatcher.getPatchStrategy()));
@@ -241,6 +248,19 @@ public class DebugCommand extends ECommand {
         sender.sendMessage(MM.deserialize("<gray>  Patch Block Size: <white>" + dispatcher.getMultiRegionBlockSize()));
         sender.sendMessage(MM.deserialize("<gray>  Min Patch Area: <white>" + dispatcher.getMinPatchArea()));
         sender.sendMessage(MM.deserialize(""));
+        sender.sendMessage(MM.deserialize("<aqua>Viewer Connections:"));
+        if (viewers.isEmpty()) {
+            sender.sendMessage(MM.deserialize("<gray>  No viewers"));
+        }
+        for (Player viewer : viewers) {
+            int heldBack = dispatcher.getHeldBackFrames(viewer);
+            String tier = dispatcher.getUpdateTier(viewer);
+            sender.sendMessage(MM.deserialize("<gray>  " + viewer.getName() + ": <white>"
+                + String.format("%.1f", PacketDispatcher.getPendingBytes(viewer) / 1024.0) + "KB</white> queued"
+                + (tier != null ? ", tier <white>" + tier + "</white>" : "")
+                + (heldBack > 0 ? ", <red>" + heldBack + " frames held back</red>" : "")));
+        }
+        sender.sendMessage(MM.deserialize(""));
         sender.sendMessage(MM.deserialize("<aqua>Tip: Toggle with /mcc debug " + screenName + " <setting>"));
     }
 
@@ -64,9 +64,26 @@ public class InfoCommand extends ECommand {
 
             if (player.getVideoFile() != null) {
                 info.append("<gray>  Video: <white>").append(player.getVideoFile().getName()).append("</white>\n");
+                info.append("<gray>  Length: <white>").append(VideoPlayer.formatDuration(player.getTotalDurationMs()))
+                    .append("</white> (").append(player.getTotalFrames()).append(" frames");
+                int keyframes = player.getKeyframeCount();
+                if (keyframes >= 0) {
+                    info.append(", ").append(keyframes).append(" keyframes");
+                }
+                info.append(")\n");
+                if (player.isBakedPlayback()) {
+                    info.append("<gray>  Source: <white>baked frames</white>\n");
+                }
             } else if (player.isLiveStream()) {
                 info.append("<gray>  Stream: <white>").append(player.getSourceName()).append("</white>\n");
             }
+            if (!player.isOwnScreen(screen)) {
+                info.append("<gray>  Joined: <white>").append(player.getScreen().getName()).append("</white> (")
+                    .append(player.isSharingFrames(screen) ? "shared frames" : "own dithering").append(")\n");
+            } else if (!player.getAttachedScreens().isEmpty()) {
+                info.append("<gray>  Also on: <white>").append(String.join(", ",
+                    player.getAttachedScreens().stream().map(Screen::getName).toList())).append("</white>\n");
+            }
 
             if (player.getState() == VideoPlayer.State.PLAYING || player.getState() == VideoPlayer.State.PAUSED) {
                 String currentTime = VideoPlayer.formatDuration(player.getCurrentTimeMs());
@@ -90,9 +107,9 @@ public class InfoCommand extends ECommand {
             info.append("\n<gold><bold>Performance</bold>\n");
             info.append("<gray>  Frames Processed: <white>").append(player.getFramesProcessed()).append("</white>\n");
             info.append("<gray>  Frames Skipped: <white>").append(player.getFramesSkipped()).append("</white>\n");
-            info.append("<gray>  Packets Sent: <white>").append(formatNumber(player.getPacketDispatcher().getTotalPacketsSent()))
+            info.append("<gray>  Packets Sent: <white>").append(formatNumber(player.getPacketDispatcher(screen).getTotalPacketsSent()))
                 .append("</white>\n");
-            info.append("<gray>  Data Sent: <white>").append(formatBytes(player.getPacketDispatcher().getTotalBytesSent()))
+            info.append("<gray>  Data Sent: <white>").append(formatBytes(player.getPacketDispatcher(screen).getTotalBytesSent()))
                 .append("</white>");
         } else {
             info.append("\n<gray>No video loaded");
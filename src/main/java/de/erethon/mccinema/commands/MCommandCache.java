@@ -21,6 +21,7 @@ public class MCommandCache extends ECommandCache {
         addCommand(new ResumeCommand());
         addCommand(new StopCommand());
         addCommand(new SeekCommand());
+        addCommand(new BakeCommand());
 
         // Download
         addCommand(new DownloadCommand());
@@ -40,12 +40,18 @@ public class PauseCommand extends ECommand {
             return;
         }
 
-        VideoPlayer player = plugin.getVideoPlayer(screenOpt.get());
+        Screen screen = screenOpt.get();
+        VideoPlayer player = plugin.getVideoPlayer(screen);
         if (player == null || player.getState() != VideoPlayer.State.PLAYING) {
             sender.sendMessage(MM.deserialize("<red>No video is playing on this screen!"));
             return;
         }
 
+        if (!player.isOwnScreen(screen)) {
+            StopCommand.sendControlledElsewhere(sender, player);
+            return;
+        }
+
         player.pause();
         sender.sendMessage(MM.deserialize(
             "<yellow>⏸ Paused at " + VideoPlayer.formatDuration(player.getCurrentTimeMs())
@@ -147,10 +147,12 @@ public class PlayCommand extends ECommand {
             return;
         }
 
-        // Stop existing player if any
-        VideoPlayer existingPlayer = plugin.getVideoPlayer(screen);
-        if (existingPlayer != null && existingPlayer.getState() == VideoPlayer.State.PLAYING) {
-            existingPlayer.stop();
+        releaseScreen(screen);
+
+        // Audio is tied to its player, so only video-only playback joins another screen
+        if (!withAudio && targetPlayerIds.isEmpty()
+            && joinSourcePlayer(sender, screen, videoFile.getAbsolutePath(), ditheringMode)) {
+            return;
         }
 
         sender.sendMessage(MM.deserialize("<yellow>Loading video..."));
@@ -419,6 +421,7 @@ public class PlayCommand extends ECommand {
             case ATKINSON -> "Atkinson (Cleaner, Less Noise)";
             case STUCKI -> "Stucki (Smoother Gradients)";
             case BAYER_8X8 -> "Bayer 8x8 (Low Noise)";
+            case BLUE_NOISE -> "Blue Noise (Low Noise, No Pattern)";
             case NONE -> "None (Fastest)";
         };
     }
@@ -503,9 +506,10 @@ public class PlayCommand extends ECommand {
             sender.sendMessage(MM.deserialize("<yellow>⚠ Live audio is not supported yet; starting video-only livestream playback."));
         }
 
-        VideoPlayer existingPlayer = plugin.getVideoPlayer(screen);
-        if (existingPlayer != null && existingPlayer.getState() == VideoPlayer.State.PLAYING) {
-            existingPlayer.stop();
+        releaseScreen(screen);
+
+        if (targetPlayerIds.isEmpty() && joinSourcePlayer(sender, screen, sourceUrl, ditheringMode)) {
+            return;
         }
 
         sender.sendMessage(MM.deserialize("<yellow>Resolving livestream..."));
@@ -525,7 +529,7 @@ public class PlayCommand extends ECommand {
                     new BukkitRunnable() {
                         @Override
                         public void run() {
-                            if (!player.loadLiveStream(livestream.streamUrl(), livestream.displayName())) {
+                            if (!player.loadLiveStream(livestream.streamUrl(), livestream.displayName(), sourceUrl)) {
                                 sender.sendMessage(MM.deserialize("<red>Failed to load livestream!"));
                                 return;
                             }
@@ -572,6 +576,52 @@ public class PlayCommand extends ECommand {
         }.runTaskAsynchronously(plugin);
     }
 
+    /**
+     * Stops what the screen is playing. A screen that joined another screen's playback just leaves it.
+     */
+    private void releaseScreen(Screen screen) {
+        VideoPlayer existingPlayer = plugin.getVideoPlayer(screen);
+        if (existingPlayer == null) {
+            return;
+        }
+        if (!existingPlayer.isOwnScreen(screen)) {
+            plugin.unregisterVideoPlayer(screen);
+        } else if (existingPlayer.getState() == VideoPlayer.State.PLAYING) {
+            existingPlayer.stop();
+        }
+    }
+
+    /**
+     * Shows a source that another screen is already playing from that screen's player, so it is decoded once for
+     * both, and dithered once if the screens match. Joining can be turned off with performance.shared-sources.
+     *
+     * @return false if the source has to be played on its own
+     */
+    private boolean joinSourcePlayer(CommandSender sender, Screen screen, String sourceId,
+                                     FrameProcessor.DitheringMode ditheringMode) {
+        if (!plugin.getConfig().getBoolean("performance.shared-sources", true)) {
+            return false;
+        }
+        VideoPlayer sourcePlayer = plugin.getPlayerForSource(sourceId);
+        if (sourcePlayer == null || sourcePlayer.hasTargetPlayerLimit()) {
+            return false;
+        }
+        if (!sourcePlayer.attachScreen(screen, ditheringMode,
+            (processor, dispatcher) -> QualityCommand.applyScreenPreset(processor, dispatcher, screen))) {
+            return false;
+        }
+        plugin.registerVideoPlayer(screen, sourcePlayer);
+
+        String frameInfo = sourcePlayer.isSharingFrames(screen) ? "shared frames" : "own dithering";
+        sender.sendMessage(MM.deserialize(
+            "<green>▶ Now playing: <white>" + sourcePlayer.getSourceName() +
+            "\n<gray>  On screen: <white>" + screen.getName() +
+            "\n<gray>  Joined: <white>" + sourcePlayer.getScreen().getName() + "</white> (" + frameInfo + ")" +
+            "\n<gray>  Dithering: <white>" + formatDitheringMode(ditheringMode)
+        ));
+        return true;
+    }
+
     private boolean isUrl(String source) {
         String lower = source.toLowerCase(Locale.ROOT);
         return lower.startsWith("http://") || lower.startsWith("https://");
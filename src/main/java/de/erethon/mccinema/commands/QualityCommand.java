@@ -5,6 +5,7 @@ import de.erethon.mccinema.MCCinema;
 import de.erethon.mccinema.screen.Screen;
 import de.erethon.mccinema.video.FrameProcessor;
 import de.erethon.mccinema.video.PacketDispatcher;
+import de.erethon.mccinema.video.VideoBaker;
 import de.erethon.mccinema.video.VideoPlayer;
 import net.kyori.adventure.text.minimessage.MiniMessage;
 import org.bukkit.command.CommandSender;
@@ -61,8 +62,13 @@ public class QualityCommand extends ECommand {
         screen.setQualityPreset(preset.name());
         plugin.getScreenManager().saveScreens();
 
-        if (videoPlayer != null) {
-            applyPreset(videoPlayer, preset);
+        if (videoPlayer != null && videoPlayer.isSharingFrames(screen)) {
+            // The dithering belongs to the screen the frames come from
+            applyPreset(null, videoPlayer.getPacketDispatcher(screen), preset);
+            sender.sendMessage(MM.deserialize("<green>Applied and saved quality preset <white>" + preset.name().toLowerCase(Locale.ROOT) + "</white> for screen <white>" + screenName + "</white>."));
+            sender.sendMessage(MM.deserialize("<gray>Dithering is shared with screen <white>" + videoPlayer.getScreen().getName() + "</white> until the next playback."));
+        } else if (videoPlayer != null) {
+            applyPreset(videoPlayer.getFrameProcessor(screen), videoPlayer.getPacketDispatcher(screen), preset);
             sender.sendMessage(MM.deserialize("<green>Applied and saved quality preset <white>" + preset.name().toLowerCase(Locale.ROOT) + "</white> for screen <white>" + screenName + "</white>."));
         } else {
             sender.sendMessage(MM.deserialize("<green>Saved quality preset <white>" + preset.name().toLowerCase(Locale.ROOT) + "</white> for screen <white>" + screenName + "</white>."));
@@ -80,10 +86,35 @@ public class QualityCommand extends ECommand {
         applyPreset(videoPlayer, preset != null ? preset : QualityPreset.BALANCED);
     }
 
+    public static void applyScreenPreset(VideoBaker baker, Screen screen) {
+        applyScreenPreset(baker.getFrameProcessor(), baker.getPacketDispatcher(), screen);
+    }
+
+    /**
+     * For a screen attached to another screen's player, see {@link VideoPlayer#attachScreen}.
+     *
+     * @param processor null if the screen shares the player's dithered frames
+     */
+    public static void applyScreenPreset(FrameProcessor processor, PacketDispatcher dispatcher, Screen screen) {
+        QualityPreset preset = QualityPreset.fromInput(screen.getQualityPreset());
+        applyPreset(processor, dispatcher, preset != null ? preset : QualityPreset.BALANCED);
+    }
+
     private static void applyPreset(VideoPlayer videoPlayer, QualityPreset preset) {
-        FrameProcessor processor = videoPlayer.getFrameProcessor();
-        PacketDispatcher dispatcher = videoPlayer.getPacketDispatcher();
+        applyPreset(videoPlayer.getFrameProcessor(), videoPlayer.getPacketDispatcher(), preset);
+    }
 
+    /**
+     * @param processor null for a screen that shares another screen's dithered frames
+     */
+    private static void applyPreset(FrameProcessor processor, PacketDispatcher dispatcher, QualityPreset preset) {
+        if (processor != null) {
+            applyProcessorPreset(processor, preset);
+        }
+        applyDispatcherPreset(dispatcher, preset);
+    }
+
+    private static void applyProcessorPreset(FrameProcessor processor, QualityPreset preset) {
         switch (preset) {
             case QUALITY -> {
                 processor.setDitheringMode(FrameProcessor.DitheringMode.ATKINSON);
@@ -93,7 +124,31 @@ public class QualityCommand extends ECommand {
                 processor.setTemporalThreshold(3);
                 processor.setErrorQuantizationBits(1);
                 processor.setAdaptiveTuningEnabled(false);
+            }
+            case BALANCED -> {
+                processor.setDitheringMode(FrameProcessor.DitheringMode.FLOYD_STEINBERG);
+                processor.setErrorDiffusionStrength(0.78f);
+                processor.setErrorThreshold(4);
+                processor.setUseTemporalDithering(false);
+                processor.setTemporalThreshold(5);
+                processor.setErrorQuantizationBits(2);
+                processor.setAdaptiveTuningEnabled(true);
+            }
+            case PERFORMANCE -> {
+                processor.setDitheringMode(FrameProcessor.DitheringMode.FLOYD_STEINBERG_REDUCED);
+                processor.setErrorDiffusionStrength(0.60f);
+                processor.setErrorThreshold(14);
+                processor.setUseTemporalDithering(true);
+                processor.setTemporalThreshold(14);
+                processor.setErrorQuantizationBits(4);
+                processor.setAdaptiveTuningEnabled(true);
+            }
+        }
+    }
 
+    private static void applyDispatcherPreset(PacketDispatcher dispatcher, QualityPreset preset) {
+        switch (preset) {
+            case QUALITY -> {
                 dispatcher.setPatchStrategy(PacketDispatcher.PatchStrategy.BOUNDING_BOX);
                 dispatcher.setFullUpdateThresholdPercent(68);
                 dispatcher.setMultiRegionBlockSize(16);
@@ -105,14 +160,6 @@ public class QualityCommand extends ECommand {
                 dispatcher.setBandwidthTargetBytesPerSecond(1000L * 1024L * 1024L);
             }
             case BALANCED -> {
-                processor.setDitheringMode(FrameProcessor.DitheringMode.FLOYD_STEINBERG);
-                processor.setErrorDiffusionStrength(0.78f);
-                processor.setErrorThreshold(4);
-                processor.setUseTemporalDithering(false);
-                processor.setTemporalThreshold(5);
-                processor.setErrorQuantizationBits(2);
-                processor.setAdaptiveTuningEnabled(true);
-
                 dispatcher.setPatchStrategy(PacketDispatcher.PatchStrategy.MULTI_REGION);
                 dispatcher.setFullUpdateThresholdPercent(82);
                 dispatcher.setMultiRegionBlockSize(8);
@@ -125,14 +172,6 @@ public class QualityCommand extends ECommand {
                 dispatcher.setBandwidthTargetBytesPerSecond(32L * 1024L * 1024L);
             }
             case PERFORMANCE -> {
-                processor.setDitheringMode(FrameProcessor.DitheringMode.FLOYD_STEINBERG_REDUCED);
-                processor.setErrorDiffusionStrength(0.60f);
-                processor.setErrorThreshold(14);
-                processor.setUseTemporalDithering(true);
-                processor.setTemporalThreshold(14);
-                processor.setErrorQuantizationBits(4);
-                processor.setAdaptiveTuningEnabled(true);
-
                 dispatcher.setPatchStrategy(PacketDispatcher.PatchStrategy.MULTI_REGION);
                 dispatcher.setFullUpdateThresholdPercent(92);
                 dispatcher.setMultiRegionBlockSize(4);
@@ -157,8 +196,8 @@ public class QualityCommand extends ECommand {
             return;
         }
 
-        FrameProcessor processor = videoPlayer.getFrameProcessor();
-        PacketDispatcher dispatcher = videoPlayer.getPacketDispatcher();
+        FrameProcessor processor = videoPlayer.getFrameProcessor(screen);
+        PacketDispatcher dispatcher = videoPlayer.getPacketDispatcher(screen);
 
         sender.sendMessage(MM.deserialize("<gray>Dither: <white>" + processor.getDitheringMode() + "</white> | Diffusion: <white>" + String.format("%.2f", processor.getErrorDiffusionStrength()) + "</white> | ErrThr: <white>" + processor.getErrorThreshold() + "</white>"));
         sender.sendMessage(MM.deserialize("<gray>Temporal: <white>" + (processor.isUsingTemporalDithering() ? "ON" : "OFF") + "</white> | TThr: <white>" + processor.getTemporalThreshold() + "</white> | Quant: <white>" + processor.getErrorQuantizationBits() + "</white> | Adaptive: <white>" + (processor.isAdaptiveTuningEnabled() ? "ON" : "OFF") + "</white>"));
@@ -41,12 +41,18 @@ public class ResumeCommand extends ECommand {
             return;
         }
 
-        VideoPlayer player = plugin.getVideoPlayer(screenOpt.get());
+        Screen screen = screenOpt.get();
+        VideoPlayer player = plugin.getVideoPlayer(screen);
         if (player == null || player.getState() != VideoPlayer.State.PAUSED) {
             sender.sendMessage(MM.deserialize("<red>No paused video on this screen!"));
             return;
         }
 
+        if (!player.isOwnScreen(screen)) {
+            StopCommand.sendControlledElsewhere(sender, player);
+            return;
+        }
+
         player.resume();
         sender.sendMessage(MM.deserialize(
             "<green>▶ Resumed playback"
@@ -45,12 +45,18 @@ public class SeekCommand extends ECommand {
             return;
         }
 
-        VideoPlayer player = plugin.getVideoPlayer(screenOpt.get());
+        Screen screen = screenOpt.get();
+        VideoPlayer player = plugin.getVideoPlayer(screen);
         if (player == null) {
             sender.sendMessage(MM.deserialize("<red>No video player for this screen!"));
             return;
         }
 
+        if (!player.isOwnScreen(screen)) {
+            StopCommand.sendControlledElsewhere(sender, player);
+            return;
+        }
+
         if (player.isLiveStream()) {
             sender.sendMessage(MM.deserialize("<red>Cannot seek a livestream."));
             return;
@@ -40,17 +40,38 @@ public class StopCommand extends ECommand {
             return;
         }
 
-        VideoPlayer player = plugin.getVideoPlayer(screenOpt.get());
+        Screen screen = screenOpt.get();
+        VideoPlayer player = plugin.getVideoPlayer(screen);
         if (player == null) {
             sender.sendMessage(MM.deserialize("<red>No video player for this screen!"));
             return;
         }
 
+        if (!player.isOwnScreen(screen)) {
+            // Joined another screen's playback, that one keeps playing
+            plugin.unregisterVideoPlayer(screen);
+            plugin.getScreenManager().fillScreenWithBlankColor(screen);
+            sender.sendMessage(MM.deserialize("<red>⏹ Stopped playback"));
+            return;
+        }
+
+        List<Screen> attachedScreens = player.getAttachedScreens();
         player.stop();
-        plugin.getScreenManager().fillScreenWithBlankColor(screenOpt.get());
+        plugin.getScreenManager().fillScreenWithBlankColor(screen);
+        for (Screen attached : attachedScreens) {
+            plugin.getScreenManager().fillScreenWithBlankColor(attached);
+        }
         sender.sendMessage(MM.deserialize("<red>⏹ Stopped playback"));
     }
 
+    /**
+     * For commands on a screen that joined another screen's playback, which is controlled from that screen.
+     */
+    static void sendControlledElsewhere(CommandSender sender, VideoPlayer player) {
+        sender.sendMessage(MM.deserialize("<red>This screen is showing the playback of screen '"
+            + player.getScreen().getName() + "', control it there or stop this screen first."));
+    }
+
     @Override
     public List<String> onTabComplete(CommandSender sender, String[] args) {
         if (args.length == 2) {
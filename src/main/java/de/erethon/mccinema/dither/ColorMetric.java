@@ -0,0 +1,32 @@
+package de.erethon.mccinema.dither;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Distance used to pick the closest map palette color when building the lookup tables.
+ */
+public enum ColorMetric {
+  /**
+   * Weighted RGB distance ("redmean"). Cheap and the historical default.
+   */
+  REDMEAN,
+  /**
+   * Euclidean distance in OKLab. Perceptually uniform, good at keeping hue in dark and saturated colors.
+   */
+  OKLAB,
+  /**
+   * CIE DeltaE 2000 in CIELAB. The most accurate of the three, candidates are preselected by plain CIELAB distance.
+   */
+  CIEDE2000;
+
+  public static @NotNull ColorMetric fromString(final String name) {
+    if (name != null) {
+      for (final ColorMetric metric : values()) {
+        if (metric.name().equalsIgnoreCase(name.trim())) {
+          return metric;
+        }
+      }
+    }
+    return REDMEAN;
+  }
+}
@@ -1,113 +1,236 @@
 package de.erethon.mccinema.dither;
 
 import java.awt.Color;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public final class DitherLookupUtil {
 
+  private static final int TABLE_SIZE = 128 * 128 * 128;
+
+  // Cache file layout: magic, format version, palette and metric hash, table size, then COLOR_MAP
+  private static final int CACHE_MAGIC = 0x4D434C55; // "MCLU"
+  private static final int CACHE_VERSION = 3;
+  private static final int CACHE_HEADER_SIZE = 4 + 4 + 8 + 4;
+  private static final String CACHE_PREFIX = "color-lut-";
+  private static final String CACHE_SUFFIX = ".bin";
+  private static final ValueLayout.OfInt CACHE_INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+  private static final ValueLayout.OfLong CACHE_LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
   public static int[] PALETTE;
+  // Closest palette index for every 7-bit-per-channel color. The matching RGB is PALETTE[COLOR_MAP[i] & 0xFF],
+  // which stays in L1 cache - a separate full RGB table would cost another 8 MiB of heap.
   public static byte[] COLOR_MAP;
-  public static int[] FULL_COLOR_MAP;
-  
+
+  private static Logger logger = Logger.getLogger(DitherLookupUtil.class.getName());
+
   private static volatile boolean initialized = false;
+  private static volatile boolean loadedFromCache = false;
+  private static volatile ColorMetric colorMetric = ColorMetric.REDMEAN;
 
-  public static synchronized void init() {
+  /**
+   * Builds the lookup tables without a cache.
+   */
+  public static void init() {
+    init(null, logger, ColorMetric.REDMEAN);
+  }
+
+  /**
+   * Builds the lookup tables for the given metric, or loads them from a cache file in the given folder if one
+   * matches the current palette and metric. The cache is written after the first computation.
+   */
+  public static synchronized void init(@Nullable final File cacheFolder, @NotNull final Logger log,
+                                       @NotNull final ColorMetric metric) {
     if (initialized) {
       return;
     }
-    
-    COLOR_MAP = new byte[128 * 128 * 128];
-    FULL_COLOR_MAP = new int[128 * 128 * 128];
+    logger = log;
+    colorMetric = metric;
+
     final List<Integer> colors = getPaletteColors();
     PALETTE = new int[colors.size()];
     updateIndices(colors);
-    createLookupTableParallel();
-    
+    COLOR_MAP = new byte[TABLE_SIZE];
+
+    final long paletteHash = hashPalette();
+    final Path cacheFile = cacheFolder != null ? cacheFolder.toPath().resolve(cacheFileName(paletteHash)) : null;
+    if (cacheFile != null && loadCache(cacheFile, paletteHash)) {
+      loadedFromCache = true;
+    } else {
+      final boolean complete = createLookupTableParallel();
+      if (cacheFile != null && complete) {
+        writeCache(cacheFile, paletteHash);
+      }
+    }
+
     initialized = true;
   }
 
+  public static boolean isLoadedFromCache() {
+    return loadedFromCache;
+  }
+
+  public static @NotNull ColorMetric getColorMetric() {
+    return colorMetric;
+  }
+
   // Surprisingly slow on startup, so lets use multiple threads to speed it uo
-  private static void createLookupTableParallel() {
+  // Returns false if the threads did not finish in time and the missing slices were computed here instead. Such a
+  // table is correct, but is not cached since something about this startup is off.
+  private static boolean createLookupTableParallel() {
     int numThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
     ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    PaletteMatcher matcher = new PaletteMatcher(colorMetric, PALETTE);
     
-    byte[][] results = new byte[128][];
-    int[][] fullResults = new int[128][];
+    // Read without the latch if the threads time out, so the slices need a safe hand-over
+    AtomicReferenceArray<byte[]> results = new AtomicReferenceArray<>(128);
     CountDownLatch latch = new CountDownLatch(128);
 
     for (int r = 0; r < 128; r++) {
       final int redIndex = r;
       executor.submit(() -> {
         try {
-          byte[] colorMap = new byte[16384];
-          int[] fullColorMap = new int[16384];
-          int red = redIndex << 1;
-
-          int index = 0;
-          for (int g = 0; g < 256; g += 2) {
-            for (int b = 0; b < 256; b += 2) {
-              byte bestMatch = findClosestColor(red, g, b);
-              colorMap[index] = bestMatch;
-              fullColorMap[index] = PALETTE[Byte.toUnsignedInt(bestMatch)];
-              index++;
-            }
-          }
-          
-          results[redIndex] = colorMap;
-          fullResults[redIndex] = fullColorMap;
+          results.set(redIndex, matcher.fillSlice(redIndex));
         } finally {
           latch.countDown();
         }
       });
     }
 
+    boolean finished;
     try {
-      latch.await(60, TimeUnit.SECONDS);
+      finished = latch.await(60, TimeUnit.SECONDS);
     } catch (InterruptedException e) {
+      executor.shutdownNow();
       Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while building the color lookup table", e);
+    }
+    if (finished) {
+      executor.shutdown();
+    } else {
+      executor.shutdownNow();
     }
-    
-    executor.shutdown();
 
+    boolean complete = finished;
     for (int i = 0; i < 128; i++) {
-      if (results[i] != null) {
-        int ci = i << 14;
-        System.arraycopy(results[i], 0, COLOR_MAP, ci, 16384);
-        System.arraycopy(fullResults[i], 0, FULL_COLOR_MAP, ci, 16384);
+      byte[] slice = results.get(i);
+      if (slice == null) {
+        // A slice that failed or did not finish in time, the table must not have zero holes
+        complete = false;
+        slice = matcher.fillSlice(i);
       }
+      System.arraycopy(slice, 0, COLOR_MAP, i << 14, 16384);
+    }
+    if (!complete) {
+      logger.warning("Color lookup table threads did not finish in time, the table is not cached");
     }
+    return complete;
   }
 
-  private static byte findClosestColor(int r, int g, int b) {
-    int bestDistance = Integer.MAX_VALUE;
-    byte bestIndex = 0;
+  /**
+   * Hash of everything the table depends on, so palette changes in a Minecraft update or a different metric
+   * invalidate the cache.
+   */
+  private static long hashPalette() {
+    final CRC32 crc = new CRC32();
+    // All four ARGB bytes, CRC32.update(int) would only take the lowest one
+    final ByteBuffer argb = ByteBuffer.allocate(MapPalette.NMS_PALETTE.length * 4);
+    for (final Color color : MapPalette.NMS_PALETTE) {
+      argb.putInt(color.getRGB());
+    }
+    crc.update(argb.flip());
+    crc.update(colorMetric.name().getBytes(StandardCharsets.UTF_8));
+    return crc.getValue() << 32 | PALETTE.length;
+  }
 
-    for (int i = 4; i < PALETTE.length; i++) {
-      int color = PALETTE[i];
-      int pr = (color >> 16) & 0xFF;
-      int pg = (color >> 8) & 0xFF;
-      int pb = color & 0xFF;
+  private static @NotNull String cacheFileName(final long paletteHash) {
+    return CACHE_PREFIX + "v" + CACHE_VERSION + "-" + colorMetric.name().toLowerCase() + "-"
+        + Long.toHexString(paletteHash) + CACHE_SUFFIX;
+  }
 
-      int dr = r - pr;
-      int dg = g - pg;
-      int db = b - pb;
+  /**
+   * Maps the cache file read-only and copies the table out of it. The mapping is released right after.
+   */
+  private static boolean loadCache(@NotNull final Path cacheFile, final long paletteHash) {
+    if (!Files.isRegularFile(cacheFile)) {
+      return false;
+    }
+    try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ);
+         Arena arena = Arena.ofConfined()) {
+      if (channel.size() != CACHE_HEADER_SIZE + TABLE_SIZE) {
+        logger.warning("Ignoring color lookup cache with unexpected size: " + cacheFile);
+        return false;
+      }
+      final MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+      if (segment.get(CACHE_INT, 0) != CACHE_MAGIC
+          || segment.get(CACHE_INT, 4) != CACHE_VERSION
+          || segment.get(CACHE_LONG, 8) != paletteHash
+          || segment.get(CACHE_INT, 16) != TABLE_SIZE) {
+        logger.warning("Ignoring outdated color lookup cache: " + cacheFile);
+        return false;
+      }
+      MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, CACHE_HEADER_SIZE, COLOR_MAP, 0, TABLE_SIZE);
+      return true;
+    } catch (IOException | RuntimeException e) {
+      logger.warning("Failed to read color lookup cache " + cacheFile + ": " + e.getMessage());
+      return false;
+    }
+  }
 
-      int rMean = (r + pr) >> 1;
-      int distance = ((512 + rMean) * dr * dr >> 8) + 4 * dg * dg + ((767 - rMean) * db * db >> 8);
+  /**
+   * Writes the table to a temporary file first, so a crash never leaves a truncated cache behind.
+   * Caches for other palettes or format versions are removed.
+   */
+  private static void writeCache(@NotNull final Path cacheFile, final long paletteHash) {
+    final Path folder = cacheFile.getParent();
+    try {
+      Files.createDirectories(folder);
+      final Path tempFile = Files.createTempFile(folder, CACHE_PREFIX, ".tmp");
+      try (OutputStream fileOut = Files.newOutputStream(tempFile);
+           DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+        out.writeInt(CACHE_MAGIC);
+        out.writeInt(CACHE_VERSION);
+        out.writeLong(paletteHash);
+        out.writeInt(TABLE_SIZE);
+        out.write(COLOR_MAP);
+      }
+      Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
 
-      if (distance < bestDistance) {
-        bestDistance = distance;
-        bestIndex = (byte) i;
+      final File[] stale = folder.toFile().listFiles((dir, name) ->
+          name.startsWith(CACHE_PREFIX) && !name.equals(cacheFile.getFileName().toString()));
+      if (stale != null) {
+        for (final File file : stale) {
+          file.delete();
+        }
       }
+    } catch (IOException e) {
+      logger.warning("Failed to write color lookup cache " + cacheFile + ": " + e.getMessage());
     }
-
-    return bestIndex;
   }
 
   private static void updateIndices(@NotNull final List<Integer> colors) {
@@ -131,4 +254,4 @@ public final class DitherLookupUtil {
     return colors;
   }
 
-}
\ No newline at end of file
+}
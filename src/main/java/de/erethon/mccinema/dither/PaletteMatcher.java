@@ -0,0 +1,407 @@
+package de.erethon.mccinema.dither;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Nearest palette color search used to build the lookup tables, based on a precomputed palette partition.
+ * <p>
+ * The 7-bit color cube is split into 8x8x8 cells. For every cell, each palette color gets a lower and upper bound
+ * of its distance to any color in that cell, and only colors whose lower bound can beat the best upper bound are
+ * kept as candidates. A lookup then only scans the few candidates of its cell instead of the whole palette.
+ * <p>
+ * REDMEAN and OKLAB give exactly the same result as a linear scan, including ties going to the lower palette
+ * index. CIEDE2000 is not a distance in any fixed space, so the nearest few colors in CIELAB are reranked by
+ * DeltaE 2000 instead.
+ */
+final class PaletteMatcher {
+
+  // Palette indices below this are transparent
+  private static final int FIRST_COLOR = 4;
+  private static final int CIEDE2000_CANDIDATES = 4;
+
+  private static final int CELL_BITS = 3;
+  private static final int CELLS_PER_AXIS = 128 >> CELL_BITS;
+  // Bounds are computed in float/double, so allow for rounding before excluding a color
+  private static final double BOUND_SLACK = 1e-4;
+
+  private static final float[] SRGB_TO_LINEAR = new float[256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      final double c = i / 255.0;
+      SRGB_TO_LINEAR[i] = (float) (c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4));
+    }
+  }
+
+  private final ColorMetric metric;
+  private final int[] palette;
+  private final int candidates;
+
+  // Search-space coordinates per palette index
+  private final float[][] points;
+
+  // Candidates of cell i are cellCandidates[cellStart[i]..cellStart[i + 1]), sorted by palette index
+  private final int[] cellStart;
+  private final int[] cellCandidates;
+
+  PaletteMatcher(@NotNull final ColorMetric metric, final int[] palette) {
+    this.metric = metric;
+    this.palette = palette;
+    this.candidates = metric == ColorMetric.CIEDE2000 ? CIEDE2000_CANDIDATES : 1;
+
+    this.points = new float[palette.length][];
+    for (int i = FIRST_COLOR; i < palette.length; i++) {
+      final int rgb = palette[i];
+      points[i] = toSearchSpace((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF, new float[3]);
+    }
+
+    final int cellCount = CELLS_PER_AXIS * CELLS_PER_AXIS * CELLS_PER_AXIS;
+    this.cellStart = new int[cellCount + 1];
+    final int[][] perCell = new int[cellCount][];
+    int total = 0;
+    for (int cell = 0; cell < cellCount; cell++) {
+      perCell[cell] = partitionCell(cell);
+      cellStart[cell] = total;
+      total += perCell[cell].length;
+    }
+    cellStart[cellCount] = total;
+    this.cellCandidates = new int[total];
+    for (int cell = 0; cell < cellCount; cell++) {
+      System.arraycopy(perCell[cell], 0, cellCandidates, cellStart[cell], perCell[cell].length);
+    }
+  }
+
+  /**
+   * Collects every palette color that can be among the nearest {@link #candidates} colors for some color in the cell.
+   */
+  private int[] partitionCell(final int cell) {
+    // Queries use even 8-bit values (7-bit index << 1)
+    final int rLo = ((cell / (CELLS_PER_AXIS * CELLS_PER_AXIS)) << CELL_BITS) << 1;
+    final int gLo = (((cell / CELLS_PER_AXIS) % CELLS_PER_AXIS) << CELL_BITS) << 1;
+    final int bLo = ((cell % CELLS_PER_AXIS) << CELL_BITS) << 1;
+    final int span = ((1 << CELL_BITS) - 1) << 1;
+    final double[] min = new double[3];
+    final double[] max = new double[3];
+    searchSpaceBounds(rLo, gLo, bLo, rLo + span, gLo + span, bLo + span, min, max);
+
+    final int count = palette.length - FIRST_COLOR;
+    if (count <= 0) {
+      return new int[0];
+    }
+    final double[] lower = new double[count];
+    final double[] upper = new double[count];
+    for (int i = 0; i < count; i++) {
+      final float[] p = points[i + FIRST_COLOR];
+      double lo = 0;
+      double hi = 0;
+      for (int a = 0; a < 3; a++) {
+        final double near = p[a] < min[a] ? min[a] - p[a] : (p[a] > max[a] ? p[a] - max[a] : 0);
+        final double far = Math.max(Math.abs(p[a] - min[a]), Math.abs(p[a] - max[a]));
+        lo += lowerWeight(a) * near * near;
+        hi += upperWeight(a) * far * far;
+      }
+      lower[i] = lo;
+      upper[i] = hi;
+    }
+
+    // Any color in the cell has at least `candidates` palette colors within the k-th smallest upper bound
+    final double[] sortedUpper = upper.clone();
+    Arrays.sort(sortedUpper);
+    final double threshold = sortedUpper[Math.min(candidates, count) - 1] * (1 + BOUND_SLACK) + BOUND_SLACK;
+
+    int kept = 0;
+    final int[] result = new int[count];
+    for (int i = 0; i < count; i++) {
+      if (lower[i] <= threshold) {
+        result[kept++] = i + FIRST_COLOR;
+      }
+    }
+    return Arrays.copyOf(result, kept);
+  }
+
+  /**
+   * Fills the 128x128 green/blue slice of the lookup table for one 7-bit red value.
+   */
+  byte[] fillSlice(final int redIndex) {
+    final byte[] slice = new byte[128 * 128];
+    final float[] query = new float[3];
+    final int[] bestIndex = new int[candidates];
+    final double[] bestScore = new double[candidates];
+    final int red = redIndex << 1;
+    int index = 0;
+    for (int g = 0; g < 256; g += 2) {
+      for (int b = 0; b < 256; b += 2) {
+        slice[index++] = (byte) findClosest(red, g, b, query, bestIndex, bestScore);
+      }
+    }
+    return slice;
+  }
+
+  private int findClosest(final int r, final int g, final int b,
+                          final float[] query, final int[] bestIndex, final double[] bestScore) {
+    final int cell = ((r >> 4) * CELLS_PER_AXIS + (g >> 4)) * CELLS_PER_AXIS + (b >> 4);
+    final int start = cellStart[cell];
+    final int end = cellStart[cell + 1];
+    if (start == end) {
+      return 0;
+    }
+    if (metric != ColorMetric.REDMEAN) {
+      toSearchSpace(r, g, b, query);
+    }
+
+    int found = 0;
+    for (int i = start; i < end; i++) {
+      final int candidate = cellCandidates[i];
+      final double score = metric == ColorMetric.REDMEAN ? redmean(r, g, b, palette[candidate]) : squaredDistance(query, points[candidate]);
+      // Candidates are in palette order, so a strict comparison keeps the lower index on ties
+      int pos = found;
+      while (pos > 0 && score < bestScore[pos - 1]) {
+        pos--;
+      }
+      if (pos >= bestIndex.length) {
+        continue;
+      }
+      final int last = Math.min(found, bestIndex.length - 1);
+      System.arraycopy(bestIndex, pos, bestIndex, pos + 1, last - pos);
+      System.arraycopy(bestScore, pos, bestScore, pos + 1, last - pos);
+      bestIndex[pos] = candidate;
+      bestScore[pos] = score;
+      if (found < bestIndex.length) {
+        found++;
+      }
+    }
+
+    if (metric != ColorMetric.CIEDE2000) {
+      return bestIndex[0];
+    }
+    int best = bestIndex[0];
+    double bestDistance = Double.MAX_VALUE;
+    for (int i = 0; i < found; i++) {
+      final int candidate = bestIndex[i];
+      final double distance = ciede2000(query, points[candidate]);
+      if (distance < bestDistance || (distance == bestDistance && candidate < best)) {
+        bestDistance = distance;
+        best = candidate;
+      }
+    }
+    return best;
+  }
+
+  private static int redmean(final int r, final int g, final int b, final int color) {
+    final int pr = (color >> 16) & 0xFF;
+    final int pg = (color >> 8) & 0xFF;
+    final int pb = color & 0xFF;
+    final int dr = r - pr;
+    final int dg = g - pg;
+    final int db = b - pb;
+    final int rMean = (r + pr) >> 1;
+    return ((512 + rMean) * dr * dr >> 8) + 4 * dg * dg + ((767 - rMean) * db * db >> 8);
+  }
+
+  private static double squaredDistance(final float[] a, final float[] b) {
+    final float d0 = a[0] - b[0];
+    final float d1 = a[1] - b[1];
+    final float d2 = a[2] - b[2];
+    return d0 * d0 + d1 * d1 + d2 * d2;
+  }
+
+  // Redmean weighs red and blue by (512 + rMean) >> 8 and (767 - rMean) >> 8, which is always in [2, 3)
+  private double lowerWeight(final int axis) {
+    return metric == ColorMetric.REDMEAN ? (axis == 1 ? 4 : 2) : 1;
+  }
+
+  private double upperWeight(final int axis) {
+    return metric == ColorMetric.REDMEAN ? (axis == 1 ? 4 : 3) : 1;
+  }
+
+  private float[] toSearchSpace(final int r, final int g, final int b, final float[] out) {
+    switch (metric) {
+      case REDMEAN -> {
+        out[0] = r;
+        out[1] = g;
+        out[2] = b;
+      }
+      case OKLAB -> {
+        final double[] lab = oklab(SRGB_TO_LINEAR[r], SRGB_TO_LINEAR[g], SRGB_TO_LINEAR[b],
+            SRGB_TO_LINEAR[r], SRGB_TO_LINEAR[g], SRGB_TO_LINEAR[b], true);
+        out[0] = (float) lab[0];
+        out[1] = (float) lab[1];
+        out[2] = (float) lab[2];
+      }
+      case CIEDE2000 -> {
+        final double[] lab = cielab(SRGB_TO_LINEAR[r], SRGB_TO_LINEAR[g], SRGB_TO_LINEAR[b],
+            SRGB_TO_LINEAR[r], SRGB_TO_LINEAR[g], SRGB_TO_LINEAR[b], true);
+        out[0] = (float) lab[0];
+        out[1] = (float) lab[1];
+        out[2] = (float) lab[2];
+      }
+    }
+    return out;
+  }
+
+  /**
+   * Bounding box in search space of all colors in the given RGB box. OKLab and CIELAB are monotonic in every
+   * linear RGB channel up to their final opponent step, so interval arithmetic over the corners is exact enough.
+   */
+  private void searchSpaceBounds(final int rLo, final int gLo, final int bLo, final int rHi, final int gHi, final int bHi,
+                                 final double[] min, final double[] max) {
+    switch (metric) {
+      case REDMEAN -> {
+        min[0] = rLo;
+        min[1] = gLo;
+        min[2] = bLo;
+        max[0] = rHi;
+        max[1] = gHi;
+        max[2] = bHi;
+      }
+      case OKLAB -> {
+        final double[] lo = oklab(SRGB_TO_LINEAR[rLo], SRGB_TO_LINEAR[gLo], SRGB_TO_LINEAR[bLo],
+            SRGB_TO_LINEAR[rHi], SRGB_TO_LINEAR[gHi], SRGB_TO_LINEAR[bHi], true);
+        final double[] hi = oklab(SRGB_TO_LINEAR[rLo], SRGB_TO_LINEAR[gLo], SRGB_TO_LINEAR[bLo],
+            SRGB_TO_LINEAR[rHi], SRGB_TO_LINEAR[gHi], SRGB_TO_LINEAR[bHi], false);
+        System.arraycopy(lo, 0, min, 0, 3);
+        System.arraycopy(hi, 0, max, 0, 3);
+      }
+      case CIEDE2000 -> {
+        final double[] lo = cielab(SRGB_TO_LINEAR[rLo], SRGB_TO_LINEAR[gLo], SRGB_TO_LINEAR[bLo],
+            SRGB_TO_LINEAR[rHi], SRGB_TO_LINEAR[gHi], SRGB_TO_LINEAR[bHi], true);
+        final double[] hi = cielab(SRGB_TO_LINEAR[rLo], SRGB_TO_LINEAR[gLo], SRGB_TO_LINEAR[bLo],
+            SRGB_TO_LINEAR[rHi], SRGB_TO_LINEAR[gHi], SRGB_TO_LINEAR[bHi], false);
+        System.arraycopy(lo, 0, min, 0, 3);
+        System.arraycopy(hi, 0, max, 0, 3);
+      }
+    }
+  }
+
+  /**
+   * OKLab (scaled by 100 to match CIELAB magnitudes) of a linear RGB box. Returns the lower corner of the result
+   * box if {@code lower} is set, the upper corner otherwise. A single color is a box with equal corners.
+   */
+  private static double[] oklab(final double rLo, final double gLo, final double bLo,
+                                          final double rHi, final double gHi, final double bHi, final boolean lower) {
+    // All LMS coefficients are positive, so the cube roots are lowest at the lower corner
+    final double lMin = Math.cbrt(0.4122214708 * rLo + 0.5363325363 * gLo + 0.0514459929 * bLo);
+    final double mMin = Math.cbrt(0.2119034982 * rLo + 0.6806995451 * gLo + 0.1073969566 * bLo);
+    final double sMin = Math.cbrt(0.0883024619 * rLo + 0.2817188376 * gLo + 0.6299787005 * bLo);
+    final double lMax = Math.cbrt(0.4122214708 * rHi + 0.5363325363 * gHi + 0.0514459929 * bHi);
+    final double mMax = Math.cbrt(0.2119034982 * rHi + 0.6806995451 * gHi + 0.1073969566 * bHi);
+    final double sMax = Math.cbrt(0.0883024619 * rHi + 0.2817188376 * gHi + 0.6299787005 * bHi);
+    return new double[]{
+        100 * combine(0.2104542553, 0.7936177850, -0.0040720468, lMin, mMin, sMin, lMax, mMax, sMax, lower),
+        100 * combine(1.9779984951, -2.4285922050, 0.4505937099, lMin, mMin, sMin, lMax, mMax, sMax, lower),
+        100 * combine(0.0259040371, 0.7827717662, -0.8086757660, lMin, mMin, sMin, lMax, mMax, sMax, lower)
+    };
+  }
+
+  /**
+   * CIELAB (D65) of a linear RGB box, see {@link #oklab}.
+   */
+  private static double[] cielab(final double rLo, final double gLo, final double bLo,
+                                           final double rHi, final double gHi, final double bHi, final boolean lower) {
+    final double fxMin = labF((0.4124564 * rLo + 0.3575761 * gLo + 0.1804375 * bLo) / 0.95047);
+    final double fyMin = labF(0.2126729 * rLo + 0.7151522 * gLo + 0.0721750 * bLo);
+    final double fzMin = labF((0.0193339 * rLo + 0.1191920 * gLo + 0.9503041 * bLo) / 1.08883);
+    final double fxMax = labF((0.4124564 * rHi + 0.3575761 * gHi + 0.1804375 * bHi) / 0.95047);
+    final double fyMax = labF(0.2126729 * rHi + 0.7151522 * gHi + 0.0721750 * bHi);
+    final double fzMax = labF((0.0193339 * rHi + 0.1191920 * gHi + 0.9503041 * bHi) / 1.08883);
+    return new double[]{
+        lower ? 116 * fyMin - 16 : 116 * fyMax - 16,
+        500 * (lower ? fxMin - fyMax : fxMax - fyMin),
+        200 * (lower ? fyMin - fzMax : fyMax - fzMin)
+    };
+  }
+
+  private static double combine(final double c0, final double c1, final double c2,
+                                final double min0, final double min1, final double min2,
+                                final double max0, final double max1, final double max2, final boolean lower) {
+    return term(c0, min0, max0, lower) + term(c1, min1, max1, lower) + term(c2, min2, max2, lower);
+  }
+
+  private static double term(final double coefficient, final double min, final double max, final boolean lower) {
+    return (coefficient >= 0) == lower ? coefficient * min : coefficient * max;
+  }
+
+  private static double labF(final double t) {
+    return t > 216.0 / 24389.0 ? Math.cbrt(t) : (24389.0 / 27.0 * t + 16) / 116;
+  }
+
+  /**
+   * CIEDE2000 color difference (Sharma, Wu, Dalal 2005) with kL = kC = kH = 1.
+   */
+  static double ciede2000(final float[] lab1, final float[] lab2) {
+    final double l1 = lab1[0], a1 = lab1[1], b1 = lab1[2];
+    final double l2 = lab2[0], a2 = lab2[1], b2 = lab2[2];
+
+    final double c1 = Math.sqrt(a1 * a1 + b1 * b1);
+    final double c2 = Math.sqrt(a2 * a2 + b2 * b2);
+    final double cMean7 = pow7((c1 + c2) / 2);
+    final double g = 0.5 * (1 - Math.sqrt(cMean7 / (cMean7 + 6103515625.0))); // 25^7
+    final double a1p = (1 + g) * a1;
+    final double a2p = (1 + g) * a2;
+    final double c1p = Math.sqrt(a1p * a1p + b1 * b1);
+    final double c2p = Math.sqrt(a2p * a2p + b2 * b2);
+    final double h1p = hueAngle(b1, a1p);
+    final double h2p = hueAngle(b2, a2p);
+
+    final double dLp = l2 - l1;
+    final double dCp = c2p - c1p;
+    double dhp = 0;
+    if (c1p * c2p != 0) {
+      dhp = h2p - h1p;
+      if (dhp > 180) {
+        dhp -= 360;
+      } else if (dhp < -180) {
+        dhp += 360;
+      }
+    }
+    final double dHp = 2 * Math.sqrt(c1p * c2p) * Math.sin(Math.toRadians(dhp / 2));
+
+    final double lpMean = (l1 + l2) / 2;
+    final double cpMean = (c1p + c2p) / 2;
+    double hpMean = h1p + h2p;
+    if (c1p * c2p != 0) {
+      if (Math.abs(h1p - h2p) <= 180) {
+        hpMean /= 2;
+      } else if (h1p + h2p < 360) {
+        hpMean = (hpMean + 360) / 2;
+      } else {
+        hpMean = (hpMean - 360) / 2;
+      }
+    }
+
+    final double t = 1
+        - 0.17 * Math.cos(Math.toRadians(hpMean - 30))
+        + 0.24 * Math.cos(Math.toRadians(2 * hpMean))
+        + 0.32 * Math.cos(Math.toRadians(3 * hpMean + 6))
+        - 0.20 * Math.cos(Math.toRadians(4 * hpMean - 63));
+    final double hueOffset = (hpMean - 275) / 25;
+    final double dTheta = 30 * Math.exp(-hueOffset * hueOffset);
+    final double cpMean7 = pow7(cpMean);
+    final double rc = 2 * Math.sqrt(cpMean7 / (cpMean7 + 6103515625.0));
+    final double lpMeanOffset = (lpMean - 50) * (lpMean - 50);
+    final double sl = 1 + 0.015 * lpMeanOffset / Math.sqrt(20 + lpMeanOffset);
+    final double sc = 1 + 0.045 * cpMean;
+    final double sh = 1 + 0.015 * cpMean * t;
+    final double rt = -Math.sin(Math.toRadians(2 * dTheta)) * rc;
+
+    final double dl = dLp / sl;
+    final double dc = dCp / sc;
+    final double dh = dHp / sh;
+    return Math.sqrt(dl * dl + dc * dc + dh * dh + rt * dc * dh);
+  }
+
+  private static double pow7(final double x) {
+    final double x2 = x * x;
+    return x2 * x2 * x2 * x;
+  }
+
+  private static double hueAngle(final double b, final double a) {
+    if (a == 0 && b == 0) {
+      return 0;
+    }
+    final double h = Math.toDegrees(Math.atan2(b, a));
+    return h < 0 ? h + 360 : h;
+  }
+}
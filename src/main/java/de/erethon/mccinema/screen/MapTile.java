@@ -1,6 +1,5 @@
 package de.erethon.mccinema.screen;
 
-import de.erethon.mccinema.util.ByteArrayPool;
 import org.bukkit.configuration.serialization.ConfigurationSerializable;
 import org.jetbrains.annotations.NotNull;
 
@@ -20,6 +19,10 @@ public class MapTile implements ConfigurationSerializable {
     // minimum change density (changed pixels / total pixels)
     private static final float MIN_CHANGE_DENSITY = 0.002f;
 
+    // A tile is diffed once per frame and a patch may wait as long as the frame processor's tile buffers before it
+    // is sent, so it is written again as late as they are
+    private static final int PATCH_BUFFER_GENERATIONS = 4;
+
     private final int mapId;
     private final int tileX;
     private final int tileY;
@@ -28,6 +31,8 @@ public class MapTile implements ConfigurationSerializable {
     private byte[] lastFrameData;
     private byte[] lastSentData; // Data that was actually sent to clients
     private DirtyRegion dirtyRegion;
+    private final byte[][] patchBuffers = new byte[PATCH_BUFFER_GENERATIONS][];
+    private int patchBufferGeneration;
     private boolean needsFullUpdate = true;
     private int unchangedFrameCount = 0;
     private int framesSinceLastSend = 0; // Tracks how many frames since this tile was sent
@@ -107,7 +112,19 @@ public class MapTile implements ConfigurationSerializable {
     }
 
     /**
-     * Calculate dirty region compared to what was sent
+     * Copies the data into the last sent buffer instead of keeping a new array per frame.
+     */
+    public void copyToLastSentData(byte[] data) {
+        if (lastSentData == null || lastSentData.length != data.length) {
+            lastSentData = data.clone();
+        } else {
+            System.arraycopy(data, 0, lastSentData, 0, data.length);
+        }
+    }
+
+    /**
+     * Calculate dirty region compared to what was sent. A region smaller than the tile is packed at the start of a
+     * buffer the tile reuses a few diffs later, which may be longer than the region.
      */
     public DirtyRegion calculateDirtyRegionFromSent(byte[] newData) {
         if (needsFullUpdate || lastSentData == null) {
@@ -123,16 +140,12 @@ public class MapTile implements ConfigurationSerializable {
         int minX = SIZE, minY = SIZE, maxX = -1, maxY = -1;
         int changedPixelCount = 0;
 
-        // Pre-allocate arrays for row min/max X to avoid repeated conditionals
-        int[] rowMinX = new int[SIZE];
-        int[] rowMaxX = new int[SIZE];
-        Arrays.fill(rowMinX, SIZE);
-        Arrays.fill(rowMaxX, -1);
-
         // Row-based scanning with 8-byte word-aligned comparisons
         for (int y = 0; y < SIZE; y++) {
             int rowOffset = y * SIZE;
             boolean rowHasChanges = false;
+            int rowMinX = SIZE;
+            int rowMaxX = -1;
 
             // Compare in 8-byte chunks
             int x = 0;
@@ -169,8 +182,8 @@ public class MapTile implements ConfigurationSerializable {
                             changedPixelCount++;
                             rowHasChanges = true;
                             int pixelX = x + i;
-                            if (pixelX < rowMinX[y]) rowMinX[y] = pixelX;
-                            if (pixelX > rowMaxX[y]) rowMaxX[y] = pixelX;
+                            if (pixelX < rowMinX) rowMinX = pixelX;
+                            if (pixelX > rowMaxX) rowMaxX = pixelX;
                         }
                     }
                 }
@@ -182,15 +195,15 @@ public class MapTile implements ConfigurationSerializable {
                 if (lastSentData[index] != newData[index]) {
                     changedPixelCount++;
                     rowHasChanges = true;
-                    if (x < rowMinX[y]) rowMinX[y] = x;
-                    if (x > rowMaxX[y]) rowMaxX[y] = x;
+                    if (x < rowMinX) rowMinX = x;
+                    if (x > rowMaxX) rowMaxX = x;
                 }
             }
 
             // Update global min/max based on row results
             if (rowHasChanges) {
-                if (rowMinX[y] < minX) minX = rowMinX[y];
-                if (rowMaxX[y] > maxX) maxX = rowMaxX[y];
+                if (rowMinX < minX) minX = rowMinX;
+                if (rowMaxX > maxX) maxX = rowMaxX;
                 if (y < minY) minY = y;
                 if (y > maxY) maxY = y;
             }
@@ -216,20 +229,25 @@ public class MapTile implements ConfigurationSerializable {
             return new DirtyRegion(0, 0, SIZE, SIZE, newData, changedPixelCount);
         }
 
-        byte[] patchData = ByteArrayPool.getTileBuffer(boundingBoxSize);
-        try {
-            for (int y = 0; y < height; y++) {
-                int srcOffset = (minY + y) * SIZE + minX;
-                int dstOffset = y * width;
-                System.arraycopy(newData, srcOffset, patchData, dstOffset, width);
-            }
+        // Whoever sends the patch copies it into its packet
+        byte[] patchData = nextPatchBuffer(boundingBoxSize);
+        for (int y = 0; y < height; y++) {
+            int srcOffset = (minY + y) * SIZE + minX;
+            int dstOffset = y * width;
+            System.arraycopy(newData, srcOffset, patchData, dstOffset, width);
+        }
+        return new DirtyRegion(minX, minY, width, height, patchData, changedPixelCount);
+    }
 
-            // Clone the data since we're returning it
-            byte[] result = patchData.clone();
-            return new DirtyRegion(minX, minY, width, height, result, changedPixelCount);
-        } finally {
-            ByteArrayPool.releaseTileBuffer();
+    private byte[] nextPatchBuffer(int size) {
+        patchBufferGeneration = (patchBufferGeneration + 1) % PATCH_BUFFER_GENERATIONS;
+        byte[] buffer = patchBuffers[patchBufferGeneration];
+        if (buffer == null || buffer.length < size) {
+            // Grown in steps so a patch that is slowly getting bigger does not grow it every frame
+            buffer = new byte[Math.min(TOTAL_PIXELS, Math.max(size, buffer == null ? 0 : buffer.length * 2))];
+            patchBuffers[patchBufferGeneration] = buffer;
         }
+        return buffer;
     }
 
     @Override
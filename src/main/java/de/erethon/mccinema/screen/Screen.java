@@ -11,11 +11,11 @@ import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Screen implements ConfigurationSerializable {
@@ -34,9 +34,12 @@ public class Screen implements ConfigurationSerializable {
     private String worldName;
     private String qualityPreset = "BALANCED";
 
-    // Cached viewers list
-    private volatile List<Player> cachedViewers = Collections.emptyList();
+    // Cached viewers list, updated in place. Only copied when a viewer comes or goes
+    private final CopyOnWriteArrayList<Player> cachedViewers = new CopyOnWriteArrayList<>();
+    // Where each cached viewer was relative to the screen at the last update
+    private final Map<UUID, ViewPosition> viewPositions = new ConcurrentHashMap<>();
     private volatile int viewerUpdateTaskId = -1;
+    private final ViewerSync viewerSync;
 
     public Screen(String name, int mapWidth, int mapHeight, AspectRatio aspectRatio) {
         this.id = UUID.randomUUID();
@@ -45,6 +48,7 @@ public class Screen implements ConfigurationSerializable {
         this.mapHeight = mapHeight;
         this.aspectRatio = aspectRatio;
         this.tiles = new ArrayList<>(mapWidth * mapHeight);
+        this.viewerSync = new ViewerSync(mapWidth * mapHeight);
     }
 
     private Screen(UUID id, String name, int mapWidth, int mapHeight, AspectRatio aspectRatio,
@@ -55,6 +59,7 @@ public class Screen implements ConfigurationSerializable {
         this.mapHeight = mapHeight;
         this.aspectRatio = aspectRatio;
         this.tiles = tiles;
+        this.viewerSync = new ViewerSync(mapWidth * mapHeight);
         this.origin = origin;
         this.facing = facing;
         this.worldName = worldName;
@@ -107,6 +112,15 @@ public class Screen implements ConfigurationSerializable {
         return tiles.get(index);
     }
 
+    public MapTile getTileByMapId(int mapId) {
+        for (MapTile tile : tiles) {
+            if (tile.getMapId() == mapId) {
+                return tile;
+            }
+        }
+        return null;
+    }
+
     public void addTile(MapTile tile) {
         tiles.add(tile);
     }
@@ -164,6 +178,20 @@ public class Screen implements ConfigurationSerializable {
         return cachedViewers;
     }
 
+    /**
+     * Where the viewer was relative to the screen at the last viewer update, null if unknown.
+     */
+    public ViewPosition getViewPosition(Player player) {
+        return viewPositions.get(player.getUniqueId());
+    }
+
+    /**
+     * What each viewer was sent of this screen.
+     */
+    public ViewerSync getViewerSync() {
+        return viewerSync;
+    }
+
     public void updateViewerCache() {
         if (!Bukkit.isPrimaryThread()) {
             throw new IllegalStateException("updateViewerCache must be called from the main thread!");
@@ -171,11 +199,33 @@ public class Screen implements ConfigurationSerializable {
 
         Location loc = getOrigin();
         if (loc == null || loc.getWorld() == null) {
-            cachedViewers = Collections.emptyList();
+            cachedViewers.clear();
+            viewPositions.clear();
             return;
         }
         Collection<Player> nearby = loc.getNearbyPlayers(VIEWER_DISTANCE);
-        cachedViewers = new CopyOnWriteArrayList<>(nearby);
+        // Dispatch threads may see a viewer's position from this update and another's from the last one
+        cachedViewers.retainAll(nearby);
+        for (Player player : nearby) {
+            cachedViewers.addIfAbsent(player);
+            if (facing != null) {
+                viewPositions.put(player.getUniqueId(), ViewPosition.of(loc, facing, mapWidth, mapHeight, player.getEyeLocation()));
+            }
+        }
+        if (facing == null) {
+            viewPositions.clear();
+        } else if (viewPositions.size() > cachedViewers.size()) {
+            viewPositions.keySet().removeIf(this::isNotCachedViewer);
+        }
+    }
+
+    private boolean isNotCachedViewer(UUID playerId) {
+        for (Player player : cachedViewers) {
+            if (player.getUniqueId().equals(playerId)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public void startViewerCacheUpdater(Plugin plugin, long updateIntervalTicks) {
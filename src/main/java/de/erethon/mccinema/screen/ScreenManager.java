@@ -108,6 +108,18 @@ public class ScreenManager {
         return screens.values();
     }
 
+    /**
+     * The screen one of whose tiles shows the map, null if none.
+     */
+    public Screen getScreenByMapId(int mapId) {
+        for (Screen screen : screens.values()) {
+            if (screen.getTileByMapId(mapId) != null) {
+                return screen;
+            }
+        }
+        return null;
+    }
+
     public boolean screenExists(String name) {
         return screensByName.containsKey(name.toLowerCase());
     }
@@ -143,7 +155,7 @@ public class ScreenManager {
     }
 
     public void fillScreenWithPlaybackBackground(Screen screen, Collection<? extends Player> recipients) {
-        fillScreenWithColor(screen, MapColorUtil.visibleBlack(), recipients, false);
+        fillScreenWithColor(screen, MapColorUtil.visibleBlack(), recipients);
     }
 
     /**
@@ -152,13 +164,13 @@ public class ScreenManager {
      * @param colorByte The Minecraft map color byte (e.g., (byte) 34 for white)
      */
     public void fillScreenWithColor(Screen screen, byte colorByte) {
-        fillScreenWithColor(screen, colorByte, null, true);
+        fillScreenWithColor(screen, colorByte, null);
     }
 
-    private void fillScreenWithColor(Screen screen, byte colorByte, Collection<? extends Player> recipients, boolean scheduleResends) {
+    private void fillScreenWithColor(Screen screen, byte colorByte, Collection<? extends Player> recipients) {
         if (!Bukkit.isPrimaryThread()) {
             Collection<? extends Player> recipientSnapshot = recipients == null ? null : List.copyOf(recipients);
-            Bukkit.getScheduler().runTask(plugin, () -> fillScreenWithColor(screen, colorByte, recipientSnapshot, scheduleResends));
+            Bukkit.getScheduler().runTask(plugin, () -> fillScreenWithColor(screen, colorByte, recipientSnapshot));
             return;
         }
 
@@ -168,18 +180,16 @@ public class ScreenManager {
         if (screen.hasValidOrigin()) {
             screen.updateViewerCache();
         }
-        PacketDispatcher dispatcher =
-            new PacketDispatcher(plugin);
+        PacketDispatcher dispatcher = plugin.getMainThreadDispatcher();
         if (recipients == null) {
             dispatcher.dispatchFullFrame(screen, mapData);
         } else {
             dispatcher.dispatchFullFrame(screen, mapData, recipients);
         }
-        if (scheduleResends) {
-            scheduleFullFrameDispatch(screen, 5L);
-            scheduleFullFrameDispatch(screen, 20L);
-            scheduleFullFrameDispatch(screen, 60L);
-        }
+        // The fill also ends up on the clients through the server's map data, over whatever was sent by then
+        ViewerSync viewerSync = screen.getViewerSync();
+        int[] fillVersions = viewerSync.snapshot();
+        Bukkit.getScheduler().runTaskLater(plugin, () -> viewerSync.invalidateChangedSince(fillVersions), ViewerSync.SERVER_MAP_SEND_TICKS);
     }
 
     private byte[][] createFillFrame(Screen screen, byte colorByte) {
@@ -193,18 +203,6 @@ public class ScreenManager {
         return mapData;
     }
 
-    private void scheduleFullFrameDispatch(Screen screen, long delayTicks) {
-        Bukkit.getScheduler().runTaskLater(plugin, () -> {
-            if (screen.hasValidOrigin()) {
-                screen.updateViewerCache();
-            }
-            PacketDispatcher dispatcher = new PacketDispatcher(plugin);
-            for (org.bukkit.entity.Player player : screen.getViewers()) {
-                dispatcher.sendLastFrameToPlayer(player, screen);
-            }
-        }, delayTicks);
-    }
-
     private void writeColorToServerMapData(Screen screen, byte colorByte) {
         World world = screen.getOrigin() != null ? screen.getOrigin().getWorld() : null;
         if (!(world instanceof CraftWorld craftWorld)) {
@@ -0,0 +1,58 @@
+package de.erethon.mccinema.screen;
+
+import org.bukkit.Location;
+import org.bukkit.block.BlockFace;
+import org.bukkit.util.Vector;
+
+/**
+ * Where a viewer is relative to a screen, taken on the main thread so frame dispatch can pick the viewer's update rate
+ * without touching the world.
+ *
+ * @param inFront   whether the viewer is on the side of the screen the maps are shown on
+ * @param distance  blocks from the viewer's eyes to the nearest point of the screen
+ * @param angleCos  cosine of the angle between the screen's normal and the direction to the viewer, 1 straight ahead
+ * @param lookingAt whether any part of the screen is roughly in the viewer's field of view
+ */
+public record ViewPosition(boolean inFront, double distance, double angleCos, boolean lookingAt) {
+
+    // Half of what a player sees, wider than the default field of view so turning the head a bit does not count
+    private static final double VIEW_HALF_ANGLE = Math.toRadians(60);
+
+    /**
+     * @param facing the screen's facing, the direction the player creating it looked in
+     */
+    static ViewPosition of(Location origin, BlockFace facing, int mapWidth, int mapHeight, Location eye) {
+        // Viewers stand on the side the screen was placed from, its maps extend to the right of them and up
+        double normalX = -facing.getModX();
+        double normalZ = -facing.getModZ();
+        double rightX = -facing.getModZ();
+        double rightZ = facing.getModX();
+        double halfWidth = mapWidth / 2.0;
+        double halfHeight = mapHeight / 2.0;
+
+        // Center of the screen's surface, on the viewers' side of the wall
+        double centerX = origin.getBlockX() + 0.5 + normalX * 0.5 + rightX * (halfWidth - 0.5);
+        double centerY = origin.getBlockY() + halfHeight;
+        double centerZ = origin.getBlockZ() + 0.5 + normalZ * 0.5 + rightZ * (halfWidth - 0.5);
+
+        double x = eye.getX() - centerX;
+        double y = eye.getY() - centerY;
+        double z = eye.getZ() - centerZ;
+        double front = x * normalX + z * normalZ;
+        double across = x * rightX + z * rightZ;
+        double outsideAcross = across - Math.max(-halfWidth, Math.min(halfWidth, across));
+        double outsideUp = y - Math.max(-halfHeight, Math.min(halfHeight, y));
+        double distance = Math.sqrt(front * front + outsideAcross * outsideAcross + outsideUp * outsideUp);
+
+        double centerDistance = Math.sqrt(x * x + y * y + z * z);
+        if (centerDistance < 1e-6) {
+            return new ViewPosition(true, 0, 1, true);
+        }
+        Vector look = eye.getDirection();
+        double lookCos = -(look.getX() * x + look.getY() * y + look.getZ() * z) / centerDistance;
+        // The closer the screen, the more of the view it takes up
+        double limit = VIEW_HALF_ANGLE + Math.atan(Math.hypot(halfWidth, halfHeight) / centerDistance);
+        boolean lookingAt = limit >= Math.PI || lookCos >= Math.cos(limit);
+        return new ViewPosition(front > 0, distance, front / centerDistance, lookingAt);
+    }
+}
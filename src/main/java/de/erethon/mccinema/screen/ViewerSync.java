@@ -0,0 +1,142 @@
+package de.erethon.mccinema.screen;
+
+import org.bukkit.entity.Player;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Which state of a screen's tiles each viewer has, so patches only go to players that have what they are based on.
+ * <p>
+ * Every tile has a version that goes up whenever its last sent data changes. A viewer holds the version of each tile
+ * it was sent last. Patches are diffs against the last sent data, so only viewers that are current on every tile get
+ * them. A viewer that is behind, because it just came into range, joined, or the server sent its own copy of the
+ * map, gets the tiles it is missing in full once instead, and patches from then on.
+ * <p>
+ * Thread safe, frames are dispatched off the main thread.
+ */
+public final class ViewerSync {
+
+    /**
+     * Ticks until the server has sent its own copy of a map, both to a player that started tracking its item frame
+     * and after the map's data changed. Item frames send it every 10 ticks, this leaves room for a late one.
+     */
+    public static final long SERVER_MAP_SEND_TICKS = 20L;
+
+    private final int[] versions;
+    // Tile versions each viewer has, 0 = unknown
+    private final Map<UUID, int[]> viewers = new HashMap<>();
+
+    public ViewerSync(int tiles) {
+        this.versions = new int[tiles];
+        Arrays.fill(versions, 1);
+    }
+
+    /**
+     * Sorts the recipients into those that have every tile as last sent, and those that need a catch-up first.
+     */
+    public synchronized void partition(Collection<? extends Player> recipients, List<Player> current, List<Player> behind) {
+        for (Player player : recipients) {
+            int[] known = viewers.get(player.getUniqueId());
+            if (known != null && Arrays.equals(known, versions)) {
+                current.add(player);
+            } else {
+                behind.add(player);
+            }
+        }
+    }
+
+    /**
+     * A tile's last sent data changed and the receivers got the change, as a patch or in full. Patches may only go
+     * to viewers {@link #partition} found current.
+     */
+    public synchronized void sent(MapTile tile, Collection<? extends Player> receivers) {
+        int index = tile.getTileIndex();
+        int version = ++versions[index];
+        for (Player player : receivers) {
+            viewer(player.getUniqueId())[index] = version;
+        }
+    }
+
+    /**
+     * Marks the tiles the viewer does not have in their last sent version, and counts the viewer as having them from
+     * now on. The caller has to send them.
+     *
+     * @return false if the viewer is current on every tile
+     */
+    public synchronized boolean takeMissing(Player player, boolean[] missing) {
+        int[] known = viewer(player.getUniqueId());
+        boolean any = false;
+        for (int i = 0; i < versions.length; i++) {
+            missing[i] = known[i] != versions[i];
+            if (missing[i]) {
+                known[i] = versions[i];
+                any = true;
+            }
+        }
+        return any;
+    }
+
+    /**
+     * The viewer may no longer have the tile, e.g. because the server sent it the map's own data.
+     */
+    public synchronized void invalidate(UUID viewer, int tileIndex) {
+        int[] known = viewers.get(viewer);
+        if (known != null && tileIndex >= 0 && tileIndex < known.length) {
+            known[tileIndex] = 0;
+        }
+    }
+
+    /**
+     * Current tile versions, for {@link #invalidateChangedSince}.
+     */
+    public synchronized int[] snapshot() {
+        return versions.clone();
+    }
+
+    /**
+     * Nobody is sure to have the tiles that changed since the snapshot, e.g. because the server sent the map's own
+     * data to every client in between.
+     */
+    public synchronized void invalidateChangedSince(int[] snapshot) {
+        for (int i = 0; i < versions.length; i++) {
+            if (versions[i] == snapshot[i]) {
+                continue;
+            }
+            for (int[] known : viewers.values()) {
+                known[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * For viewers sent their frames some other way than the patches, e.g. at a lower frame rate: whether the viewer
+     * lost any tile since the last call, because it is new or a tile was invalidated. Counts it as having every tile
+     * from now on.
+     */
+    public synchronized boolean checkLost(Player player) {
+        int[] known = viewers.get(player.getUniqueId());
+        if (known == null) {
+            viewers.put(player.getUniqueId(), versions.clone());
+            return true;
+        }
+        boolean lost = false;
+        for (int i = 0; i < versions.length; i++) {
+            lost |= known[i] == 0;
+            known[i] = versions[i];
+        }
+        return lost;
+    }
+
+    public synchronized void forget(UUID viewer) {
+        viewers.remove(viewer);
+    }
+
+    private int[] viewer(UUID viewer) {
+        return viewers.computeIfAbsent(viewer, id -> new int[versions.length]);
+    }
+}
@@ -0,0 +1,138 @@
+package de.erethon.mccinema.video;
+
+import de.erethon.mccinema.screen.MapTile;
+import de.erethon.mccinema.screen.Screen;
+import org.bukkit.entity.Player;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * A screen that shows what another screen's player plays, see {@link VideoPlayer#attachScreen}.
+ * <p>
+ * The player decodes each frame once for all of its screens. A screen with the same size, quality preset and
+ * dithering mode as the player's own screen takes the dithered frame as it is, only the diff against its tiles and
+ * the packets are done per screen. Other screens dither the decoded image with their own processor. Either way the
+ * screen keeps its own tiles and dispatcher, its viewers have not necessarily seen what the other screens sent.
+ * <p>
+ * Only used by the player thread, apart from starting the dispatch stage and {@link #detach()}.
+ */
+final class AttachedScreen {
+
+    private final Screen screen;
+    // Null while the frames of the player's own processor are used
+    private final FrameProcessor frameProcessor;
+    private final PacketDispatcher packetDispatcher;
+    private final PerformanceMetrics metrics = new PerformanceMetrics();
+    private final Logger logger;
+    private volatile FrameDispatchStage dispatchStage;
+    private volatile boolean detached;
+
+    private final List<PacketDispatcher.TileUpdate> updates = new ArrayList<>();
+    // Processed but not dispatched yet
+    private FrameProcessor.ProcessedFrame frame;
+
+    AttachedScreen(Screen screen, FrameProcessor frameProcessor, PacketDispatcher packetDispatcher, Logger logger) {
+        this.screen = screen;
+        this.frameProcessor = frameProcessor;
+        this.packetDispatcher = packetDispatcher;
+        this.logger = logger;
+    }
+
+    Screen getScreen() {
+        return screen;
+    }
+
+    boolean isSharingFrames() {
+        return frameProcessor == null;
+    }
+
+    /**
+     * The screen's own processor, null if it shares the frames of the player's processor.
+     */
+    FrameProcessor getFrameProcessor() {
+        return frameProcessor;
+    }
+
+    PacketDispatcher getPacketDispatcher() {
+        return packetDispatcher;
+    }
+
+    /**
+     * Takes the player's frame, or dithers the source image for this screen. Called while the image is valid.
+     */
+    void process(BufferedImage image, FrameProcessor.ProcessedFrame shared, long deadline) {
+        if (frameProcessor != null) {
+            frameProcessor.setFrameDeadline(deadline);
+            frame = frameProcessor.processFrame(image, screen.getPixelWidth(), screen.getPixelHeight(), metrics);
+            return;
+        }
+        // The tile buffers of the player's processor, nothing writes to them until its ring comes back around
+        byte[][] mapData = shared.fullMapData();
+        for (MapTile tile : screen.getTiles()) {
+            tile.setLastFrameData(mapData[tile.getTileIndex()]);
+        }
+        frame = shared;
+    }
+
+    /**
+     * Sends the frame from {@link #process}, diffed against this screen's tiles.
+     */
+    void dispatch(Collection<? extends Player> recipients) throws InterruptedException {
+        FrameProcessor.ProcessedFrame current = frame;
+        frame = null;
+        if (current == null || detached) {
+            return;
+        }
+        FrameDispatchStage stage = dispatchStage;
+        if (stage != null) {
+            stage.submit(screen, current, recipients);
+            return;
+        }
+        long dispatchStart = System.nanoTime();
+        // The updates of a shared frame are those of the player's screen
+        List<PacketDispatcher.TileUpdate> frameUpdates = frameProcessor != null && !current.dirtyRegionsDeferred()
+            ? current.updates()
+            : FrameDispatchStage.diffTiles(screen, current.fullMapData(), updates);
+        packetDispatcher.dispatchFrame(screen, frameUpdates, current.contentStats(), metrics, recipients);
+        metrics.recordPacketDispatch(System.nanoTime() - dispatchStart);
+    }
+
+    void startDispatchStage() {
+        if (dispatchStage != null) {
+            return;
+        }
+        FrameDispatchStage stage = new FrameDispatchStage(packetDispatcher, metrics, logger);
+        stage.start();
+        dispatchStage = stage;
+    }
+
+    void stopDispatchStage() {
+        FrameDispatchStage current = dispatchStage;
+        dispatchStage = null;
+        if (current != null) {
+            current.stop();
+        }
+    }
+
+    /**
+     * Stops sending to the screen right away, e.g. before it is cleared. The processor is left to {@link #shutdown},
+     * the player thread may still be using it for the current frame.
+     */
+    void detach() {
+        detached = true;
+        stopDispatchStage();
+    }
+
+    void shutdown() {
+        detach();
+        frame = null;
+        if (frameProcessor != null) {
+            frameProcessor.shutdown();
+        }
+        packetDispatcher.close();
+    }
+}
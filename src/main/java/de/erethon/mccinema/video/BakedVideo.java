@@ -0,0 +1,405 @@
+package de.erethon.mccinema.video;
+
+import de.erethon.mccinema.dither.ColorMetric;
+import de.erethon.mccinema.dither.DitherLookupUtil;
+import de.erethon.mccinema.screen.AspectRatio;
+import de.erethon.mccinema.screen.MapTile;
+import de.erethon.mccinema.screen.Screen;
+import org.bukkit.entity.Player;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+/**
+ * A video that was dithered and split into map patches ahead of time, for one screen size and set of dithering
+ * {@link Settings}, at the video's frame rate. Playing it only copies the stored patches into packets.
+ * <p>
+ * The file is written by {@link VideoBaker} and kept next to the video as
+ * {@code <video>.<width>x<height>.<preset>.<dithering>.<settings>.mccb}. Every {@link #KEYFRAME_INTERVAL} frames it holds every
+ * tile in full, and an index of frame offsets at its end lets playback start at any frame: the tiles are rebuilt
+ * from the keyframe before it, and the ones that changed on the way are sent in full.
+ * <p>
+ * Playback maps the file read-only and keeps a copy of every tile as the clients have it, which also serves players
+ * that join later.
+ */
+final class BakedVideo implements AutoCloseable {
+
+    static final String FILE_SUFFIX = ".mccb";
+    // Frames between two frames that hold every tile in full, 10 seconds at 20 FPS
+    static final int KEYFRAME_INTERVAL = 200;
+
+    // File layout: header, one record per frame, frame offsets, trailer
+    private static final int MAGIC = 0x4D434342; // "MCCB"
+    private static final int VERSION = 3;
+    // Magic, format version, video size and modification time, map width and height, keyframe interval, frame rate,
+    // then the settings: bake key, color metric, scaling flags, aspect ratio
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4 + 4 + 8 + 8 + 4 + 4 + 4;
+    // Frame count, offset of the frame index, magic again so a truncated file is noticed
+    private static final int TRAILER_SIZE = 4 + 8 + 4;
+    // Each frame is a patch count followed by the patches: tile index, x, y, width - 1, height - 1, pixels
+    private static final int PATCH_HEADER_SIZE = 2 + 1 + 1 + 1 + 1;
+    // Same reasoning as the frame processor's tile buffers, a tile's last frame may still be queued for a joining player
+    private static final int TILE_BUFFER_GENERATIONS = 4;
+
+    private static final ValueLayout.OfInt FILE_INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfLong FILE_LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfShort FILE_SHORT = ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfDouble FILE_DOUBLE = ValueLayout.JAVA_DOUBLE_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+    private final Screen screen;
+    private final Arena arena;
+    private final MemorySegment file;
+    private final int frameCount;
+    private final int keyframeInterval;
+    private final long indexOffset;
+
+    // Only used by the player thread
+    private final byte[][] tiles;
+    private final byte[][][] tileBuffers;
+    private final int[] tileGenerations;
+    private final boolean[] touched;
+    private final boolean[] resend;
+    private final List<PacketDispatcher.TilePatch> patches = new ArrayList<>();
+    // The frame the tiles are at, -1 if the clients have nothing of this video yet
+    private int nextFrame = -1;
+
+    private BakedVideo(Screen screen, Arena arena, MemorySegment file, int frameCount, int keyframeInterval,
+                       long indexOffset) {
+        this.screen = screen;
+        this.arena = arena;
+        this.file = file;
+        this.frameCount = frameCount;
+        this.keyframeInterval = keyframeInterval;
+        this.indexOffset = indexOffset;
+        int tileCount = screen.getTotalMaps();
+        this.tiles = new byte[tileCount][MapTile.TOTAL_PIXELS];
+        this.tileBuffers = new byte[TILE_BUFFER_GENERATIONS][tileCount][MapTile.TOTAL_PIXELS];
+        this.tileGenerations = new int[tileCount];
+        this.touched = new boolean[tileCount];
+        this.resend = new boolean[tileCount];
+    }
+
+    int getFrameCount() {
+        return frameCount;
+    }
+
+    static File bakedFile(File videoFile, Screen screen, Settings settings) {
+        String name = videoFile.getName() + "." + screen.getMapWidth() + "x" + screen.getMapHeight() + "."
+            + screen.getQualityPreset().toLowerCase(Locale.ROOT) + "."
+            + settings.ditheringMode().name().toLowerCase(Locale.ROOT) + "." + settings.fileKey() + FILE_SUFFIX;
+        return new File(videoFile.getParentFile(), name);
+    }
+
+    /**
+     * Maps the baked file for the screen's size and the settings, null if there is none, it belongs to an older
+     * version of the video or was baked with other settings or at another frame rate.
+     */
+    static BakedVideo open(File videoFile, Screen screen, Settings settings, double frameRate, Logger logger) {
+        File bakedFile = bakedFile(videoFile, screen, settings);
+        if (!bakedFile.isFile()) {
+            return null;
+        }
+        Arena arena = Arena.ofShared();
+        boolean opened = false;
+        try (FileChannel channel = FileChannel.open(bakedFile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + TRAILER_SIZE) {
+                logger.warning("Ignoring truncated baked video: " + bakedFile);
+                return null;
+            }
+            // The mapping stays valid after the channel is closed, until the arena is
+            MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, size, arena);
+            if (segment.get(FILE_INT, 0) != MAGIC || segment.get(FILE_INT, 4) != VERSION
+                || segment.get(FILE_LONG, 8) != videoFile.length() || segment.get(FILE_LONG, 16) != videoFile.lastModified()) {
+                logger.info("Ignoring outdated baked video: " + bakedFile);
+                return null;
+            }
+            // The file name only holds a hash of the settings
+            if (!settings.matches(segment) || segment.get(FILE_DOUBLE, 36) != frameRate) {
+                logger.info("Ignoring baked video made with other settings: " + bakedFile);
+                return null;
+            }
+            int keyframeInterval = segment.get(FILE_INT, 32);
+            long trailer = size - TRAILER_SIZE;
+            int frameCount = segment.get(FILE_INT, trailer);
+            long indexOffset = segment.get(FILE_LONG, trailer + 4);
+            if (segment.get(FILE_INT, 24) != screen.getMapWidth() || segment.get(FILE_INT, 28) != screen.getMapHeight()
+                || keyframeInterval <= 0 || frameCount <= 0 || segment.get(FILE_INT, trailer + 12) != MAGIC
+                || indexOffset + (long) frameCount * Long.BYTES != trailer) {
+                logger.warning("Ignoring corrupt baked video: " + bakedFile);
+                return null;
+            }
+            opened = true;
+            return new BakedVideo(screen, arena, segment, frameCount, keyframeInterval, indexOffset);
+        } catch (IOException | RuntimeException e) {
+            logger.warning("Failed to read baked video " + bakedFile + ": " + e.getMessage());
+            return null;
+        } finally {
+            if (!opened) {
+                arena.close();
+            }
+        }
+    }
+
+    /**
+     * Forgets what the clients have, the next frame is sent in full. For when something else was drawn on the screen.
+     */
+    void reset() {
+        nextFrame = -1;
+    }
+
+    /**
+     * Brings the tiles to {@code frameNumber} and sends what changed. The next frame in order only sends its patches,
+     * anything else replays the frames in between, from the keyframe before the target if that is closer.
+     */
+    void dispatchFrame(int frameNumber, PacketDispatcher dispatcher, PerformanceMetrics metrics,
+                       Collection<? extends Player> recipients) {
+        patches.clear();
+        int keyframe = frameNumber - frameNumber % keyframeInterval;
+        if (nextFrame < 0 || frameNumber < nextFrame || keyframe > nextFrame) {
+            // A keyframe covers every tile, so every tile is sent in full afterwards
+            nextFrame = keyframe;
+        }
+        while (nextFrame < frameNumber) {
+            applyFrame(nextFrame++, false);
+        }
+        applyFrame(frameNumber, true);
+        nextFrame = frameNumber + 1;
+
+        for (int i = 0; i < tiles.length; i++) {
+            if (resend[i]) {
+                resend[i] = false;
+                // The packet is encoded later, it cannot share the tile the next frame is applied to
+                patches.add(new PacketDispatcher.TilePatch(screen.getTile(i),
+                    new MapTile.DirtyRegion(0, 0, MapTile.SIZE, MapTile.SIZE, tiles[i].clone())));
+            }
+            if (touched[i]) {
+                touched[i] = false;
+                publishTile(i);
+            }
+        }
+        dispatcher.dispatchPatches(screen, patches, metrics, recipients);
+    }
+
+    /**
+     * Applies a frame's patches to the tiles. Patches of frames that are not sent leave their tile to be sent in full.
+     */
+    private void applyFrame(int frameNumber, boolean send) {
+        long position = file.get(FILE_LONG, indexOffset + (long) frameNumber * Long.BYTES);
+        int patchCount = file.get(FILE_INT, position);
+        position += Integer.BYTES;
+        for (int p = 0; p < patchCount; p++) {
+            int tileIndex = Short.toUnsignedInt(file.get(FILE_SHORT, position));
+            int x = Byte.toUnsignedInt(file.get(ValueLayout.JAVA_BYTE, position + 2));
+            int y = Byte.toUnsignedInt(file.get(ValueLayout.JAVA_BYTE, position + 3));
+            int width = Byte.toUnsignedInt(file.get(ValueLayout.JAVA_BYTE, position + 4)) + 1;
+            int height = Byte.toUnsignedInt(file.get(ValueLayout.JAVA_BYTE, position + 5)) + 1;
+            position += PATCH_HEADER_SIZE;
+            if (tileIndex >= tiles.length || x + width > MapTile.SIZE || y + height > MapTile.SIZE) {
+                throw new IllegalStateException("Corrupt patch in baked frame " + frameNumber);
+            }
+
+            byte[] tile = tiles[tileIndex];
+            for (int row = 0; row < height; row++) {
+                MemorySegment.copy(file, ValueLayout.JAVA_BYTE, position + (long) row * width,
+                    tile, (y + row) * MapTile.SIZE + x, width);
+            }
+            if (send && !resend[tileIndex]) {
+                byte[] data = new byte[width * height];
+                MemorySegment.copy(file, ValueLayout.JAVA_BYTE, position, data, 0, data.length);
+                patches.add(new PacketDispatcher.TilePatch(screen.getTile(tileIndex),
+                    new MapTile.DirtyRegion(x, y, width, height, data)));
+            } else if (!send) {
+                resend[tileIndex] = true;
+            }
+            touched[tileIndex] = true;
+            position += (long) width * height;
+        }
+    }
+
+    /**
+     * Makes a tile's new content what the clients were sent, for players joining later and whatever plays next.
+     */
+    private void publishTile(int tileIndex) {
+        int generation = (tileGenerations[tileIndex] + 1) % TILE_BUFFER_GENERATIONS;
+        tileGenerations[tileIndex] = generation;
+        byte[] buffer = tileBuffers[generation][tileIndex];
+        System.arraycopy(tiles[tileIndex], 0, buffer, 0, MapTile.TOTAL_PIXELS);
+        MapTile tile = screen.getTile(tileIndex);
+        tile.setLastFrameData(buffer);
+        tile.copyToLastSentData(buffer);
+    }
+
+    /**
+     * Unmaps the file. Only once the player stopped using it.
+     */
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    /**
+     * Everything besides the screen's size, the video and its frame rate that changes what the baked frames look like.
+     * A baked file is only played with the settings it was baked with.
+     */
+    record Settings(FrameProcessor.DitheringMode ditheringMode, long bakeKey, ColorMetric colorMetric,
+                    int scalingFlags, AspectRatio aspectRatio) {
+
+        static Settings of(FrameProcessor processor, Screen screen, int scalingFlags) {
+            return new Settings(processor.getDitheringMode(), processor.bakeKey(), DitherLookupUtil.getColorMetric(),
+                scalingFlags, screen.getAspectRatio());
+        }
+
+        /**
+         * Tells settings apart in file names, so a bake with other settings does not replace this one.
+         */
+        String fileKey() {
+            int hash = Long.hashCode(bakeKey);
+            hash = hash * 31 + colorMetric.ordinal();
+            hash = hash * 31 + scalingFlags;
+            hash = hash * 31 + aspectRatio.ordinal();
+            return String.format(Locale.ROOT, "%08x", hash);
+        }
+
+        private boolean matches(MemorySegment file) {
+            return file.get(FILE_LONG, 44) == bakeKey && file.get(FILE_INT, 52) == colorMetric.ordinal()
+                && file.get(FILE_INT, 56) == scalingFlags && file.get(FILE_INT, 60) == aspectRatio.ordinal();
+        }
+    }
+
+    /**
+     * Writes a baked video frame by frame, through a temporary file so a crash never leaves a truncated one behind.
+     */
+    static final class Writer implements AutoCloseable {
+
+        private record Patch(int tileIndex, MapTile.DirtyRegion region) {
+        }
+
+        private final Path target;
+        private final Path tempFile;
+        private final DataOutputStream out;
+        private final List<Patch> framePatches = new ArrayList<>();
+        private long[] offsets = new long[1024];
+        private int frameCount;
+        private long position;
+        private boolean finished;
+
+        private Writer(Path target, Path tempFile, DataOutputStream out) {
+            this.target = target;
+            this.tempFile = tempFile;
+            this.out = out;
+        }
+
+        static Writer create(File videoFile, Screen screen, Settings settings, double frameRate) throws IOException {
+            Path target = bakedFile(videoFile, screen, settings).toPath();
+            Path tempFile = Files.createTempFile(target.getParent(), videoFile.getName(), ".tmp");
+            OutputStream fileOut = Files.newOutputStream(tempFile);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+            Writer writer = new Writer(target, tempFile, out);
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(videoFile.length());
+                out.writeLong(videoFile.lastModified());
+                out.writeInt(screen.getMapWidth());
+                out.writeInt(screen.getMapHeight());
+                out.writeInt(KEYFRAME_INTERVAL);
+                out.writeDouble(frameRate);
+                out.writeLong(settings.bakeKey());
+                out.writeInt(settings.colorMetric().ordinal());
+                out.writeInt(settings.scalingFlags());
+                out.writeInt(settings.aspectRatio().ordinal());
+            } catch (IOException e) {
+                writer.close();
+                throw e;
+            }
+            writer.position = HEADER_SIZE;
+            return writer;
+        }
+
+        /**
+         * Whether the current frame has to hold every tile in full.
+         */
+        boolean isKeyframe() {
+            return frameCount % KEYFRAME_INTERVAL == 0;
+        }
+
+        int getFrameCount() {
+            return frameCount;
+        }
+
+        /**
+         * Adds a patch to the current frame. The region's data is read when the frame ends.
+         */
+        void addPatch(int tileIndex, MapTile.DirtyRegion region) {
+            framePatches.add(new Patch(tileIndex, region));
+        }
+
+        void endFrame() throws IOException {
+            if (frameCount == offsets.length) {
+                offsets = Arrays.copyOf(offsets, frameCount * 2);
+            }
+            offsets[frameCount++] = position;
+            out.writeInt(framePatches.size());
+            position += Integer.BYTES;
+            for (Patch patch : framePatches) {
+                MapTile.DirtyRegion region = patch.region();
+                out.writeShort(patch.tileIndex());
+                out.writeByte(region.x());
+                out.writeByte(region.y());
+                out.writeByte(region.width() - 1);
+                out.writeByte(region.height() - 1);
+                out.write(region.data(), 0, region.getDataSize());
+                position += PATCH_HEADER_SIZE + region.getDataSize();
+            }
+            framePatches.clear();
+        }
+
+        /**
+         * Writes the frame index and moves the file into place.
+         */
+        void finish() throws IOException {
+            long indexOffset = position;
+            for (int i = 0; i < frameCount; i++) {
+                out.writeLong(offsets[i]);
+            }
+            out.writeInt(frameCount);
+            out.writeLong(indexOffset);
+            out.writeInt(MAGIC);
+            out.close();
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            try {
+                out.close();
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package de.erethon.mccinema.video;
+
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Places each viewer of a screen in one of the {@link UpdateTiers} from how well its connection keeps up. A viewer on a
+ * slow link sees the picture at a lower frame rate instead of lagging behind it, and viewers on fast links are not
+ * held back by it.
+ * <p>
+ * A viewer moves down a tier after its connection had more queued than its tier's stream fills in half a second, or
+ * a ping over the limit, for a second. It moves back up after a stretch of near empty queues. That stretch starts at
+ * ten seconds and doubles whenever the viewer has to move down again soon after, so a link that can not take the
+ * higher tier does not keep flipping between the two.
+ * <p>
+ * Only used by the thread dispatching the screen's frames.
+ */
+final class BandwidthTiers {
+
+    // Queued bytes relative to the tier's stream that count as falling behind, and as keeping up
+    private static final double BACKLOG_SECONDS = 0.5;
+    private static final double CLEAR_SECONDS = 0.05;
+    private static final long MIN_BACKLOG_BYTES = 64 * 1024;
+    private static final long MIN_CLEAR_BYTES = 16 * 1024;
+
+    private static final double DEMOTE_AFTER_SECONDS = 1.0;
+    private static final double PROMOTE_AFTER_SECONDS = 10.0;
+    private static final double MAX_PROMOTE_AFTER_SECONDS = 160.0;
+    // Moving down this soon after moving up means the higher tier was too much
+    private static final double FAILED_PROMOTION_SECONDS = 30.0;
+
+    private static final double FORGET_AFTER_SECONDS = 60.0;
+
+    private final int maxPing;
+    private final Map<UUID, Viewer> viewers = new HashMap<>();
+
+    BandwidthTiers(int maxPing) {
+        this.maxPing = maxPing;
+    }
+
+    /**
+     * Takes a look at the viewer's connection before a frame is sent and moves it to another tier if needed.
+     *
+     * @param streamBytesPerSecond what the full stream currently sends per second
+     * @return the viewer's tier for this frame
+     */
+    int update(Player player, long pendingBytes, double streamBytesPerSecond, long nowNanos) {
+        Viewer viewer = viewers.computeIfAbsent(player.getUniqueId(), id -> new Viewer(nowNanos));
+        double elapsed = Math.min(1.0, (nowNanos - viewer.lastUpdateNanos) / 1_000_000_000.0);
+        viewer.lastUpdateNanos = nowNanos;
+
+        double tierBytesPerSecond = streamBytesPerSecond / UpdateTiers.frameInterval(viewer.tier);
+        int ping = player.getPing();
+        boolean backlogged = ping > maxPing
+            || pendingBytes > Math.max(MIN_BACKLOG_BYTES, tierBytesPerSecond * BACKLOG_SECONDS);
+        boolean clear = !backlogged && ping <= maxPing / 2
+            && pendingBytes <= Math.max(MIN_CLEAR_BYTES, tierBytesPerSecond * CLEAR_SECONDS);
+        viewer.backlogSeconds = backlogged ? viewer.backlogSeconds + elapsed : 0;
+        viewer.clearSeconds = clear ? viewer.clearSeconds + elapsed : 0;
+
+        if (viewer.backlogSeconds >= DEMOTE_AFTER_SECONDS && viewer.tier < UpdateTiers.COUNT - 1) {
+            if ((nowNanos - viewer.lastPromotionNanos) / 1_000_000_000.0 < FAILED_PROMOTION_SECONDS) {
+                viewer.promoteAfterSeconds = Math.min(MAX_PROMOTE_AFTER_SECONDS, viewer.promoteAfterSeconds * 2);
+            }
+            move(viewer, viewer.tier + 1);
+        } else if (viewer.clearSeconds >= viewer.promoteAfterSeconds && viewer.tier > 0) {
+            viewer.lastPromotionNanos = nowNanos;
+            move(viewer, viewer.tier - 1);
+        }
+        return viewer.tier;
+    }
+
+    private void move(Viewer viewer, int tier) {
+        viewer.tier = tier;
+        viewer.backlogSeconds = 0;
+        viewer.clearSeconds = 0;
+    }
+
+    /**
+     * Drops the state of viewers not seen for a while, e.g. because they left.
+     */
+    void forgetUnseen(long nowNanos) {
+        List<UUID> unseen = new ArrayList<>();
+        for (Map.Entry<UUID, Viewer> entry : viewers.entrySet()) {
+            if ((nowNanos - entry.getValue().lastUpdateNanos) / 1_000_000_000.0 > FORGET_AFTER_SECONDS) {
+                unseen.add(entry.getKey());
+            }
+        }
+        for (UUID id : unseen) {
+            viewers.remove(id);
+        }
+    }
+
+    private static final class Viewer {
+
+        int tier;
+        long lastUpdateNanos;
+        long lastPromotionNanos;
+        double backlogSeconds;
+        double clearSeconds;
+        double promoteAfterSeconds = PROMOTE_AFTER_SECONDS;
+
+        Viewer(long nowNanos) {
+            this.lastUpdateNanos = nowNanos;
+            this.lastPromotionNanos = nowNanos - (long) (FAILED_PROMOTION_SECONDS * 1_000_000_000L);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package de.erethon.mccinema.video;
+
+import java.util.Random;
+
+/**
+ * Tileable 64x64 blue-noise threshold texture, generated once with the void-and-cluster method (Ulichney 1993).
+ * <p>
+ * Every pixel gets a unique rank in [0, 4096). Thresholding the ranks at any level gives evenly spread points
+ * without the low-frequency clumps of white noise or the cross-hatch structure of a Bayer matrix. Generation is
+ * deterministic and takes a few tens of milliseconds, it happens the first time the texture is used.
+ */
+final class BlueNoiseTexture {
+
+    static final int SIZE = 64;
+
+    private static final int PIXELS = SIZE * SIZE;
+    private static final double SIGMA = 1.5;
+    private static final double INITIAL_DENSITY = 0.1;
+    private static final long SEED = 0x4D43434EL;
+
+    private static final int[][] RANKS = generate();
+
+    private BlueNoiseTexture() {
+    }
+
+    /**
+     * Ranks reduced to 256 levels, each level appearing 16 times.
+     */
+    static int[][] levels() {
+        int[][] levels = new int[SIZE][SIZE];
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                levels[y][x] = RANKS[y][x] * 256 / PIXELS;
+            }
+        }
+        return levels;
+    }
+
+    private static int[][] generate() {
+        double[] kernel = gaussianKernel();
+        boolean[] pattern = new boolean[PIXELS];
+        double[] energy = new double[PIXELS];
+
+        // Random initial points, then swap tightest cluster and largest void until the pattern is stable
+        Random random = new Random(SEED);
+        int initialPoints = (int) (PIXELS * INITIAL_DENSITY);
+        for (int placed = 0; placed < initialPoints; ) {
+            int index = random.nextInt(PIXELS);
+            if (!pattern[index]) {
+                pattern[index] = true;
+                splat(energy, kernel, index, 1);
+                placed++;
+            }
+        }
+        while (true) {
+            int cluster = tightestCluster(pattern, energy);
+            pattern[cluster] = false;
+            splat(energy, kernel, cluster, -1);
+            int voidIndex = largestVoid(pattern, energy);
+            if (voidIndex == cluster) {
+                pattern[cluster] = true;
+                splat(energy, kernel, cluster, 1);
+                break;
+            }
+            pattern[voidIndex] = true;
+            splat(energy, kernel, voidIndex, 1);
+        }
+
+        int[] rank = new int[PIXELS];
+        boolean[] initialPattern = pattern.clone();
+        double[] initialEnergy = energy.clone();
+
+        // Phase 1: remove the initial points, tightest cluster first, ranking downwards
+        for (int r = initialPoints - 1; r >= 0; r--) {
+            int cluster = tightestCluster(pattern, energy);
+            pattern[cluster] = false;
+            splat(energy, kernel, cluster, -1);
+            rank[cluster] = r;
+        }
+
+        // Phase 2: from the initial pattern, fill the largest void until every pixel is ranked
+        pattern = initialPattern;
+        energy = initialEnergy;
+        for (int r = initialPoints; r < PIXELS; r++) {
+            int voidIndex = largestVoid(pattern, energy);
+            pattern[voidIndex] = true;
+            splat(energy, kernel, voidIndex, 1);
+            rank[voidIndex] = r;
+        }
+
+        int[][] ranks = new int[SIZE][SIZE];
+        for (int i = 0; i < PIXELS; i++) {
+            ranks[i / SIZE][i % SIZE] = rank[i];
+        }
+        return ranks;
+    }
+
+    /**
+     * Gaussian weight by toroidal offset, so the texture tiles without seams.
+     */
+    private static double[] gaussianKernel() {
+        double[] kernel = new double[PIXELS];
+        for (int dy = 0; dy < SIZE; dy++) {
+            for (int dx = 0; dx < SIZE; dx++) {
+                int wx = Math.min(dx, SIZE - dx);
+                int wy = Math.min(dy, SIZE - dy);
+                kernel[dy * SIZE + dx] = Math.exp(-(wx * wx + wy * wy) / (2 * SIGMA * SIGMA));
+            }
+        }
+        return kernel;
+    }
+
+    private static void splat(double[] energy, double[] kernel, int index, int sign) {
+        int px = index % SIZE;
+        int py = index / SIZE;
+        for (int y = 0; y < SIZE; y++) {
+            int dy = ((y - py) & (SIZE - 1)) * SIZE;
+            for (int x = 0; x < SIZE; x++) {
+                energy[y * SIZE + x] += sign * kernel[dy + ((x - px) & (SIZE - 1))];
+            }
+        }
+    }
+
+    private static int tightestCluster(boolean[] pattern, double[] energy) {
+        int best = -1;
+        for (int i = 0; i < PIXELS; i++) {
+            if (pattern[i] && (best < 0 || energy[i] > energy[best])) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static int largestVoid(boolean[] pattern, double[] energy) {
+        int best = -1;
+        for (int i = 0; i < PIXELS; i++) {
+            if (!pattern[i] && (best < 0 || energy[i] < energy[best])) {
+                best = i;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,134 @@
+package de.erethon.mccinema.video;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+
+import java.lang.reflect.Field;
+import java.util.logging.Logger;
+
+/**
+ * Skips frames of a video file as cheaply as the decoder allows, for catching up with the audio and for seeking.
+ * <p>
+ * Skipped frames are never converted to BGR. While more than a few frames are left to skip, the decoder is also told
+ * to discard non-reference frames and skip the loop filter, so frames that nothing else depends on are not decoded at
+ * all. The last few frames are decoded normally again, so catching up cannot overshoot by a run of discarded frames,
+ * and the decoder is back to full quality for the next frame that is shown.
+ * <p>
+ * With a {@link KeyframeIndex}, seeks move the grabber to the keyframe right before the target and skip the rest of
+ * the way, so only the frames the target actually depends on are decoded.
+ * <p>
+ * The grabber does not expose its codec context, it is looked up once by reflection. If that fails, skipping still
+ * saves the conversion.
+ */
+final class DecoderCatchUp {
+
+    // Frames left to skip below which the decoder decodes everything again
+    private static final int DISCARD_MARGIN = 4;
+
+    private static final Field VIDEO_CODEC_CONTEXT = findVideoCodecContext();
+
+    private final FFmpegFrameGrabber grabber;
+    private final boolean discardFrames;
+    // Built in the background after loading, null until then
+    private volatile KeyframeIndex keyframeIndex;
+
+    DecoderCatchUp(FFmpegFrameGrabber grabber, boolean discardFrames, Logger logger) {
+        this.grabber = grabber;
+        this.discardFrames = discardFrames && VIDEO_CODEC_CONTEXT != null;
+        if (discardFrames && VIDEO_CODEC_CONTEXT == null) {
+            logger.warning("Decoder frame skipping is not available with this JavaCV version, catching up decodes every frame");
+        }
+    }
+
+    void setKeyframeIndex(KeyframeIndex keyframeIndex) {
+        this.keyframeIndex = keyframeIndex;
+    }
+
+    KeyframeIndex getKeyframeIndex() {
+        return keyframeIndex;
+    }
+
+    /**
+     * Moves the grabber so that the next frame grabbed is {@code frameNumber}, or close to it if discarded frames made
+     * the skip overshoot.
+     *
+     * @return the number of the next frame
+     */
+    long seek(long frameNumber) throws Exception {
+        KeyframeIndex index = keyframeIndex;
+        if (index == null) {
+            grabber.setFrameNumber((int) frameNumber);
+            return frameNumber;
+        }
+        int keyframe = index.keyframeAtOrBefore((int) frameNumber);
+        // Lands on the keyframe itself, nothing before it is decoded
+        grabber.setFrameNumber(keyframe);
+        return keyframe + skip((int) (frameNumber - keyframe));
+    }
+
+    /**
+     * Skips at least {@code frames} frames, unless the video ends first. Discarded frames leave gaps in the
+     * timestamps, so the result can be a few frames more than requested.
+     *
+     * @return the number of frames the video advanced by
+     */
+    int skip(int frames) throws Exception {
+        if (frames <= 0) {
+            return 0;
+        }
+        AVCodecContext context = discardFrames ? videoCodecContext() : null;
+        int previousSkipFrame = 0;
+        int previousSkipLoopFilter = 0;
+        if (context != null) {
+            previousSkipFrame = context.skip_frame();
+            previousSkipLoopFilter = context.skip_loop_filter();
+        }
+        boolean discarding = false;
+        int skipped = 0;
+        long position = grabber.getFrameNumber();
+        try {
+            while (skipped < frames) {
+                boolean discard = context != null && frames - skipped > DISCARD_MARGIN;
+                if (discard != discarding) {
+                    context.skip_frame(discard ? avcodec.AVDISCARD_NONREF : previousSkipFrame);
+                    context.skip_loop_filter(discard ? avcodec.AVDISCARD_ALL : previousSkipLoopFilter);
+                    discarding = discard;
+                }
+                // Video only and without processing, the frame is decoded but never scaled into an image
+                Frame frame = grabber.grabFrame(false, true, false, false, false);
+                if (frame == null) {
+                    break;
+                }
+                long next = grabber.getFrameNumber();
+                skipped += (int) Math.max(1, next - position);
+                position = next;
+            }
+        } finally {
+            if (discarding) {
+                context.skip_frame(previousSkipFrame);
+                context.skip_loop_filter(previousSkipLoopFilter);
+            }
+        }
+        return skipped;
+    }
+
+    private AVCodecContext videoCodecContext() {
+        try {
+            return (AVCodecContext) VIDEO_CODEC_CONTEXT.get(grabber);
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            return null;
+        }
+    }
+
+    private static Field findVideoCodecContext() {
+        try {
+            Field field = FFmpegFrameGrabber.class.getDeclaredField("video_c");
+            field.setAccessible(true);
+            return field;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package de.erethon.mccinema.video;
+
+import de.erethon.mccinema.screen.MapTile;
+import de.erethon.mccinema.screen.Screen;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Builds and sends the packets of one frame on its own thread while the player already dithers the next one.
+ * <p>
+ * Holds at most one frame. {@link #submit} waits until the previous frame has been sent, so a frame costs the
+ * slower of processing and dispatch instead of both, and the frames still reach the dispatcher in order.
+ * <p>
+ * Which pixels a tile has to send depends on what the dispatcher sent for the previous frame, so frames processed
+ * with {@link FrameProcessor#setDeferDirtyRegions deferred dirty regions} are diffed here, right before they are
+ * dispatched. Dithering state stays with the processor on the player thread.
+ */
+final class FrameDispatchStage {
+
+    private final PacketDispatcher dispatcher;
+    private final PerformanceMetrics metrics;
+    private final Logger logger;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition frameSubmitted = lock.newCondition();
+    private final Condition frameDone = lock.newCondition();
+
+    // Guarded by lock
+    private Screen screen;
+    private FrameProcessor.ProcessedFrame frame;
+    private Collection<? extends Player> recipients;
+    private boolean busy;
+    private boolean running;
+    private Thread thread;
+
+    // Only used by the dispatch thread
+    private final List<PacketDispatcher.TileUpdate> updates = new ArrayList<>();
+
+    FrameDispatchStage(PacketDispatcher dispatcher, PerformanceMetrics metrics, Logger logger) {
+        this.dispatcher = dispatcher;
+        this.metrics = metrics;
+        this.logger = logger;
+    }
+
+    void start() {
+        Thread dispatchThread;
+        lock.lock();
+        try {
+            if (running) {
+                return;
+            }
+            running = true;
+            dispatchThread = new Thread(this::dispatchLoop, "MCCinema-Dispatcher");
+            dispatchThread.setDaemon(true);
+            dispatchThread.setPriority(Thread.MAX_PRIORITY);
+            thread = dispatchThread;
+        } finally {
+            lock.unlock();
+        }
+        dispatchThread.start();
+    }
+
+    /**
+     * Hands a frame to the dispatch thread once it is done with the previous one.
+     *
+     * @return false if the stage was stopped and the frame was dropped
+     */
+    boolean submit(Screen screen, FrameProcessor.ProcessedFrame frame, Collection<? extends Player> recipients)
+        throws InterruptedException {
+        lock.lock();
+        try {
+            while (running && (busy || this.frame != null)) {
+                frameDone.await();
+            }
+            if (!running) {
+                return false;
+            }
+            this.screen = screen;
+            this.frame = frame;
+            this.recipients = recipients;
+            frameSubmitted.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the dispatch thread once the frames already handed over are sent, e.g. the last frame of a video.
+     */
+    void stop() {
+        Thread dispatchThread;
+        lock.lock();
+        try {
+            running = false;
+            frameSubmitted.signalAll();
+            frameDone.signalAll();
+            dispatchThread = thread;
+            thread = null;
+        } finally {
+            lock.unlock();
+        }
+        if (dispatchThread != null && dispatchThread != Thread.currentThread()) {
+            try {
+                dispatchThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void dispatchLoop() {
+        while (true) {
+            Screen currentScreen;
+            FrameProcessor.ProcessedFrame currentFrame;
+            Collection<? extends Player> currentRecipients;
+            lock.lock();
+            try {
+                while (running && frame == null) {
+                    frameSubmitted.awaitUninterruptibly();
+                }
+                if (frame == null) {
+                    return;
+                }
+                currentScreen = screen;
+                currentFrame = frame;
+                currentRecipients = recipients;
+                screen = null;
+                frame = null;
+                recipients = null;
+                busy = true;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                dispatch(currentScreen, currentFrame, currentRecipients);
+            } catch (Exception e) {
+                logger.warning("Error dispatching frame: " + e.getMessage());
+                e.printStackTrace();
+            }
+
+            lock.lock();
+            try {
+                busy = false;
+                frameDone.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void dispatch(Screen screen, FrameProcessor.ProcessedFrame frame, Collection<? extends Player> recipients) {
+        long dispatchStart = System.nanoTime();
+        List<PacketDispatcher.TileUpdate> frameUpdates = frame.updates();
+        if (frame.dirtyRegionsDeferred()) {
+            // The previous frame has been sent by now, so this diffs against what the clients actually have
+            frameUpdates = diffTiles(screen, frame.fullMapData(), updates);
+        }
+        dispatcher.dispatchFrame(screen, frameUpdates, frame.contentStats(), metrics, recipients);
+        metrics.recordPacketDispatch(System.nanoTime() - dispatchStart);
+    }
+
+    /**
+     * Diffs the tiles of a screen against what was last sent to them, into a reused list.
+     */
+    static List<PacketDispatcher.TileUpdate> diffTiles(Screen screen, byte[][] mapData,
+                                                       List<PacketDispatcher.TileUpdate> into) {
+        into.clear();
+        for (MapTile tile : screen.getTiles()) {
+            byte[] data = mapData[tile.getTileIndex()];
+            into.add(new PacketDispatcher.TileUpdate(tile, tile.calculateDirtyRegionFromSent(data), data));
+        }
+        return into;
+    }
+}
@@ -1,8 +1,8 @@
 package de.erethon.mccinema.video;
 
+import de.erethon.mccinema.MCCinema;
 import de.erethon.mccinema.screen.MapTile;
 import de.erethon.mccinema.screen.Screen;
-import de.erethon.mccinema.util.ByteArrayPool;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.plugin.Plugin;
 
@@ -10,14 +10,15 @@ import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 
 import static de.erethon.mccinema.dither.DitherLookupUtil.COLOR_MAP;
-import static de.erethon.mccinema.dither.DitherLookupUtil.FULL_COLOR_MAP;
+import static de.erethon.mccinema.dither.DitherLookupUtil.PALETTE;
 
 public class FrameProcessor {
 
@@ -31,9 +32,24 @@ public class FrameProcessor {
          *  The wider spread reduces directional streaking and produces smoother gradients than FS. */
         STUCKI,
         BAYER_8X8,
+        /** Ordered dithering with a 64x64 blue-noise threshold texture. As cheap and stable as Bayer, but without
+         *  the cross-hatch pattern, so it looks closer to error diffusion while still compressing well. */
+        BLUE_NOISE,
         NONE
     }
 
+    /**
+     * How the error diffusion modes (Floyd-Steinberg, Atkinson, Stucki) are spread across threads.
+     */
+    public enum ParallelStrategy {
+        /** Each thread takes every n-th row and starts as soon as the row above is a few pixels ahead.
+         *  Error propagates across the whole frame exactly like a single-threaded raster scan, without seams. */
+        WAVEFRONT,
+        /** Independent horizontal bands, one per thread. Error is dropped at band boundaries, which can show as
+         *  seams on large screens. Floyd-Steinberg uses serpentine scanning in this mode. */
+        BANDS
+    }
+
     private static final int[][] BAYER_MATRIX_8x8 = {
         { 0, 32,  8, 40,  2, 34, 10, 42},
         {48, 16, 56, 24, 50, 18, 58, 26},
@@ -45,10 +61,29 @@ public class FrameProcessor {
         {63, 31, 55, 23, 61, 29, 53, 21}
     };
 
+    private static final ThresholdMatrix BAYER_THRESHOLDS = ThresholdMatrix.of(BAYER_MATRIX_8x8, 4, -128);
+
+    // Golden ratio steps of the blue-noise thresholds when animated, spreads each pixel's threshold evenly over time
+    private static final int BLUE_NOISE_PHASES = 8;
+    private static final double GOLDEN_RATIO_FRACTION = 0.6180339887;
+
+    private static final boolean VECTOR_API_AVAILABLE = isVectorApiAvailable();
+
+    private static final int TILE_BUFFER_GENERATIONS = 4;
+
+    // Pixels per wavefront step, each step publishes the row progress once
+    private static final int WAVEFRONT_BLOCK = 64;
+    // How far the row above has to be ahead, in pixels. Rows touch error entries up to this far to the right of the
+    // current pixel in the rows they share with the row above, so the two can never write the same entry.
+    private static final int WAVEFRONT_LAG_FLOYD_STEINBERG = 2;
+    private static final int WAVEFRONT_LAG_ATKINSON = 3;
+    private static final int WAVEFRONT_LAG_STUCKI = 4;
+
     private final Screen screen;
     private final int frameWidth;
     private final int frameHeight;
-    private final ExecutorService executor;
+    private final PhaseRunner workers;
+    private final int processingThreads;
     private byte[] ditheredFrameData;
     private byte[] previousDitheredFrame;
     private int[] previousSourceHash;
@@ -57,19 +92,72 @@ public class FrameProcessor {
     private int[][] bandDitherBuffers;
     private int bandBufferWidth = -1;
 
+    // Unchanged source blocks whose previous palette indices are reused, per resolution like the buffers above
+    private StaticBlockMap staticBlocks = new StaticBlockMap();
+    private StaticBlockMap sourceStaticBlocks = new StaticBlockMap();
+    // Set for the duration of a dithering pass, null if there is nothing to reuse
+    private StaticBlockMap reusableBlocks;
+    private volatile double lastReusedBlockRatio = 0.0;
+
+    // Tile buffers handed out with the processed frames, reused round-robin. A set is written again three frames
+    // after it was handed out, by then the dispatcher has long sent the packets pointing into it, even when it
+    // dispatches on its own thread one frame behind.
+    private byte[][][] tileBufferRing;
+    // The processed frame handed out with each set of tile buffers, reused along with them
+    private ProcessedFrame[] processedFrameRing;
+    private int tileBufferGeneration;
+
+    // Dithering straight into per-tile buffers, see ditherFrameIntoTiles
+    private boolean fusedTileOutput = true;
+    // Diffing against the last sent data is left to the dispatch stage, see setDeferDirtyRegions
+    private volatile boolean deferDirtyRegions;
+    // Tile buffers of the last frame dithered into tiles, null if the last frame took another path
+    private byte[][] previousTileFrames;
+    // Set for the duration of a dithering pass into tile buffers
+    private DitherTarget fusedTarget;
+
+    // Error row ring and per-row progress for the wavefront strategy
+    private int[][] wavefrontBuffers;
+    private AtomicIntegerArray wavefrontProgress;
+    private final AtomicInteger wavefrontNextRow = new AtomicInteger();
+
     // Source-resolution buffers for when source != target
     private byte[] sourceDitheredFrameData;
     private byte[] sourcePreviousDitheredFrame;
     private int[] sourcePreviousHash;
     private int lastSourceWidth = -1;
     private int lastSourceHeight = -1;
+    private int[] upscaleXLookup;
+    private int[] upscaleYLookup;
+    private int upscaleLookupSourceWidth = -1;
+    private int upscaleLookupSourceHeight = -1;
+
+    // Frames are dithered at this share of the screen's resolution, see setResolutionScale
+    private volatile double resolutionScale = 1.0;
+    private byte[] scaledSourceData;
+    // First source column/row of each scaled pixel, plus the source size as the last entry
+    private int[] downscaleXStarts;
+    private int[] downscaleYStarts;
+
+    // Canvases for letterboxing and pixel format conversion, reused across frames
+    private BufferedImage letterboxImage;
+    private Graphics2D letterboxGraphics;
+    private int letterboxSourceWidth = -1;
+    private int letterboxSourceHeight = -1;
+    private BufferedImage convertedImage;
+    private Graphics2D convertedGraphics;
 
     private boolean useTemporalDithering = true;
     private int temporalThreshold = 4;
     private int errorQuantizationBits = 2;
     private DitheringMode ditheringMode = DitheringMode.FLOYD_STEINBERG_REDUCED;
+    private ParallelStrategy parallelStrategy = ParallelStrategy.WAVEFRONT;
     private float errorDiffusionStrength = 0.8f;
     private int errorThreshold = 4;
+    private boolean useVectorKernels = VECTOR_API_AVAILABLE;
+    private boolean staticBlockReuse = true;
+    private boolean blueNoiseAnimated = false;
+    private int blueNoisePhase = 0;
 
     // Bandwidth-related tuning
     private boolean adaptiveTuningEnabled = true;
@@ -91,19 +179,37 @@ public class FrameProcessor {
     private volatile AdaptiveDitherProfile lastAdaptiveProfile = new AdaptiveDitherProfile(4, 2, 4, 0.8f, "BASE");
 
     public FrameProcessor(Screen screen, Plugin plugin) {
+        this(screen, plugin.getConfig(), plugin instanceof MCCinema cinema ? cinema.getProcessingScheduler() : null);
+    }
+
+    /**
+     * Creates a processor from a plain configuration, without needing a running plugin.
+     * Used by the benchmarks to set up processors outside of a server.
+     */
+    public FrameProcessor(Screen screen, FileConfiguration config) {
+        this(screen, config, null);
+    }
+
+    /**
+     * @param scheduler shared threads to run the parallel phases on, null to start threads for this processor
+     */
+    public FrameProcessor(Screen screen, FileConfiguration config, ProcessingScheduler scheduler) {
         this.screen = screen;
         this.frameWidth = screen.getPixelWidth();
         this.frameHeight = screen.getPixelHeight();
         this.ditheredFrameData = new byte[frameWidth * frameHeight];
         this.previousDitheredFrame = new byte[frameWidth * frameHeight];
         this.previousSourceHash = new int[frameWidth * frameHeight];
-        loadDitheringConfig(plugin.getConfig());
-        int threads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
-        this.executor = Executors.newFixedThreadPool(threads, r -> {
-            Thread t = new Thread(r, "MCCinema-FrameProcessor");
-            t.setDaemon(true);
-            return t;
-        });
+        loadDitheringConfig(config);
+        // 0 (or less) = automatic, half the available cores
+        int configuredThreads = config.getInt("performance.processing-threads", 0);
+        this.processingThreads = configuredThreads > 0
+            ? configuredThreads
+            : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        // The thread calling processFrame is one of the members
+        this.workers = scheduler != null
+            ? scheduler.createLane(processingThreads)
+            : new WorkerGang(processingThreads, "MCCinema-FrameProcessor");
     }
 
     private void loadDitheringConfig(FileConfiguration config) {
@@ -114,6 +220,12 @@ public class FrameProcessor {
 
             this.ditheringMode = DitheringMode.FLOYD_STEINBERG_REDUCED;
         }
+        String strategyStr = config.getString("dithering.parallel-strategy", "WAVEFRONT");
+        try {
+            this.parallelStrategy = ParallelStrategy.valueOf(strategyStr.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            this.parallelStrategy = ParallelStrategy.WAVEFRONT;
+        }
         this.errorDiffusionStrength = (float) Math.max(0.0, Math.min(1.0,
             config.getDouble("dithering.error-diffusion-strength", 0.8)));
         this.errorThreshold = Math.max(0, Math.min(255,
@@ -123,6 +235,10 @@ public class FrameProcessor {
             config.getInt("dithering.temporal.threshold", 4)));
         this.errorQuantizationBits = Math.max(0, Math.min(7,
             config.getInt("dithering.temporal.error-quantization-bits", 2)));
+        this.useVectorKernels = VECTOR_API_AVAILABLE && config.getBoolean("dithering.vector-kernels", true);
+        this.staticBlockReuse = config.getBoolean("dithering.static-block-reuse", true);
+        this.blueNoiseAnimated = config.getBoolean("dithering.blue-noise.animate", false);
+        this.fusedTileOutput = config.getBoolean("performance.fused-tile-output", true);
 
         this.adaptiveTuningEnabled = config.getBoolean("dithering.adaptive.enabled", true);
         this.adaptiveHighMotionThreshold = clampDouble(config.getDouble("dithering.adaptive.high-motion-threshold", 0.12), 0.0, 1.0);
@@ -146,6 +262,14 @@ public class FrameProcessor {
         return ditheringMode;
     }
 
+    public void setParallelStrategy(ParallelStrategy parallelStrategy) {
+        this.parallelStrategy = parallelStrategy;
+    }
+
+    public ParallelStrategy getParallelStrategy() {
+        return parallelStrategy;
+    }
+
     public double getErrorDiffusionStrength() {
         return errorDiffusionStrength;
     }
@@ -186,6 +310,93 @@ public class FrameProcessor {
         return errorQuantizationBits;
     }
 
+    /**
+     * Enables the SIMD kernels for BAYER_8X8, BLUE_NOISE and NONE. Has no effect if the Vector API is not available.
+     */
+    public void setUseVectorKernels(boolean useVectorKernels) {
+        this.useVectorKernels = VECTOR_API_AVAILABLE && useVectorKernels;
+    }
+
+    public boolean isUsingVectorKernels() {
+        return useVectorKernels;
+    }
+
+    public void setBlueNoiseAnimated(boolean blueNoiseAnimated) {
+        this.blueNoiseAnimated = blueNoiseAnimated;
+    }
+
+    public boolean isBlueNoiseAnimated() {
+        return blueNoiseAnimated;
+    }
+
+    public void setStaticBlockReuse(boolean staticBlockReuse) {
+        this.staticBlockReuse = staticBlockReuse;
+    }
+
+    public boolean isUsingStaticBlockReuse() {
+        return staticBlockReuse;
+    }
+
+    /**
+     * Dithers straight into the tile buffers instead of a frame buffer that the tiles are copied out of afterwards.
+     * Sources smaller than the screen are upscaled into the tiles the same way, without a full-size frame.
+     * Switching drops the temporal state for one frame, the previous result lives in the other kind of buffer.
+     */
+    public void setFusedTileOutput(boolean fusedTileOutput) {
+        this.fusedTileOutput = fusedTileOutput;
+    }
+
+    public boolean isUsingFusedTileOutput() {
+        return fusedTileOutput;
+    }
+
+    /**
+     * Leaves the dirty regions of processed frames to whoever dispatches them. The diff is against what was last
+     * sent, so it cannot be done before the previous frame has been dispatched; deferring it lets the next frame be
+     * processed while the previous one is still being sent. Deferred frames have no updates, only their tile data.
+     */
+    public void setDeferDirtyRegions(boolean deferDirtyRegions) {
+        this.deferDirtyRegions = deferDirtyRegions;
+    }
+
+    public boolean isDeferringDirtyRegions() {
+        return deferDirtyRegions;
+    }
+
+    /**
+     * Dithers frames at a share of the screen's resolution (0.25 - 1.0) and upscales the result, for when frames take
+     * too long at full resolution. Frames that are already smaller are dithered as they are.
+     */
+    public void setResolutionScale(double resolutionScale) {
+        this.resolutionScale = Math.max(0.25, Math.min(1.0, resolutionScale));
+    }
+
+    public double getResolutionScale() {
+        return resolutionScale;
+    }
+
+    /**
+     * Share of 16x16 blocks whose previous result was reused in the last dithered frame (0.0 - 1.0).
+     */
+    public double getLastReusedBlockRatio() {
+        return lastReusedBlockRatio;
+    }
+
+    /**
+     * Whether the server was started with {@code --add-modules=jdk.incubator.vector} on hardware with
+     * at least 256-bit vectors.
+     */
+    public static boolean isVectorApiAvailable() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return false;
+        }
+        try {
+            return VectorDitherKernels.isAccelerated();
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
     public void setAdaptiveTuningEnabled(boolean adaptiveTuningEnabled) {
         this.adaptiveTuningEnabled = adaptiveTuningEnabled;
     }
@@ -194,7 +405,18 @@ public class FrameProcessor {
         return adaptiveTuningEnabled;
     }
     
+    /**
+     * When the frame processed next has to be done, in {@link System#nanoTime()} terms. With the shared
+     * {@link ProcessingScheduler}, the processor with the earliest deadline gets threads first; without one it is
+     * due whenever.
+     */
+    public void setFrameDeadline(long deadlineNanos) {
+        workers.setDeadline(deadlineNanos);
+    }
+
     public ProcessedFrame processFrame(BufferedImage sourceImage, int targetWidth, int targetHeight, PerformanceMetrics metrics) {
+        long phasesBefore = workers.getPhaseCount();
+        long queueDelayBefore = workers.getQueueDelayNanos();
         long aspectStart = metrics != null ? System.nanoTime() : 0;
         BufferedImage correctedImage = applyAspectRatioCorrection(sourceImage, targetWidth, targetHeight);
         if (metrics != null && correctedImage != sourceImage) {
@@ -208,19 +430,41 @@ public class FrameProcessor {
         lastFrameContentStats = contentStats;
         lastAdaptiveProfile = adaptiveProfile;
 
+        double scale = resolutionScale;
+        int scaledWidth = Math.max(1, (int) Math.round(targetWidth * scale));
+        if (scale < 1.0 && sourceWidth > scaledWidth) {
+            int scaledHeight = Math.max(1, (int) Math.round((double) sourceHeight * scaledWidth / sourceWidth));
+            long scaleStart = metrics != null ? System.nanoTime() : 0;
+            sourceFrameData = downscaleSource(sourceFrameData, sourceWidth, sourceHeight, scaledWidth, scaledHeight);
+            sourceWidth = scaledWidth;
+            sourceHeight = scaledHeight;
+            if (metrics != null) {
+                metrics.recordImageConversion(System.nanoTime() - scaleStart);
+            }
+        }
+
         boolean needsUpscale = sourceWidth != targetWidth || sourceHeight != targetHeight;
+        boolean deferDiff = deferDirtyRegions;
+        byte[][] tileFrames = nextTileBuffers();
+        boolean fused = false;
+        byte[] upscaleSource = null;
+        int upscaleSourceWidth = 0;
 
         if (needsUpscale) {
             ensureSourceBuffers(sourceWidth, sourceHeight);
+            // The tile buffers of the last direct frame are about to be recycled
+            previousTileFrames = null;
 
             // Swap to source-resolution buffers for dithering
             byte[] savedDitheredData = ditheredFrameData;
             byte[] savedPreviousData = previousDitheredFrame;
             int[] savedPreviousHash = previousSourceHash;
+            StaticBlockMap savedStaticBlocks = staticBlocks;
 
             ditheredFrameData = sourceDitheredFrameData;
             previousDitheredFrame = sourcePreviousDitheredFrame;
             previousSourceHash = sourcePreviousHash;
+            staticBlocks = sourceStaticBlocks;
 
             long ditherStart = metrics != null ? System.nanoTime() : 0;
             ditherFrameAtResolution(sourceFrameData, sourceWidth, sourceHeight, adaptiveProfile);
@@ -228,25 +472,45 @@ public class FrameProcessor {
                 metrics.recordDithering(System.nanoTime() - ditherStart);
             }
 
-            // Persist source-resolution state for next frame's temporal dithering
-            // Copy current dithered result into the previous-frame buffer for next frame
-            System.arraycopy(ditheredFrameData, 0, sourcePreviousDitheredFrame, 0, ditheredFrameData.length);
-            sourceDitheredFrameData = ditheredFrameData;
+            // Persist source-resolution state for next frame's temporal dithering. Every pixel is written each
+            // frame, so the buffers can simply swap roles instead of copying the result over.
+            byte[] sourceResult = ditheredFrameData;
+            sourceDitheredFrameData = sourcePreviousDitheredFrame;
+            sourcePreviousDitheredFrame = sourceResult;
             sourcePreviousHash = previousSourceHash;
 
-            // Upscale dithered result to target resolution
-            long upscaleStart = metrics != null ? System.nanoTime() : 0;
-            byte[] upscaled = upscalePaletteIndices(ditheredFrameData, sourceWidth, sourceHeight, targetWidth, targetHeight);
-            if (metrics != null) {
-                metrics.recordUpscaling(System.nanoTime() - upscaleStart);
+            if (fusedTileOutput && targetWidth == frameWidth && targetHeight == frameHeight) {
+                // Tile preparation reads the tiles straight out of the source-resolution result
+                ensureUpscaleLookups(sourceWidth, sourceHeight, targetWidth, targetHeight);
+                upscaleSource = sourceResult;
+                upscaleSourceWidth = sourceWidth;
+            } else {
+                long upscaleStart = metrics != null ? System.nanoTime() : 0;
+                upscalePaletteIndices(sourceResult, sourceWidth, sourceHeight, targetWidth, targetHeight, savedDitheredData);
+                if (metrics != null) {
+                    metrics.recordUpscaling(System.nanoTime() - upscaleStart);
+                }
             }
 
-            // Restore target-resolution buffers and copy upscaled result
+            // Restore target-resolution buffers
             ditheredFrameData = savedDitheredData;
-            System.arraycopy(upscaled, 0, ditheredFrameData, 0, upscaled.length);
             previousDitheredFrame = savedPreviousData;
             previousSourceHash = savedPreviousHash;
+            staticBlocks = savedStaticBlocks;
+        } else if (fusedTileOutput && targetWidth == frameWidth && targetHeight == frameHeight) {
+            long ditherStart = metrics != null ? System.nanoTime() : 0;
+            ditherFrameIntoTiles(sourceFrameData, sourceWidth, sourceHeight, adaptiveProfile, tileFrames);
+            fused = true;
+            if (metrics != null) {
+                metrics.recordDithering(System.nanoTime() - ditherStart);
+            }
         } else {
+            if (previousTileFrames != null) {
+                // The last frame went into the tile buffers, previousDitheredFrame does not match the hashes
+                previousTileFrames = null;
+                Arrays.fill(previousSourceHash, 0);
+                staticBlocks.invalidate();
+            }
             long ditherStart = metrics != null ? System.nanoTime() : 0;
             ditherFrameAtResolution(sourceFrameData, sourceWidth, sourceHeight, adaptiveProfile);
             if (metrics != null) {
@@ -261,49 +525,113 @@ public class FrameProcessor {
         List<MapTile> tiles = screen.getTiles();
         int totalTiles = tiles.size();
 
-        List<PacketDispatcher.TileUpdate> updates = new ArrayList<>(totalTiles);
-        byte[][] fullMapData = new byte[totalTiles][];
-
-        if (totalTiles >= 64) {
-            @SuppressWarnings("unchecked")
-            Future<TileExtractionResult>[] futures = new Future[totalTiles];
-            for (int i = 0; i < tiles.size(); i++) {
-                final MapTile tile = tiles.get(i);
-                futures[i] = executor.submit(() -> {
-                    byte[] mapData = extractMapData(tile);
-                    MapTile.DirtyRegion dirtyRegion = tile.calculateDirtyRegionFromSent(mapData);
-                    return new TileExtractionResult(tile, mapData, dirtyRegion);
-                });
+        ProcessedFrame processed = processedFrameRing[tileBufferGeneration];
+        List<PacketDispatcher.TileUpdate> updates = processed.updates;
+        updates.clear();
+        byte[][] fullMapData = processed.fullMapData;
+        MapTile.DirtyRegion[] dirtyRegions = deferDiff ? null : processed.dirtyRegions;
+
+        // Tiles are split into one strided chunk per thread rather than one task per tile
+        int numChunks = totalTiles >= 64 ? Math.max(1, Math.min(processingThreads, totalTiles / 16)) : 1;
+        boolean extract = !fused;
+        byte[] tileSource = upscaleSource;
+        int tileSourceWidth = upscaleSourceWidth;
+        workers.run(numChunks, chunk ->
+            prepareTiles(tiles, chunk, numChunks, tileFrames, extract, tileSource, tileSourceWidth, dirtyRegions));
+
+        // Tile buffers are handed to the dispatcher and kept as the tile's last frame without copying, nothing
+        // writes to them until the ring comes back around
+        for (int i = 0; i < totalTiles; i++) {
+            MapTile tile = tiles.get(i);
+            byte[] mapData = tileFrames[tileSlot(tile)];
+            fullMapData[tile.getTileIndex()] = mapData;
+            if (!deferDiff) {
+                updates.add(new PacketDispatcher.TileUpdate(tile, dirtyRegions[i], mapData));
             }
-            for (Future<TileExtractionResult> future : futures) {
-                try {
-                    TileExtractionResult result = future.get();
-                    fullMapData[result.tile.getTileIndex()] = result.mapData;
-                    updates.add(new PacketDispatcher.TileUpdate(result.tile, result.dirtyRegion, result.mapData));
-                    result.tile.setLastFrameData(result.mapData.clone());
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+            tile.setLastFrameData(mapData);
+        }
+
+        if (metrics != null) {
+            metrics.recordTileExtraction(System.nanoTime() - tileExtractionStart);
+            metrics.recordParallelPhases((int) (workers.getPhaseCount() - phasesBefore));
+            metrics.recordSchedulerQueueDelay(workers.getQueueDelayNanos() - queueDelayBefore);
+        }
+
+        processed.contentStats = contentStats;
+        processed.dirtyRegionsDeferred = deferDiff;
+        return processed;
+    }
+
+    /**
+     * Fills the tile buffers if dithering did not already write them, either from the frame buffer or upscaled from
+     * {@code upscaleSource}, and diffs them against what was last sent unless {@code dirtyRegions} is null.
+     */
+    private void prepareTiles(List<MapTile> tiles, int firstTile, int tileStride, byte[][] tileFrames,
+                              boolean extract, byte[] upscaleSource, int upscaleSourceWidth,
+                              MapTile.DirtyRegion[] dirtyRegions) {
+        for (int i = firstTile; i < tiles.size(); i += tileStride) {
+            MapTile tile = tiles.get(i);
+            byte[] mapData = tileFrames[tileSlot(tile)];
+            if (upscaleSource != null) {
+                upscaleIntoTile(tile, upscaleSource, upscaleSourceWidth, mapData);
+            } else if (extract) {
+                extractMapData(tile, mapData);
             }
-        } else {
-            for (MapTile tile : tiles) {
-                byte[] mapData = extractMapData(tile);
-                fullMapData[tile.getTileIndex()] = mapData;
+            if (dirtyRegions != null) {
+                dirtyRegions[i] = tile.calculateDirtyRegionFromSent(mapData);
+            }
+        }
+    }
 
-                MapTile.DirtyRegion dirtyRegion = tile.calculateDirtyRegionFromSent(mapData);
-                updates.add(new PacketDispatcher.TileUpdate(tile, dirtyRegion, mapData));
-                tile.setLastFrameData(mapData.clone());
+    /**
+     * Next set of tile buffers from the ring, by {@link #tileSlot}.
+     */
+    private byte[][] nextTileBuffers() {
+        int tileCount = screen.getMapWidth() * screen.getMapHeight();
+        if (tileBufferRing == null) {
+            tileBufferRing = new byte[TILE_BUFFER_GENERATIONS][tileCount][MapTile.SIZE * MapTile.SIZE];
+            processedFrameRing = new ProcessedFrame[TILE_BUFFER_GENERATIONS];
+            for (int i = 0; i < TILE_BUFFER_GENERATIONS; i++) {
+                processedFrameRing[i] = new ProcessedFrame(tileCount);
             }
         }
+        tileBufferGeneration = (tileBufferGeneration + 1) % TILE_BUFFER_GENERATIONS;
+        return tileBufferRing[tileBufferGeneration];
+    }
 
-        if (metrics != null) {
-            metrics.recordTileExtraction(System.nanoTime() - tileExtractionStart);
+    /**
+     * Dithers straight into the tile buffers instead of the frame buffer, the previous frame's tile buffers serve as
+     * the reference for temporal and static block reuse.
+     */
+    private void ditherFrameIntoTiles(byte[] frameData, int width, int height, AdaptiveDitherProfile adaptiveProfile,
+                                      byte[][] current) {
+        byte[][] previous = previousTileFrames;
+        if (previous == null) {
+            // No reference frame: clearing the hashes and blocks means the kernels never read the previous buffers
+            Arrays.fill(previousSourceHash, 0);
+            staticBlocks.invalidate();
+            previous = current;
         }
 
-        return new ProcessedFrame(updates, fullMapData, contentStats);
+        fusedTarget = DitherTarget.tiles(current, previous, width);
+        try {
+            ditherFrameAtResolution(frameData, width, height, adaptiveProfile);
+        } finally {
+            fusedTarget = null;
+        }
+        previousTileFrames = current;
+    }
+
+    private int tileSlot(MapTile tile) {
+        return tile.getTileY() * screen.getMapWidth() + tile.getTileX();
     }
 
-    private record TileExtractionResult(MapTile tile, byte[] mapData, MapTile.DirtyRegion dirtyRegion) {
+    /**
+     * Output of the current dithering pass: the tile buffers when dithering into tiles, otherwise the frame buffer.
+     */
+    private DitherTarget currentTarget(int width) {
+        DitherTarget target = fusedTarget;
+        return target != null ? target : DitherTarget.frame(ditheredFrameData, previousDitheredFrame, width);
     }
 
     /**
@@ -315,6 +643,7 @@ public class FrameProcessor {
             return;
         }
         int sourcePixels = sourceWidth * sourceHeight;
+        sourceStaticBlocks.invalidate();
         sourceDitheredFrameData = new byte[sourcePixels];
         sourcePreviousDitheredFrame = new byte[sourcePixels];
         sourcePreviousHash = new int[sourcePixels];
@@ -347,12 +676,26 @@ public class FrameProcessor {
             offsetY = 0;
         }
 
-        BufferedImage corrected = new BufferedImage(correctedWidth, correctedHeight, BufferedImage.TYPE_3BYTE_BGR);
-        Graphics2D g = corrected.createGraphics();
-        g.setColor(Color.BLACK);
-        g.fillRect(0, 0, correctedWidth, correctedHeight);
+        // The canvas is kept while the source size stays the same. A new image starts out black and the bars are
+        // never drawn over, so only the video area has to be cleared, and only if the source can be transparent.
+        BufferedImage corrected = letterboxImage;
+        if (corrected == null || corrected.getWidth() != correctedWidth || corrected.getHeight() != correctedHeight
+            || letterboxSourceWidth != sourceWidth || letterboxSourceHeight != sourceHeight) {
+            if (letterboxGraphics != null) {
+                letterboxGraphics.dispose();
+            }
+            corrected = new BufferedImage(correctedWidth, correctedHeight, BufferedImage.TYPE_3BYTE_BGR);
+            letterboxImage = corrected;
+            letterboxGraphics = corrected.createGraphics();
+            letterboxGraphics.setColor(Color.BLACK);
+            letterboxSourceWidth = sourceWidth;
+            letterboxSourceHeight = sourceHeight;
+        }
+        Graphics2D g = letterboxGraphics;
+        if (source.getColorModel().hasAlpha()) {
+            g.fillRect(offsetX, offsetY, sourceWidth, sourceHeight);
+        }
         g.drawImage(source, offsetX, offsetY, null);
-        g.dispose();
 
         return corrected;
     }
@@ -362,14 +705,19 @@ public class FrameProcessor {
             return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
         }
 
-        BufferedImage converted = new BufferedImage(frameWidth, frameHeight, BufferedImage.TYPE_3BYTE_BGR);
-        converted.getGraphics().drawImage(image, 0, 0, frameWidth, frameHeight, null);
-        return ((DataBufferByte) converted.getRaster().getDataBuffer()).getData();
+        if (convertedImage == null) {
+            convertedImage = new BufferedImage(frameWidth, frameHeight, BufferedImage.TYPE_3BYTE_BGR);
+            convertedGraphics = convertedImage.createGraphics();
+            convertedGraphics.setColor(Color.BLACK);
+        }
+        if (image.getColorModel().hasAlpha()) {
+            convertedGraphics.fillRect(0, 0, frameWidth, frameHeight);
+        }
+        convertedGraphics.drawImage(image, 0, 0, frameWidth, frameHeight, null);
+        return ((DataBufferByte) convertedImage.getRaster().getDataBuffer()).getData();
     }
 
-    private byte[] extractMapData(MapTile tile) {
-        byte[] mapData = ByteArrayPool.getTileBuffer(MapTile.SIZE * MapTile.SIZE);
-
+    private void extractMapData(MapTile tile, byte[] mapData) {
         int startX = tile.getPixelOffsetX();
         int startY = tile.getPixelOffsetY();
 
@@ -380,11 +728,6 @@ public class FrameProcessor {
             int dstOffset = y * MapTile.SIZE;
             System.arraycopy(ditheredFrameData, srcOffset, mapData, dstOffset, MapTile.SIZE);
         }
-
-        byte[] result = mapData.clone();
-        ByteArrayPool.releaseTileBuffer();
-
-        return result;
     }
     private void ditherFrameAtResolution(byte[] frameData, int width, int height, AdaptiveDitherProfile adaptiveProfile) {
         int baseTemporalThreshold = temporalThreshold;
@@ -400,6 +743,8 @@ public class FrameProcessor {
                 errorDiffusionStrength = (float) clampDouble(adaptiveProfile.errorDiffusionStrength(), 0.0, 1.0);
             }
 
+            reusableBlocks = findReusableBlocks(frameData, width, height);
+
             switch (ditheringMode) {
                 case FLOYD_STEINBERG:
                     ditherFrameFloydSteinberg(frameData, width, height, 1.0f);
@@ -416,11 +761,15 @@ public class FrameProcessor {
                 case BAYER_8X8:
                     ditherFrameBayer(frameData, width, height);
                     break;
+                case BLUE_NOISE:
+                    ditherFrameBlueNoise(frameData, width, height);
+                    break;
                 case NONE:
                     ditherFrameNone(frameData, width, height);
                     break;
             }
         } finally {
+            reusableBlocks = null;
             temporalThreshold = baseTemporalThreshold;
             errorQuantizationBits = baseQuantizationBits;
             errorThreshold = baseErrorThreshold;
@@ -428,6 +777,69 @@ public class FrameProcessor {
         }
     }
 
+    /**
+     * Hashes the source frame per 16x16 block and returns the blocks that are unchanged since the last frame at this
+     * resolution, or null if there are none. Their palette indices are copied from the previous result instead of
+     * being dithered again.
+     */
+    private StaticBlockMap findReusableBlocks(byte[] frameData, int width, int height) {
+        StaticBlockMap blocks = staticBlocks;
+        if (!staticBlockReuse) {
+            blocks.invalidate();
+            lastReusedBlockRatio = 0.0;
+            return null;
+        }
+
+        boolean comparable = blocks.begin(width, height, ditherKey());
+        int blocksY = blocks.getBlocksY();
+        int numChunks = Math.max(1, Math.min(processingThreads, blocksY / 4));
+        int chunkRows = blocksY / numChunks;
+        workers.run(numChunks, chunk -> {
+            int startBlockY = chunk * chunkRows;
+            int endBlockY = (chunk == numChunks - 1) ? blocksY : startBlockY + chunkRows;
+            blocks.hashBlockRows(frameData, startBlockY, endBlockY);
+        });
+
+        boolean errorDiffusion = ditheringMode != DitheringMode.BAYER_8X8 && ditheringMode != DitheringMode.BLUE_NOISE
+            && ditheringMode != DitheringMode.NONE;
+        int reusable = blocks.finish(comparable, errorDiffusion);
+        lastReusedBlockRatio = (double) reusable / blocks.getBlockCount();
+        return reusable > 0 ? blocks : null;
+    }
+
+    /**
+     * Everything the dithered result of a block depends on besides its source pixels, for {@link StaticBlockMap}.
+     * During a frame this has the adaptive profile applied. Blocks dithered with other parameters are not reused.
+     */
+    private long ditherKey() {
+        return Float.floatToIntBits(errorDiffusionStrength) & 0xFFFFFFFFL
+            | (long) errorThreshold << 32
+            | (long) temporalThreshold << 40
+            | (long) errorQuantizationBits << 48
+            | (useTemporalDithering ? 1L : 0L) << 51
+            | (blueNoiseAnimated ? 1L : 0L) << 52
+            | (long) parallelStrategy.ordinal() << 54
+            | (long) ditheringMode.ordinal() << 57;
+    }
+
+    /**
+     * Every configured setting that changes the dithered frames, besides the palette's color metric, for telling baked
+     * files apart. Includes what the adaptive profile and block reuse are set to, as they pick what a frame looks like.
+     * Not to be called while a frame is processed, the dithering parameters then have the profile applied.
+     */
+    long bakeKey() {
+        long key = ditherKey()
+            | (staticBlockReuse ? 1L : 0L) << 53
+            | (adaptiveTuningEnabled ? 1L : 0L) << 60;
+        if (adaptiveTuningEnabled) {
+            key = key * 31 + Objects.hash(adaptiveHighMotionThreshold, adaptiveLowMotionThreshold,
+                adaptiveFlatAreaThreshold, adaptiveTemporalBoostMotion, adaptiveTemporalBoostFlat,
+                adaptiveQuantBoostMotion, adaptiveQuantBoostFlat, adaptiveErrorThresholdBoostMotion,
+                adaptiveErrorThresholdBoostFlat, adaptiveDiffusionScaleMotion, adaptiveDiffusionScaleFlat);
+        }
+        return key;
+    }
+
     private FrameContentStats analyzeFrameContent(byte[] sourceFrameData, int width, int height) {
         if (sourceFrameData == null || sourceFrameData.length == 0) {
             return new FrameContentStats(0.0, 0.0, 0.0);
@@ -557,147 +969,162 @@ public class FrameProcessor {
         return lastAdaptiveProfile;
     }
 
-    private byte[] upscalePaletteIndices(byte[] sourceIndices, int sourceWidth, int sourceHeight, int targetWidth, int targetHeight) {
-        byte[] result = new byte[targetWidth * targetHeight];
-        if (sourceWidth == targetWidth && sourceHeight == targetHeight) {
-            System.arraycopy(sourceIndices, 0, result, 0, sourceIndices.length);
-            return result;
+    /**
+     * Nearest-neighbour source column and row for every target column and row. Integer scales map exactly, other
+     * ratios through 16.16 fixed point. Only depends on the sizes, which rarely change during playback.
+     */
+    private void ensureUpscaleLookups(int sourceWidth, int sourceHeight, int targetWidth, int targetHeight) {
+        if (upscaleXLookup != null && upscaleXLookup.length == targetWidth && upscaleYLookup.length == targetHeight
+            && upscaleLookupSourceWidth == sourceWidth && upscaleLookupSourceHeight == sourceHeight) {
+            return;
         }
-
+        boolean isIntegerScale = (targetWidth % sourceWidth == 0) && (targetHeight % sourceHeight == 0)
+            && targetWidth / sourceWidth == targetHeight / sourceHeight;
+        int scale = isIntegerScale ? targetWidth / sourceWidth : 0;
         int xRatioFixed = (sourceWidth << 16) / targetWidth;
         int yRatioFixed = (sourceHeight << 16) / targetHeight;
 
-        int[] srcXLookup = new int[targetWidth];
+        int[] xLookup = new int[targetWidth];
         for (int x = 0; x < targetWidth; x++) {
-            srcXLookup[x] = (x * xRatioFixed) >>> 16;
+            xLookup[x] = isIntegerScale ? x / scale : (x * xRatioFixed) >>> 16;
         }
+        int[] yLookup = new int[targetHeight];
+        for (int y = 0; y < targetHeight; y++) {
+            yLookup[y] = isIntegerScale ? y / scale : (y * yRatioFixed) >>> 16;
+        }
+        upscaleXLookup = xLookup;
+        upscaleYLookup = yLookup;
+        upscaleLookupSourceWidth = sourceWidth;
+        upscaleLookupSourceHeight = sourceHeight;
+    }
 
-        boolean isIntegerScale = (targetWidth % sourceWidth == 0) && (targetHeight % sourceHeight == 0);
-        int scaleX = isIntegerScale ? targetWidth / sourceWidth : 0;
-        int scaleY = isIntegerScale ? targetHeight / sourceHeight : 0;
+    /**
+     * Upscales the dithered palette indices into a full target-size frame. Only used when the result has to end up
+     * in a frame buffer, the fused path fills the tiles directly in {@link #upscaleIntoTile}.
+     */
+    private void upscalePaletteIndices(byte[] sourceIndices, int sourceWidth, int sourceHeight, int targetWidth, int targetHeight,
+                                       byte[] result) {
+        if (sourceWidth == targetWidth && sourceHeight == targetHeight) {
+            System.arraycopy(sourceIndices, 0, result, 0, sourceIndices.length);
+            return;
+        }
+        ensureUpscaleLookups(sourceWidth, sourceHeight, targetWidth, targetHeight);
+
+        int numChunks = targetWidth * targetHeight > 1_000_000
+            ? Math.max(1, Math.min(workers.size(), targetHeight / 64))
+            : 1;
+        int chunkHeight = targetHeight / numChunks;
+        workers.run(numChunks, chunk -> {
+            int startY = chunk * chunkHeight;
+            int endY = (chunk == numChunks - 1) ? targetHeight : startY + chunkHeight;
+            upscaleRows(sourceIndices, sourceWidth, result, targetWidth, startY, endY);
+        });
+    }
 
-        if (targetWidth * targetHeight > 1_000_000) {
-            upscalePaletteIndicesParallel(sourceIndices, result, sourceWidth, sourceHeight,
-                                         targetWidth, targetHeight, srcXLookup, yRatioFixed,
-                                         isIntegerScale, scaleX, scaleY);
-        } else {
-            upscalePaletteIndicesSerial(sourceIndices, result, sourceWidth, sourceHeight,
-                                       targetWidth, targetHeight, srcXLookup, yRatioFixed,
-                                       isIntegerScale, scaleX, scaleY);
+    /**
+     * Averages the BGR source down to the given size for {@link #setResolutionScale}. Each scaled pixel is the mean
+     * of the source pixels it covers.
+     */
+    private byte[] downscaleSource(byte[] source, int sourceWidth, int sourceHeight, int width, int height) {
+        if (scaledSourceData == null || scaledSourceData.length != width * height * 3) {
+            scaledSourceData = new byte[width * height * 3];
+        }
+        int[] xStarts = downscaleXStarts;
+        if (xStarts == null || xStarts.length != width + 1 || xStarts[width] != sourceWidth) {
+            xStarts = spanStarts(sourceWidth, width);
+            downscaleXStarts = xStarts;
+        }
+        int[] yStarts = downscaleYStarts;
+        if (yStarts == null || yStarts.length != height + 1 || yStarts[height] != sourceHeight) {
+            yStarts = spanStarts(sourceHeight, height);
+            downscaleYStarts = yStarts;
         }
 
+        byte[] result = scaledSourceData;
+        int[] columns = xStarts;
+        int[] rows = yStarts;
+        int numChunks = width * height > 250_000 ? Math.max(1, Math.min(workers.size(), height / 64)) : 1;
+        int chunkHeight = height / numChunks;
+        workers.run(numChunks, chunk -> {
+            int startY = chunk * chunkHeight;
+            int endY = (chunk == numChunks - 1) ? height : startY + chunkHeight;
+            downscaleRows(source, sourceWidth, result, width, columns, rows, startY, endY);
+        });
         return result;
     }
 
-    private void upscalePaletteIndicesSerial(byte[] sourceIndices, byte[] result,
-                                             int sourceWidth, int sourceHeight,
-                                             int targetWidth, int targetHeight,
-                                             int[] srcXLookup, int yRatioFixed,
-                                             boolean isIntegerScale, int scaleX, int scaleY) {
-        if (isIntegerScale && scaleX == scaleY && scaleX <= 8) {
-            int scale = scaleX;
-            for (int srcY = 0; srcY < sourceHeight; srcY++) {
-                int srcYOffset = srcY * sourceWidth;
-                int dstYBase = srcY * scale * targetWidth;
-                for (int srcX = 0; srcX < sourceWidth; srcX++) {
-                    byte pixel = sourceIndices[srcYOffset + srcX];
-                    int dstXBase = srcX * scale;
-                    for (int dy = 0; dy < scale; dy++) {
-                        int dstOffset = dstYBase + dy * targetWidth + dstXBase;
-                        for (int dx = 0; dx < scale; dx++) {
-                            result[dstOffset + dx] = pixel;
-                        }
-                    }
-                }
-            }
-        } else {
-            int lastSrcY = -1;
-            int firstTargetRowWithThisSrcY = -1;
-            for (int y = 0; y < targetHeight; y++) {
-                int srcY = (y * yRatioFixed) >>> 16;
-                int dstYOffset = y * targetWidth;
-                if (srcY == lastSrcY) {
-                    int srcOffset = firstTargetRowWithThisSrcY * targetWidth;
-                    System.arraycopy(result, srcOffset, result, dstYOffset, targetWidth);
-                } else {
-                    int srcYOffset = srcY * sourceWidth;
-                    for (int x = 0; x < targetWidth; x++) {
-                        result[dstYOffset + x] = sourceIndices[srcYOffset + srcXLookup[x]];
+    private static int[] spanStarts(int sourceSize, int size) {
+        int[] starts = new int[size + 1];
+        for (int i = 0; i <= size; i++) {
+            starts[i] = (int) ((long) i * sourceSize / size);
+        }
+        return starts;
+    }
+
+    private static void downscaleRows(byte[] source, int sourceWidth, byte[] result, int width, int[] xStarts,
+                                      int[] yStarts, int startY, int endY) {
+        for (int y = startY; y < endY; y++) {
+            int y0 = yStarts[y];
+            int y1 = Math.max(y0 + 1, yStarts[y + 1]);
+            int dst = y * width * 3;
+            for (int x = 0; x < width; x++) {
+                int x0 = xStarts[x];
+                int x1 = Math.max(x0 + 1, xStarts[x + 1]);
+                int blue = 0, green = 0, red = 0;
+                for (int sy = y0; sy < y1; sy++) {
+                    int src = (sy * sourceWidth + x0) * 3;
+                    for (int sx = x0; sx < x1; sx++) {
+                        blue += source[src] & 0xFF;
+                        green += source[src + 1] & 0xFF;
+                        red += source[src + 2] & 0xFF;
+                        src += 3;
                     }
-                    lastSrcY = srcY;
-                    firstTargetRowWithThisSrcY = y;
                 }
+                int count = (y1 - y0) * (x1 - x0);
+                int half = count >> 1;
+                result[dst++] = (byte) ((blue + half) / count);
+                result[dst++] = (byte) ((green + half) / count);
+                result[dst++] = (byte) ((red + half) / count);
             }
         }
     }
 
-    
-    private void upscalePaletteIndicesParallel(byte[] sourceIndices, byte[] result,
-                                               int sourceWidth, int sourceHeight,
-                                               int targetWidth, int targetHeight,
-                                               int[] srcXLookup, int yRatioFixed,
-                                               boolean isIntegerScale, int scale, int scaleY) {
-        int availableThreads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
-        int chunkHeight = Math.max(64, targetHeight / availableThreads);
-        int numChunks = (targetHeight + chunkHeight - 1) / chunkHeight;
-        List<Future<?>> futures = new ArrayList<>(numChunks);
-        for (int chunk = 0; chunk < numChunks; chunk++) {
-            final int startY = chunk * chunkHeight;
-            final int endY = Math.min(startY + chunkHeight, targetHeight);
-            futures.add(executor.submit(() -> {
-                if (isIntegerScale && scale == scaleY && scale <= 8) {
-                    int srcStartY = startY / scale;
-                    int srcEndY = (endY + scale - 1) / scale;
-                    for (int srcY = srcStartY; srcY < srcEndY && srcY < sourceHeight; srcY++) {
-                        int srcYOffset = srcY * sourceWidth;
-                        int dstYBase = srcY * scale * targetWidth;
-                        if (dstYBase >= endY) break;
-                        if (dstYBase + scale < startY) continue;
-                        for (int srcX = 0; srcX < sourceWidth; srcX++) {
-                            byte pixel = sourceIndices[srcYOffset + srcX];
-                            int dstXBase = srcX * scale;
-
-                            for (int dy = 0; dy < scale; dy++) {
-                                int dstY = dstYBase + dy * targetWidth;
-                                if (dstY >= startY && dstY < endY) {
-                                    int dstOffset = dstY + dstXBase;
-                                    for (int dx = 0; dx < scale; dx++) {
-                                        result[dstOffset + dx] = pixel;
-                                    }
-                                }
-                            }
-                        }
-                    }
-                } else {
-
-                    int lastSrcY = -1;
-                    int firstTargetRowWithThisSrcY = -1;
-                    for (int y = startY; y < endY; y++) {
-                        int srcY = (y * yRatioFixed) >>> 16;
-                        int dstYOffset = y * targetWidth;
-                        if (srcY == lastSrcY && firstTargetRowWithThisSrcY >= 0 && firstTargetRowWithThisSrcY >= startY) {
-
-                            int srcOffset = firstTargetRowWithThisSrcY * targetWidth;
-                            System.arraycopy(result, srcOffset, result, dstYOffset, targetWidth);
-                        } else {
-                            int srcYOffset = srcY * sourceWidth;
-                            for (int x = 0; x < targetWidth; x++) {
-                                result[dstYOffset + x] = sourceIndices[srcYOffset + srcXLookup[x]];
-                            }
-                            lastSrcY = srcY;
-                            firstTargetRowWithThisSrcY = y;
-                        }
-                    }
-                }
-            }));
+    private void upscaleRows(byte[] sourceIndices, int sourceWidth, byte[] result, int targetWidth,
+                             int startY, int endY) {
+        int[] xLookup = upscaleXLookup;
+        int[] yLookup = upscaleYLookup;
+        for (int y = startY; y < endY; y++) {
+            int dstYOffset = y * targetWidth;
+            if (y > startY && yLookup[y] == yLookup[y - 1]) {
+                // Same source row as the row above, which is already done
+                System.arraycopy(result, dstYOffset - targetWidth, result, dstYOffset, targetWidth);
+                continue;
+            }
+            int srcYOffset = yLookup[y] * sourceWidth;
+            for (int x = 0; x < targetWidth; x++) {
+                result[dstYOffset + x] = sourceIndices[srcYOffset + xLookup[x]];
+            }
         }
+    }
 
-        for (int i = 0; i < futures.size(); i++) {
-            try {
-                futures.get(i).get();
-            } catch (Exception e) {
-                System.err.println("Error in parallel upscaling chunk " + i + ": " + e.getMessage());
-                e.printStackTrace();
+    /**
+     * Fills a tile straight from the source-resolution palette indices, so the upscaled frame is never built.
+     */
+    private void upscaleIntoTile(MapTile tile, byte[] sourceIndices, int sourceWidth, byte[] mapData) {
+        int[] xLookup = upscaleXLookup;
+        int[] yLookup = upscaleYLookup;
+        int startX = tile.getPixelOffsetX();
+        int startY = tile.getPixelOffsetY();
+        for (int y = 0; y < MapTile.SIZE; y++) {
+            int dstOffset = y * MapTile.SIZE;
+            int srcY = yLookup[startY + y];
+            if (y > 0 && srcY == yLookup[startY + y - 1]) {
+                System.arraycopy(mapData, dstOffset - MapTile.SIZE, mapData, dstOffset, MapTile.SIZE);
+                continue;
+            }
+            int srcYOffset = srcY * sourceWidth;
+            for (int x = 0; x < MapTile.SIZE; x++) {
+                mapData[dstOffset + x] = sourceIndices[srcYOffset + xLookup[startX + x]];
             }
         }
     }
@@ -706,41 +1133,91 @@ public class FrameProcessor {
         return (value & ~255) == 0 ? value : (value < 0 ? 0 : 255);
     }
 
-    private void ditherFrameNone(byte[] frameData, int width, int height) {
-        for (int y = 0; y < height; y++) {
-            int yIndex = y * width;
-            for (int x = 0; x < width; x++) {
-                int pos = (yIndex + x) * 3;
-                int blue = frameData[pos] & 0xff;
-                int green = frameData[pos + 1] & 0xff;
-                int red = frameData[pos + 2] & 0xff;
+    void ditherFrameNone(byte[] frameData, int width, int height) {
+        ditherFrameOrdered(frameData, width, height, null);
+    }
 
-                int closest = getBestFullColor(red, green, blue);
-                ditheredFrameData[yIndex + x] = getColor(closest);
-            }
+    void ditherFrameBayer(byte[] frameData, int width, int height) {
+        ditherFrameOrdered(frameData, width, height, BAYER_THRESHOLDS);
+    }
+
+    /**
+     * Blue-noise ordered dithering. The texture is static by default, so unchanged pixels keep their palette index
+     * and never flicker. When animated, the thresholds cycle through golden ratio offsets, which trades some
+     * stability (and bandwidth) for less visible texture in slow gradients.
+     */
+    void ditherFrameBlueNoise(byte[] frameData, int width, int height) {
+        int phase = 0;
+        if (blueNoiseAnimated) {
+            phase = blueNoisePhase;
+            blueNoisePhase = (blueNoisePhase + 1) % BLUE_NOISE_PHASES;
         }
+        ditherFrameOrdered(frameData, width, height, BlueNoiseThresholds.PHASES[phase]);
     }
 
-    private void ditherFrameBayer(byte[] frameData, int width, int height) {
-        for (int y = 0; y < height; y++) {
-            int yIndex = y * width;
-            int bayerY = y & 7;
+    /**
+     * Ordered dithering has no error carried between pixels, so rows are simply split into chunks and
+     * processed in parallel.
+     */
+    private void ditherFrameOrdered(byte[] frameData, int width, int height, ThresholdMatrix thresholds) {
+        boolean vector = useVectorKernels;
+        DitherTarget target = currentTarget(width);
+        StaticBlockMap reuse = reusableBlocks;
+        int numChunks = Math.max(1, Math.min(processingThreads, height / 16));
+
+        if (numChunks <= 1) {
+            ditherRowsOrdered(frameData, width, 0, height, thresholds, vector, target, reuse);
+            return;
+        }
 
-            for (int x = 0; x < width; x++) {
-                int pos = (yIndex + x) * 3;
-                int blue = frameData[pos] & 0xff;
-                int green = frameData[pos + 1] & 0xff;
-                int red = frameData[pos + 2] & 0xff;
-                int bayerX = x & 7;
-                int threshold = (BAYER_MATRIX_8x8[bayerY][bayerX] * 4) - 128;
+        int chunkHeight = height / numChunks;
+        workers.run(numChunks, chunk -> {
+            int startY = chunk * chunkHeight;
+            int endY = (chunk == numChunks - 1) ? height : startY + chunkHeight;
+            ditherRowsOrdered(frameData, width, startY, endY, thresholds, vector, target, reuse);
+        });
+    }
+
+    private static void ditherRowsOrdered(byte[] frameData, int width, int startY, int endY,
+                                          ThresholdMatrix thresholds, boolean vector, DitherTarget target,
+                                          StaticBlockMap reuse) {
+        if (vector && reuse == null && target.isFrame()) {
+            VectorDitherKernels.ditherRows(frameData, width, startY, endY, thresholds, target.output(0, 0));
+            return;
+        }
 
+        RowSpanKernel kernel = (y, startX, endX, currentRow, nextRow, nextNextRow, output, prevFrame, outputDelta) -> {
+            int[] thresholdRow = thresholds != null ? thresholds.row(y) : null;
+            if (vector) {
+                VectorDitherKernels.ditherSpan(frameData, y * width, startX, endX, thresholdRow, thresholds,
+                    output, outputDelta);
+            } else {
+                ditherRowOrderedScalar(frameData, y * width, startX, endX, thresholdRow, thresholds,
+                    output, outputDelta);
+            }
+        };
+        for (int y = startY; y < endY; y++) {
+            ditherRowSpans(target, reuse, y, 0, width, false, null, null, null, kernel);
+        }
+    }
+
+    static void ditherRowOrderedScalar(byte[] frameData, int yIndex, int startX, int endX,
+                                       int[] thresholdRow, ThresholdMatrix thresholds,
+                                       byte[] output, int outputDelta) {
+        int pos = (yIndex + startX) * 3;
+        for (int x = startX; x < endX; x++, pos += 3) {
+            int blue = frameData[pos] & 0xff;
+            int green = frameData[pos + 1] & 0xff;
+            int red = frameData[pos + 2] & 0xff;
+
+            if (thresholdRow != null) {
+                int threshold = thresholdRow[thresholds.column(x)];
                 red = clamp(red + threshold);
                 green = clamp(green + threshold);
                 blue = clamp(blue + threshold);
-
-                int closest = getBestFullColor(red, green, blue);
-                ditheredFrameData[yIndex + x] = getColor(closest);
             }
+
+            output[yIndex + x + outputDelta] = COLOR_MAP[(red >> 1) << 14 | (green >> 1) << 7 | (blue >> 1)];
         }
     }
 
@@ -756,480 +1233,662 @@ public class FrameProcessor {
         }
     }
 
+    private void ensureWavefrontBuffers(int ringSize, int width, int height) {
+        if (wavefrontBuffers == null || wavefrontBuffers.length != ringSize || wavefrontBuffers[0].length != width * 3) {
+            wavefrontBuffers = new int[ringSize][width * 3];
+        } else {
+            for (int[] row : wavefrontBuffers) {
+                Arrays.fill(row, 0);
+            }
+        }
+        if (wavefrontProgress == null || wavefrontProgress.length() < height) {
+            wavefrontProgress = new AtomicIntegerArray(height);
+        } else {
+            for (int y = 0; y < height; y++) {
+                wavefrontProgress.setPlain(y, 0);
+            }
+        }
+    }
+
+    /**
+     * Runs an error diffusion kernel as a wavefront. Up to {@code n} row workers take rows in order from a shared
+     * counter and dither them block by block, only starting a block once the row above has finished {@code lag}
+     * pixels past its end. Every error entry is therefore complete before it is read and never written by two rows
+     * at the same time, so the result is the same as dithering the rows in order on a single thread. A row only
+     * waits for rows taken before it, which are being worked on, so any number of the workers may actually run.
+     * <p>
+     * Error rows live in a ring of {@code n + 3} buffers: up to {@code n} rows are in flight, each writing at most
+     * two rows ahead, and a row's buffer is cleared before the row is marked as finished.
+     */
+    private void ditherFrameWavefront(int width, int height, int lag, DitherTarget target, RowSpanKernel kernel) {
+        int rowWorkers = Math.max(1, Math.min(workers.size(), height));
+        ensureWavefrontBuffers(rowWorkers + 3, width, height);
+        int[][] ring = wavefrontBuffers;
+        AtomicIntegerArray progress = wavefrontProgress;
+        StaticBlockMap reuse = reusableBlocks;
+
+        AtomicInteger nextRow = wavefrontNextRow;
+        nextRow.set(0);
+        workers.run(rowWorkers, worker ->
+            ditherWavefrontRows(nextRow, width, height, lag, ring, progress, kernel, reuse, target));
+    }
+
+    private static void ditherWavefrontRows(AtomicInteger rowCounter, int width, int height, int lag,
+                                            int[][] ring, AtomicIntegerArray progress, RowSpanKernel kernel,
+                                            StaticBlockMap reuse, DitherTarget target) {
+        int ringSize = ring.length;
+        int y = -1;
+        try {
+            while ((y = rowCounter.getAndIncrement()) < height) {
+                int[] currentRow = ring[y % ringSize];
+                int[] nextRow = ring[(y + 1) % ringSize];
+                int[] nextNextRow = ring[(y + 2) % ringSize];
+
+                for (int startX = 0; startX < width; startX += WAVEFRONT_BLOCK) {
+                    int endX = Math.min(width, startX + WAVEFRONT_BLOCK);
+                    if (y > 0) {
+                        awaitRowProgress(progress, y - 1, Math.min(width, endX + lag));
+                    }
+                    ditherRowSpans(target, reuse, y, startX, endX, false, currentRow, nextRow, nextNextRow, kernel);
+                    if (endX == width) {
+                        // Cleared before the row counts as done: the rows reusing its buffer are taken by whichever
+                        // worker is free, and only wait for this row through the rows in between
+                        Arrays.fill(currentRow, 0);
+                    }
+                    progress.setRelease(y, endX);
+                }
+            }
+        } finally {
+            // Never leave the rows below waiting for a row that will not be finished
+            if (y >= 0 && y < height) {
+                progress.setRelease(y, width);
+            }
+        }
+    }
+
+    private static void awaitRowProgress(AtomicIntegerArray progress, int row, int target) {
+        int spins = 0;
+        while (progress.getAcquire(row) < target) {
+            if (++spins < 1024) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Dithers row {@code y} from {@code startX} to {@code endX}, right to left if {@code reverse} is set. The row is
+     * cut into spans that stay within one output buffer and within one run of reusable or changed blocks; reusable
+     * spans are copied from the previous result, the others are passed to the kernel.
+     */
+    private static void ditherRowSpans(DitherTarget target, StaticBlockMap reuse, int y, int startX, int endX,
+                                       boolean reverse, int[] currentRow, int[] nextRow, int[] nextNextRow,
+                                       RowSpanKernel kernel) {
+        if (!reverse) {
+            for (int x = startX; x < endX; ) {
+                int spanEnd = target.spanEnd(x, endX);
+                if (reuse != null) {
+                    spanEnd = reuse.runEnd(x, y, spanEnd);
+                }
+                ditherSpan(target, reuse, y, x, spanEnd, currentRow, nextRow, nextNextRow, kernel);
+                x = spanEnd;
+            }
+        } else {
+            for (int x = endX - 1; x >= startX; ) {
+                int spanStart = target.spanStart(x, startX);
+                if (reuse != null) {
+                    spanStart = reuse.runStart(x, y, spanStart);
+                }
+                ditherSpan(target, reuse, y, spanStart, x + 1, currentRow, nextRow, nextNextRow, kernel);
+                x = spanStart - 1;
+            }
+        }
+    }
+
+    private static void ditherSpan(DitherTarget target, StaticBlockMap reuse, int y, int startX, int endX,
+                                   int[] currentRow, int[] nextRow, int[] nextNextRow, RowSpanKernel kernel) {
+        byte[] output = target.output(startX, y);
+        byte[] prevFrame = target.previous(startX, y);
+        int outputDelta = target.delta(startX, y);
+        if (reuse != null && reuse.isReusable(startX, y)) {
+            int offset = target.pixelIndex(startX, y) + outputDelta;
+            System.arraycopy(prevFrame, offset, output, offset, endX - startX);
+        } else {
+            kernel.ditherSpan(y, startX, endX, currentRow, nextRow, nextNextRow, output, prevFrame, outputDelta);
+        }
+    }
+
+    /**
+     * A dithering kernel for a span of one row that lies within a single output buffer. The palette index of pixel
+     * {@code (x, y)} goes to {@code output[y * width + x + outputDelta]}, the previous one is read from the same
+     * position in {@code prevFrame}. Error rows and the source frame are always indexed by frame position.
+     */
+    @FunctionalInterface
+    private interface RowSpanKernel {
+        void ditherSpan(int y, int startX, int endX, int[] currentRow, int[] nextRow, int[] nextNextRow,
+                        byte[] output, byte[] prevFrame, int outputDelta);
+    }
+
     /**
-     * Band-parallel Floyd-Steinberg dithering. Splits the image into horizontal bands,
-     * each processed by a separate thread. Error propagation is contained within each band
-     * (no cross-band propagation), which produces a negligible visual seam at band boundaries
-     * that is imperceptible in video.
+     * Where a dithering pass writes its palette indices: either one row-major frame buffer, or straight into the
+     * 128x128 buffers of the map tiles so no extraction copy is needed afterwards.
+     */
+    static final class DitherTarget {
+
+        private static final int TILE_SHIFT = 7;
+        private static final int TILE_MASK = MapTile.SIZE - 1;
+
+        private final int width;
+        // Tiles per row, 0 for a single row-major buffer
+        private final int tilesX;
+        private final byte[][] outputs;
+        private final byte[][] previous;
+
+        private DitherTarget(int width, int tilesX, byte[][] outputs, byte[][] previous) {
+            this.width = width;
+            this.tilesX = tilesX;
+            this.outputs = outputs;
+            this.previous = previous;
+        }
+
+        static DitherTarget frame(byte[] output, byte[] previous, int width) {
+            return new DitherTarget(width, 0, new byte[][]{output}, new byte[][]{previous});
+        }
+
+        /**
+         * Tile buffers in row-major tile order, {@code width} must be a multiple of the tile size.
+         */
+        static DitherTarget tiles(byte[][] outputs, byte[][] previous, int width) {
+            return new DitherTarget(width, width >> TILE_SHIFT, outputs, previous);
+        }
+
+        boolean isFrame() {
+            return tilesX == 0;
+        }
+
+        int spanEnd(int x, int endX) {
+            return tilesX == 0 ? endX : Math.min(endX, ((x >> TILE_SHIFT) + 1) << TILE_SHIFT);
+        }
+
+        int spanStart(int x, int startX) {
+            return tilesX == 0 ? startX : Math.max(startX, (x >> TILE_SHIFT) << TILE_SHIFT);
+        }
+
+        int pixelIndex(int x, int y) {
+            return y * width + x;
+        }
+
+        byte[] output(int x, int y) {
+            return outputs[slot(x, y)];
+        }
+
+        byte[] previous(int x, int y) {
+            return previous[slot(x, y)];
+        }
+
+        int delta(int x, int y) {
+            return tilesX == 0 ? 0 : ((y & TILE_MASK) << TILE_SHIFT | (x & TILE_MASK)) - (y * width + x);
+        }
+
+        private int slot(int x, int y) {
+            return tilesX == 0 ? 0 : (y >> TILE_SHIFT) * tilesX + (x >> TILE_SHIFT);
+        }
+    }
+
+    /**
+     * Parallel Floyd-Steinberg dithering. With {@link ParallelStrategy#WAVEFRONT} the rows are scanned left to right
+     * and the result is identical to a single-threaded raster scan. With {@link ParallelStrategy#BANDS} the image is
+     * split into horizontal bands using serpentine scanning, each processed by a separate thread. Error propagation is
+     * then contained within each band, which produces a seam at band boundaries.
      */
     private void ditherFrameFloydSteinberg(byte[] frameData, int width, int height, float errorStrength) {
         int widthMinus = width - 1;
         int errorStrengthFixed = (int) (errorStrength * 256.0f);
 
-        // at least 32 rows per band to minimize seam artifacts
-        int maxBands = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
-        int numBands = Math.max(1, Math.min(maxBands, height / 32));
-
-        ensureBandBuffers(numBands, width);
-
         boolean doTemporal = useTemporalDithering;
         int hashBucket = doTemporal ? Math.max(1, temporalThreshold * 2) : 1;
         int localTemporalThreshold = temporalThreshold;
         int errorMask = errorQuantizationBits > 0 ? -(1 << errorQuantizationBits) : 0;
         int localErrorThreshold = errorThreshold;
-        byte[] prevFrame = previousDitheredFrame;
         int[] prevHash = previousSourceHash;
-        int prevFrameLength = prevFrame.length;
         int prevHashLength = prevHash.length;
-        byte[] output = ditheredFrameData;
-
-        if (numBands <= 1) {
-            int[] buf0 = bandDitherBuffers[0];
-            int[] buf1 = bandDitherBuffers[1];
-            java.util.Arrays.fill(buf0, 0);
-            java.util.Arrays.fill(buf1, 0);
-            ditherBand(frameData, width, widthMinus, 0, height, errorStrengthFixed,
+        DitherTarget target = currentTarget(width);
+        StaticBlockMap reuse = reusableBlocks;
+
+        if (parallelStrategy == ParallelStrategy.WAVEFRONT) {
+            ditherFrameWavefront(width, height, WAVEFRONT_LAG_FLOYD_STEINBERG, target,
+                (y, startX, endX, currentRow, nextRow, nextNextRow, output, prevFrame, outputDelta) ->
+                    ditherRowForwardOpt(frameData, currentRow, nextRow, widthMinus, startX, endX,
+                                        y + 1 < height, y * width, errorStrengthFixed,
+                                        doTemporal, hashBucket, localTemporalThreshold,
+                                        errorMask, localErrorThreshold,
+                                        prevFrame, prevHash, prevHashLength, output, outputDelta));
+            return;
+        }
+
+        // at least 32 rows per band to minimize seam artifacts
+        int maxBands = processingThreads;
+        int numBands = Math.max(1, Math.min(maxBands, height / 32));
+
+        ensureBandBuffers(numBands, width);
+
+        int bandHeight = height / numBands;
+        int[][] buffers = bandDitherBuffers;
+        workers.run(numBands, band -> {
+            int startY = band * bandHeight;
+            int endY = (band == numBands - 1) ? height : startY + bandHeight;
+            int[] buf0 = buffers[band * 3];
+            int[] buf1 = buffers[band * 3 + 1];
+            Arrays.fill(buf0, 0);
+            Arrays.fill(buf1, 0);
+            ditherBand(frameData, width, widthMinus, startY, endY, errorStrengthFixed,
                        buf0, buf1, doTemporal, hashBucket, localTemporalThreshold,
                        errorMask, localErrorThreshold,
-                       prevFrame, prevHash, prevFrameLength, prevHashLength, output);
-        } else {
-            int bandHeight = height / numBands;
-            Future<?>[] futures = new Future<?>[numBands];
-
-            for (int band = 0; band < numBands; band++) {
-                int startY = band * bandHeight;
-                int endY = (band == numBands - 1) ? height : startY + bandHeight;
-                int[] buf0 = bandDitherBuffers[band * 3];
-                int[] buf1 = bandDitherBuffers[band * 3 + 1];
-
-                futures[band] = executor.submit(() -> {
-                    java.util.Arrays.fill(buf0, 0);
-                    java.util.Arrays.fill(buf1, 0);
-                    ditherBand(frameData, width, widthMinus, startY, endY, errorStrengthFixed,
-                               buf0, buf1, doTemporal, hashBucket, localTemporalThreshold,
-                               errorMask, localErrorThreshold,
-                               prevFrame, prevHash, prevFrameLength, prevHashLength, output);
-                });
-            }
-
-            for (Future<?> f : futures) {
-                try {
-                    f.get();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-        }
+                       prevHash, prevHashLength, target, reuse);
+        });
     }
 
     private void ditherFrameAtkinson(byte[] frameData, int width, int height, float errorStrength) {
         // Slightly dampen Atkinson diffusion to better match video stability
         int errorStrengthFixed = (int) (Math.max(0.0f, Math.min(1.0f, errorStrength * 0.75f)) * 256.0f);
-        int maxBands = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
-        int numBands = Math.max(1, Math.min(maxBands, height / 32));
-
-        ensureBandBuffers(numBands, width);
-
         boolean doTemporal = useTemporalDithering;
         int hashBucket = doTemporal ? Math.max(1, temporalThreshold * 2) : 1;
         int localTemporalThreshold = Math.min(255, temporalThreshold + 2);
         int errorMask = errorQuantizationBits > 0 ? -(1 << errorQuantizationBits) : 0;
         int localErrorThreshold = errorThreshold;
-        byte[] prevFrame = previousDitheredFrame;
         int[] prevHash = previousSourceHash;
-        int prevFrameLength = prevFrame.length;
         int prevHashLength = prevHash.length;
-        byte[] output = ditheredFrameData;
-
-        if (numBands <= 1) {
-            int[] currentRow = bandDitherBuffers[0];
-            int[] nextRow = bandDitherBuffers[1];
-            int[] nextNextRow = bandDitherBuffers[2];
-            java.util.Arrays.fill(currentRow, 0);
-            java.util.Arrays.fill(nextRow, 0);
-            java.util.Arrays.fill(nextNextRow, 0);
-            ditherBandAtkinson(frameData, width, 0, height, errorStrengthFixed,
-                currentRow, nextRow, nextNextRow,
-                doTemporal, hashBucket, localTemporalThreshold,
-                errorMask, localErrorThreshold,
-                prevFrame, prevHash, prevFrameLength, prevHashLength, output);
+        DitherTarget target = currentTarget(width);
+        StaticBlockMap reuse = reusableBlocks;
+
+        if (parallelStrategy == ParallelStrategy.WAVEFRONT) {
+            ditherFrameWavefront(width, height, WAVEFRONT_LAG_ATKINSON, target,
+                (y, startX, endX, currentRow, nextRow, nextNextRow, output, prevFrame, outputDelta) ->
+                    ditherRowAtkinson(frameData, width, y * width, startX, endX, errorStrengthFixed,
+                        currentRow, nextRow, nextNextRow, y + 1 < height, y + 2 < height,
+                        doTemporal, hashBucket, localTemporalThreshold,
+                        errorMask, localErrorThreshold,
+                        prevFrame, prevHash, prevHashLength, output, outputDelta));
             return;
         }
 
+        int maxBands = processingThreads;
+        int numBands = Math.max(1, Math.min(maxBands, height / 32));
+
+        ensureBandBuffers(numBands, width);
+
         int bandHeight = height / numBands;
-        Future<?>[] futures = new Future<?>[numBands];
-        for (int band = 0; band < numBands; band++) {
+        int[][] buffers = bandDitherBuffers;
+        workers.run(numBands, band -> {
             int startY = band * bandHeight;
             int endY = (band == numBands - 1) ? height : startY + bandHeight;
-            int[] currentRow = bandDitherBuffers[band * 3];
-            int[] nextRow = bandDitherBuffers[band * 3 + 1];
-            int[] nextNextRow = bandDitherBuffers[band * 3 + 2];
-
-            futures[band] = executor.submit(() -> {
-                java.util.Arrays.fill(currentRow, 0);
-                java.util.Arrays.fill(nextRow, 0);
-                java.util.Arrays.fill(nextNextRow, 0);
-                ditherBandAtkinson(frameData, width, startY, endY, errorStrengthFixed,
-                    currentRow, nextRow, nextNextRow,
-                    doTemporal, hashBucket, localTemporalThreshold,
-                    errorMask, localErrorThreshold,
-                    prevFrame, prevHash, prevFrameLength, prevHashLength, output);
-            });
-        }
-
-        for (Future<?> f : futures) {
-            try {
-                f.get();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
+            int[] currentRow = buffers[band * 3];
+            int[] nextRow = buffers[band * 3 + 1];
+            int[] nextNextRow = buffers[band * 3 + 2];
+            Arrays.fill(currentRow, 0);
+            Arrays.fill(nextRow, 0);
+            Arrays.fill(nextNextRow, 0);
+            ditherBandAtkinson(frameData, width, startY, endY, errorStrengthFixed,
+                currentRow, nextRow, nextNextRow,
+                doTemporal, hashBucket, localTemporalThreshold,
+                errorMask, localErrorThreshold,
+                prevHash, prevHashLength, target, reuse);
+        });
     }
 
     private void ditherFrameStucki(byte[] frameData, int width, int height, float errorStrength) {
         int errorStrengthFixed = (int) (Math.max(0.0f, Math.min(1.0f, errorStrength * 0.85f)) * 256.0f);
-        int maxBands = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
-        int numBands = Math.max(1, Math.min(maxBands, height / 32));
-
-        ensureBandBuffers(numBands, width);
-
         boolean doTemporal = useTemporalDithering;
         int hashBucket = doTemporal ? Math.max(1, temporalThreshold * 2) : 1;
         int localTemporalThreshold = Math.min(255, temporalThreshold + 1);
         int errorMask = errorQuantizationBits > 0 ? -(1 << errorQuantizationBits) : 0;
         int localErrorThreshold = errorThreshold;
-        byte[] prevFrame = previousDitheredFrame;
         int[] prevHash = previousSourceHash;
-        int prevFrameLength = prevFrame.length;
         int prevHashLength = prevHash.length;
-        byte[] output = ditheredFrameData;
-
-        if (numBands <= 1) {
-            int[] currentRow = bandDitherBuffers[0];
-            int[] nextRow = bandDitherBuffers[1];
-            int[] nextNextRow = bandDitherBuffers[2];
-            java.util.Arrays.fill(currentRow, 0);
-            java.util.Arrays.fill(nextRow, 0);
-            java.util.Arrays.fill(nextNextRow, 0);
-            ditherBandStucki(frameData, width, 0, height, errorStrengthFixed,
-                currentRow, nextRow, nextNextRow,
-                doTemporal, hashBucket, localTemporalThreshold,
-                errorMask, localErrorThreshold,
-                prevFrame, prevHash, prevFrameLength, prevHashLength, output);
+        DitherTarget target = currentTarget(width);
+        StaticBlockMap reuse = reusableBlocks;
+
+        if (parallelStrategy == ParallelStrategy.WAVEFRONT) {
+            ditherFrameWavefront(width, height, WAVEFRONT_LAG_STUCKI, target,
+                (y, startX, endX, currentRow, nextRow, nextNextRow, output, prevFrame, outputDelta) ->
+                    ditherRowStucki(frameData, width, y * width, startX, endX, errorStrengthFixed,
+                        currentRow, nextRow, nextNextRow, y + 1 < height, y + 2 < height,
+                        doTemporal, hashBucket, localTemporalThreshold,
+                        errorMask, localErrorThreshold,
+                        prevFrame, prevHash, prevHashLength, output, outputDelta));
             return;
         }
 
+        int maxBands = processingThreads;
+        int numBands = Math.max(1, Math.min(maxBands, height / 32));
+
+        ensureBandBuffers(numBands, width);
+
         int bandHeight = height / numBands;
-        Future<?>[] futures = new Future<?>[numBands];
-        for (int band = 0; band < numBands; band++) {
+        int[][] buffers = bandDitherBuffers;
+        workers.run(numBands, band -> {
             int startY = band * bandHeight;
             int endY = (band == numBands - 1) ? height : startY + bandHeight;
-            int[] currentRow = bandDitherBuffers[band * 3];
-            int[] nextRow = bandDitherBuffers[band * 3 + 1];
-            int[] nextNextRow = bandDitherBuffers[band * 3 + 2];
-
-            futures[band] = executor.submit(() -> {
-                java.util.Arrays.fill(currentRow, 0);
-                java.util.Arrays.fill(nextRow, 0);
-                java.util.Arrays.fill(nextNextRow, 0);
-                ditherBandStucki(frameData, width, startY, endY, errorStrengthFixed,
-                    currentRow, nextRow, nextNextRow,
-                    doTemporal, hashBucket, localTemporalThreshold,
-                    errorMask, localErrorThreshold,
-                    prevFrame, prevHash, prevFrameLength, prevHashLength, output);
-            });
-        }
-
-        for (Future<?> f : futures) {
-            try {
-                f.get();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+            int[] currentRow = buffers[band * 3];
+            int[] nextRow = buffers[band * 3 + 1];
+            int[] nextNextRow = buffers[band * 3 + 2];
+            Arrays.fill(currentRow, 0);
+            Arrays.fill(nextRow, 0);
+            Arrays.fill(nextNextRow, 0);
+            ditherBandStucki(frameData, width, startY, endY, errorStrengthFixed,
+                currentRow, nextRow, nextNextRow,
+                doTemporal, hashBucket, localTemporalThreshold,
+                errorMask, localErrorThreshold,
+                prevHash, prevHashLength, target, reuse);
+        });
+    }
+
+    static void ditherBandAtkinson(byte[] frameData, int width,
+                                   int startY, int endY, int errorStrengthFixed,
+                                   int[] currentRow, int[] nextRow, int[] nextNextRow,
+                                   boolean doTemporal, int hashBucket, int temporalThreshold,
+                                   int errorMask, int errorThreshold,
+                                   int[] prevHash, int prevHashLength,
+                                   DitherTarget target, StaticBlockMap reuse) {
+        RowSpanKernel kernel = (y, startX, endX, current, next, nextNext, output, prevFrame, outputDelta) ->
+            ditherRowAtkinson(frameData, width, y * width, startX, endX, errorStrengthFixed,
+                current, next, nextNext, y + 1 < endY, y + 2 < endY,
+                doTemporal, hashBucket, temporalThreshold,
+                errorMask, errorThreshold,
+                prevFrame, prevHash, prevHashLength, output, outputDelta);
+        for (int y = startY; y < endY; y++) {
+            ditherRowSpans(target, reuse, y, 0, width, false, currentRow, nextRow, nextNextRow, kernel);
+
+            int[] temp = currentRow;
+            currentRow = nextRow;
+            nextRow = nextNextRow;
+            nextNextRow = temp;
+            Arrays.fill(nextNextRow, 0);
         }
     }
 
-    private static void ditherBandAtkinson(byte[] frameData, int width,
-                                           int startY, int endY, int errorStrengthFixed,
-                                           int[] currentRow, int[] nextRow, int[] nextNextRow,
-                                           boolean doTemporal, int hashBucket, int temporalThreshold,
-                                           int errorMask, int errorThreshold,
-                                           byte[] prevFrame, int[] prevHash,
-                                           int prevFrameLength, int prevHashLength,
-                                           byte[] output) {
+    private static void ditherRowAtkinson(byte[] frameData, int width, int yIndex, int startX, int endX,
+                                          int errorStrengthFixed,
+                                          int[] currentRow, int[] nextRow, int[] nextNextRow,
+                                          boolean hasNextY, boolean hasNextNextY,
+                                          boolean doTemporal, int hashBucket, int temporalThreshold,
+                                          int errorMask, int errorThreshold,
+                                          byte[] prevFrame, int[] prevHash, int prevHashLength,
+                                          byte[] output, int outputDelta) {
         int widthMinus1 = width - 1;
         int widthMinus2 = width - 2;
+        int bufferIndex = startX * 3;
+        int pos = (yIndex + startX) * 3;
+        int pixelIdx = yIndex + startX;
 
-        for (int y = startY; y < endY; y++) {
-            boolean hasNextY = (y + 1) < endY;
-            boolean hasNextNextY = (y + 2) < endY;
-            int yIndex = y * width;
-            int bufferIndex = 0;
-            int pos = yIndex * 3;
-            int pixelIdx = yIndex;
-
-            for (int x = 0; x < width; x++, bufferIndex += 3, pos += 3, pixelIdx++) {
-                int rawBlue = frameData[pos] & 0xff;
-                int rawGreen = frameData[pos + 1] & 0xff;
-                int rawRed = frameData[pos + 2] & 0xff;
-                int blue = clamp((frameData[pos] & 0xff) + currentRow[bufferIndex + 2]);
-                int green = clamp((frameData[pos + 1] & 0xff) + currentRow[bufferIndex + 1]);
-                int red = clamp((frameData[pos + 2] & 0xff) + currentRow[bufferIndex]);
-
-                if (tryTemporalReuse(doTemporal, pixelIdx, rawRed, rawGreen, rawBlue,
-                    hashBucket, temporalThreshold,
-                    prevFrame, prevHash, prevFrameLength, prevHashLength, output)) {
-                    continue;
-                }
+        for (int x = startX; x < endX; x++, bufferIndex += 3, pos += 3, pixelIdx++) {
+            int rawBlue = frameData[pos] & 0xff;
+            int rawGreen = frameData[pos + 1] & 0xff;
+            int rawRed = frameData[pos + 2] & 0xff;
+            int blue = clamp((frameData[pos] & 0xff) + currentRow[bufferIndex + 2]);
+            int green = clamp((frameData[pos + 1] & 0xff) + currentRow[bufferIndex + 1]);
+            int red = clamp((frameData[pos + 2] & 0xff) + currentRow[bufferIndex]);
 
-                int lookupIdx = (red >> 1) << 14 | (green >> 1) << 7 | (blue >> 1);
-                int closest = FULL_COLOR_MAP[lookupIdx];
-                int deltaR = red - ((closest >> 16) & 0xFF);
-                int deltaG = green - ((closest >> 8) & 0xFF);
-                int deltaB = blue - (closest & 0xFF);
-                int totalError = Math.abs(deltaR) + Math.abs(deltaG) + Math.abs(deltaB);
-                if (totalError > errorThreshold) {
-                    if (errorMask != 0) {
-                        deltaR = deltaR >= 0 ? (deltaR & errorMask) : -((-deltaR) & errorMask);
-                        deltaG = deltaG >= 0 ? (deltaG & errorMask) : -((-deltaG) & errorMask);
-                        deltaB = deltaB >= 0 ? (deltaB & errorMask) : -((-deltaB) & errorMask);
-                    }
-                    deltaR = (deltaR * errorStrengthFixed) >> 8;
-                    deltaG = (deltaG * errorStrengthFixed) >> 8;
-                    deltaB = (deltaB * errorStrengthFixed) >> 8;
+            if (tryTemporalReuse(doTemporal, pixelIdx, rawRed, rawGreen, rawBlue,
+                hashBucket, temporalThreshold,
+                prevFrame, prevHash, prevHashLength, output, pixelIdx + outputDelta)) {
+                continue;
+            }
 
-                    int shareR = deltaR >> 3;
-                    int shareG = deltaG >> 3;
-                    int shareB = deltaB >> 3;
+            int lookupIdx = (red >> 1) << 14 | (green >> 1) << 7 | (blue >> 1);
+            int closest = PALETTE[COLOR_MAP[lookupIdx] & 0xFF];
+            int deltaR = red - ((closest >> 16) & 0xFF);
+            int deltaG = green - ((closest >> 8) & 0xFF);
+            int deltaB = blue - (closest & 0xFF);
+            int totalError = Math.abs(deltaR) + Math.abs(deltaG) + Math.abs(deltaB);
+            if (totalError > errorThreshold) {
+                if (errorMask != 0) {
+                    deltaR = deltaR >= 0 ? (deltaR & errorMask) : -((-deltaR) & errorMask);
+                    deltaG = deltaG >= 0 ? (deltaG & errorMask) : -((-deltaG) & errorMask);
+                    deltaB = deltaB >= 0 ? (deltaB & errorMask) : -((-deltaB) & errorMask);
+                }
+                deltaR = (deltaR * errorStrengthFixed) >> 8;
+                deltaG = (deltaG * errorStrengthFixed) >> 8;
+                deltaB = (deltaB * errorStrengthFixed) >> 8;
+
+                int shareR = deltaR >> 3;
+                int shareG = deltaG >> 3;
+                int shareB = deltaB >> 3;
 
+                if (x < widthMinus1) {
+                    int idx = bufferIndex + 3;
+                    currentRow[idx] += shareR;
+                    currentRow[idx + 1] += shareG;
+                    currentRow[idx + 2] += shareB;
+                }
+                if (x < widthMinus2) {
+                    int idx = bufferIndex + 6;
+                    currentRow[idx] += shareR;
+                    currentRow[idx + 1] += shareG;
+                    currentRow[idx + 2] += shareB;
+                }
+                if (hasNextY) {
+                    if (x > 0) {
+                        int idx = bufferIndex - 3;
+                        nextRow[idx] += shareR;
+                        nextRow[idx + 1] += shareG;
+                        nextRow[idx + 2] += shareB;
+                    }
+                    nextRow[bufferIndex] += shareR;
+                    nextRow[bufferIndex + 1] += shareG;
+                    nextRow[bufferIndex + 2] += shareB;
                     if (x < widthMinus1) {
                         int idx = bufferIndex + 3;
-                        currentRow[idx] += shareR;
-                        currentRow[idx + 1] += shareG;
-                        currentRow[idx + 2] += shareB;
-                    }
-                    if (x < widthMinus2) {
-                        int idx = bufferIndex + 6;
-                        currentRow[idx] += shareR;
-                        currentRow[idx + 1] += shareG;
-                        currentRow[idx + 2] += shareB;
-                    }
-                    if (hasNextY) {
-                        if (x > 0) {
-                            int idx = bufferIndex - 3;
-                            nextRow[idx] += shareR;
-                            nextRow[idx + 1] += shareG;
-                            nextRow[idx + 2] += shareB;
-                        }
-                        nextRow[bufferIndex] += shareR;
-                        nextRow[bufferIndex + 1] += shareG;
-                        nextRow[bufferIndex + 2] += shareB;
-                        if (x < widthMinus1) {
-                            int idx = bufferIndex + 3;
-                            nextRow[idx] += shareR;
-                            nextRow[idx + 1] += shareG;
-                            nextRow[idx + 2] += shareB;
-                        }
-                    }
-                    if (hasNextNextY) {
-                        nextNextRow[bufferIndex] += shareR;
-                        nextNextRow[bufferIndex + 1] += shareG;
-                        nextNextRow[bufferIndex + 2] += shareB;
+                        nextRow[idx] += shareR;
+                        nextRow[idx + 1] += shareG;
+                        nextRow[idx + 2] += shareB;
                     }
                 }
-
-                output[pixelIdx] = COLOR_MAP[lookupIdx];
+                if (hasNextNextY) {
+                    nextNextRow[bufferIndex] += shareR;
+                    nextNextRow[bufferIndex + 1] += shareG;
+                    nextNextRow[bufferIndex + 2] += shareB;
+                }
             }
 
+            output[pixelIdx + outputDelta] = COLOR_MAP[lookupIdx];
+        }
+    }
+
+    static void ditherBandStucki(byte[] frameData, int width,
+                                 int startY, int endY, int errorStrengthFixed,
+                                 int[] currentRow, int[] nextRow, int[] nextNextRow,
+                                 boolean doTemporal, int hashBucket, int temporalThreshold,
+                                 int errorMask, int errorThreshold,
+                                 int[] prevHash, int prevHashLength,
+                                 DitherTarget target, StaticBlockMap reuse) {
+        RowSpanKernel kernel = (y, startX, endX, current, next, nextNext, output, prevFrame, outputDelta) ->
+            ditherRowStucki(frameData, width, y * width, startX, endX, errorStrengthFixed,
+                current, next, nextNext, y + 1 < endY, y + 2 < endY,
+                doTemporal, hashBucket, temporalThreshold,
+                errorMask, errorThreshold,
+                prevFrame, prevHash, prevHashLength, output, outputDelta);
+        for (int y = startY; y < endY; y++) {
+            ditherRowSpans(target, reuse, y, 0, width, false, currentRow, nextRow, nextNextRow, kernel);
+
             int[] temp = currentRow;
             currentRow = nextRow;
             nextRow = nextNextRow;
             nextNextRow = temp;
-            java.util.Arrays.fill(nextNextRow, 0);
+            Arrays.fill(nextNextRow, 0);
         }
     }
 
-    private static void ditherBandStucki(byte[] frameData, int width,
-                                         int startY, int endY, int errorStrengthFixed,
-                                         int[] currentRow, int[] nextRow, int[] nextNextRow,
-                                         boolean doTemporal, int hashBucket, int temporalThreshold,
-                                         int errorMask, int errorThreshold,
-                                         byte[] prevFrame, int[] prevHash,
-                                         int prevFrameLength, int prevHashLength,
-                                         byte[] output) {
+    private static void ditherRowStucki(byte[] frameData, int width, int yIndex, int startX, int endX,
+                                        int errorStrengthFixed,
+                                        int[] currentRow, int[] nextRow, int[] nextNextRow,
+                                        boolean hasNextY, boolean hasNextNextY,
+                                        boolean doTemporal, int hashBucket, int temporalThreshold,
+                                        int errorMask, int errorThreshold,
+                                        byte[] prevFrame, int[] prevHash, int prevHashLength,
+                                        byte[] output, int outputDelta) {
         int widthMinus1 = width - 1;
         int widthMinus2 = width - 2;
+        int bufferIndex = startX * 3;
+        int pos = (yIndex + startX) * 3;
+        int pixelIdx = yIndex + startX;
 
-        for (int y = startY; y < endY; y++) {
-            boolean hasNextY = (y + 1) < endY;
-            boolean hasNextNextY = (y + 2) < endY;
-            int yIndex = y * width;
-            int bufferIndex = 0;
-            int pos = yIndex * 3;
-            int pixelIdx = yIndex;
-
-            for (int x = 0; x < width; x++, bufferIndex += 3, pos += 3, pixelIdx++) {
-                int rawBlue = frameData[pos] & 0xff;
-                int rawGreen = frameData[pos + 1] & 0xff;
-                int rawRed = frameData[pos + 2] & 0xff;
-                int blue = clamp((frameData[pos] & 0xff) + currentRow[bufferIndex + 2]);
-                int green = clamp((frameData[pos + 1] & 0xff) + currentRow[bufferIndex + 1]);
-                int red = clamp((frameData[pos + 2] & 0xff) + currentRow[bufferIndex]);
-
-                if (tryTemporalReuse(doTemporal, pixelIdx, rawRed, rawGreen, rawBlue,
-                    hashBucket, temporalThreshold,
-                    prevFrame, prevHash, prevFrameLength, prevHashLength, output)) {
-                    continue;
+        for (int x = startX; x < endX; x++, bufferIndex += 3, pos += 3, pixelIdx++) {
+            int rawBlue = frameData[pos] & 0xff;
+            int rawGreen = frameData[pos + 1] & 0xff;
+            int rawRed = frameData[pos + 2] & 0xff;
+            int blue = clamp((frameData[pos] & 0xff) + currentRow[bufferIndex + 2]);
+            int green = clamp((frameData[pos + 1] & 0xff) + currentRow[bufferIndex + 1]);
+            int red = clamp((frameData[pos + 2] & 0xff) + currentRow[bufferIndex]);
+
+            if (tryTemporalReuse(doTemporal, pixelIdx, rawRed, rawGreen, rawBlue,
+                hashBucket, temporalThreshold,
+                prevFrame, prevHash, prevHashLength, output, pixelIdx + outputDelta)) {
+                continue;
+            }
+
+            int lookupIdx = (red >> 1) << 14 | (green >> 1) << 7 | (blue >> 1);
+            int closest = PALETTE[COLOR_MAP[lookupIdx] & 0xFF];
+            int deltaR = red - ((closest >> 16) & 0xFF);
+            int deltaG = green - ((closest >> 8) & 0xFF);
+            int deltaB = blue - (closest & 0xFF);
+            int totalError = Math.abs(deltaR) + Math.abs(deltaG) + Math.abs(deltaB);
+            if (totalError > errorThreshold) {
+                if (errorMask != 0) {
+                    deltaR = deltaR >= 0 ? (deltaR & errorMask) : -((-deltaR) & errorMask);
+                    deltaG = deltaG >= 0 ? (deltaG & errorMask) : -((-deltaG) & errorMask);
+                    deltaB = deltaB >= 0 ? (deltaB & errorMask) : -((-deltaB) & errorMask);
+                }
+                deltaR = (deltaR * errorStrengthFixed) >> 8;
+                deltaG = (deltaG * errorStrengthFixed) >> 8;
+                deltaB = (deltaB * errorStrengthFixed) >> 8;
+
+                if (x < widthMinus1) {
+                    int idx = bufferIndex + 3;
+                    currentRow[idx] += (deltaR * 8) / 42;
+                    currentRow[idx + 1] += (deltaG * 8) / 42;
+                    currentRow[idx + 2] += (deltaB * 8) / 42;
+                }
+                if (x < widthMinus2) {
+                    int idx = bufferIndex + 6;
+                    currentRow[idx] += (deltaR * 4) / 42;
+                    currentRow[idx + 1] += (deltaG * 4) / 42;
+                    currentRow[idx + 2] += (deltaB * 4) / 42;
                 }
 
-                int lookupIdx = (red >> 1) << 14 | (green >> 1) << 7 | (blue >> 1);
-                int closest = FULL_COLOR_MAP[lookupIdx];
-                int deltaR = red - ((closest >> 16) & 0xFF);
-                int deltaG = green - ((closest >> 8) & 0xFF);
-                int deltaB = blue - (closest & 0xFF);
-                int totalError = Math.abs(deltaR) + Math.abs(deltaG) + Math.abs(deltaB);
-                if (totalError > errorThreshold) {
-                    if (errorMask != 0) {
-                        deltaR = deltaR >= 0 ? (deltaR & errorMask) : -((-deltaR) & errorMask);
-                        deltaG = deltaG >= 0 ? (deltaG & errorMask) : -((-deltaG) & errorMask);
-                        deltaB = deltaB >= 0 ? (deltaB & errorMask) : -((-deltaB) & errorMask);
+                if (hasNextY) {
+                    if (x > 1) {
+                        int idx = bufferIndex - 6;
+                        nextRow[idx] += (deltaR * 2) / 42;
+                        nextRow[idx + 1] += (deltaG * 2) / 42;
+                        nextRow[idx + 2] += (deltaB * 2) / 42;
                     }
-                    deltaR = (deltaR * errorStrengthFixed) >> 8;
-                    deltaG = (deltaG * errorStrengthFixed) >> 8;
-                    deltaB = (deltaB * errorStrengthFixed) >> 8;
-
+                    if (x > 0) {
+                        int idx = bufferIndex - 3;
+                        nextRow[idx] += (deltaR * 4) / 42;
+                        nextRow[idx + 1] += (deltaG * 4) / 42;
+                        nextRow[idx + 2] += (deltaB * 4) / 42;
+                    }
+                    nextRow[bufferIndex] += (deltaR * 8) / 42;
+                    nextRow[bufferIndex + 1] += (deltaG * 8) / 42;
+                    nextRow[bufferIndex + 2] += (deltaB * 8) / 42;
                     if (x < widthMinus1) {
                         int idx = bufferIndex + 3;
-                        currentRow[idx] += (deltaR * 8) / 42;
-                        currentRow[idx + 1] += (deltaG * 8) / 42;
-                        currentRow[idx + 2] += (deltaB * 8) / 42;
+                        nextRow[idx] += (deltaR * 4) / 42;
+                        nextRow[idx + 1] += (deltaG * 4) / 42;
+                        nextRow[idx + 2] += (deltaB * 4) / 42;
                     }
                     if (x < widthMinus2) {
                         int idx = bufferIndex + 6;
-                        currentRow[idx] += (deltaR * 4) / 42;
-                        currentRow[idx + 1] += (deltaG * 4) / 42;
-                        currentRow[idx + 2] += (deltaB * 4) / 42;
+                        nextRow[idx] += (deltaR * 2) / 42;
+                        nextRow[idx + 1] += (deltaG * 2) / 42;
+                        nextRow[idx + 2] += (deltaB * 2) / 42;
                     }
+                }
 
-                    if (hasNextY) {
-                        if (x > 1) {
-                            int idx = bufferIndex - 6;
-                            nextRow[idx] += (deltaR * 2) / 42;
-                            nextRow[idx + 1] += (deltaG * 2) / 42;
-                            nextRow[idx + 2] += (deltaB * 2) / 42;
-                        }
-                        if (x > 0) {
-                            int idx = bufferIndex - 3;
-                            nextRow[idx] += (deltaR * 4) / 42;
-                            nextRow[idx + 1] += (deltaG * 4) / 42;
-                            nextRow[idx + 2] += (deltaB * 4) / 42;
-                        }
-                        nextRow[bufferIndex] += (deltaR * 8) / 42;
-                        nextRow[bufferIndex + 1] += (deltaG * 8) / 42;
-                        nextRow[bufferIndex + 2] += (deltaB * 8) / 42;
-                        if (x < widthMinus1) {
-                            int idx = bufferIndex + 3;
-                            nextRow[idx] += (deltaR * 4) / 42;
-                            nextRow[idx + 1] += (deltaG * 4) / 42;
-                            nextRow[idx + 2] += (deltaB * 4) / 42;
-                        }
-                        if (x < widthMinus2) {
-                            int idx = bufferIndex + 6;
-                            nextRow[idx] += (deltaR * 2) / 42;
-                            nextRow[idx + 1] += (deltaG * 2) / 42;
-                            nextRow[idx + 2] += (deltaB * 2) / 42;
-                        }
+                if (hasNextNextY) {
+                    if (x > 1) {
+                        int idx = bufferIndex - 6;
+                        nextNextRow[idx] += deltaR / 42;
+                        nextNextRow[idx + 1] += deltaG / 42;
+                        nextNextRow[idx + 2] += deltaB / 42;
                     }
-
-                    if (hasNextNextY) {
-                        if (x > 1) {
-                            int idx = bufferIndex - 6;
-                            nextNextRow[idx] += deltaR / 42;
-                            nextNextRow[idx + 1] += deltaG / 42;
-                            nextNextRow[idx + 2] += deltaB / 42;
-                        }
-                        if (x > 0) {
-                            int idx = bufferIndex - 3;
-                            nextNextRow[idx] += (deltaR * 2) / 42;
-                            nextNextRow[idx + 1] += (deltaG * 2) / 42;
-                            nextNextRow[idx + 2] += (deltaB * 2) / 42;
-                        }
-                        nextNextRow[bufferIndex] += (deltaR * 4) / 42;
-                        nextNextRow[bufferIndex + 1] += (deltaG * 4) / 42;
-                        nextNextRow[bufferIndex + 2] += (deltaB * 4) / 42;
-                        if (x < widthMinus1) {
-                            int idx = bufferIndex + 3;
-                            nextNextRow[idx] += (deltaR * 2) / 42;
-                            nextNextRow[idx + 1] += (deltaG * 2) / 42;
-                            nextNextRow[idx + 2] += (deltaB * 2) / 42;
-                        }
-                        if (x < widthMinus2) {
-                            int idx = bufferIndex + 6;
-                            nextNextRow[idx] += deltaR / 42;
-                            nextNextRow[idx + 1] += deltaG / 42;
-                            nextNextRow[idx + 2] += deltaB / 42;
-                        }
+                    if (x > 0) {
+                        int idx = bufferIndex - 3;
+                        nextNextRow[idx] += (deltaR * 2) / 42;
+                        nextNextRow[idx + 1] += (deltaG * 2) / 42;
+                        nextNextRow[idx + 2] += (deltaB * 2) / 42;
+                    }
+                    nextNextRow[bufferIndex] += (deltaR * 4) / 42;
+                    nextNextRow[bufferIndex + 1] += (deltaG * 4) / 42;
+                    nextNextRow[bufferIndex + 2] += (deltaB * 4) / 42;
+                    if (x < widthMinus1) {
+                        int idx = bufferIndex + 3;
+                        nextNextRow[idx] += (deltaR * 2) / 42;
+                        nextNextRow[idx + 1] += (deltaG * 2) / 42;
+                        nextNextRow[idx + 2] += (deltaB * 2) / 42;
+                    }
+                    if (x < widthMinus2) {
+                        int idx = bufferIndex + 6;
+                        nextNextRow[idx] += deltaR / 42;
+                        nextNextRow[idx + 1] += deltaG / 42;
+                        nextNextRow[idx + 2] += deltaB / 42;
                     }
                 }
-
-                output[pixelIdx] = COLOR_MAP[lookupIdx];
             }
 
-            int[] temp = currentRow;
-            currentRow = nextRow;
-            nextRow = nextNextRow;
-            nextNextRow = temp;
-            java.util.Arrays.fill(nextNextRow, 0);
+            output[pixelIdx + outputDelta] = COLOR_MAP[lookupIdx];
         }
     }
 
-    private static void ditherBand(byte[] frameData, int width, int widthMinus,
-                                   int startY, int endY, int errorStrengthFixed,
-                                   int[] currentRow, int[] nextRow,
-                                   boolean doTemporal, int hashBucket, int temporalThreshold,
-                                   int errorMask, int errorThreshold,
-                                   byte[] prevFrame, int[] prevHash,
-                                   int prevFrameLength, int prevHashLength,
-                                   byte[] output) {
-        for (int y = startY; y < endY; y++) {
-            boolean hasNextY = (y + 1) < endY; // Only propagate error within this band
-            int yIndex = y * width;
-
-            // Swap error buffers
-            int[] temp = currentRow;
-            currentRow = nextRow;
-            nextRow = temp;
-            java.util.Arrays.fill(nextRow, 0);
-
+    static void ditherBand(byte[] frameData, int width, int widthMinus,
+                           int startY, int endY, int errorStrengthFixed,
+                           int[] currentRow, int[] nextRow,
+                           boolean doTemporal, int hashBucket, int temporalThreshold,
+                           int errorMask, int errorThreshold,
+                           int[] prevHash, int prevHashLength,
+                           DitherTarget target, StaticBlockMap reuse) {
+        // Only propagate error within this band
+        RowSpanKernel kernel = (y, startX, endX, current, next, nextNext, output, prevFrame, outputDelta) -> {
             if ((y & 0x1) == 0) {
-                ditherRowForwardOpt(frameData, currentRow, nextRow, width, widthMinus,
-                                    hasNextY, yIndex, errorStrengthFixed,
+                ditherRowForwardOpt(frameData, current, next, widthMinus, startX, endX,
+                                    y + 1 < endY, y * width, errorStrengthFixed,
                                     doTemporal, hashBucket, temporalThreshold,
                                     errorMask, errorThreshold,
-                                    prevFrame, prevHash, prevFrameLength, prevHashLength, output);
+                                    prevFrame, prevHash, prevHashLength, output, outputDelta);
             } else {
-                ditherRowBackwardOpt(frameData, currentRow, nextRow, widthMinus,
-                                     hasNextY, yIndex, errorStrengthFixed,
+                ditherRowBackwardOpt(frameData, current, next, widthMinus, startX, endX,
+                                     y + 1 < endY, y * width, errorStrengthFixed,
                                      doTemporal, hashBucket, temporalThreshold,
                                      errorMask, errorThreshold,
-                                     prevFrame, prevHash, prevFrameLength, prevHashLength, output);
+                                     prevFrame, prevHash, prevHashLength, output, outputDelta);
             }
+        };
+        for (int y = startY; y < endY; y++) {
+            // Swap error buffers
+            int[] temp = currentRow;
+            currentRow = nextRow;
+            nextRow = temp;
+            Arrays.fill(nextRow, 0);
+
+            ditherRowSpans(target, reuse, y, 0, width, (y & 0x1) != 0, currentRow, nextRow, null, kernel);
         }
     }
 
     private static void ditherRowForwardOpt(byte[] frameData, int[] currentRow, int[] nextRow,
-                                            int width, int widthMinus, boolean hasNextY, int yIndex,
+                                            int widthMinus, int startX, int endX,
+                                            boolean hasNextY, int yIndex,
                                             int errorStrengthFixed,
                                             boolean doTemporal, int hashBucket, int temporalThreshold,
                                             int errorMask, int errorThreshold,
-                                            byte[] prevFrame, int[] prevHash,
-                                            int prevFrameLength, int prevHashLength,
-                                            byte[] output) {
-        int bufferIndex = 0;
-        int pos = yIndex * 3;
-        int pixelIdx = yIndex;
-
-        for (int x = 0; x < width; x++, bufferIndex += 3, pos += 3, pixelIdx++) {
+                                            byte[] prevFrame, int[] prevHash, int prevHashLength,
+                                            byte[] output, int outputDelta) {
+        int bufferIndex = startX * 3;
+        int pos = (yIndex + startX) * 3;
+        int pixelIdx = yIndex + startX;
+
+        for (int x = startX; x < endX; x++, bufferIndex += 3, pos += 3, pixelIdx++) {
             int rawBlue = frameData[pos] & 0xff;
             int rawGreen = frameData[pos + 1] & 0xff;
             int rawRed = frameData[pos + 2] & 0xff;
@@ -1239,12 +1898,12 @@ public class FrameProcessor {
 
             if (tryTemporalReuse(doTemporal, pixelIdx, rawRed, rawGreen, rawBlue,
                 hashBucket, temporalThreshold,
-                prevFrame, prevHash, prevFrameLength, prevHashLength, output)) {
+                prevFrame, prevHash, prevHashLength, output, pixelIdx + outputDelta)) {
                 continue;
             }
 
             int lookupIdx = (red >> 1) << 14 | (green >> 1) << 7 | (blue >> 1);
-            int closest = FULL_COLOR_MAP[lookupIdx];
+            int closest = PALETTE[COLOR_MAP[lookupIdx] & 0xFF];
             int closestR = (closest >> 16) & 0xFF;
             int closestG = (closest >> 8) & 0xFF;
             int closestB = closest & 0xFF;
@@ -1282,23 +1941,24 @@ public class FrameProcessor {
                     }
                 }
             }
-            output[pixelIdx] = COLOR_MAP[lookupIdx];
+            output[pixelIdx + outputDelta] = COLOR_MAP[lookupIdx];
         }
     }
 
     private static void ditherRowBackwardOpt(byte[] frameData, int[] currentRow, int[] nextRow,
-                                             int widthMinus, boolean hasNextY, int yIndex,
+                                             int widthMinus, int startX, int endX,
+                                             boolean hasNextY, int yIndex,
                                              int errorStrengthFixed,
                                              boolean doTemporal, int hashBucket, int temporalThreshold,
                                              int errorMask, int errorThreshold,
-                                             byte[] prevFrame, int[] prevHash,
-                                             int prevFrameLength, int prevHashLength,
-                                             byte[] output) {
-        int bufferIndex = widthMinus * 3;
-        int pos = (yIndex + widthMinus) * 3;
-        int pixelIdx = yIndex + widthMinus;
-
-        for (int x = widthMinus; x >= 0; x--, bufferIndex -= 3, pos -= 3, pixelIdx--) {
+                                             byte[] prevFrame, int[] prevHash, int prevHashLength,
+                                             byte[] output, int outputDelta) {
+        int lastX = endX - 1;
+        int bufferIndex = lastX * 3;
+        int pos = (yIndex + lastX) * 3;
+        int pixelIdx = yIndex + lastX;
+
+        for (int x = lastX; x >= startX; x--, bufferIndex -= 3, pos -= 3, pixelIdx--) {
             int rawBlue = frameData[pos] & 0xff;
             int rawGreen = frameData[pos + 1] & 0xff;
             int rawRed = frameData[pos + 2] & 0xff;
@@ -1308,12 +1968,12 @@ public class FrameProcessor {
 
             if (tryTemporalReuse(doTemporal, pixelIdx, rawRed, rawGreen, rawBlue,
                 hashBucket, temporalThreshold,
-                prevFrame, prevHash, prevFrameLength, prevHashLength, output)) {
+                prevFrame, prevHash, prevHashLength, output, pixelIdx + outputDelta)) {
                 continue;
             }
 
             int lookupIdx = (red >> 1) << 14 | (green >> 1) << 7 | (blue >> 1);
-            int closest = FULL_COLOR_MAP[lookupIdx];
+            int closest = PALETTE[COLOR_MAP[lookupIdx] & 0xFF];
             int closestR = (closest >> 16) & 0xFF;
             int closestG = (closest >> 8) & 0xFF;
             int closestB = closest & 0xFF;
@@ -1354,24 +2014,16 @@ public class FrameProcessor {
                     }
                 }
             }
-            output[pixelIdx] = COLOR_MAP[lookupIdx];
+            output[pixelIdx + outputDelta] = COLOR_MAP[lookupIdx];
         }
     }
 
-
-    private static byte getColor(int rgb) {
-        return COLOR_MAP[((rgb >> 16) & 0xFF) >> 1 << 14 |
-                         ((rgb >> 8) & 0xFF) >> 1 << 7 |
-                         (rgb & 0xFF) >> 1];
-    }
-
     private static boolean tryTemporalReuse(boolean doTemporal, int pixelIdx,
                                             int red, int green, int blue,
                                             int hashBucket, int temporalThreshold,
-                                            byte[] prevFrame, int[] prevHash,
-                                            int prevFrameLength, int prevHashLength,
-                                            byte[] output) {
-        if (!doTemporal || pixelIdx >= prevFrameLength || pixelIdx >= prevHashLength) {
+                                            byte[] prevFrame, int[] prevHash, int prevHashLength,
+                                            byte[] output, int outputIdx) {
+        if (!doTemporal || outputIdx >= prevFrame.length || pixelIdx >= prevHashLength) {
             return false;
         }
 
@@ -1381,7 +2033,7 @@ public class FrameProcessor {
         int prevHashValue = prevHash[pixelIdx];
 
         if (currentHash == prevHashValue) {
-            output[pixelIdx] = prevFrame[pixelIdx];
+            output[outputIdx] = prevFrame[outputIdx];
             return true;
         }
 
@@ -1394,7 +2046,7 @@ public class FrameProcessor {
                 Math.abs(blue - prevB) <= temporalThreshold) {
                 // Track drift while still reusing the previous palette index
                 prevHash[pixelIdx] = currentHash;
-                output[pixelIdx] = prevFrame[pixelIdx];
+                output[outputIdx] = prevFrame[outputIdx];
                 return true;
             }
         }
@@ -1403,31 +2055,122 @@ public class FrameProcessor {
         return false;
     }
 
-    
-    private static int getBestFullColor(int red, int green, int blue) {
-        int lookupIdx = (red >> 1) << 14 | (green >> 1) << 7 | (blue >> 1);
-        return FULL_COLOR_MAP[lookupIdx];
-    }
-
 
     public void shutdown() {
-        executor.shutdown();
+        workers.shutdown();
+        if (letterboxGraphics != null) {
+            letterboxGraphics.dispose();
+        }
+        if (convertedGraphics != null) {
+            convertedGraphics.dispose();
+        }
     }
 
-    public record ProcessedFrame(
-        List<PacketDispatcher.TileUpdate> updates,
-        byte[][] fullMapData,
-        FrameContentStats contentStats
-    ) {
+    /**
+     * A processed frame. Like its tile buffers, it is reused by the processor three frames after it was returned.
+     */
+    public static final class ProcessedFrame {
+
+        private final List<PacketDispatcher.TileUpdate> updates;
+        private final byte[][] fullMapData;
+        // Diff of each tile, filled by the processing threads before the updates are built
+        private final MapTile.DirtyRegion[] dirtyRegions;
+        private FrameContentStats contentStats;
+        private boolean dirtyRegionsDeferred;
+
+        private ProcessedFrame(int tileCount) {
+            this.updates = new ArrayList<>(tileCount);
+            this.fullMapData = new byte[tileCount][];
+            this.dirtyRegions = new MapTile.DirtyRegion[tileCount];
+        }
+
+        public List<PacketDispatcher.TileUpdate> updates() {
+            return updates;
+        }
+
+        public byte[][] fullMapData() {
+            return fullMapData;
+        }
+
+        public FrameContentStats contentStats() {
+            return contentStats;
+        }
+
+        /**
+         * Whether the tiles still have to be diffed against what was last sent, in which case {@link #updates} is
+         * empty.
+         */
+        public boolean dirtyRegionsDeferred() {
+            return dirtyRegionsDeferred;
+        }
+
         public int getChangedTileCount() {
             return updates.size();
         }
 
         public long getTotalChangedBytes() {
-            return updates.stream()
-                .filter(u -> u.dirtyRegion() != null)
-                .mapToLong(u -> u.dirtyRegion().getDataSize())
-                .sum();
+            long total = 0;
+            for (PacketDispatcher.TileUpdate update : updates) {
+                if (update.dirtyRegion() != null) {
+                    total += update.dirtyRegion().getDataSize();
+                }
+            }
+            return total;
+        }
+    }
+
+    /**
+     * Holder so the texture is only generated once a screen actually uses blue noise.
+     */
+    private static final class BlueNoiseThresholds {
+
+        static final ThresholdMatrix[] PHASES = createPhases();
+
+        private static ThresholdMatrix[] createPhases() {
+            int[][] levels = BlueNoiseTexture.levels();
+            ThresholdMatrix[] phases = new ThresholdMatrix[BLUE_NOISE_PHASES];
+            for (int phase = 0; phase < BLUE_NOISE_PHASES; phase++) {
+                int offset = (int) Math.round(phase * GOLDEN_RATIO_FRACTION * 256) & 0xFF;
+                int[][] shifted = new int[BlueNoiseTexture.SIZE][BlueNoiseTexture.SIZE];
+                for (int y = 0; y < BlueNoiseTexture.SIZE; y++) {
+                    for (int x = 0; x < BlueNoiseTexture.SIZE; x++) {
+                        shifted[y][x] = (levels[y][x] + offset) & 0xFF;
+                    }
+                }
+                phases[phase] = ThresholdMatrix.of(shifted, 1, -128);
+            }
+            return phases;
+        }
+    }
+
+    /**
+     * Tileable ordered-dither thresholds with a power-of-two period. Each row is padded with a repeat of
+     * its start, so a SIMD kernel can load a full vector from any column without wrapping.
+     */
+    record ThresholdMatrix(int mask, int[][] rows) {
+
+        private static final int ROW_PADDING = 64;
+
+        static ThresholdMatrix of(int[][] matrix, int scale, int bias) {
+            int size = matrix.length;
+            if (Integer.bitCount(size) != 1) {
+                throw new IllegalArgumentException("Threshold matrix size must be a power of two: " + size);
+            }
+            int[][] rows = new int[size][size + ROW_PADDING];
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < rows[y].length; x++) {
+                    rows[y][x] = matrix[y][x & (size - 1)] * scale + bias;
+                }
+            }
+            return new ThresholdMatrix(size - 1, rows);
+        }
+
+        int[] row(int y) {
+            return rows[y & mask];
+        }
+
+        int column(int x) {
+            return x & mask;
         }
     }
 
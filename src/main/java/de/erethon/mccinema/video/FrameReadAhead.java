@@ -0,0 +1,369 @@
+package de.erethon.mccinema.video;
+
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.Java2DFrameConverter;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Decodes a video file on its own thread, up to a fixed number of frames ahead of playback.
+ * <p>
+ * Frames land in a ring of BGR canvases that are allocated once. FFmpeg already scaled the decoded BGR24 frames for
+ * the screen, they are copied straight into the canvas' pixel array by the {@link FrameScaler}, without going
+ * through {@link Java2DFrameConverter}. The player takes the oldest frame, uses it and releases it; until then the
+ * decoder leaves that slot alone. While the player is busy with a frame the decoder keeps working, so a slow
+ * keyframe or a high bitrate scene is absorbed by the ring instead of delaying the frame.
+ * <p>
+ * Only the decode thread uses the grabber while the read-ahead runs. Seeking stops it, moves the grabber and
+ * starts it again from the new position. Skipping more frames than are buffered is handed to the decode thread as
+ * well, which skips them through {@link DecoderCatchUp} instead of decoding them into the ring.
+ */
+final class FrameReadAhead {
+
+    // Consecutive decode errors after which the file is treated as ended instead of retrying forever
+    private static final int MAX_CONSECUTIVE_ERRORS = 30;
+
+    private enum Result {
+        FRAME, SKIPPED, END
+    }
+
+    private final FFmpegFrameGrabber grabber;
+    private final FrameScaler scaler;
+    private final DecoderCatchUp catchUp;
+    private final PerformanceMetrics metrics;
+    private final Logger logger;
+    private final Java2DFrameConverter converter = new Java2DFrameConverter();
+
+    private final BufferedImage[] slots;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition frameReady = lock.newCondition();
+    private final Condition slotFree = lock.newCondition();
+
+    // Guarded by lock
+    private int head;
+    private int count;
+    private boolean taken;
+    private boolean endOfStream;
+    private boolean running;
+    private Thread thread;
+    // Frames the decode thread still has to skip, and the frames it skipped that the player has not counted yet
+    private int pendingSkip;
+    private int decoderSkipped;
+
+    FrameReadAhead(FFmpegFrameGrabber grabber, FrameScaler scaler, int frames, DecoderCatchUp catchUp,
+                   PerformanceMetrics metrics, Logger logger) {
+        this.grabber = grabber;
+        this.scaler = scaler;
+        this.catchUp = catchUp;
+        this.metrics = metrics;
+        this.logger = logger;
+        this.slots = new BufferedImage[Math.max(1, frames)];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = scaler.newCanvas();
+        }
+    }
+
+    /**
+     * Starts decoding from the grabber's current position.
+     */
+    void start() {
+        Thread decoder;
+        lock.lock();
+        try {
+            if (running) {
+                return;
+            }
+            head = 0;
+            count = 0;
+            taken = false;
+            endOfStream = false;
+            pendingSkip = 0;
+            decoderSkipped = 0;
+            running = true;
+            decoder = new Thread(this::decodeLoop, "MCCinema-Decoder");
+            decoder.setDaemon(true);
+            thread = decoder;
+        } finally {
+            lock.unlock();
+        }
+        decoder.start();
+    }
+
+    /**
+     * Stops the decode thread and waits for it, the grabber is free to use afterwards. Buffered frames are dropped.
+     */
+    void stop() {
+        lock.lock();
+        try {
+            halt();
+        } finally {
+            lock.unlock();
+        }
+        awaitDecoder();
+    }
+
+    private void halt() {
+        running = false;
+        slotFree.signalAll();
+        frameReady.signalAll();
+    }
+
+    private void awaitDecoder() {
+        Thread decoder;
+        lock.lock();
+        try {
+            decoder = thread;
+            thread = null;
+        } finally {
+            lock.unlock();
+        }
+        if (decoder != null && decoder != Thread.currentThread()) {
+            try {
+                // The decoder only checks between frames, a grab in progress finishes first
+                decoder.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Moves the grabber to a frame and continues decoding from there. Waits until the player released the frame
+     * it is working on, if any.
+     *
+     * @return the number of the frame decoding continues at, see {@link DecoderCatchUp#seek}
+     */
+    long seek(long frameNumber) throws Exception {
+        lock.lock();
+        try {
+            while (taken && running) {
+                slotFree.await();
+            }
+            // Stopped in the same step, so the player cannot take a frame that the restart would overwrite
+            halt();
+        } finally {
+            lock.unlock();
+        }
+        awaitDecoder();
+        long position = catchUp.seek(frameNumber);
+        start();
+        return position;
+    }
+
+    /**
+     * Oldest decoded frame, waiting up to {@code timeoutNanos} for one. Returns null if none arrived in time, the
+     * video ended (see {@link #isEndOfStream()}) or the read-ahead was stopped. The image stays valid until
+     * {@link #release()}.
+     */
+    BufferedImage take(long timeoutNanos) throws InterruptedException {
+        lock.lock();
+        try {
+            long remaining = timeoutNanos;
+            while (count == 0 && running && !endOfStream) {
+                if (remaining <= 0) {
+                    return null;
+                }
+                remaining = frameReady.awaitNanos(remaining);
+            }
+            if (count == 0 || !running) {
+                return null;
+            }
+            taken = true;
+            return slots[head];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands the frame returned by {@link #take} back to the decoder.
+     */
+    void release() {
+        lock.lock();
+        try {
+            if (!taken) {
+                return;
+            }
+            taken = false;
+            head = (head + 1) % slots.length;
+            count--;
+            slotFree.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops {@code frames} frames without looking at them. Buffered frames are simply released, the rest are skipped
+     * by the decode thread without being converted, waiting up to {@code timeoutNanos} for it.
+     *
+     * @return the number of frames dropped. Less than requested if the video ended or the decoder stalled, possibly
+     * a few more if the decoder discarded a run of frames
+     */
+    int skip(int frames, long timeoutNanos) throws InterruptedException {
+        lock.lock();
+        try {
+            int skipped = 0;
+            while (skipped < frames && count > 0 && !taken) {
+                head = (head + 1) % slots.length;
+                count--;
+                skipped++;
+            }
+            slotFree.signalAll();
+            if (skipped < frames && running && !endOfStream && !taken) {
+                pendingSkip += frames - skipped;
+                long remaining = timeoutNanos;
+                while (pendingSkip > 0 && running && !endOfStream && remaining > 0) {
+                    remaining = frameReady.awaitNanos(remaining);
+                }
+            }
+            // Includes frames skipped for an earlier call that gave up waiting
+            skipped += decoderSkipped;
+            decoderSkipped = 0;
+            return skipped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isEndOfStream() {
+        lock.lock();
+        try {
+            return endOfStream && count == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getBufferedFrames() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        stop();
+    }
+
+    private void decodeLoop() {
+        int errors = 0;
+        while (true) {
+            int slot;
+            int framesToSkip;
+            lock.lock();
+            try {
+                while (running && count == slots.length && pendingSkip == 0) {
+                    slotFree.awaitUninterruptibly();
+                }
+                if (!running) {
+                    return;
+                }
+                framesToSkip = pendingSkip;
+                // Never the slot the player holds, that one is still counted
+                slot = (head + count) % slots.length;
+            } finally {
+                lock.unlock();
+            }
+
+            if (framesToSkip > 0) {
+                if (!skipFrames(framesToSkip)) {
+                    return;
+                }
+                continue;
+            }
+
+            Result result;
+            try {
+                result = decodeInto(slot);
+                errors = 0;
+            } catch (Exception e) {
+                logger.warning("Video decode failed: " + e.getMessage());
+                result = ++errors >= MAX_CONSECUTIVE_ERRORS ? Result.END : Result.SKIPPED;
+            }
+            if (result == Result.SKIPPED) {
+                continue;
+            }
+
+            lock.lock();
+            try {
+                if (!running) {
+                    return;
+                }
+                if (result == Result.END) {
+                    // Still running as far as the player is concerned, the buffered frames remain to be taken
+                    endOfStream = true;
+                    frameReady.signalAll();
+                    return;
+                }
+                if (pendingSkip > 0) {
+                    // Decoded before the player asked to skip, it is the first of the frames to skip
+                    pendingSkip--;
+                    decoderSkipped++;
+                    frameReady.signalAll();
+                    continue;
+                }
+                count++;
+                frameReady.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Skips frames for {@link #skip}.
+     *
+     * @return false if the video ended or the read-ahead was stopped meanwhile
+     */
+    private boolean skipFrames(int frames) {
+        int skipped;
+        boolean ended;
+        try {
+            skipped = catchUp.skip(frames);
+            ended = skipped < frames;
+        } catch (Exception e) {
+            logger.warning("Video decode failed while skipping frames: " + e.getMessage());
+            skipped = 0;
+            ended = false;
+        }
+        lock.lock();
+        try {
+            if (!running) {
+                return false;
+            }
+            pendingSkip = Math.max(0, pendingSkip - Math.max(frames, skipped));
+            decoderSkipped += skipped;
+            if (ended) {
+                endOfStream = true;
+            }
+            frameReady.signalAll();
+            return !ended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Result decodeInto(int slot) throws Exception {
+        long decodeStart = System.nanoTime();
+        Frame frame = grabber.grabImage();
+        long decodeEnd = System.nanoTime();
+        if (frame == null || frame.image == null) {
+            return Result.END;
+        }
+        metrics.recordFrameDecode(decodeEnd - decodeStart);
+
+        if (!scaler.draw(frame, slots[slot], converter)) {
+            return Result.SKIPPED;
+        }
+        metrics.recordImageConversion(System.nanoTime() - decodeEnd);
+        return Result.FRAME;
+    }
+}
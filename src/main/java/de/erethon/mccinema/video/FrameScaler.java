@@ -0,0 +1,146 @@
+package de.erethon.mccinema.video;
+
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.ffmpeg.global.swscale;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.Java2DFrameConverter;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Has FFmpeg scale the decoded frames of a grabber for a screen, so they come out as BGR24 at the size they are
+ * dithered at.
+ * <p>
+ * A video larger than the screen is scaled down by swscale to fit it, keeping its aspect ratio. A smaller one keeps
+ * its resolution, the processor dithers it as it is and upscales the palette indices. Either way the frame is copied
+ * row by row into the middle of a canvas with the screen's aspect ratio, whose bars are black and never written.
+ * That is the only copy between the decoder and the ditherer: the processor finds nothing left to letterbox or
+ * convert and dithers the canvas' pixel array directly.
+ * <p>
+ * Frames the grabber delivers in another format go through Java2D instead.
+ */
+final class FrameScaler {
+
+    private final int canvasWidth;
+    private final int canvasHeight;
+    private final int videoWidth;
+    private final int videoHeight;
+    private final int offsetX;
+    private final int offsetY;
+
+    private FrameScaler(int canvasWidth, int canvasHeight, int videoWidth, int videoHeight) {
+        this.canvasWidth = canvasWidth;
+        this.canvasHeight = canvasHeight;
+        this.videoWidth = videoWidth;
+        this.videoHeight = videoHeight;
+        this.offsetX = (canvasWidth - videoWidth) / 2;
+        this.offsetY = (canvasHeight - videoHeight) / 2;
+    }
+
+    /**
+     * The swscale flag for a filter name from the config, AREA if unknown.
+     */
+    static int scalingFlags(String filter) {
+        return switch (filter == null ? "" : filter.toUpperCase(Locale.ROOT)) {
+            case "FAST_BILINEAR" -> swscale.SWS_FAST_BILINEAR;
+            case "BILINEAR" -> swscale.SWS_BILINEAR;
+            case "BICUBIC" -> swscale.SWS_BICUBIC;
+            case "LANCZOS" -> swscale.SWS_LANCZOS;
+            case "SPLINE" -> swscale.SWS_SPLINE;
+            case "POINT" -> swscale.SWS_POINT;
+            default -> swscale.SWS_AREA;
+        };
+    }
+
+    /**
+     * Sets up a started grabber to deliver frames for a screen of the given pixel size.
+     */
+    static FrameScaler configure(FFmpegFrameGrabber grabber, int targetWidth, int targetHeight, int scalingFlags) {
+        int sourceWidth = grabber.getImageWidth();
+        int sourceHeight = grabber.getImageHeight();
+        if (sourceWidth <= 0 || sourceHeight <= 0) {
+            // Size unknown until the first frame, whatever arrives is drawn into the whole canvas
+            return new FrameScaler(targetWidth, targetHeight, targetWidth, targetHeight);
+        }
+
+        double sourceAspect = (double) sourceWidth / sourceHeight;
+        double targetAspect = (double) targetWidth / targetHeight;
+        boolean sameAspect = Math.abs(sourceAspect - targetAspect) < 0.01;
+        FrameScaler scaler;
+        if (sourceWidth > targetWidth || sourceHeight > targetHeight) {
+            int width = targetWidth;
+            int height = targetHeight;
+            if (!sameAspect && sourceAspect > targetAspect) {
+                height = Math.max(1, (int) Math.round(targetWidth / sourceAspect));
+            } else if (!sameAspect) {
+                width = Math.max(1, (int) Math.round(targetHeight * sourceAspect));
+            }
+            scaler = new FrameScaler(targetWidth, targetHeight, width, height);
+        } else if (sameAspect) {
+            scaler = new FrameScaler(sourceWidth, sourceHeight, sourceWidth, sourceHeight);
+        } else if (sourceAspect > targetAspect) {
+            scaler = new FrameScaler(sourceWidth, (int) (sourceWidth / targetAspect), sourceWidth, sourceHeight);
+        } else {
+            scaler = new FrameScaler((int) (sourceHeight * targetAspect), sourceHeight, sourceWidth, sourceHeight);
+        }
+
+        grabber.setPixelFormat(avutil.AV_PIX_FMT_BGR24);
+        grabber.setImageScalingFlags(scalingFlags);
+        if (scaler.videoWidth != sourceWidth || scaler.videoHeight != sourceHeight) {
+            grabber.setImageWidth(scaler.videoWidth);
+            grabber.setImageHeight(scaler.videoHeight);
+        }
+        return scaler;
+    }
+
+    /**
+     * A canvas for {@link #draw}. The bars stay black as long as the canvas is only drawn into by this scaler.
+     */
+    BufferedImage newCanvas() {
+        return new BufferedImage(canvasWidth, canvasHeight, BufferedImage.TYPE_3BYTE_BGR);
+    }
+
+    /**
+     * Puts a grabbed frame into the video area of a canvas from {@link #newCanvas()}.
+     *
+     * @param converter only used for frames that are not BGR24 at the expected size
+     * @return false if the frame could not be converted, the canvas is left as it was
+     */
+    boolean draw(Frame frame, BufferedImage canvas, Java2DFrameConverter converter) {
+        if (frame.imageWidth == videoWidth && frame.imageHeight == videoHeight && frame.imageChannels == 3
+            && frame.imageDepth == Frame.DEPTH_UBYTE && frame.image[0] instanceof ByteBuffer buffer) {
+            byte[] pixels = ((DataBufferByte) canvas.getRaster().getDataBuffer()).getData();
+            int rowBytes = videoWidth * 3;
+            int canvasRowBytes = canvasWidth * 3;
+            int start = offsetY * canvasRowBytes + offsetX * 3;
+            for (int y = 0; y < videoHeight; y++) {
+                buffer.get(y * frame.imageStride, pixels, start + y * canvasRowBytes, rowBytes);
+            }
+            return true;
+        }
+
+        BufferedImage converted = converter.convert(frame);
+        if (converted == null) {
+            return false;
+        }
+        Graphics2D graphics = canvas.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            if (converted.getColorModel().hasAlpha()) {
+                graphics.setColor(Color.BLACK);
+                graphics.fillRect(offsetX, offsetY, videoWidth, videoHeight);
+            }
+            graphics.drawImage(converted, offsetX, offsetY, videoWidth, videoHeight, null);
+        } finally {
+            graphics.dispose();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,204 @@
+package de.erethon.mccinema.video;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.ffmpeg.avutil.AVRational;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Frame numbers of the keyframes of a video file, plus its exact frame count and duration.
+ * <p>
+ * Built by reading the packets of the video stream once, without decoding anything, and kept next to the video as
+ * {@code <video>.mcckf}. A seek can then start decoding at the keyframe right before the target instead of wherever
+ * the container's own index puts it, and the frame count does not have to be estimated from the container duration.
+ */
+final class KeyframeIndex {
+
+    static final String FILE_SUFFIX = ".mcckf";
+
+    // File layout: magic, format version, video size and modification time, frame count, duration, keyframes
+    private static final int MAGIC = 0x4D434B46; // "MCKF"
+    private static final int VERSION = 1;
+
+    private final int frameCount;
+    private final long durationMicros;
+    private final int[] keyframes;
+
+    private KeyframeIndex(int frameCount, long durationMicros, int[] keyframes) {
+        this.frameCount = frameCount;
+        this.durationMicros = durationMicros;
+        this.keyframes = keyframes;
+    }
+
+    int getFrameCount() {
+        return frameCount;
+    }
+
+    long getDurationMicros() {
+        return durationMicros;
+    }
+
+    int getKeyframeCount() {
+        return keyframes.length;
+    }
+
+    /**
+     * The last keyframe at or before {@code frameNumber}, 0 if there is none.
+     */
+    int keyframeAtOrBefore(int frameNumber) {
+        int index = Arrays.binarySearch(keyframes, frameNumber);
+        if (index >= 0) {
+            return keyframes[index];
+        }
+        int before = -index - 2;
+        return before >= 0 ? keyframes[before] : 0;
+    }
+
+    static File indexFile(File videoFile) {
+        return new File(videoFile.getParentFile(), videoFile.getName() + FILE_SUFFIX);
+    }
+
+    /**
+     * Reads the index stored next to the video, null if there is none or it belongs to an older version of the file.
+     */
+    static KeyframeIndex load(File videoFile, Logger logger) {
+        File file = indexFile(videoFile);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (InputStream fileIn = Files.newInputStream(file.toPath());
+             DataInputStream in = new DataInputStream(new BufferedInputStream(fileIn))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                || in.readLong() != videoFile.length() || in.readLong() != videoFile.lastModified()) {
+                return null;
+            }
+            int frameCount = in.readInt();
+            long durationMicros = in.readLong();
+            int keyframeCount = in.readInt();
+            if (frameCount <= 0 || keyframeCount < 0 || keyframeCount > frameCount) {
+                logger.warning("Ignoring corrupt keyframe index: " + file);
+                return null;
+            }
+            int[] keyframes = new int[keyframeCount];
+            for (int i = 0; i < keyframeCount; i++) {
+                keyframes[i] = in.readInt();
+            }
+            return new KeyframeIndex(frameCount, durationMicros, keyframes);
+        } catch (IOException e) {
+            logger.warning("Failed to read keyframe index " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads every packet of the video stream. Frames are numbered in presentation order, so a packet's frame
+     * number is the rank of its timestamp.
+     */
+    static KeyframeIndex build(File videoFile) throws Exception {
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(videoFile)) {
+            grabber.start();
+            AVFormatContext context = grabber.getFormatContext();
+            int videoStream = -1;
+            for (int i = 0; i < context.nb_streams(); i++) {
+                if (context.streams(i).codecpar().codec_type() == avutil.AVMEDIA_TYPE_VIDEO) {
+                    videoStream = i;
+                    break;
+                }
+            }
+            if (videoStream < 0) {
+                throw new IOException("No video stream");
+            }
+            AVStream stream = context.streams(videoStream);
+            AVRational timeBase = stream.time_base();
+
+            long[] timestamps = new long[1024];
+            boolean[] key = new boolean[1024];
+            int packets = 0;
+            long lastEnd = Long.MIN_VALUE;
+            AVPacket packet;
+            while ((packet = grabber.grabPacket()) != null) {
+                try {
+                    if (packet.stream_index() != videoStream) {
+                        continue;
+                    }
+                    long timestamp = packet.pts() != avutil.AV_NOPTS_VALUE ? packet.pts() : packet.dts();
+                    if (timestamp == avutil.AV_NOPTS_VALUE) {
+                        continue;
+                    }
+                    if (packets == timestamps.length) {
+                        timestamps = Arrays.copyOf(timestamps, packets * 2);
+                        key = Arrays.copyOf(key, packets * 2);
+                    }
+                    timestamps[packets] = timestamp;
+                    key[packets] = (packet.flags() & avcodec.AV_PKT_FLAG_KEY) != 0;
+                    packets++;
+                    lastEnd = Math.max(lastEnd, timestamp + Math.max(0, packet.duration()));
+                } finally {
+                    avcodec.av_packet_unref(packet);
+                }
+            }
+            if (packets == 0) {
+                throw new IOException("Video stream has no packets");
+            }
+
+            long[] sorted = Arrays.copyOf(timestamps, packets);
+            Arrays.sort(sorted);
+            int[] keyframes = new int[packets];
+            int keyframeCount = 0;
+            for (int i = 0; i < packets; i++) {
+                if (key[i]) {
+                    keyframes[keyframeCount++] = Arrays.binarySearch(sorted, timestamps[i]);
+                }
+            }
+            keyframes = Arrays.copyOf(keyframes, keyframeCount);
+            Arrays.sort(keyframes);
+
+            long duration = lastEnd - sorted[0];
+            long durationMicros = duration * 1_000_000L * timeBase.num() / timeBase.den();
+            return new KeyframeIndex(packets, durationMicros, keyframes);
+        }
+    }
+
+    /**
+     * Writes the index next to the video, through a temporary file so a crash never leaves a truncated index behind.
+     */
+    void write(File videoFile, Logger logger) {
+        Path target = indexFile(videoFile).toPath();
+        try {
+            Path tempFile = Files.createTempFile(target.getParent(), videoFile.getName(), ".tmp");
+            try (OutputStream fileOut = Files.newOutputStream(tempFile);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(videoFile.length());
+                out.writeLong(videoFile.lastModified());
+                out.writeInt(frameCount);
+                out.writeLong(durationMicros);
+                out.writeInt(keyframes.length);
+                for (int keyframe : keyframes) {
+                    out.writeInt(keyframe);
+                }
+            }
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warning("Failed to write keyframe index " + target + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package de.erethon.mccinema.video;
+
+import de.erethon.mccinema.screen.MapTile;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import net.minecraft.core.RegistryAccess;
+import net.minecraft.network.CompressionEncoder;
+import net.minecraft.network.Connection;
+import net.minecraft.network.HandlerNames;
+import net.minecraft.network.ProtocolInfo;
+import net.minecraft.network.RegistryFriendlyByteBuf;
+import net.minecraft.network.VarInt;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.game.ClientGamePacketListener;
+import net.minecraft.network.protocol.game.ClientboundBundleDelimiterPacket;
+import net.minecraft.network.protocol.game.GameProtocols;
+import net.minecraft.server.network.ServerGamePacketListenerImpl;
+import org.bukkit.Bukkit;
+import org.bukkit.craftbukkit.CraftServer;
+import org.bukkit.craftbukkit.entity.CraftPlayer;
+import org.bukkit.entity.Player;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Sends the same map packets to many players while encoding them only once.
+ * <p>
+ * Normally every viewer's connection encodes, compresses and frames the packets of a frame on its own, so a frame
+ * watched by 40 players is serialised and deflated 40 times. Here the packets are encoded into one buffer of length
+ * prefixed packets, byte for byte what a connection's encoder, compressor and prepender would have produced, and
+ * every viewer gets a retained duplicate of it written past its prepender. Only encryption, which differs per
+ * connection, still runs per viewer. The buffer is built once per compression threshold in use, usually just one.
+ * <p>
+ * A connection gets the buffer only if it is in the play phase and nothing but the compressor sits between its
+ * encoder and prepender. Otherwise, e.g. with a protocol translation plugin installed, {@link Frame#writeTo} returns
+ * false and the packets have to be sent the normal way.
+ * <p>
+ * The buffer does not go through {@code Connection.send}: packet listeners do not see it, and it is not ordered with
+ * packets the server queued for the connection and has not flushed yet. That is why it is off unless
+ * {@code performance.broadcast-encoding} is set.
+ */
+final class MapPacketBroadcast {
+
+    // Returned by compressionThreshold for pipelines the encoded packets can not be written to
+    private static final int UNSUPPORTED = Integer.MIN_VALUE;
+
+    private static volatile ProtocolInfo<ClientGamePacketListener> serverProtocol;
+
+    private final ProtocolInfo<ClientGamePacketListener> protocol;
+    private final Deflater deflater = new Deflater();
+    private final byte[] deflateChunk = new byte[8192];
+    // A packet as the encoder writes it, and as the compressor passes it on
+    private final ByteBuf packetBuffer = Unpooled.buffer(MapTile.TOTAL_PIXELS + 64);
+    private final ByteBuf compressedBuffer = Unpooled.buffer(MapTile.TOTAL_PIXELS + 64);
+
+    MapPacketBroadcast(ProtocolInfo<ClientGamePacketListener> protocol) {
+        this.protocol = protocol;
+    }
+
+    /**
+     * A broadcast for the running server's play protocol.
+     */
+    static MapPacketBroadcast forServer() {
+        ProtocolInfo<ClientGamePacketListener> protocol = serverProtocol;
+        if (protocol == null) {
+            RegistryAccess registryAccess = ((CraftServer) Bukkit.getServer()).getServer().registryAccess();
+            protocol = GameProtocols.CLIENTBOUND_TEMPLATE.bind(RegistryFriendlyByteBuf.decorator(registryAccess));
+            serverProtocol = protocol;
+        }
+        return new MapPacketBroadcast(protocol);
+    }
+
+    /**
+     * Prepares the packets for writing, as one bundle if {@code bundle} is set. Nothing is encoded before the first
+     * write. The frame has to be closed once it was written to every viewer.
+     */
+    Frame encode(List<? extends Packet<? super ClientGamePacketListener>> packets, boolean bundle) {
+        return new Frame(packets, bundle);
+    }
+
+    /**
+     * Compression threshold of a pipeline, -1 if it does not compress, or {@link #UNSUPPORTED} if other handlers work
+     * on the encoded packets.
+     */
+    static int compressionThreshold(ChannelPipeline pipeline) {
+        List<String> names = pipeline.names();
+        int prepender = names.indexOf(HandlerNames.PREPENDER);
+        int encoder = names.indexOf(HandlerNames.ENCODER);
+        if (prepender < 0 || encoder <= prepender) {
+            return UNSUPPORTED;
+        }
+        int threshold = -1;
+        for (int i = prepender + 1; i < encoder; i++) {
+            if (!HandlerNames.COMPRESS.equals(names.get(i))
+                || !(pipeline.get(HandlerNames.COMPRESS) instanceof CompressionEncoder compressor)) {
+                return UNSUPPORTED;
+            }
+            threshold = compressor.getThreshold();
+        }
+        return threshold;
+    }
+
+    private synchronized ByteBuf encodeFrame(List<? extends Packet<? super ClientGamePacketListener>> packets,
+                                             boolean bundle, int threshold) {
+        ByteBuf frame = ByteBufAllocator.DEFAULT.directBuffer(packets.size() * (MapTile.TOTAL_PIXELS / 2 + 32));
+        try {
+            if (bundle) {
+                appendPacket(frame, new ClientboundBundleDelimiterPacket(), threshold);
+            }
+            for (Packet<? super ClientGamePacketListener> packet : packets) {
+                appendPacket(frame, packet, threshold);
+            }
+            if (bundle) {
+                appendPacket(frame, new ClientboundBundleDelimiterPacket(), threshold);
+            }
+            return frame;
+        } catch (RuntimeException e) {
+            frame.release();
+            throw e;
+        }
+    }
+
+    private void appendPacket(ByteBuf frame, Packet<? super ClientGamePacketListener> packet, int threshold) {
+        ByteBuf body = packetBuffer.clear();
+        protocol.codec().encode(body, packet);
+        ByteBuf payload = body;
+        if (threshold >= 0) {
+            // Same layout as the compressor: uncompressed length, 0 if below the threshold, then the data
+            payload = compressedBuffer.clear();
+            int length = body.readableBytes();
+            if (length < threshold) {
+                VarInt.write(payload, 0);
+                payload.writeBytes(body);
+            } else {
+                VarInt.write(payload, length);
+                deflate(body, payload);
+            }
+        }
+        VarInt.write(frame, payload.readableBytes());
+        frame.writeBytes(payload);
+    }
+
+    /**
+     * Frees the compressor's native memory. The broadcast can not be used afterwards.
+     */
+    void close() {
+        deflater.end();
+    }
+
+    private void deflate(ByteBuf input, ByteBuf output) {
+        deflater.reset();
+        deflater.setInput(input.array(), input.arrayOffset() + input.readerIndex(), input.readableBytes());
+        deflater.finish();
+        while (!deflater.finished()) {
+            int length = deflater.deflate(deflateChunk);
+            output.writeBytes(deflateChunk, 0, length);
+        }
+    }
+
+    /**
+     * The packets of one frame, encoded for each compression threshold the first time a viewer needs it.
+     * <p>
+     * Only used by the thread dispatching the frame.
+     */
+    final class Frame implements AutoCloseable {
+
+        private final List<? extends Packet<? super ClientGamePacketListener>> packets;
+        private final boolean bundle;
+        // Encoded packets per compression threshold, -1 for connections without compression
+        private final Map<Integer, ByteBuf> encoded = new HashMap<>(2);
+
+        private Frame(List<? extends Packet<? super ClientGamePacketListener>> packets, boolean bundle) {
+            this.packets = packets;
+            this.bundle = bundle;
+        }
+
+        /**
+         * Writes the encoded packets to a player's connection.
+         *
+         * @return false if they could not be written, the packets have to be sent normally
+         */
+        boolean writeTo(Player player) {
+            ServerGamePacketListenerImpl listener = ((CraftPlayer) player).getHandle().connection;
+            if (listener == null) {
+                return false;
+            }
+            Connection connection = listener.connection;
+            // Play packets only, not e.g. while the player is being reconfigured
+            if (connection.getPacketListener() != listener) {
+                return false;
+            }
+            return writeTo(connection.channel);
+        }
+
+        /**
+         * Writes the encoded packets past the channel's prepender, they are only encrypted from there on.
+         *
+         * @return false if the channel does not take them, see {@link MapPacketBroadcast}
+         */
+        boolean writeTo(Channel channel) {
+            if (channel == null || !channel.isActive()) {
+                return false;
+            }
+            ChannelPipeline pipeline = channel.pipeline();
+            int threshold = compressionThreshold(pipeline);
+            ChannelHandlerContext prepender = pipeline.context(HandlerNames.PREPENDER);
+            if (threshold == UNSUPPORTED || prepender == null) {
+                return false;
+            }
+            ByteBuf frame = encoded.get(threshold);
+            if (frame == null) {
+                frame = encodeFrame(packets, bundle, threshold);
+                encoded.put(threshold, frame);
+            }
+            prepender.writeAndFlush(frame.retainedDuplicate(), prepender.voidPromise());
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // Duplicates still waiting to be written hold their own reference
+            for (ByteBuf frame : encoded.values()) {
+                frame.release();
+            }
+            encoded.clear();
+        }
+    }
+}
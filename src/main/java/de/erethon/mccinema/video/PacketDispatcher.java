@@ -3,6 +3,10 @@ package de.erethon.mccinema.video;
 import de.erethon.mccinema.MCCinema;
 import de.erethon.mccinema.screen.MapTile;
 import de.erethon.mccinema.screen.Screen;
+import de.erethon.mccinema.screen.ViewPosition;
+import de.erethon.mccinema.screen.ViewerSync;
+import io.netty.channel.Channel;
+import io.netty.channel.WriteBufferWaterMark;
 import net.minecraft.network.protocol.Packet;
 import net.minecraft.network.protocol.game.ClientboundBundlePacket;
 import net.minecraft.network.protocol.game.ClientboundMapItemDataPacket;
@@ -15,9 +19,16 @@ import org.bukkit.craftbukkit.entity.CraftPlayer;
 import org.bukkit.entity.Player;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -47,9 +58,20 @@ public class PacketDispatcher {
     private static final float SCENE_CHANGE_THRESHOLD = 0.6f; // 60% of tiles with major changes
     private static final int SCENE_CHANGE_PIXEL_THRESHOLD = MapTile.TOTAL_PIXELS / 2; // 50% of tile changed = major change
 
+    // Tiles that were never drawn, not sent to catch up
+    private static final byte[] BLANK_TILE = new byte[MapTile.TOTAL_PIXELS];
+
     // Minimum dirty region size to bother sending
     private static final int MIN_DIRTY_REGION_PIXELS = 32;
 
+    // How often viewers that left are dropped from the bandwidth tiers
+    private static final int TIER_CLEANUP_FRAMES = 1200;
+
+    // Tier of viewers behind the screen, they are sent nothing
+    private static final int HIDDEN = -1;
+    // Viewing angle past which the screen counts as seen from the side (70 degrees)
+    private static final double STEEP_ANGLE_COS = 0.34;
+
     // Aggressive bandwidth reduction: skip tiles with low-entropy changes (dither noise)
     private boolean useEntropyFiltering = true;
     private int minUniqueColorsThreshold = 3; // Skip tiles with <3 changed colors (likely noise)
@@ -84,9 +106,70 @@ public class PacketDispatcher {
     private int sceneChangeFramesRemaining = 0;
     private static final int SCENE_CHANGE_SPREAD_FRAMES = 2;
 
+    // Per-frame working lists, cleared and reused by dispatchFrame (only ever called from the player's frame thread)
+    private final List<PreparedUpdate> criticalUpdates = new ArrayList<>();
+    private final List<PreparedUpdate> highPriorityUpdates = new ArrayList<>();
+    private final List<PreparedUpdate> normalUpdates = new ArrayList<>();
+    private final List<PreparedUpdate> lowPriorityUpdates = new ArrayList<>();
+    private final List<TileUpdate> allUpdates = new ArrayList<>();
+    private final List<ClientboundMapItemDataPacket> packets = new ArrayList<>();
+    private final List<PreparedUpdate> sentUpdates = new ArrayList<>();
+    private final List<Player> currentViewers = new ArrayList<>();
+    private final List<Player> behindViewers = new ArrayList<>();
+    // Prepared updates handed out by prepareUpdate, the first preparedCount are in use this frame
+    private final List<PreparedUpdate> preparedPool = new ArrayList<>();
+    private int preparedCount;
+    private final boolean[] seenColors = new boolean[256];
+    private final int[] colorHistogram = new int[256];
+
+    private final Comparator<PreparedUpdate> byStaleness = (a, b) -> {
+        int stalenessCmp = Integer.compare(b.update().tile().getFramesSinceLastSend(), a.update().tile().getFramesSinceLastSend());
+        if (stalenessCmp != 0) return stalenessCmp;
+        return compareSpatially(a.update().tile(), b.update().tile());
+    };
+    private final Comparator<PreparedUpdate> byPriority = (a, b) -> {
+        int priorityCmp = Integer.compare(calculatePriorityScore(b.update()), calculatePriorityScore(a.update()));
+        if (priorityCmp != 0) return priorityCmp;
+        return compareSpatially(a.update().tile(), b.update().tile());
+    };
+
+    // Scratch arrays for buildMultiRegions, sized for the current block size
+    private boolean[] regionDirtyBlocks = new boolean[0];
+    private int[] regionChangedPerBlock = new int[0];
+    private boolean[] regionVisited = new boolean[0];
+    private int[] regionQueue = new int[0];
+
     // Bundle packet option to not spam the client with thousands of packets-per-second
     private boolean useBundlePackets = true;
 
+    // Encodes a frame's packets once for all recipients, null if disabled
+    private final MapPacketBroadcast broadcast;
+
+    // Players whose connection has more than this waiting to be written get no frames until it drained
+    private final boolean backpressureEnabled;
+    private final long maxPendingBytes;
+    // Frames held back from each congested player in a row
+    private final Map<UUID, Integer> heldBackFrames = new ConcurrentHashMap<>();
+
+    // Tiered dispatch, viewers on slow links, far away or looking elsewhere get fewer frames. Null if disabled or
+    // not used yet, the bandwidth tiers also while only view LOD is on
+    private final boolean tiersEnabled;
+    private final int tierMaxPing;
+    private final boolean viewLodEnabled;
+    private final double viewLodFullDistance;
+    private UpdateTiers updateTiers;
+    private BandwidthTiers bandwidthTiers;
+    private long tierFrame;
+    // Bytes per second the full stream sends, smoothed
+    private double streamBytesPerSecond;
+    // Tier each viewer was in at its last frame, HIDDEN if behind the screen
+    private final Map<UUID, Integer> viewerTiers = new ConcurrentHashMap<>();
+    // Reused by each tier's send
+    private final List<ClientboundMapItemDataPacket> tierPackets = new ArrayList<>();
+    private final List<ClientboundMapItemDataPacket> tierTilePackets = new ArrayList<>();
+    private final List<Player> tierRecipients = new ArrayList<>();
+    private final int[] tierBounds = new int[4];
+
     // Patch generation settings
     private PatchStrategy patchStrategy = PatchStrategy.BOUNDING_BOX;
     private int fullUpdateThresholdPercent = 75;
@@ -120,6 +203,22 @@ public class PacketDispatcher {
         this.bandwidthTargetBytesPerSecond = Math.max(1024L, plugin.getConfig().getLong("performance.bandwidth.target.bytes-per-second", 20L * 1024L * 1024L));
         this.adaptiveMotionThreshold = clampDouble(plugin.getConfig().getDouble("performance.bandwidth.adaptive.high-motion-threshold", 0.12), 0.0, 1.0);
         this.adaptiveFlatThreshold = clampDouble(plugin.getConfig().getDouble("performance.bandwidth.adaptive.flat-threshold", 0.70), 0.0, 1.0);
+        this.broadcast = plugin.getConfig().getBoolean("performance.broadcast-encoding", false) ? MapPacketBroadcast.forServer() : null;
+        this.backpressureEnabled = plugin.getConfig().getBoolean("performance.backpressure.enabled", true);
+        this.maxPendingBytes = Math.max(64, plugin.getConfig().getLong("performance.backpressure.max-pending-kb", 1024)) * 1024L;
+        this.tiersEnabled = plugin.getConfig().getBoolean("performance.bandwidth.tiers.enabled", false);
+        this.tierMaxPing = Math.max(50, plugin.getConfig().getInt("performance.bandwidth.tiers.max-ping-ms", 500));
+        this.viewLodEnabled = plugin.getConfig().getBoolean("performance.view-lod.enabled", false);
+        this.viewLodFullDistance = Math.max(1.0, plugin.getConfig().getDouble("performance.view-lod.full-detail-distance", 16.0));
+    }
+
+    /**
+     * Frees what the dispatcher holds outside the heap, once nothing dispatches through it anymore.
+     */
+    public void close() {
+        if (broadcast != null) {
+            broadcast.close();
+        }
     }
 
     public void setFrameRate(double frameRate) {
@@ -178,6 +277,9 @@ public class PacketDispatcher {
         if (recipients.isEmpty()) {
             return;
         }
+        // Patches only go to viewers that have every tile as last sent, the others are caught up after
+        ViewerSync sync = screen.getViewerSync();
+        sortRecipients(screen, recipients);
 
         frameCounter++;
         int totalTiles = screen.getTotalMaps();
@@ -194,22 +296,23 @@ public class PacketDispatcher {
             sceneChangeFramesRemaining = SCENE_CHANGE_SPREAD_FRAMES;
         }
 
-        List<PreparedUpdate> criticalUpdates = new ArrayList<>();
-        List<PreparedUpdate> highPriorityUpdates = new ArrayList<>();
-        List<PreparedUpdate> normalUpdates = new ArrayList<>();
-        List<PreparedUpdate> lowPriorityUpdates = new ArrayList<>();
+        criticalUpdates.clear();
+        highPriorityUpdates.clear();
+        normalUpdates.clear();
+        lowPriorityUpdates.clear();
+        allUpdates.clear();
+        packets.clear();
+        sentUpdates.clear();
+        preparedCount = 0;
 
-        List<TileUpdate> allUpdates = new ArrayList<>(updates.size() + deferredUpdates.size());
         allUpdates.addAll(updates);
         allUpdates.addAll(deferredUpdates);
         deferredUpdates.clear();
 
-        boolean highMotionFrame = contentStats != null && contentStats.motionScore() >= adaptiveMotionThreshold;
-        boolean flatFrame = contentStats != null && contentStats.motionScore() < adaptiveMotionThreshold &&
-            (contentStats.flatScore() >= adaptiveFlatThreshold || contentStats.lowSaturationScore() >= adaptiveFlatThreshold);
-        int effectiveFullUpdateThreshold = flatFrame ? Math.min(98, fullUpdateThresholdPercent + 10)
-            : (highMotionFrame ? Math.min(95, fullUpdateThresholdPercent + 5) : fullUpdateThresholdPercent);
-        int effectiveMinPatchArea = flatFrame ? Math.max(4, minPatchArea / 2) : minPatchArea;
+        boolean highMotionFrame = isHighMotionFrame(contentStats);
+        boolean flatFrame = isFlatFrame(contentStats);
+        int effectiveFullUpdateThreshold = effectiveFullUpdateThreshold(highMotionFrame, flatFrame);
+        int effectiveMinPatchArea = effectiveMinPatchArea(flatFrame);
 
         for (TileUpdate update : allUpdates) {
             if (update.dirtyRegion() == null) {
@@ -226,13 +329,13 @@ public class PacketDispatcher {
             int changedPixels = update.dirtyRegion().changedPixelCount();
             int accumulated = tile.getAccumulatedChanges();
 
-            if (useEntropyFiltering && staleness < 2 && !hasSignificantChanges(update.dirtyRegion().data())) {
+            if (useEntropyFiltering && staleness < 2 && !hasSignificantChanges(update.dirtyRegion())) {
                 lowPriorityUpdates.add(prepared);
                 continue;
             }
 
             if (useSpatialDownsampling && !isSceneChange && staleness == 0 && changedPixels < MapTile.TOTAL_PIXELS / 4) {
-                if (highMotionFrame || !isHighContrast(update.dirtyRegion().data())) {
+                if (highMotionFrame || !isHighContrast(update.dirtyRegion())) {
                     int pattern = (tile.getTileX() + tile.getTileY() + (frameCounter % 2)) % 2;
                     if (pattern != 0) {
                         markUpdateSkipped(update);
@@ -252,26 +355,10 @@ public class PacketDispatcher {
             }
         }
 
-        criticalUpdates.sort((a, b) -> {
-            int stalenessCmp = Integer.compare(b.update().tile().getFramesSinceLastSend(), a.update().tile().getFramesSinceLastSend());
-            if (stalenessCmp != 0) return stalenessCmp;
-            return compareSpatially(a.update().tile(), b.update().tile());
-        });
-
-        highPriorityUpdates.sort((a, b) -> {
-            int priorityCmp = Integer.compare(calculatePriorityScore(b.update()), calculatePriorityScore(a.update()));
-            if (priorityCmp != 0) return priorityCmp;
-            return compareSpatially(a.update().tile(), b.update().tile());
-        });
-
-        normalUpdates.sort((a, b) -> {
-            int priorityCmp = Integer.compare(calculatePriorityScore(b.update()), calculatePriorityScore(a.update()));
-            if (priorityCmp != 0) return priorityCmp;
-            return compareSpatially(a.update().tile(), b.update().tile());
-        });
+        criticalUpdates.sort(byStaleness);
+        highPriorityUpdates.sort(byPriority);
+        normalUpdates.sort(byPriority);
 
-        List<ClientboundMapItemDataPacket> packets = new ArrayList<>();
-        List<PreparedUpdate> sentUpdates = new ArrayList<>();
         int totalBytes = 0;
         int skippedBytes = 0;
         int skippedPackets = 0;
@@ -417,8 +504,9 @@ public class PacketDispatcher {
             update.tile().resetFramesSinceLastSend();
             update.tile().resetAccumulatedChanges();
             if (update.mapData() != null) {
-                update.tile().setLastSentData(update.mapData().clone());
+                update.tile().copyToLastSentData(update.mapData());
             }
+            sync.sent(update.tile(), currentViewers);
         }
 
         packetsSkippedLastFrame.set(skippedPackets);
@@ -428,9 +516,10 @@ public class PacketDispatcher {
         lastFrameBoundingBytes.set(sentBoundingBytes);
         lastFrameFullMapBytes.set(sentFullMapBytes);
 
-        if (packets.isEmpty()) {
+        if (packets.isEmpty() || currentViewers.isEmpty()) {
             lastFramePacketCount.set(0);
             lastFrameBytesSent.set(0);
+            finishFrame(screen, totalBytes);
             return;
         }
 
@@ -438,19 +527,116 @@ public class PacketDispatcher {
         int packetsSent = packets.size();
 
         long sendingStart = metrics != null ? System.nanoTime() : 0;
-        for (Player player : recipients) {
-            sendPacketsToPlayer(player, packets);
-        }
+        sendPackets(currentViewers, packets);
         if (metrics != null) {
             metrics.recordPacketSending(System.nanoTime() - sendingStart);
         }
 
-        int actualPacketCount = useBundlePackets ? recipients.size() : packetsSent * recipients.size();
+        int actualPacketCount = useBundlePackets ? currentViewers.size() : packetsSent * currentViewers.size();
         totalPacketsSent.addAndGet(actualPacketCount);
-        totalBytesSent.addAndGet((long) bytesSent * recipients.size());
+        totalBytesSent.addAndGet((long) bytesSent * currentViewers.size());
 
         lastFramePacketCount.set(packetsSent);
         lastFrameBytesSent.set(bytesSent);
+        finishFrame(screen, bytesSent);
+    }
+
+    /**
+     * Sends patches that were planned ahead of time, e.g. the frames of a baked video, as they are. Nothing is
+     * prioritised or skipped, the patches were budgeted when they were planned.
+     */
+    public void dispatchPatches(Screen screen, List<TilePatch> patches, PerformanceMetrics metrics,
+                                Collection<? extends Player> recipients) {
+        // The tiles already hold the patched data, viewers that missed earlier patches are caught up after
+        ViewerSync sync = screen.getViewerSync();
+        sortRecipients(screen, recipients);
+
+        long creationStart = metrics != null ? System.nanoTime() : 0;
+        List<ClientboundMapItemDataPacket> patchPackets = new ArrayList<>(patches.size());
+        int totalBytes = 0;
+        int sentTiles = 0;
+        MapTile previousTile = null;
+        for (TilePatch patch : patches) {
+            patchPackets.add(createPacket(patch.tile(), patch.region()));
+            totalBytes += patch.region().getDataSize();
+            // A tile's patches are next to each other
+            if (patch.tile() != previousTile) {
+                sentTiles++;
+                previousTile = patch.tile();
+                sync.sent(patch.tile(), currentViewers);
+            }
+        }
+        if (metrics != null && !patchPackets.isEmpty()) {
+            metrics.recordPacketCreation(System.nanoTime() - creationStart);
+        }
+
+        packetsSkippedLastFrame.set(0);
+        bytesSkippedLastFrame.set(0);
+        lastFrameTileCount.set(sentTiles);
+        lastFrameMultiRegionTileCount.set(0);
+        lastFrameBoundingBytes.set(totalBytes);
+        lastFrameFullMapBytes.set((long) sentTiles * MapTile.TOTAL_PIXELS);
+
+        if (patchPackets.isEmpty() || currentViewers.isEmpty()) {
+            lastFramePacketCount.set(0);
+            lastFrameBytesSent.set(0);
+            finishFrame(screen, totalBytes);
+            return;
+        }
+
+        long sendingStart = metrics != null ? System.nanoTime() : 0;
+        sendPackets(currentViewers, patchPackets);
+        if (metrics != null) {
+            metrics.recordPacketSending(System.nanoTime() - sendingStart);
+        }
+
+        int actualPacketCount = useBundlePackets ? currentViewers.size() : patchPackets.size() * currentViewers.size();
+        totalPacketsSent.addAndGet(actualPacketCount);
+        totalBytesSent.addAndGet((long) totalBytes * currentViewers.size());
+
+        lastFramePacketCount.set(patchPackets.size());
+        lastFrameBytesSent.set(totalBytes);
+        finishFrame(screen, totalBytes);
+    }
+
+    /**
+     * Plans the patches of one tile the way {@link #dispatchFrame} does, but without the byte budget, priorities and
+     * the filters that depend on what a tile sent in earlier frames. Used to bake videos ahead of time.
+     */
+    List<MapTile.DirtyRegion> planPatches(TileUpdate update, FrameProcessor.FrameContentStats contentStats) {
+        boolean highMotionFrame = isHighMotionFrame(contentStats);
+        boolean flatFrame = isFlatFrame(contentStats);
+        preparedCount = 0;
+        PreparedUpdate prepared = prepareUpdate(update, effectiveFullUpdateThreshold(highMotionFrame, flatFrame),
+            effectiveMinPatchArea(flatFrame));
+        if (prepared == null) {
+            return List.of();
+        }
+        // The regions point into buffers that are reused, the baker keeps its patches until the frame is written
+        List<MapTile.DirtyRegion> regions = new ArrayList<>(prepared.regions().size());
+        for (MapTile.DirtyRegion region : prepared.regions()) {
+            regions.add(new MapTile.DirtyRegion(region.x(), region.y(), region.width(), region.height(),
+                packetData(region, update.mapData()), region.changedPixelCount()));
+        }
+        return regions;
+    }
+
+    private boolean isHighMotionFrame(FrameProcessor.FrameContentStats contentStats) {
+        return contentStats != null && contentStats.motionScore() >= adaptiveMotionThreshold;
+    }
+
+    private boolean isFlatFrame(FrameProcessor.FrameContentStats contentStats) {
+        return contentStats != null && contentStats.motionScore() < adaptiveMotionThreshold &&
+            (contentStats.flatScore() >= adaptiveFlatThreshold || contentStats.lowSaturationScore() >= adaptiveFlatThreshold);
+    }
+
+    private int effectiveFullUpdateThreshold(boolean highMotionFrame, boolean flatFrame) {
+        return flatFrame ? Math.min(98, fullUpdateThresholdPercent + 10)
+            : (highMotionFrame ? Math.min(95, fullUpdateThresholdPercent + 5) : fullUpdateThresholdPercent);
+    }
+
+    private int effectiveMinPatchArea(boolean flatFrame) {
+        return flatFrame ? Math.max(4, minPatchArea / 2) : minPatchArea;
     }
 
     private void markUpdateSkipped(TileUpdate update) {
@@ -459,9 +645,42 @@ public class PacketDispatcher {
     }
 
     private void addPacketsForUpdate(List<ClientboundMapItemDataPacket> packets, PreparedUpdate prepared) {
+        byte[] mapData = prepared.update().mapData();
         for (MapTile.DirtyRegion region : prepared.regions()) {
-            packets.add(createPacket(prepared.update().tile(), region));
+            packets.add(createPacket(prepared.update().tile(), region.x(), region.y(), region.width(), region.height(),
+                packetData(region, mapData)));
+        }
+    }
+
+    /**
+     * Copies a planned region's pixels into an array of its own. Regions point into the frame processor's tile
+     * buffer or the tile's patch buffer, which are recycled a few frames later while the packet may still be waiting
+     * to be encoded.
+     */
+    private static byte[] packetData(MapTile.DirtyRegion region, byte[] mapData) {
+        byte[] data = region.data();
+        if (data != mapData) {
+            return Arrays.copyOf(data, region.getDataSize());
+        }
+        if (region.isFullMap()) {
+            return mapData.clone();
+        }
+        byte[] patchData = new byte[region.getDataSize()];
+        for (int row = 0; row < region.height(); row++) {
+            System.arraycopy(mapData, (region.y() + row) * MapTile.SIZE + region.x(), patchData,
+                row * region.width(), region.width());
         }
+        return patchData;
+    }
+
+    private PreparedUpdate nextPreparedUpdate(TileUpdate update) {
+        if (preparedCount == preparedPool.size()) {
+            preparedPool.add(new PreparedUpdate());
+        }
+        PreparedUpdate prepared = preparedPool.get(preparedCount++);
+        prepared.update = update;
+        prepared.regions.clear();
+        return prepared;
     }
 
     private PreparedUpdate prepareUpdate(TileUpdate update, int effectiveFullUpdateThreshold, int effectiveMinPatchArea) {
@@ -470,23 +689,25 @@ public class PacketDispatcher {
             return null;
         }
 
+        PreparedUpdate prepared = nextPreparedUpdate(update);
+        prepared.boundingSize = dirtyRegion.getDataSize();
         byte[] mapData = update.mapData();
         if (mapData == null || mapData.length != MapTile.TOTAL_PIXELS) {
-            return new PreparedUpdate(update, List.of(dirtyRegion), dirtyRegion.getDataSize(), dirtyRegion.getDataSize());
+            return prepared.single(dirtyRegion);
         }
 
         if (patchStrategy == PatchStrategy.FULL_MAP || dirtyRegion.getCoveragePercent() >= effectiveFullUpdateThreshold) {
-            MapTile.DirtyRegion fullRegion = new MapTile.DirtyRegion(0, 0, MapTile.SIZE, MapTile.SIZE, mapData, dirtyRegion.changedPixelCount());
-            return new PreparedUpdate(update, List.of(fullRegion), MapTile.TOTAL_PIXELS, dirtyRegion.getDataSize());
+            return prepared.single(new MapTile.DirtyRegion(0, 0, MapTile.SIZE, MapTile.SIZE, mapData, dirtyRegion.changedPixelCount()));
         }
 
         if (patchStrategy != PatchStrategy.MULTI_REGION || dirtyRegion.isFullMap()) {
-            return new PreparedUpdate(update, List.of(dirtyRegion), dirtyRegion.getDataSize(), dirtyRegion.getDataSize());
+            return prepared.single(dirtyRegion);
         }
 
-        List<MapTile.DirtyRegion> splitRegions = buildMultiRegions(update, effectiveMinPatchArea);
+        List<MapTile.DirtyRegion> splitRegions = prepared.regions;
+        buildMultiRegions(update, effectiveMinPatchArea, splitRegions);
         if (splitRegions.isEmpty()) {
-            return new PreparedUpdate(update, List.of(dirtyRegion), dirtyRegion.getDataSize(), dirtyRegion.getDataSize());
+            return prepared.single(dirtyRegion);
         }
 
         int splitPayload = 0;
@@ -498,17 +719,23 @@ public class PacketDispatcher {
         int splitWithOverhead = splitPayload + splitRegions.size() * effectivePatchOverhead;
         int boxWithOverhead = dirtyRegion.getDataSize() + effectivePatchOverhead;
         if (splitWithOverhead >= boxWithOverhead) {
-            return new PreparedUpdate(update, List.of(dirtyRegion), dirtyRegion.getDataSize(), dirtyRegion.getDataSize());
+            return prepared.single(dirtyRegion);
         }
 
-        return new PreparedUpdate(update, splitRegions, splitPayload, dirtyRegion.getDataSize());
+        prepared.totalDataSize = splitPayload;
+        return prepared;
     }
 
-    private List<MapTile.DirtyRegion> buildMultiRegions(TileUpdate update, int effectiveMinPatchArea) {
+    /**
+     * Splits a tile's changes into separate regions, into {@code regions}. The regions point into the tile's map
+     * data, they are copied out when they are sent. Leaves {@code regions} empty if the tile should not be split.
+     */
+    private void buildMultiRegions(TileUpdate update, int effectiveMinPatchArea, List<MapTile.DirtyRegion> regions) {
+        regions.clear();
         byte[] mapData = update.mapData();
         byte[] lastSentData = update.tile().getLastSentData();
         if (mapData == null || lastSentData == null || lastSentData.length != MapTile.TOTAL_PIXELS) {
-            return List.of();
+            return;
         }
 
         int blockSize = Math.max(1, multiRegionBlockSize);
@@ -516,8 +743,19 @@ public class PacketDispatcher {
         int blockRows = (MapTile.SIZE + blockSize - 1) / blockSize;
         int blockCount = blockColumns * blockRows;
 
-        boolean[] dirtyBlocks = new boolean[blockCount];
-        int[] changedPerBlock = new int[blockCount];
+        if (regionQueue.length != blockCount) {
+            regionDirtyBlocks = new boolean[blockCount];
+            regionChangedPerBlock = new int[blockCount];
+            regionVisited = new boolean[blockCount];
+            regionQueue = new int[blockCount];
+        }
+        boolean[] dirtyBlocks = regionDirtyBlocks;
+        int[] changedPerBlock = regionChangedPerBlock;
+        boolean[] visited = regionVisited;
+        int[] queue = regionQueue;
+        Arrays.fill(dirtyBlocks, false);
+        Arrays.fill(changedPerBlock, 0);
+        Arrays.fill(visited, false);
         for (int y = 0; y < MapTile.SIZE; y++) {
             int rowOffset = y * MapTile.SIZE;
             int blockY = y / blockSize;
@@ -532,10 +770,6 @@ public class PacketDispatcher {
             }
         }
 
-        List<MapTile.DirtyRegion> regions = new ArrayList<>();
-        boolean[] visited = new boolean[blockCount];
-        int[] queue = new int[blockCount];
-
         for (int blockIndex = 0; blockIndex < blockCount; blockIndex++) {
             if (!dirtyBlocks[blockIndex] || visited[blockIndex]) {
                 continue;
@@ -602,44 +836,36 @@ public class PacketDispatcher {
                 continue;
             }
 
-            byte[] patchData = copyPatchData(mapData, x, y, width, height);
-            regions.add(new MapTile.DirtyRegion(x, y, width, height, patchData, Math.max(1, changedPixels)));
+            regions.add(new MapTile.DirtyRegion(x, y, width, height, mapData, Math.max(1, changedPixels)));
         }
 
         if (regions.size() > maxPatchesPerTile) {
-            return List.of();
+            regions.clear();
+            return;
         }
 
         regions.sort((a, b) -> Integer.compare(b.getDataSize(), a.getDataSize()));
-        return regions;
-    }
-
-    private byte[] copyPatchData(byte[] fullMapData, int x, int y, int width, int height) {
-        byte[] patchData = new byte[width * height];
-        for (int row = 0; row < height; row++) {
-            int sourceOffset = (y + row) * MapTile.SIZE + x;
-            int targetOffset = row * width;
-            System.arraycopy(fullMapData, sourceOffset, patchData, targetOffset, width);
-        }
-        return patchData;
     }
 
     /**
      * Detect if a dirty region has significant changes or just dither noise.
      * Low-entropy changes (few unique colors) are likely just dithering artifacts.
      */
-    private boolean hasSignificantChanges(byte[] data) {
-        if (data.length < MIN_DIRTY_REGION_PIXELS) {
+    private boolean hasSignificantChanges(MapTile.DirtyRegion region) {
+        byte[] data = region.data();
+        int length = region.getDataSize();
+        if (length < MIN_DIRTY_REGION_PIXELS) {
             return false; // Too small to matter
         }
 
         // Count unique color values in the changed region
-        boolean[] seen = new boolean[256];
+        boolean[] seen = seenColors;
+        Arrays.fill(seen, false);
         int uniqueColors = 0;
 
         // Sample up to 128 pixels for performance
-        int step = Math.max(1, data.length / 128);
-        for (int i = 0; i < data.length; i += step) {
+        int step = Math.max(1, length / 128);
+        for (int i = 0; i < length; i += step) {
             int colorIndex = data[i] & 0xFF;
             if (!seen[colorIndex]) {
                 seen[colorIndex] = true;
@@ -654,16 +880,19 @@ public class PacketDispatcher {
         return uniqueColors >= minUniqueColorsThreshold;
     }
 
-    private boolean isHighContrast(byte[] data) {
-        if (data == null || data.length < 64) {
+    private boolean isHighContrast(MapTile.DirtyRegion region) {
+        byte[] data = region.data();
+        int length = region.getDataSize();
+        if (data == null || length < 64) {
             return false;
         }
 
         // Count color occurrences using a sampled histogram
-        int[] histogram = new int[256];
-        int step = Math.max(1, data.length / 128);
+        int[] histogram = colorHistogram;
+        Arrays.fill(histogram, 0);
+        int step = Math.max(1, length / 128);
         int samples = 0;
-        for (int i = 0; i < data.length; i += step) {
+        for (int i = 0; i < length; i += step) {
             histogram[data[i] & 0xFF]++;
             samples++;
         }
@@ -708,12 +937,16 @@ public class PacketDispatcher {
         dispatchFullFrame(screen, mapData, screen.getViewers());
     }
 
+    /**
+     * Sends whole tiles, which have to be what the tiles' last sent data is now, e.g. after a fill.
+     */
     public void dispatchFullFrame(Screen screen, byte[][] mapData, Collection<? extends Player> recipients) {
         if (recipients.isEmpty()) {
             return;
         }
 
         List<ClientboundMapItemDataPacket> packets = new ArrayList<>(screen.getTotalMaps());
+        ViewerSync sync = screen.getViewerSync();
 
         for (int i = 0; i < screen.getTiles().size(); i++) {
             MapTile tile = screen.getTile(i);
@@ -722,34 +955,363 @@ public class PacketDispatcher {
 
             ClientboundMapItemDataPacket packet = createFullMapPacket(tile.getMapId(), data);
             packets.add(packet);
+            sync.sent(tile, recipients);
+        }
+
+        sendPackets(recipients, packets);
+    }
+
+    /**
+     * Sends a player the tiles of a screen it does not have as last sent, nothing if it is current. See
+     * {@link ViewerSync}.
+     */
+    public void catchUpPlayer(Player player, Screen screen) {
+        catchUp(screen, List.of(player));
+    }
+
+    private void catchUp(Screen screen, List<? extends Player> players) {
+        if (players.isEmpty()) {
+            return;
+        }
+        ViewerSync sync = screen.getViewerSync();
+        List<MapTile> tiles = screen.getTiles();
+        boolean[] missing = new boolean[screen.getTotalMaps()];
+        // Copied once for all players, the packets are encoded later and the tiles keep changing
+        byte[][] tileData = new byte[tiles.size()][];
+        for (Player player : players) {
+            if (!sync.takeMissing(player, missing)) {
+                continue;
+            }
+            List<ClientboundMapItemDataPacket> catchUpPackets = new ArrayList<>();
+            for (int i = 0; i < tiles.size(); i++) {
+                MapTile tile = tiles.get(i);
+                if (!missing[tile.getTileIndex()]) {
+                    continue;
+                }
+                if (tileData[i] == null) {
+                    byte[] sent = tile.getLastSentData();
+                    // Never drawn, the client keeps showing the server's copy of the map
+                    tileData[i] = sent == null || Arrays.equals(sent, BLANK_TILE) ? BLANK_TILE : sent.clone();
+                }
+                if (tileData[i] != BLANK_TILE) {
+                    catchUpPackets.add(createFullMapPacket(tile.getMapId(), tileData[i]));
+                }
+            }
+            if (catchUpPackets.isEmpty()) {
+                continue;
+            }
+            sendPacketsToPlayer(player, catchUpPackets);
+            totalPacketsSent.addAndGet(useBundlePackets ? 1 : catchUpPackets.size());
+            totalBytesSent.addAndGet((long) catchUpPackets.size() * MapTile.TOTAL_PIXELS);
+        }
+    }
+
+    /**
+     * Sorts a frame's recipients into {@link #currentViewers}, {@link #behindViewers} and the lower tiers' members.
+     */
+    private void sortRecipients(Screen screen, Collection<? extends Player> recipients) {
+        currentViewers.clear();
+        behindViewers.clear();
+        screen.getViewerSync().partition(recipients, currentViewers, behindViewers);
+        if (tiersEnabled || viewLodEnabled) {
+            // Before holding anyone back, a congested connection is what moves a viewer down
+            assignTiers(screen);
         }
+        holdBackCongested();
+    }
 
-        for (Player player : recipients) {
-            sendPacketsToPlayer(player, packets);
+    /**
+     * Catches up the viewers that are behind and sends the lower tiers their frames, after the full stream was sent.
+     */
+    private void finishFrame(Screen screen, int frameBytes) {
+        streamBytesPerSecond += (frameBytes * currentFrameRate - streamBytesPerSecond) * 0.05;
+        catchUp(screen, behindViewers);
+        if (updateTiers != null) {
+            dispatchTiers(screen);
         }
     }
 
-    public void sendLastFrameToPlayer(Player player, Screen screen) {
-        List<ClientboundMapItemDataPacket> packets = new ArrayList<>();
+    private void assignTiers(Screen screen) {
+        if (updateTiers == null) {
+            updateTiers = new UpdateTiers(screen.getTotalMaps());
+        }
+        if (tiersEnabled && bandwidthTiers == null) {
+            bandwidthTiers = new BandwidthTiers(tierMaxPing);
+        }
+        long now = System.nanoTime();
+        if (++tierFrame % TIER_CLEANUP_FRAMES == 0) {
+            forgetAbsentViewers(screen, now);
+        }
+        assignTiers(screen, currentViewers, now);
+        assignTiers(screen, behindViewers, now);
+    }
 
-        for (MapTile tile : screen.getTiles()) {
-            byte[] data = tile.getLastFrameData();
-            if (data != null && data.length > 0) {
-                boolean hasData = false;
-                for (byte b : data) {
-                    if (b != 0) {
-                        hasData = true;
-                        break;
+    private void assignTiers(Screen screen, List<Player> players, long now) {
+        for (int i = players.size() - 1; i >= 0; i--) {
+            Player player = players.get(i);
+            UUID playerId = player.getUniqueId();
+            int previous = viewerTiers.getOrDefault(playerId, 0);
+            int viewTier = viewLodEnabled ? viewTier(screen, player) : 0;
+            if (viewTier == HIDDEN) {
+                // Caught up like any other viewer once it is back in front
+                players.remove(i);
+                viewerTiers.put(playerId, HIDDEN);
+                continue;
+            }
+            int bandwidthTier = tiersEnabled ? bandwidthTiers.update(player, getPendingBytes(player), streamBytesPerSecond, now) : 0;
+            int tier = Math.max(viewTier, bandwidthTier);
+            viewerTiers.put(playerId, tier);
+            if (tier == 0) {
+                if (previous != 0) {
+                    // Back on the full stream, with whatever the lower tier left on the client
+                    screen.getViewerSync().forget(player.getUniqueId());
+                    if (players == currentViewers) {
+                        players.remove(i);
+                        behindViewers.add(player);
                     }
                 }
-                if (hasData) {
-                    packets.add(createFullMapPacket(tile.getMapId(), data));
+                continue;
+            }
+            players.remove(i);
+            UpdateTiers.Tier current = updateTiers.tier(tier);
+            current.members.add(player);
+            // New to the tier or the screen, or the server sent its own copy of a map in between
+            if (screen.getViewerSync().checkLost(player) || tier != previous) {
+                current.needFullTiles.add(playerId);
+            }
+        }
+    }
+
+    /**
+     * Tier for where the viewer is: every frame when close and in front, fewer when far, at a steep angle or looking
+     * elsewhere, none when behind the screen.
+     */
+    private int viewTier(Screen screen, Player player) {
+        ViewPosition view = screen.getViewPosition(player);
+        if (view == null) {
+            return 0;
+        }
+        if (!view.inFront()) {
+            return HIDDEN;
+        }
+        int lowest = UpdateTiers.COUNT - 1;
+        if (!view.lookingAt()) {
+            return lowest;
+        }
+        int tier = view.distance() > viewLodFullDistance ? 1 : 0;
+        if (view.angleCos() < STEEP_ANGLE_COS) {
+            tier++;
+        }
+        return Math.min(tier, lowest);
+    }
+
+    /**
+     * Drops the tiers of viewers not among this frame's recipients. They get every tile in full if they come back.
+     */
+    private void forgetAbsentViewers(Screen screen, long now) {
+        Set<UUID> present = new HashSet<>();
+        for (Player player : currentViewers) {
+            present.add(player.getUniqueId());
+        }
+        for (Player player : behindViewers) {
+            present.add(player.getUniqueId());
+        }
+        for (UUID viewer : viewerTiers.keySet()) {
+            if (!present.contains(viewer)) {
+                viewerTiers.remove(viewer);
+                updateTiers.forget(viewer);
+                screen.getViewerSync().forget(viewer);
+            }
+        }
+        if (bandwidthTiers != null) {
+            bandwidthTiers.forgetUnseen(now);
+        }
+    }
+
+    /**
+     * Sends each lower tier whose frame it is one patch per tile that changed since the tier was last sent, taken from
+     * what the full stream sent. Viewers new to the tier or congested at its last frame get all its tiles instead.
+     */
+    private void dispatchTiers(Screen screen) {
+        List<MapTile> screenTiles = screen.getTiles();
+        UpdateTiers.SentTiles sentTiles = updateTiers.sentTiles();
+        int tileCount = Math.min(screenTiles.size(), sentTiles.count());
+        boolean sentTilesUpdated = false;
+        for (int t = 1; t < UpdateTiers.COUNT; t++) {
+            UpdateTiers.Tier tier = updateTiers.tier(t);
+            List<Player> members = tier.members;
+            if (members.isEmpty() || tierFrame % tier.frameInterval != 0) {
+                members.clear();
+                continue;
+            }
+            if (!sentTilesUpdated) {
+                for (int i = 0; i < tileCount; i++) {
+                    byte[] sent = screenTiles.get(i).getLastSentData();
+                    if (sent != null) {
+                        sentTiles.update(i, sent);
+                    }
+                }
+                sentTilesUpdated = true;
+            }
+
+            // Same cap per send as a frame of the full stream, so the tier needs a fraction of its bandwidth
+            long byteCap = bandwidthTargetEnabled
+                ? Math.min(maxBytesPerFrame, (long) (bandwidthTargetBytesPerSecond / Math.max(1.0, currentFrameRate)))
+                : maxBytesPerFrame;
+            tierPackets.clear();
+            long tierBytes = 0;
+            for (int n = 0; n < tileCount; n++) {
+                int i = (tier.nextTile + n) % tileCount;
+                int version = sentTiles.version(i);
+                if (version == tier.versions[i]) {
+                    continue;
+                }
+                sentTiles.changedSince(i, tier.versions[i], tierBounds);
+                int size = tierBounds[2] * tierBounds[3];
+                if (tierBytes > 0 && tierBytes + size > byteCap) {
+                    // The rest goes out with the tier's next frame
+                    tier.nextTile = i;
+                    break;
                 }
+                tier.versions[i] = version;
+                byte[] data = sentTiles.copy(i, tierBounds[0], tierBounds[1], tierBounds[2], tierBounds[3]);
+                tierPackets.add(createPacket(screenTiles.get(i), tierBounds[0], tierBounds[1], tierBounds[2], tierBounds[3], data));
+                tierBytes += size;
             }
+
+            tierRecipients.clear();
+            tierTilePackets.clear();
+            for (Player member : members) {
+                UUID memberId = member.getUniqueId();
+                if (backpressureEnabled && isCongested(member)) {
+                    tier.needFullTiles.add(memberId);
+                    heldBackFrames.merge(memberId, 1, Integer::sum);
+                } else {
+                    heldBackFrames.remove(memberId);
+                    if (tier.needFullTiles.remove(memberId)) {
+                        sendTierTiles(member, screenTiles, tier, sentTiles);
+                    } else {
+                        tierRecipients.add(member);
+                    }
+                }
+            }
+            if (!tierPackets.isEmpty() && !tierRecipients.isEmpty()) {
+                sendPackets(tierRecipients, tierPackets);
+                totalPacketsSent.addAndGet(useBundlePackets ? tierRecipients.size() : (long) tierPackets.size() * tierRecipients.size());
+                totalBytesSent.addAndGet(tierBytes * tierRecipients.size());
+            }
+            members.clear();
         }
+    }
 
-        if (!packets.isEmpty()) {
-            sendPacketsToPlayer(player, packets);
+    /**
+     * Sends a viewer the tiles the tier was sent, as they are now. Those are the same or newer, and later patches
+     * cover whatever changed since the tier's versions of them.
+     */
+    private void sendTierTiles(Player player, List<MapTile> screenTiles, UpdateTiers.Tier tier, UpdateTiers.SentTiles sentTiles) {
+        if (tierTilePackets.isEmpty()) {
+            // Once per tier and frame, for every viewer that needs them
+            for (int i = 0; i < Math.min(screenTiles.size(), sentTiles.count()); i++) {
+                if (tier.versions[i] > 0 && !Arrays.equals(sentTiles.data(i), BLANK_TILE)) {
+                    tierTilePackets.add(createFullMapPacket(screenTiles.get(i).getMapId(), sentTiles.copy(i, 0, 0, MapTile.SIZE, MapTile.SIZE)));
+                }
+            }
+        }
+        if (!tierTilePackets.isEmpty()) {
+            sendPacketsToPlayer(player, tierTilePackets);
+            totalPacketsSent.addAndGet(useBundlePackets ? 1 : tierTilePackets.size());
+            totalBytesSent.addAndGet((long) tierTilePackets.size() * MapTile.TOTAL_PIXELS);
+        }
+    }
+
+    /**
+     * The player's update tier, null unless tiered dispatch or view LOD is on and the player was seen.
+     */
+    public String getUpdateTier(Player player) {
+        Integer tier = viewerTiers.get(player.getUniqueId());
+        if (tier == null) {
+            return null;
+        }
+        return tier == HIDDEN ? "NONE (behind screen)" : UpdateTiers.name(tier);
+    }
+
+    /**
+     * Takes players whose connection is not keeping up out of this frame's recipients. They fall behind on the tiles
+     * that change meanwhile and get them in one catch-up once their connection drained, instead of every patch.
+     */
+    private void holdBackCongested() {
+        if (!backpressureEnabled) {
+            return;
+        }
+        holdBackCongested(currentViewers);
+        holdBackCongested(behindViewers);
+    }
+
+    private void holdBackCongested(List<Player> players) {
+        for (int i = players.size() - 1; i >= 0; i--) {
+            Player player = players.get(i);
+            if (isCongested(player)) {
+                players.remove(i);
+                heldBackFrames.merge(player.getUniqueId(), 1, Integer::sum);
+            } else if (!heldBackFrames.isEmpty()) {
+                heldBackFrames.remove(player.getUniqueId());
+            }
+        }
+    }
+
+    private boolean isCongested(Player player) {
+        Channel channel = getChannel(player);
+        // Below the high water mark there is nothing worth looking at
+        return channel != null && !channel.isWritable() && getPendingBytes(channel) > maxPendingBytes;
+    }
+
+    /**
+     * Bytes waiting in the player's connection to be written to the socket, as far as the channel's write buffer
+     * water marks tell.
+     */
+    public static long getPendingBytes(Player player) {
+        Channel channel = getChannel(player);
+        return channel != null ? getPendingBytes(channel) : 0;
+    }
+
+    private static long getPendingBytes(Channel channel) {
+        // The outbound buffer itself belongs to the event loop, these are safe to read from any thread
+        WriteBufferWaterMark waterMark = channel.config().getWriteBufferWaterMark();
+        if (channel.isWritable()) {
+            return Math.max(0, waterMark.high() - channel.bytesBeforeUnwritable());
+        }
+        return waterMark.low() + channel.bytesBeforeWritable();
+    }
+
+    private static Channel getChannel(Player player) {
+        ServerGamePacketListenerImpl listener = ((CraftPlayer) player).getHandle().connection;
+        return listener != null ? listener.connection.channel : null;
+    }
+
+    /**
+     * Frames in a row the player got nothing of because its connection was congested, 0 if it is keeping up.
+     */
+    public int getHeldBackFrames(Player player) {
+        return heldBackFrames.getOrDefault(player.getUniqueId(), 0);
+    }
+
+    /**
+     * Sends the packets to every recipient. With several recipients they are encoded once for all connections that
+     * allow it, see {@link MapPacketBroadcast}, and sent normally to the others.
+     */
+    private void sendPackets(Collection<? extends Player> recipients, List<ClientboundMapItemDataPacket> packets) {
+        if (broadcast == null || recipients.size() < 2) {
+            for (Player player : recipients) {
+                sendPacketsToPlayer(player, packets);
+            }
+            return;
+        }
+        try (MapPacketBroadcast.Frame frame = broadcast.encode(packets, useBundlePackets && packets.size() > 1)) {
+            for (Player player : recipients) {
+                if (!frame.writeTo(player)) {
+                    sendPacketsToPlayer(player, packets);
+                }
+            }
         }
     }
 
@@ -769,18 +1331,16 @@ public class PacketDispatcher {
     }
 
     private ClientboundMapItemDataPacket createPacket(MapTile tile, MapTile.DirtyRegion region) {
+        return createPacket(tile, region.x(), region.y(), region.width(), region.height(), region.data());
+    }
+
+    private ClientboundMapItemDataPacket createPacket(MapTile tile, int x, int y, int width, int height, byte[] data) {
         return new ClientboundMapItemDataPacket(
             new MapId(tile.getMapId()),
             (byte) 0,
             false,
             null,
-            new MapItemSavedData.MapPatch(
-                region.x(),
-                region.y(),
-                region.width(),
-                region.height(),
-                region.data()
-            )
+            new MapItemSavedData.MapPatch(x, y, width, height, data)
         );
     }
 
@@ -884,7 +1444,41 @@ public class PacketDispatcher {
     public record TileUpdate(MapTile tile, MapTile.DirtyRegion dirtyRegion, byte[] mapData) {
     }
 
-    private record PreparedUpdate(TileUpdate update, List<MapTile.DirtyRegion> regions, int totalDataSize, int boundingSize) {
+    public record TilePatch(MapTile tile, MapTile.DirtyRegion region) {
+    }
+
+    /**
+     * How a tile's update is sent, reused from frame to frame.
+     */
+    private static final class PreparedUpdate {
+
+        private TileUpdate update;
+        private final List<MapTile.DirtyRegion> regions = new ArrayList<>(4);
+        private int totalDataSize;
+        private int boundingSize;
+
+        private PreparedUpdate single(MapTile.DirtyRegion region) {
+            regions.clear();
+            regions.add(region);
+            totalDataSize = region.getDataSize();
+            return this;
+        }
+
+        TileUpdate update() {
+            return update;
+        }
+
+        List<MapTile.DirtyRegion> regions() {
+            return regions;
+        }
+
+        int totalDataSize() {
+            return totalDataSize;
+        }
+
+        int boundingSize() {
+            return boundingSize;
+        }
     }
 
     public long getLastFrameByteCap() {
@@ -36,6 +36,14 @@ public class PerformanceMetrics {
     private final AtomicLong packetSendingTimeNs = new AtomicLong(0);
     private final AtomicLong packetSendingCount = new AtomicLong(0);
 
+    // Parallel phases (worker gang barriers) per processed frame
+    private final AtomicLong parallelPhases = new AtomicLong(0);
+    private final AtomicLong parallelPhaseFrames = new AtomicLong(0);
+
+    // Time the parallel phases of a frame waited for threads of the shared processing pool
+    private final AtomicLong schedulerQueueDelayNs = new AtomicLong(0);
+    private final AtomicLong schedulerQueueDelayCount = new AtomicLong(0);
+
     // Total frame processing time
     private final AtomicLong totalFrameTimeNs = new AtomicLong(0);
     private final AtomicLong totalFrameCount = new AtomicLong(0);
@@ -67,6 +75,7 @@ public class PerformanceMetrics {
     private volatile int lastDirtyTileCount = 0;
     private volatile int lastSkippedTileCount = 0;
     private volatile int lastMultiRegionCount = 0;
+    private volatile int lastParallelPhases = 0;
 
     // Moving averages
     private volatile long avgFrameDecodeUs = 0;
@@ -78,6 +87,7 @@ public class PerformanceMetrics {
     private volatile long avgPacketCreationUs = 0;
     private volatile long avgPacketSendingUs = 0;
     private volatile long avgTotalFrameUs = 0;
+    private volatile long avgSchedulerQueueDelayUs = 0;
 
     // Last frame metrics
     private volatile long lastFrameDecodeUs = 0;
@@ -89,6 +99,7 @@ public class PerformanceMetrics {
     private volatile long lastPacketCreationUs = 0;
     private volatile long lastPacketSendingUs = 0;
     private volatile long lastTotalFrameUs = 0;
+    private volatile long lastSchedulerQueueDelayUs = 0;
 
     public void recordFrameDecode(long durationNs) {
         frameDecodeTimeNs.addAndGet(durationNs);
@@ -146,6 +157,19 @@ public class PerformanceMetrics {
         updateAverage();
     }
 
+    public void recordParallelPhases(int phases) {
+        parallelPhases.addAndGet(phases);
+        parallelPhaseFrames.incrementAndGet();
+        lastParallelPhases = phases;
+    }
+
+    public void recordSchedulerQueueDelay(long durationNs) {
+        schedulerQueueDelayNs.addAndGet(durationNs);
+        schedulerQueueDelayCount.incrementAndGet();
+        lastSchedulerQueueDelayUs = durationNs / 1000;
+        updateAverage();
+    }
+
     public void recordTotalFrame(long durationNs) {
         totalFrameTimeNs.addAndGet(durationNs);
         totalFrameCount.incrementAndGet();
@@ -238,6 +262,11 @@ public class PerformanceMetrics {
         if (totalCount > 0) {
             avgTotalFrameUs = totalFrameTimeNs.get() / totalCount / 1000;
         }
+
+        long queueCount = schedulerQueueDelayCount.get();
+        if (queueCount > 0) {
+            avgSchedulerQueueDelayUs = schedulerQueueDelayNs.get() / queueCount / 1000;
+        }
     }
 
     public void reset() {
@@ -259,6 +288,8 @@ public class PerformanceMetrics {
         packetSendingCount.set(0);
         totalFrameTimeNs.set(0);
         totalFrameCount.set(0);
+        schedulerQueueDelayNs.set(0);
+        schedulerQueueDelayCount.set(0);
 
         avgFrameDecodeUs = 0;
         avgImageConversionUs = 0;
@@ -269,6 +300,7 @@ public class PerformanceMetrics {
         avgPacketCreationUs = 0;
         avgPacketSendingUs = 0;
         avgTotalFrameUs = 0;
+        avgSchedulerQueueDelayUs = 0;
 
         lastFrameDecodeUs = 0;
         lastImageConversionUs = 0;
@@ -279,6 +311,7 @@ public class PerformanceMetrics {
         lastPacketCreationUs = 0;
         lastPacketSendingUs = 0;
         lastTotalFrameUs = 0;
+        lastSchedulerQueueDelayUs = 0;
 
         // Reset optimization metrics
         pixelsKeptByOutputStability.set(0);
@@ -290,6 +323,8 @@ public class PerformanceMetrics {
         tilesWithChanges.set(0);
         tilesSkipped.set(0);
         multiRegionTiles.set(0);
+        parallelPhases.set(0);
+        parallelPhaseFrames.set(0);
 
         lastOutputStabilityPercent = 0;
         lastMotionAdaptivePercent = 0;
@@ -298,6 +333,7 @@ public class PerformanceMetrics {
         lastDirtyTileCount = 0;
         lastSkippedTileCount = 0;
         lastMultiRegionCount = 0;
+        lastParallelPhases = 0;
     }
 
 
@@ -306,6 +342,14 @@ public class PerformanceMetrics {
     public long getLastUpscalingUs() { return lastUpscalingUs; }
     public long getLastTileExtractionUs() { return lastTileExtractionUs; }
     public long getLastTotalFrameUs() { return lastTotalFrameUs; }
+    public int getLastParallelPhases() { return lastParallelPhases; }
+    public long getLastSchedulerQueueDelayUs() { return lastSchedulerQueueDelayUs; }
+    public long getAvgSchedulerQueueDelayUs() { return avgSchedulerQueueDelayUs; }
+
+    public double getAverageParallelPhases() {
+        long frames = parallelPhaseFrames.get();
+        return frames > 0 ? (double) parallelPhases.get() / frames : 0.0;
+    }
 
 }
 
@@ -0,0 +1,44 @@
+package de.erethon.mccinema.video;
+
+/**
+ * Runs the parallel phases of a {@link FrameProcessor}: chunks {@code [0, chunks)} of a task, with the calling
+ * thread taking part, returning once every chunk is done.
+ * <p>
+ * Chunks of a phase may run in any order and on any number of threads at once, down to only the caller. Phases
+ * must not be started from more than one thread at a time.
+ */
+interface PhaseRunner {
+
+    @FunctionalInterface
+    interface Task {
+        void run(int chunk);
+    }
+
+    /**
+     * Most threads that work on a phase at once, including the thread that starts it.
+     */
+    int size();
+
+    /**
+     * Phases run so far that were handed to other threads. Phases of a single chunk run inline and are not counted.
+     */
+    long getPhaseCount();
+
+    /**
+     * Total time phases have waited for threads to help with them.
+     */
+    default long getQueueDelayNanos() {
+        return 0;
+    }
+
+    /**
+     * When the work currently being done has to be finished, in {@link System#nanoTime()} terms. Runners that
+     * share threads between processors serve the earliest deadline first.
+     */
+    default void setDeadline(long deadlineNanos) {
+    }
+
+    void run(int chunks, Task task);
+
+    void shutdown();
+}
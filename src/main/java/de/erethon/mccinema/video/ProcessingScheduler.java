@@ -0,0 +1,268 @@
+package de.erethon.mccinema.video;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One set of processing threads for all screens, instead of a {@link WorkerGang} per frame processor.
+ * <p>
+ * Every processor gets a {@link Lane} that runs its parallel phases. The thread starting a phase works on it right
+ * away, and idle pool threads join the open phase whose frame is due first; among phases due at the same time, the
+ * lane that was helped longest ago goes first. Chunks are taken from a shared counter by whoever is free, so a phase
+ * finishes with however many threads it got, down to just its own. The time a phase waits for its first helper is
+ * its queue delay.
+ * <p>
+ * With several screens playing, the number of threads dithering at once stays at the pool size plus one thread per
+ * playing screen, and the cores go to the screen closest to missing its frame.
+ */
+public final class ProcessingScheduler {
+
+    // Spins of a thread waiting for the helpers of its phase before it parks
+    private static final int AWAIT_SPINS = 2048;
+
+    private final Thread[] threads;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition phaseOpened = lock.newCondition();
+
+    // Guarded by lock
+    private final List<Phase> openPhases = new ArrayList<>();
+    private long helpCounter;
+    private boolean running = true;
+
+    /**
+     * @param threads pool threads, the threads starting phases come on top
+     */
+    public ProcessingScheduler(int threads) {
+        this.threads = new Thread[Math.max(0, threads)];
+        for (int i = 0; i < this.threads.length; i++) {
+            Thread thread = new Thread(this::helpLoop, "MCCinema-Processing-" + (i + 1));
+            thread.setDaemon(true);
+            this.threads[i] = thread;
+            thread.start();
+        }
+    }
+
+    public int getThreadCount() {
+        return threads.length;
+    }
+
+    /**
+     * A lane for one processor, letting at most {@code size} threads (its own included) work on a phase.
+     */
+    Lane createLane(int size) {
+        return new Lane(size);
+    }
+
+    /**
+     * Stops the pool threads. Lanes keep working, with only the threads that start their phases.
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            running = false;
+            phaseOpened.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean open(Phase phase) {
+        lock.lock();
+        try {
+            if (!running || threads.length == 0) {
+                return false;
+            }
+            phase.openedNanos = System.nanoTime();
+            openPhases.add(phase);
+            if (phase.maxHelpers == 1) {
+                phaseOpened.signal();
+            } else {
+                phaseOpened.signalAll();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the phase off the open ones, no more helpers join it.
+     *
+     * @return when the first helper joined, the close time if none did
+     */
+    private long close(Phase phase) {
+        lock.lock();
+        try {
+            openPhases.remove(phase);
+            return phase.firstHelperNanos != 0 ? phase.firstHelperNanos : System.nanoTime();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void helpLoop() {
+        while (true) {
+            Phase phase = null;
+            lock.lock();
+            try {
+                while (running && (phase = nextPhase()) == null) {
+                    phaseOpened.awaitUninterruptibly();
+                }
+                if (!running) {
+                    return;
+                }
+                phase.helpers++;
+                if (phase.firstHelperNanos == 0) {
+                    phase.firstHelperNanos = System.nanoTime();
+                }
+                phase.lane.lastHelped = ++helpCounter;
+            } finally {
+                lock.unlock();
+            }
+            phase.work();
+        }
+    }
+
+    /**
+     * Open phase with chunks left and room for a helper, earliest deadline first.
+     */
+    private Phase nextPhase() {
+        Phase best = null;
+        for (Phase phase : openPhases) {
+            if (phase.helpers >= phase.maxHelpers || !phase.hasChunksLeft()) {
+                continue;
+            }
+            if (best == null || phase.deadline < best.deadline
+                || phase.deadline == best.deadline && phase.lane.lastHelped < best.lane.lastHelped) {
+                best = phase;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * One run of {@link Lane#run}. Pool threads that joined late may still hold on to a phase after it ended, so
+     * every run gets a new one.
+     */
+    private static final class Phase {
+
+        final Lane lane;
+        final PhaseRunner.Task task;
+        final int chunks;
+        final int maxHelpers;
+        final long deadline;
+        final Thread owner;
+        final AtomicInteger nextChunk = new AtomicInteger();
+        final AtomicInteger doneChunks = new AtomicInteger();
+
+        // Guarded by the scheduler's lock
+        int helpers;
+        long openedNanos;
+        long firstHelperNanos;
+
+        Phase(Lane lane, PhaseRunner.Task task, int chunks, int maxHelpers, long deadline) {
+            this.lane = lane;
+            this.task = task;
+            this.chunks = chunks;
+            this.maxHelpers = maxHelpers;
+            this.deadline = deadline;
+            this.owner = Thread.currentThread();
+        }
+
+        boolean hasChunksLeft() {
+            return nextChunk.get() < chunks;
+        }
+
+        void work() {
+            int chunk;
+            while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+                try {
+                    task.run(chunk);
+                } catch (Throwable e) {
+                    // The chunk still counts as done, the owner would wait for it forever otherwise
+                    e.printStackTrace();
+                }
+                if (doneChunks.incrementAndGet() == chunks && Thread.currentThread() != owner) {
+                    LockSupport.unpark(owner);
+                }
+            }
+        }
+
+        void awaitDone() {
+            int spins = 0;
+            while (doneChunks.get() < chunks) {
+                if (++spins < AWAIT_SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the phases of one processor on the shared pool.
+     */
+    final class Lane implements PhaseRunner {
+
+        private final int size;
+        private volatile long deadline = Long.MAX_VALUE;
+        private long phases;
+        private long queueDelayNanos;
+
+        // Guarded by the scheduler's lock
+        private long lastHelped;
+
+        private Lane(int size) {
+            this.size = Math.max(1, size);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public long getPhaseCount() {
+            return phases;
+        }
+
+        @Override
+        public long getQueueDelayNanos() {
+            return queueDelayNanos;
+        }
+
+        @Override
+        public void setDeadline(long deadlineNanos) {
+            this.deadline = deadlineNanos;
+        }
+
+        @Override
+        public void run(int chunks, Task task) {
+            if (chunks <= 0) {
+                return;
+            }
+            Phase phase = new Phase(this, task, chunks, Math.min(chunks, size) - 1, deadline);
+            if (phase.maxHelpers == 0 || !open(phase)) {
+                phase.work();
+                return;
+            }
+            phases++;
+            phase.work();
+            long firstHelper = close(phase);
+            queueDelayNanos += firstHelper - phase.openedNanos;
+            // Helpers that joined may still be on their last chunk
+            phase.awaitDone();
+        }
+
+        @Override
+        public void shutdown() {
+            // The pool belongs to the plugin, nothing to release per processor
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package de.erethon.mccinema.video;
+
+/**
+ * Picks the resolution a player's frames are dithered at from how long processing its frames takes.
+ * <p>
+ * Processing times, without decoding or sending, are smoothed over roughly a second and compared against the time a
+ * frame may take at the playback frame rate. While frames stay over that budget the resolution steps down by a
+ * quarter of the screen size at a time, down to the configured minimum, and the processor upscales the dithered
+ * result to the screen. Once frames would fit comfortably at the next step up, assuming the frame time grows with
+ * the number of pixels, the resolution goes back up.
+ * <p>
+ * Stepping down takes about a second over budget, stepping up a few seconds of headroom, and each change is followed
+ * by a cool down. A single slow frame changes nothing and the resolution does not keep flipping between two steps.
+ * <p>
+ * Only used by the player thread.
+ */
+final class ResolutionController {
+
+    private static final double STEP = 0.25;
+    private static final double SMOOTHING = 0.1;
+
+    // Smoothed frame time relative to the budget
+    private static final double DOWNSCALE_LOAD = 1.0;
+    // Predicted load at the next step up that still leaves enough headroom
+    private static final double UPSCALE_LOAD = 0.8;
+
+    private static final double DOWNSCALE_SECONDS = 1.0;
+    private static final double UPSCALE_SECONDS = 4.0;
+    private static final double COOLDOWN_SECONDS = 2.0;
+
+    private final double minScale;
+
+    private double frameRate = 20.0;
+    private double scale = 1.0;
+    private double load;
+    private boolean primed;
+    private int overBudgetFrames;
+    private int headroomFrames;
+    private int cooldownFrames;
+
+    ResolutionController(double minScale) {
+        this.minScale = Math.max(STEP, Math.min(1.0, minScale));
+    }
+
+    void setFrameRate(double frameRate) {
+        this.frameRate = frameRate > 0 ? frameRate : 20.0;
+    }
+
+    double getScale() {
+        return scale;
+    }
+
+    /**
+     * Smoothed frame time relative to the frame budget, above 1 means frames take longer than the frame rate allows.
+     */
+    double getLoad() {
+        return load;
+    }
+
+    /**
+     * Back to full resolution, e.g. for a new video.
+     */
+    void reset() {
+        scale = 1.0;
+        load = 0;
+        primed = false;
+        overBudgetFrames = 0;
+        headroomFrames = 0;
+        cooldownFrames = 0;
+    }
+
+    /**
+     * Takes the time spent processing a frame into account.
+     *
+     * @return true if the scale changed
+     */
+    boolean onFrame(long frameTimeNanos) {
+        double frameLoad = frameTimeNanos * frameRate / 1_000_000_000.0;
+        if (!primed) {
+            load = frameLoad;
+            primed = true;
+        } else {
+            load += (frameLoad - load) * SMOOTHING;
+        }
+        if (cooldownFrames > 0) {
+            cooldownFrames--;
+            return false;
+        }
+
+        overBudgetFrames = load > DOWNSCALE_LOAD ? overBudgetFrames + 1 : 0;
+        double higher = Math.min(1.0, scale + STEP);
+        double ratio = higher / scale;
+        headroomFrames = scale < 1.0 && load * ratio * ratio < UPSCALE_LOAD ? headroomFrames + 1 : 0;
+
+        double next = scale;
+        if (overBudgetFrames >= frameRate * DOWNSCALE_SECONDS && scale - STEP >= minScale - 1e-9) {
+            next = scale - STEP;
+        } else if (headroomFrames >= frameRate * UPSCALE_SECONDS) {
+            next = higher;
+        }
+        if (next == scale) {
+            return false;
+        }
+        // The next frames show what the new resolution costs, not the average of the old one
+        load *= (next * next) / (scale * scale);
+        scale = next;
+        overBudgetFrames = 0;
+        headroomFrames = 0;
+        cooldownFrames = (int) Math.ceil(frameRate * COOLDOWN_SECONDS);
+        return true;
+    }
+}
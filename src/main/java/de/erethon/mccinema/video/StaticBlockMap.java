@@ -0,0 +1,182 @@
+package de.erethon.mccinema.video;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Tracks which 16x16 blocks of the raw source frame are unchanged since the previous frame, so the dithering
+ * kernels can copy their previous palette indices instead of quantizing them again.
+ * <p>
+ * For error diffusion a block is only reused if its neighbours (left, right and the three above) are unchanged
+ * as well. Error flowing in from a changed region then has to cross at least one full static block first,
+ * which keeps the difference to a fresh result small.
+ */
+final class StaticBlockMap {
+
+    static final int BLOCK_SHIFT = 4;
+    static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private int width = -1;
+    private int height = -1;
+    private int blocksX;
+    private int blocksY;
+    private long[] hashes = new long[0];
+    private long[] previousHashes = new long[0];
+    private boolean[] unchanged = new boolean[0];
+    private boolean[] reusable = new boolean[0];
+    private int reusableCount;
+    private long previousKey = -1;
+
+    /**
+     * Prepares hashing for a frame. Returns false if the previous frame cannot be used for comparison because the
+     * resolution or the way it was dithered (a non-negative {@code ditherKey}) changed.
+     */
+    boolean begin(int width, int height, long ditherKey) {
+        boolean comparable = this.width == width && this.height == height && ditherKey == previousKey;
+        if (this.width != width || this.height != height) {
+            this.width = width;
+            this.height = height;
+            this.blocksX = (width + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+            this.blocksY = (height + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+            int blocks = blocksX * blocksY;
+            hashes = new long[blocks];
+            previousHashes = new long[blocks];
+            unchanged = new boolean[blocks];
+            reusable = new boolean[blocks];
+        }
+        previousKey = ditherKey;
+        long[] swap = previousHashes;
+        previousHashes = hashes;
+        hashes = swap;
+        return comparable;
+    }
+
+    int getBlocksY() {
+        return blocksY;
+    }
+
+    /**
+     * Hashes the BGR pixels of block rows [startBlockY, endBlockY). Block rows are independent, so this can be
+     * split across threads.
+     */
+    void hashBlockRows(byte[] frameData, int startBlockY, int endBlockY) {
+        int rowBytes = width * 3;
+        for (int blockY = startBlockY; blockY < endBlockY; blockY++) {
+            int blockRow = blockY * blocksX;
+            Arrays.fill(hashes, blockRow, blockRow + blocksX, 0L);
+            int endY = Math.min(height, (blockY + 1) << BLOCK_SHIFT);
+            for (int y = blockY << BLOCK_SHIFT; y < endY; y++) {
+                int rowStart = y * rowBytes;
+                for (int blockX = 0; blockX < blocksX; blockX++) {
+                    int start = rowStart + blockX * BLOCK_SIZE * 3;
+                    int end = Math.min(rowStart + rowBytes, start + BLOCK_SIZE * 3);
+                    long hash = hashes[blockRow + blockX];
+                    int pos = start;
+                    for (; pos + 8 <= end; pos += 8) {
+                        hash = (hash ^ (long) LONG_VIEW.get(frameData, pos)) * HASH_MULTIPLIER;
+                    }
+                    for (; pos < end; pos++) {
+                        hash = (hash ^ (frameData[pos] & 0xFF)) * HASH_MULTIPLIER;
+                    }
+                    hashes[blockRow + blockX] = hash ^ (hash >>> 29);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares the hashes with the previous frame and decides which blocks may be reused.
+     *
+     * @param comparable     result of {@link #begin}
+     * @param errorDiffusion whether the neighbours of a block have to be unchanged as well
+     * @return the number of reusable blocks
+     */
+    int finish(boolean comparable, boolean errorDiffusion) {
+        int blocks = blocksX * blocksY;
+        if (!comparable) {
+            Arrays.fill(unchanged, 0, blocks, false);
+            Arrays.fill(reusable, 0, blocks, false);
+            reusableCount = 0;
+            return 0;
+        }
+        for (int i = 0; i < blocks; i++) {
+            unchanged[i] = hashes[i] == previousHashes[i];
+        }
+        int count = 0;
+        for (int blockY = 0; blockY < blocksY; blockY++) {
+            for (int blockX = 0; blockX < blocksX; blockX++) {
+                boolean reuse = unchanged[blockY * blocksX + blockX];
+                if (reuse && errorDiffusion) {
+                    reuse = isUnchanged(blockX - 1, blockY) && isUnchanged(blockX + 1, blockY)
+                        && isUnchanged(blockX - 1, blockY - 1) && isUnchanged(blockX, blockY - 1)
+                        && isUnchanged(blockX + 1, blockY - 1);
+                }
+                reusable[blockY * blocksX + blockX] = reuse;
+                if (reuse) {
+                    count++;
+                }
+            }
+        }
+        reusableCount = count;
+        return count;
+    }
+
+    private boolean isUnchanged(int blockX, int blockY) {
+        // Outside of the frame nothing can change
+        if (blockX < 0 || blockY < 0 || blockX >= blocksX || blockY >= blocksY) {
+            return true;
+        }
+        return unchanged[blockY * blocksX + blockX];
+    }
+
+    int getReusableCount() {
+        return reusableCount;
+    }
+
+    int getBlockCount() {
+        return blocksX * blocksY;
+    }
+
+    /**
+     * Forgets the previous frame, e.g. when the dithered output was not kept.
+     */
+    void invalidate() {
+        previousKey = -1;
+    }
+
+    boolean isReusable(int x, int y) {
+        return reusable[(y >> BLOCK_SHIFT) * blocksX + (x >> BLOCK_SHIFT)];
+    }
+
+    /**
+     * End (exclusive) of the run of pixels starting at {@code x} in row {@code y} that are all reusable or all not,
+     * capped at {@code endX}. Runs always end on block boundaries.
+     */
+    int runEnd(int x, int y, int endX) {
+        int blockRow = (y >> BLOCK_SHIFT) * blocksX;
+        boolean reuse = reusable[blockRow + (x >> BLOCK_SHIFT)];
+        int next = ((x >> BLOCK_SHIFT) + 1) << BLOCK_SHIFT;
+        while (next < endX && reusable[blockRow + (next >> BLOCK_SHIFT)] == reuse) {
+            next += BLOCK_SIZE;
+        }
+        return Math.min(next, endX);
+    }
+
+    /**
+     * Start (inclusive) of the run ending at {@code x} (inclusive), for kernels scanning right to left.
+     */
+    int runStart(int x, int y, int startX) {
+        int blockRow = (y >> BLOCK_SHIFT) * blocksX;
+        boolean reuse = reusable[blockRow + (x >> BLOCK_SHIFT)];
+        int start = (x >> BLOCK_SHIFT) << BLOCK_SHIFT;
+        while (start > startX && reusable[blockRow + ((start - 1) >> BLOCK_SHIFT)] == reuse) {
+            start -= BLOCK_SIZE;
+        }
+        return Math.max(start, startX);
+    }
+}
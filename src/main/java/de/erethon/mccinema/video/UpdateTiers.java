@@ -0,0 +1,208 @@
+package de.erethon.mccinema.video;
+
+import de.erethon.mccinema.screen.MapTile;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The update rates of the tiered dispatch of {@link PacketDispatcher}, for viewers on slow links (see
+ * {@link BandwidthTiers}) and viewers far away or looking elsewhere.
+ * <p>
+ * Tier 0 gets every frame. The lower tiers get every second and every fourth frame, each as one patch per tile
+ * against what the tier was sent last, with the same byte cap per send as a full frame.
+ * <p>
+ * Only used by the thread dispatching the screen's frames.
+ */
+final class UpdateTiers {
+
+    private static final int[] FRAME_INTERVALS = {1, 2, 4};
+    private static final String[] NAMES = {"FULL", "HALF", "QUARTER"};
+
+    static final int COUNT = FRAME_INTERVALS.length;
+
+    private final Tier[] tiers = new Tier[COUNT];
+    private final SentTiles sentTiles;
+
+    UpdateTiers(int tiles) {
+        this.sentTiles = new SentTiles(tiles);
+        for (int i = 0; i < tiers.length; i++) {
+            tiers[i] = new Tier(FRAME_INTERVALS[i], tiles);
+        }
+    }
+
+    Tier tier(int index) {
+        return tiers[index];
+    }
+
+    SentTiles sentTiles() {
+        return sentTiles;
+    }
+
+    static int frameInterval(int tier) {
+        return FRAME_INTERVALS[tier];
+    }
+
+    static String name(int tier) {
+        return NAMES[tier];
+    }
+
+    /**
+     * Drops what the tiers know about a viewer that left. It gets every tile in full if it comes back.
+     */
+    void forget(UUID viewer) {
+        for (Tier tier : tiers) {
+            tier.needFullTiles.remove(viewer);
+        }
+    }
+
+    /**
+     * What the viewers of one tier were sent.
+     */
+    static final class Tier {
+
+        final int frameInterval;
+        // Version of each tile in SentTiles the tier was sent last, 0 until sent once
+        final int[] versions;
+        // Viewers that did not get the tier's last frame, they get its tiles in full at the next one
+        final Set<UUID> needFullTiles = new HashSet<>();
+        // This frame's viewers in the tier
+        final List<Player> members = new ArrayList<>();
+        // First tile looked at next, so tiles over the byte cap are not always the same
+        int nextTile;
+
+        private Tier(int frameInterval, int tiles) {
+            this.frameInterval = frameInterval;
+            this.versions = new int[tiles];
+        }
+    }
+
+    /**
+     * The tiles as the full stream sent them, one copy for all tiers. Every tile has a version that goes up when the
+     * copy changes, and the bounds of its last changes are kept, so a tier that is a few versions behind gets one
+     * patch covering all of them. A tier further behind gets the whole tile.
+     */
+    static final class SentTiles {
+
+        private static final int HISTORY = 8;
+
+        private final byte[][] tiles;
+        private final int[] versions;
+        // x, y, width and height of the change to each version, by version % HISTORY
+        private final int[][] changes;
+
+        private SentTiles(int tiles) {
+            this.tiles = new byte[tiles][];
+            this.versions = new int[tiles];
+            this.changes = new int[tiles][HISTORY * 4];
+        }
+
+        int count() {
+            return tiles.length;
+        }
+
+        int version(int tile) {
+            return versions[tile];
+        }
+
+        byte[] data(int tile) {
+            return tiles[tile];
+        }
+
+        /**
+         * Takes over what the full stream sent of the tile since, copying only the rows and columns that changed.
+         */
+        void update(int tile, byte[] sent) {
+            byte[] known = tiles[tile];
+            if (known == null) {
+                tiles[tile] = sent.clone();
+                record(tile, 0, 0, MapTile.SIZE, MapTile.SIZE);
+                return;
+            }
+            int minX = MapTile.SIZE, minY = MapTile.SIZE, maxX = -1, maxY = -1;
+            for (int y = 0; y < MapTile.SIZE; y++) {
+                int rowStart = y * MapTile.SIZE;
+                int rowEnd = rowStart + MapTile.SIZE;
+                int first = Arrays.mismatch(known, rowStart, rowEnd, sent, rowStart, rowEnd);
+                if (first < 0) {
+                    continue;
+                }
+                int last = MapTile.SIZE - 1;
+                while (known[rowStart + last] == sent[rowStart + last]) {
+                    last--;
+                }
+                minX = Math.min(minX, first);
+                maxX = Math.max(maxX, last);
+                minY = Math.min(minY, y);
+                maxY = y;
+            }
+            if (maxY < 0) {
+                return;
+            }
+            int width = maxX - minX + 1;
+            for (int y = minY; y <= maxY; y++) {
+                int offset = y * MapTile.SIZE + minX;
+                System.arraycopy(sent, offset, known, offset, width);
+            }
+            record(tile, minX, minY, width, maxY - minY + 1);
+        }
+
+        private void record(int tile, int x, int y, int width, int height) {
+            int version = ++versions[tile];
+            int[] change = changes[tile];
+            int offset = (version % HISTORY) * 4;
+            change[offset] = x;
+            change[offset + 1] = y;
+            change[offset + 2] = width;
+            change[offset + 3] = height;
+        }
+
+        /**
+         * Writes x, y, width and height of what changed in the tile after the given version into {@code bounds}, the
+         * whole tile if that is no longer known.
+         */
+        void changedSince(int tile, int version, int[] bounds) {
+            int current = versions[tile];
+            if (version <= 0 || current - version > HISTORY) {
+                bounds[0] = 0;
+                bounds[1] = 0;
+                bounds[2] = MapTile.SIZE;
+                bounds[3] = MapTile.SIZE;
+                return;
+            }
+            int[] change = changes[tile];
+            int minX = MapTile.SIZE, minY = MapTile.SIZE, maxX = 0, maxY = 0;
+            for (int v = version + 1; v <= current; v++) {
+                int offset = (v % HISTORY) * 4;
+                minX = Math.min(minX, change[offset]);
+                minY = Math.min(minY, change[offset + 1]);
+                maxX = Math.max(maxX, change[offset] + change[offset + 2]);
+                maxY = Math.max(maxY, change[offset + 1] + change[offset + 3]);
+            }
+            bounds[0] = minX;
+            bounds[1] = minY;
+            bounds[2] = maxX - minX;
+            bounds[3] = maxY - minY;
+        }
+
+        /**
+         * A copy of part of the tile, for a packet. The tile's own data changes in place with the next frames.
+         */
+        byte[] copy(int tile, int x, int y, int width, int height) {
+            byte[] data = tiles[tile];
+            if (width == MapTile.SIZE && height == MapTile.SIZE) {
+                return data.clone();
+            }
+            byte[] copy = new byte[width * height];
+            for (int row = 0; row < height; row++) {
+                System.arraycopy(data, (y + row) * MapTile.SIZE + x, copy, row * width, width);
+            }
+            return copy;
+        }
+    }
+}
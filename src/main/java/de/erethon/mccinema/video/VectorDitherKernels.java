@@ -0,0 +1,106 @@
+package de.erethon.mccinema.video;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import static de.erethon.mccinema.dither.DitherLookupUtil.COLOR_MAP;
+
+/**
+ * SIMD versions of the ordered (Bayer) and plain quantization kernels, using the incubating Vector API.
+ * Only loaded when the server was started with {@code --add-modules=jdk.incubator.vector}, see
+ * {@link FrameProcessor#isVectorApiAvailable()}. Produces the same output as the scalar kernels.
+ */
+final class VectorDitherKernels {
+
+    // Byte gathers need a byte shape of a quarter of the int shape, so 256 bits is the smallest useful int shape
+    private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED.vectorBitSize() >= 256
+        ? IntVector.SPECIES_PREFERRED
+        : IntVector.SPECIES_256;
+    private static final VectorSpecies<Byte> BYTE_SPECIES =
+        VectorSpecies.of(byte.class, VectorShape.forBitSize(INT_SPECIES.vectorBitSize() / 4));
+    static final int LANES = INT_SPECIES.length();
+
+    // Offsets of each channel inside a run of LANES interleaved BGR pixels
+    private static final int[] BLUE_OFFSETS = channelOffsets(0);
+    private static final int[] GREEN_OFFSETS = channelOffsets(1);
+    private static final int[] RED_OFFSETS = channelOffsets(2);
+
+    private static final ThreadLocal<int[]> LOOKUP_INDICES = ThreadLocal.withInitial(() -> new int[LANES]);
+
+    private VectorDitherKernels() {
+    }
+
+    /**
+     * Whether the CPU has native vectors wide enough for these kernels. Narrower hardware would fall back to
+     * boxed vector emulation, which is much slower than the scalar loop.
+     */
+    static boolean isAccelerated() {
+        return IntVector.SPECIES_PREFERRED.vectorBitSize() >= 256;
+    }
+
+    private static int[] channelOffsets(int channel) {
+        int[] offsets = new int[LANES];
+        for (int i = 0; i < LANES; i++) {
+            offsets[i] = i * 3 + channel;
+        }
+        return offsets;
+    }
+
+    /**
+     * Quantizes rows [startY, endY) of a BGR frame, adding the ordered threshold of each pixel first.
+     * A null threshold matrix quantizes without dithering.
+     */
+    static void ditherRows(byte[] frameData, int width, int startY, int endY,
+                           FrameProcessor.ThresholdMatrix thresholds, byte[] output) {
+        for (int y = startY; y < endY; y++) {
+            int[] thresholdRow = thresholds != null ? thresholds.row(y) : null;
+            ditherSpan(frameData, y * width, 0, width, thresholdRow, thresholds, output, 0);
+        }
+    }
+
+    /**
+     * Quantizes pixels [startX, endX) of the row starting at pixel {@code yIndex}. Pixel {@code i} of the frame is
+     * written to {@code output[i + outputDelta]}.
+     */
+    static void ditherSpan(byte[] frameData, int yIndex, int startX, int endX,
+                           int[] thresholdRow, FrameProcessor.ThresholdMatrix thresholds,
+                           byte[] output, int outputDelta) {
+        int[] lookupIndices = LOOKUP_INDICES.get();
+        int vectorEnd = startX + INT_SPECIES.loopBound(endX - startX);
+        int x = startX;
+
+        for (; x < vectorEnd; x += LANES) {
+            int pos = (yIndex + x) * 3;
+            IntVector blue = loadChannel(frameData, pos, BLUE_OFFSETS);
+            IntVector green = loadChannel(frameData, pos, GREEN_OFFSETS);
+            IntVector red = loadChannel(frameData, pos, RED_OFFSETS);
+
+            if (thresholdRow != null) {
+                IntVector threshold = IntVector.fromArray(INT_SPECIES, thresholdRow, thresholds.column(x));
+                blue = blue.add(threshold).max(0).min(255);
+                green = green.add(threshold).max(0).min(255);
+                red = red.add(threshold).max(0).min(255);
+            }
+
+            red.lanewise(VectorOperators.LSHR, 1).lanewise(VectorOperators.LSHL, 14)
+                .or(green.lanewise(VectorOperators.LSHR, 1).lanewise(VectorOperators.LSHL, 7))
+                .or(blue.lanewise(VectorOperators.LSHR, 1))
+                .intoArray(lookupIndices, 0);
+            ByteVector.fromArray(BYTE_SPECIES, COLOR_MAP, 0, lookupIndices, 0).intoArray(output, yIndex + x + outputDelta);
+        }
+
+        if (x < endX) {
+            FrameProcessor.ditherRowOrderedScalar(frameData, yIndex, x, endX, thresholdRow, thresholds,
+                output, outputDelta);
+        }
+    }
+
+    private static IntVector loadChannel(byte[] frameData, int pos, int[] offsets) {
+        return ((IntVector) ByteVector.fromArray(BYTE_SPECIES, frameData, pos, offsets, 0)
+            .convertShape(VectorOperators.B2I, INT_SPECIES, 0))
+            .and(0xFF);
+    }
+}
@@ -0,0 +1,145 @@
+package de.erethon.mccinema.video;
+
+import de.erethon.mccinema.MCCinema;
+import de.erethon.mccinema.screen.MapTile;
+import de.erethon.mccinema.screen.Screen;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.Java2DFrameConverter;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.List;
+
+/**
+ * Bakes a video for a screen, see {@link BakedVideo}.
+ * <p>
+ * Frames are dithered on a copy of the screen that nobody watches, with the same size and quality preset, and every
+ * tile is diffed against what the baked frames so far put on it. The patches are planned by a
+ * {@link PacketDispatcher} set up like the one of a player, but without a byte budget: a baked frame always sends
+ * everything it planned, so the tiles are exactly what the file says they are.
+ * <p>
+ * Set up the processor and dispatcher like a player's (e.g. with the screen's quality preset) before baking.
+ */
+public class VideoBaker {
+
+    private final MCCinema plugin;
+    private final Screen screen;
+    private final Screen bakeScreen;
+    private final FrameProcessor frameProcessor;
+    private final PacketDispatcher packetDispatcher;
+
+    public VideoBaker(MCCinema plugin, Screen screen) {
+        this.plugin = plugin;
+        this.screen = screen;
+        this.bakeScreen = new Screen(screen.getName(), screen.getMapWidth(), screen.getMapHeight(), screen.getAspectRatio());
+        bakeScreen.setQualityPreset(screen.getQualityPreset());
+        for (MapTile tile : screen.getTiles()) {
+            bakeScreen.addTile(new MapTile(tile.getMapId(), tile.getTileX(), tile.getTileY(), tile.getTileIndex()));
+        }
+        this.frameProcessor = new FrameProcessor(bakeScreen, plugin);
+        this.packetDispatcher = new PacketDispatcher(plugin);
+        // The tiles are diffed against the baked frames, not against what the processor last saw
+        frameProcessor.setDeferDirtyRegions(true);
+    }
+
+    public FrameProcessor getFrameProcessor() {
+        return frameProcessor;
+    }
+
+    public PacketDispatcher getPacketDispatcher() {
+        return packetDispatcher;
+    }
+
+    /**
+     * The file a bake of this video with the current processor settings is written to.
+     */
+    public File getBakedFile(File videoFile) {
+        return BakedVideo.bakedFile(videoFile, screen, settings());
+    }
+
+    private BakedVideo.Settings settings() {
+        return BakedVideo.Settings.of(frameProcessor, screen, scalingFlags());
+    }
+
+    private int scalingFlags() {
+        return FrameScaler.scalingFlags(plugin.getConfig().getString("performance.scaling-filter", "AREA"));
+    }
+
+    /**
+     * Dithers the whole video, so this takes a while. Call it off the main thread.
+     *
+     * @return the number of frames baked
+     */
+    public int bake(File videoFile) throws Exception {
+        long start = System.nanoTime();
+        BakedVideo.Settings settings = settings();
+        int width = bakeScreen.getPixelWidth();
+        int height = bakeScreen.getPixelHeight();
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(videoFile)) {
+            grabber.start();
+            double frameRate = grabber.getFrameRate();
+            if (frameRate <= 0 || frameRate > 120) {
+                frameRate = 20.0;
+            }
+            packetDispatcher.setFrameRate(frameRate);
+            // Scaled like for playback, baked frames are what the player would have dithered
+            FrameScaler scaler = FrameScaler.configure(grabber, width, height, settings.scalingFlags());
+            BufferedImage canvas = scaler.newCanvas();
+            Java2DFrameConverter converter = new Java2DFrameConverter();
+
+            try (BakedVideo.Writer writer = BakedVideo.Writer.create(videoFile, screen, settings, frameRate)) {
+                Frame frame;
+                while ((frame = grabber.grabImage()) != null) {
+                    if (frame.image == null) {
+                        continue;
+                    }
+                    if (!scaler.draw(frame, canvas, converter)) {
+                        continue;
+                    }
+                    FrameProcessor.ProcessedFrame processed = frameProcessor.processFrame(canvas, width, height, null);
+                    bakeFrame(writer, processed);
+                }
+                writer.finish();
+                plugin.getLogger().info("Baked " + writer.getFrameCount() + " frames of " + videoFile.getName()
+                    + " for screen " + screen.getName() + " in " + ((System.nanoTime() - start) / 1_000_000) + "ms");
+                return writer.getFrameCount();
+            }
+        }
+    }
+
+    private void bakeFrame(BakedVideo.Writer writer, FrameProcessor.ProcessedFrame processed) throws Exception {
+        byte[][] mapData = processed.fullMapData();
+        boolean keyframe = writer.isKeyframe();
+        for (MapTile tile : bakeScreen.getTiles()) {
+            byte[] data = mapData[tile.getTileIndex()];
+            // Diffed on keyframes as well, a tile's first diff always covers all of it
+            MapTile.DirtyRegion dirtyRegion = tile.calculateDirtyRegionFromSent(data);
+            if (keyframe) {
+                writer.addPatch(tile.getTileIndex(), new MapTile.DirtyRegion(0, 0, MapTile.SIZE, MapTile.SIZE, data));
+                tile.copyToLastSentData(data);
+                continue;
+            }
+            if (dirtyRegion == null) {
+                continue;
+            }
+            List<MapTile.DirtyRegion> regions =
+                packetDispatcher.planPatches(new PacketDispatcher.TileUpdate(tile, dirtyRegion, data), processed.contentStats());
+            // Patches can leave small changes out, the tile only gets what the patches carry
+            byte[] sent = tile.getLastSentData();
+            for (MapTile.DirtyRegion region : regions) {
+                writer.addPatch(tile.getTileIndex(), region);
+                for (int row = 0; row < region.height(); row++) {
+                    System.arraycopy(region.data(), row * region.width(), sent,
+                        (region.y() + row) * MapTile.SIZE + region.x(), region.width());
+                }
+            }
+        }
+        writer.endFrame();
+    }
+
+    public void shutdown() {
+        frameProcessor.shutdown();
+        packetDispatcher.close();
+    }
+}
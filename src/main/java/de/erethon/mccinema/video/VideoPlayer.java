@@ -11,12 +11,11 @@ import org.bytedeco.javacv.Java2DFrameConverter;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Collection;
@@ -31,6 +30,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 public class VideoPlayer {
@@ -46,12 +46,20 @@ public class VideoPlayer {
 
     private File videoFile;
     private String sourceName;
+    private String sourceId;
     private boolean liveStream;
     private FFmpegFrameGrabber grabber;
     private Java2DFrameConverter converter;
     private ScheduledExecutorService scheduler;
     private ScheduledFuture<?> playbackTask;
     private ScheduledExecutorService liveDecoderExecutor;
+    private volatile FrameReadAhead readAhead;
+    private volatile DecoderCatchUp catchUp;
+    private volatile FrameDispatchStage dispatchStage;
+    private volatile BakedVideo bakedVideo;
+    // Other screens showing this video, replaced as a whole so the player thread reads it once per frame
+    private volatile AttachedScreen[] attachedScreens = new AttachedScreen[0];
+    private final Object attachLock = new Object();
 
     private final AtomicReference<State> state = new AtomicReference<>(State.IDLE);
     private final AtomicLong currentFrame = new AtomicLong(0);
@@ -59,7 +67,7 @@ public class VideoPlayer {
 
     private double frameRate = 30.0;
     private double sourceFrameRate = 30.0;
-    private long videoDurationMs;
+    private volatile long videoDurationMs;
     private volatile boolean liveDecoderRunning;
     private volatile boolean liveBufferReady;
     private final Object liveFrameLock = new Object();
@@ -80,11 +88,24 @@ public class VideoPlayer {
     private static final long DEFAULT_AV_SYNC_THRESHOLD_NS = 150_000_000L;
     private static final int DEFAULT_MAX_DROP_FRAMES_PER_CYCLE = 8;
     private static final int DEFAULT_HARD_SEEK_THRESHOLD_FRAMES = 120;
+    private static final int DEFAULT_READ_AHEAD_FRAMES = 4;
+    // How long the player waits for the decoder before giving up on a frame
+    private static final long READ_AHEAD_WAIT_NANOS = 1_000_000_000L;
 
     private final long avSyncThresholdNanos;
     private final int maxDropFramesPerCycle;
     private final int hardSeekThresholdFrames;
     private final boolean avSyncDebugLogging;
+    private final int readAheadFrames;
+    private final int scalingFlags;
+    // Null if the resolution stays at the screen's
+    private final ResolutionController resolutionController;
+    private final boolean decoderFrameSkipping;
+    private final boolean keyframeIndexEnabled;
+    private final boolean pipelinedDispatch;
+    private final boolean bakedPlayback;
+    // Every tick with view LOD, so a viewer turning to the screen gets full updates right away
+    private final long viewerUpdateTicks;
     private volatile long lastAvSyncLogNanos;
 
     private final AtomicLong playbackEpoch = new AtomicLong(0);
@@ -101,8 +122,9 @@ public class VideoPlayer {
     private long debugAverageFrameProcessTime = 0;
     private final PerformanceMetrics performanceMetrics;
 
-    private BufferedImage resizedImageBuffer;
-    private Graphics2D resizedGraphics;
+    // Set up for the current grabber, the canvas takes the frames of the playback thread
+    private FrameScaler frameScaler;
+    private BufferedImage frameCanvas;
 
     public VideoPlayer(MCCinema plugin, Screen screen) {
         this.plugin = plugin;
@@ -120,6 +142,18 @@ public class VideoPlayer {
         this.hardSeekThresholdFrames = Math.max(1,
             plugin.getConfig().getInt("performance.av-sync.hard-seek-threshold-frames", DEFAULT_HARD_SEEK_THRESHOLD_FRAMES));
         this.avSyncDebugLogging = plugin.getConfig().getBoolean("performance.av-sync.debug-logging", false);
+        this.decoderFrameSkipping = plugin.getConfig().getBoolean("performance.av-sync.decoder-frame-skipping", true);
+        this.keyframeIndexEnabled = plugin.getConfig().getBoolean("performance.keyframe-index", true);
+        this.readAheadFrames = Math.max(0,
+            plugin.getConfig().getInt("performance.read-ahead-frames", DEFAULT_READ_AHEAD_FRAMES));
+        this.scalingFlags = FrameScaler.scalingFlags(plugin.getConfig().getString("performance.scaling-filter", "AREA"));
+        this.resolutionController = plugin.getConfig().getBoolean("performance.dynamic-resolution.enabled", true)
+            ? new ResolutionController(plugin.getConfig().getDouble("performance.dynamic-resolution.min-scale", 0.5))
+            : null;
+        this.pipelinedDispatch = plugin.getConfig().getBoolean("performance.pipelined-dispatch", true);
+        this.viewerUpdateTicks = plugin.getConfig().getBoolean("performance.view-lod.enabled", false) ? 1L : 10L;
+        this.frameProcessor.setDeferDirtyRegions(pipelinedDispatch);
+        this.bakedPlayback = plugin.getConfig().getBoolean("performance.baked-playback", true);
         this.lastAvSyncLogNanos = 0L;
     }
 
@@ -164,9 +198,9 @@ public class VideoPlayer {
         return players;
     }
 
-    private Collection<? extends Player> getPacketRecipients() {
+    private Collection<? extends Player> getPacketRecipients(Screen target) {
         if (!hasTargetPlayerLimit()) {
-            return screen.getViewers();
+            return target.getViewers();
         }
         return getPlaybackViewers();
     }
@@ -178,18 +212,25 @@ public class VideoPlayer {
 
         this.videoFile = videoFile;
         this.sourceName = videoFile.getName();
+        this.sourceId = videoFile.getAbsolutePath();
         this.liveStream = false;
         state.set(State.LOADING);
         notifyStateChange();
 
         try {
+            closeReadAhead();
+            closeBakedVideo();
             if (grabber != null) {
                 grabber.close();
             }
 
             grabber = new FFmpegFrameGrabber(videoFile);
             grabber.start();
-            return initializeStartedGrabber(videoFile.getName(), false);
+            if (!initializeStartedGrabber(videoFile.getName(), false)) {
+                return false;
+            }
+            openBakedVideo(videoFile);
+            return true;
         } catch (Exception e) {
             plugin.getLogger().severe("Failed to load video: " + e.getMessage());
             state.set(State.IDLE);
@@ -199,17 +240,28 @@ public class VideoPlayer {
     }
 
     public boolean loadLiveStream(String streamUrl, String displayName) {
+        return loadLiveStream(streamUrl, displayName, streamUrl);
+    }
+
+    /**
+     * @param sourceId what the stream was requested as, see {@link #getSourceId()}. Resolved stream URLs usually
+     *                 differ between requests for the same stream
+     */
+    public boolean loadLiveStream(String streamUrl, String displayName, String sourceId) {
         if (state.get() == State.PLAYING) {
             stop();
         }
 
         this.videoFile = null;
         this.sourceName = displayName;
+        this.sourceId = sourceId;
         this.liveStream = true;
         state.set(State.LOADING);
         notifyStateChange();
 
         try {
+            closeReadAhead();
+            closeBakedVideo();
             if (grabber != null) {
                 grabber.close();
             }
@@ -237,40 +289,28 @@ public class VideoPlayer {
             frameRate = live ? LIVE_TARGET_FRAME_RATE : sourceFrameRate;
 
             packetDispatcher.setFrameRate(frameRate);
+            if (resolutionController != null) {
+                resolutionController.setFrameRate(frameRate);
+                resolutionController.reset();
+                applyResolutionScale(resolutionController.getScale());
+            }
+            catchUp = live ? null : new DecoderCatchUp(grabber, decoderFrameSkipping, plugin.getLogger());
 
             totalFrames.set(live ? 0 : grabber.getLengthInVideoFrames());
             videoDurationMs = live ? 0 : grabber.getLengthInTime() / 1000;
+            if (!live && keyframeIndexEnabled) {
+                loadKeyframeIndex(videoFile);
+            }
             int videoWidth = grabber.getImageWidth();
             int videoHeight = grabber.getImageHeight();
+            // Read before, the grabber reports the scaled size afterwards
+            frameScaler = FrameScaler.configure(grabber, screen.getPixelWidth(), screen.getPixelHeight(), scalingFlags);
+            frameCanvas = frameScaler.newCanvas();
 
             currentFrame.set(0);
             state.set(State.IDLE);
             notifyStateChange();
 
-            // Pre-allocate reusable buffer
-            int targetWidth = screen.getPixelWidth();
-            int targetHeight = screen.getPixelHeight();
-            if (videoWidth != targetWidth || videoHeight != targetHeight) {
-                if (resizedImageBuffer == null ||
-                    resizedImageBuffer.getWidth() != targetWidth ||
-                    resizedImageBuffer.getHeight() != targetHeight) {
-
-                    if (resizedGraphics != null) {
-                        resizedGraphics.dispose();
-                    }
-
-                    resizedImageBuffer = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_3BYTE_BGR);
-                    resizedGraphics = resizedImageBuffer.createGraphics();
-
-                    boolean isUpscaling = videoWidth < targetWidth || videoHeight < targetHeight;
-                    if (isUpscaling) {
-                        resizedGraphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
-                    } else {
-                        resizedGraphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-                    }
-                }
-            }
-
             plugin.getLogger().info((live ? "Loaded livestream: " : "Loaded video: ") + label);
             plugin.getLogger().info("  Resolution: " + videoWidth + "x" + videoHeight);
             if (live) {
@@ -336,12 +376,12 @@ public class VideoPlayer {
         }
 
         screen.updateViewerCache();
-        plugin.getScreenManager().fillScreenWithPlaybackBackground(screen, getPacketRecipients());
+        plugin.getScreenManager().fillScreenWithPlaybackBackground(screen, getPacketRecipients(screen));
 
         state.set(State.PLAYING);
         notifyStateChange();
 
-        screen.startViewerCacheUpdater(plugin, 10L);
+        screen.startViewerCacheUpdater(plugin, viewerUpdateTicks);
 
         if (scheduler == null || scheduler.isShutdown()) {
             scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
@@ -358,8 +398,17 @@ public class VideoPlayer {
         if (audioManager != null) {
             audioManager.play(screen.getCenterLocation());
         }
-        if (liveStream) {
+        BakedVideo baked = bakedVideo;
+        if (baked != null) {
+            // The background fill replaced what the clients had of the video
+            baked.reset();
+        } else if (liveStream) {
             startLiveDecoder();
+        } else {
+            startReadAhead();
+        }
+        if (baked == null) {
+            startDispatchStage();
         }
         scheduleNextFrame(-1);
         plugin.getLogger().info("Started playback of " + sourceName);
@@ -422,6 +471,9 @@ public class VideoPlayer {
             audioManager.stop();
         }
         stopLiveDecoder();
+        closeReadAhead();
+        stopDispatchStage();
+        closeAttachedScreens();
 
         clearDebugActionBars();
 
@@ -448,7 +500,7 @@ public class VideoPlayer {
         }
         try {
             frameNumber = Math.max(0, Math.min(frameNumber, totalFrames.get() - 1));
-            grabber.setFrameNumber((int) frameNumber);
+            frameNumber = setGrabberFrame(frameNumber);
             currentFrame.set(frameNumber);
             if (audioManager != null) {
                 long timeMs = (long) (frameNumber / frameRate * 1000);
@@ -525,7 +577,7 @@ public class VideoPlayer {
                 long framesToSkip = targetFrame - currentFrameNum;
                 if (framesToSkip > 0) {
                     if (framesToSkip >= hardSeekThresholdFrames) {
-                        grabber.setFrameNumber((int) targetFrame);
+                        targetFrame = setGrabberFrame(targetFrame);
                         currentFrame.set(targetFrame);
                         framesSkipped.addAndGet(framesToSkip);
                         logAvSync("A/V sync hard-seek: skipped " + framesToSkip + " frames " +
@@ -550,8 +602,14 @@ public class VideoPlayer {
                 logAvSync("A/V sync re-anchored playback clock (video ahead by " + ((-driftNanos) / 1_000_000) + "ms)");
             }
 
+            BakedVideo baked = bakedVideo;
+            if (baked != null) {
+                return processBakedFrame(baked, frameStartTime);
+            }
+
             long decodeStart = System.nanoTime();
             long frameNum = currentFrame.get();
+            FrameReadAhead frameSource = readAhead;
             BufferedImage image;
             if (liveStream) {
                 image = pollLiveFrame();
@@ -562,6 +620,18 @@ public class VideoPlayer {
                     return frameNum;
                 }
                 frameNum = currentFrame.getAndIncrement();
+            } else if (frameSource != null) {
+                // Decode and conversion are timed on the decode thread
+                image = frameSource.take(READ_AHEAD_WAIT_NANOS);
+                if (image == null) {
+                    if (frameSource.isEndOfStream()) {
+                        onVideoComplete();
+                    } else {
+                        framesSkipped.incrementAndGet();
+                    }
+                    return currentFrame.get();
+                }
+                frameNum = currentFrame.getAndIncrement();
             } else {
                 Frame frame = grabber.grabImage();
                 long decodeEnd = System.nanoTime();
@@ -573,25 +643,60 @@ public class VideoPlayer {
                 frameNum = currentFrame.getAndIncrement();
 
                 long conversionStart = System.nanoTime();
-                image = converter.convert(frame);
-                long conversionEnd = System.nanoTime();
-                if (image == null) {
+                if (!frameScaler.draw(frame, frameCanvas, converter)) {
                     framesSkipped.incrementAndGet();
                     return frameNum;
                 }
-                performanceMetrics.recordImageConversion(conversionEnd - conversionStart);
+                image = frameCanvas;
+                performanceMetrics.recordImageConversion(System.nanoTime() - conversionStart);
+            }
+            AttachedScreen[] attached = attachedScreens;
+            // Due when the frame after this one would be scheduled, the shared processing pool goes by it
+            long deadline = playbackStartTime + (long) ((frameNum + 1) * 1_000_000_000.0 / frameRate);
+            FrameProcessor.ProcessedFrame processedFrame;
+            long processingStart = System.nanoTime();
+            long processingNanos;
+            try {
+                frameProcessor.setFrameDeadline(deadline);
+                processedFrame = frameProcessor.processFrame(
+                    image, screen.getPixelWidth(), screen.getPixelHeight(), performanceMetrics
+                );
+                for (AttachedScreen other : attached) {
+                    other.process(image, processedFrame, deadline);
+                }
+                processingNanos = System.nanoTime() - processingStart;
+            } finally {
+                // The processor is done with the source image, the decoder may refill its slot
+                if (frameSource != null && !liveStream) {
+                    frameSource.release();
+                }
             }
-            FrameProcessor.ProcessedFrame processedFrame = frameProcessor.processFrame(
-                image, screen.getPixelWidth(), screen.getPixelHeight(), performanceMetrics
-            );
 
-            long dispatchStart = System.nanoTime();
-            packetDispatcher.dispatchFrame(screen, processedFrame.updates(), processedFrame.contentStats(), performanceMetrics, getPacketRecipients());
-            long dispatchEnd = System.nanoTime();
-            performanceMetrics.recordPacketDispatch(dispatchEnd - dispatchStart);
+            FrameDispatchStage stage = dispatchStage;
+            if (stage != null) {
+                // Sent while the next frame is processed, dispatch time is recorded by the stage
+                if (!stage.submit(screen, processedFrame, getPacketRecipients(screen))) {
+                    return frameNum;
+                }
+            } else if (!processedFrame.dirtyRegionsDeferred()) {
+                long dispatchStart = System.nanoTime();
+                packetDispatcher.dispatchFrame(screen, processedFrame.updates(), processedFrame.contentStats(), performanceMetrics, getPacketRecipients(screen));
+                long dispatchEnd = System.nanoTime();
+                performanceMetrics.recordPacketDispatch(dispatchEnd - dispatchStart);
+            } else {
+                // Stopped while the frame was processed
+                return frameNum;
+            }
+            for (AttachedScreen other : attached) {
+                other.dispatch(getPacketRecipients(other.getScreen()));
+            }
             framesProcessed.incrementAndGet();
             lastFrameTime = System.nanoTime();
             performanceMetrics.recordTotalFrame(lastFrameTime - frameStartTime);
+            // Only the work the resolution scales, waiting for the decoder or the dispatch stage does not shrink with it
+            if (resolutionController != null && resolutionController.onFrame(processingNanos)) {
+                applyResolutionScale(resolutionController.getScale());
+            }
             updateDebugMetrics(frameStartTime);
             return frameNum;
 
@@ -603,19 +708,257 @@ public class VideoPlayer {
         }
     }
 
+    /**
+     * Sends the next frame of a baked video. Nothing is decoded or dithered, and frames skipped to catch up are
+     * replayed by the baked video when this one is sent.
+     */
+    private long processBakedFrame(BakedVideo baked, long frameStartTime) {
+        long frameNum = currentFrame.get();
+        if (frameNum >= baked.getFrameCount()) {
+            onVideoComplete();
+            return frameNum;
+        }
+        currentFrame.incrementAndGet();
+        long dispatchStart = System.nanoTime();
+        baked.dispatchFrame((int) frameNum, packetDispatcher, performanceMetrics, getPacketRecipients(screen));
+        performanceMetrics.recordPacketDispatch(System.nanoTime() - dispatchStart);
+        framesProcessed.incrementAndGet();
+        lastFrameTime = System.nanoTime();
+        performanceMetrics.recordTotalFrame(lastFrameTime - frameStartTime);
+        updateDebugMetrics(frameStartTime);
+        return frameNum;
+    }
+
     private int dropFramesSequential(int framesToDrop) throws Exception {
-        int dropped = 0;
-        for (int i = 0; i < framesToDrop; i++) {
-            Frame droppedFrame = grabber.grabImage();
-            if (droppedFrame == null || droppedFrame.image == null) {
+        if (bakedVideo != null) {
+            // Replayed from the baked file with the next frame
+            return framesToDrop;
+        }
+        FrameReadAhead frameSource = readAhead;
+        if (frameSource != null) {
+            // Buffered frames only hand their slots back, the decode thread skips the rest
+            int dropped = frameSource.skip(framesToDrop, READ_AHEAD_WAIT_NANOS);
+            if (dropped < framesToDrop && frameSource.isEndOfStream()) {
                 onVideoComplete();
-                return dropped;
             }
-            dropped++;
+            return dropped;
+        }
+        // Skipped frames are not converted and mostly not even decoded, catching up relieves the CPU
+        int dropped = catchUp.skip(framesToDrop);
+        if (dropped < framesToDrop) {
+            onVideoComplete();
         }
         return dropped;
     }
 
+    private void startReadAhead() {
+        if (readAheadFrames <= 0 || readAhead != null) {
+            return;
+        }
+        readAhead = new FrameReadAhead(grabber, frameScaler, readAheadFrames, catchUp, performanceMetrics,
+            plugin.getLogger());
+        readAhead.start();
+    }
+
+    private void closeReadAhead() {
+        FrameReadAhead current = readAhead;
+        readAhead = null;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    /**
+     * Uses the keyframe index stored next to the video, or builds it in the background. Until it is there, seeks
+     * rely on the container's index and the frame count is an estimate.
+     */
+    private void loadKeyframeIndex(File file) {
+        DecoderCatchUp target = catchUp;
+        KeyframeIndex index = KeyframeIndex.load(file, plugin.getLogger());
+        if (index != null) {
+            applyKeyframeIndex(target, index);
+            return;
+        }
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+            try {
+                long start = System.nanoTime();
+                KeyframeIndex built = KeyframeIndex.build(file);
+                built.write(file, plugin.getLogger());
+                plugin.getLogger().info("Indexed " + built.getKeyframeCount() + " keyframes of " + file.getName() +
+                    " in " + ((System.nanoTime() - start) / 1_000_000) + "ms");
+                applyKeyframeIndex(target, built);
+            } catch (Exception e) {
+                plugin.getLogger().warning("Failed to index keyframes of " + file.getName() + ": " + e.getMessage());
+            }
+        });
+    }
+
+    private void applyKeyframeIndex(DecoderCatchUp target, KeyframeIndex index) {
+        if (catchUp != target) {
+            // Another video was loaded meanwhile
+            return;
+        }
+        target.setKeyframeIndex(index);
+        totalFrames.set(index.getFrameCount());
+        videoDurationMs = index.getDurationMicros() / 1000;
+    }
+
+    /**
+     * Uses the video baked for this screen, the processor's current settings and the frame rate, if there is one.
+     */
+    private void openBakedVideo(File file) {
+        if (!bakedPlayback) {
+            return;
+        }
+        BakedVideo baked = BakedVideo.open(file, screen,
+            BakedVideo.Settings.of(frameProcessor, screen, scalingFlags), frameRate, plugin.getLogger());
+        if (baked != null) {
+            bakedVideo = baked;
+            plugin.getLogger().info("  Playing baked frames (" + baked.getFrameCount() + " frames)");
+        }
+    }
+
+    private void closeBakedVideo() {
+        BakedVideo current = bakedVideo;
+        bakedVideo = null;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    /**
+     * Shows the video on another screen as well, from the frames decoded for this player's screen, see
+     * {@link AttachedScreen}. Screens with the same size, quality preset and dithering mode as this player's screen
+     * use its dithered frames too, other screens get their own processor. {@code setup} configures the new
+     * screen's processor and dispatcher before its first frame, the processor is null if the frames are shared.
+     *
+     * @return false if nothing is playing, the video is baked or the screen is already showing it
+     */
+    public boolean attachScreen(Screen target, FrameProcessor.DitheringMode ditheringMode,
+                                BiConsumer<FrameProcessor, PacketDispatcher> setup) {
+        synchronized (attachLock) {
+            State currentState = state.get();
+            if ((currentState != State.PLAYING && currentState != State.PAUSED) || bakedVideo != null
+                || !target.hasValidOrigin() || showsScreen(target)) {
+                return false;
+            }
+            boolean shareFrames = target.getMapWidth() == screen.getMapWidth()
+                && target.getMapHeight() == screen.getMapHeight()
+                && target.getAspectRatio() == screen.getAspectRatio()
+                && target.getQualityPreset().equalsIgnoreCase(screen.getQualityPreset())
+                && ditheringMode == frameProcessor.getDitheringMode();
+            FrameProcessor targetProcessor = shareFrames ? null : new FrameProcessor(target, plugin);
+            PacketDispatcher targetDispatcher = new PacketDispatcher(plugin);
+            setup.accept(targetProcessor, targetDispatcher);
+            if (targetProcessor != null) {
+                targetProcessor.setDitheringMode(ditheringMode);
+                targetProcessor.setDeferDirtyRegions(pipelinedDispatch);
+                targetProcessor.setResolutionScale(frameProcessor.getResolutionScale());
+            }
+            targetDispatcher.setFrameRate(frameRate);
+            AttachedScreen attached = new AttachedScreen(target, targetProcessor, targetDispatcher, plugin.getLogger());
+
+            target.updateViewerCache();
+            plugin.getScreenManager().fillScreenWithPlaybackBackground(target, getPacketRecipients(target));
+            target.startViewerCacheUpdater(plugin, viewerUpdateTicks);
+            if (pipelinedDispatch) {
+                attached.startDispatchStage();
+            }
+            AttachedScreen[] current = attachedScreens;
+            AttachedScreen[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = attached;
+            attachedScreens = updated;
+            plugin.getLogger().info("Screen " + target.getName() + " joined playback of " + sourceName + " on " +
+                screen.getName() + (shareFrames ? " (sharing frames)" : " (own dithering)"));
+            return true;
+        }
+    }
+
+    /**
+     * Stops showing the video on a screen added with {@link #attachScreen}. The screen keeps its last frame.
+     */
+    public void detachScreen(Screen target) {
+        synchronized (attachLock) {
+            AttachedScreen[] current = attachedScreens;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].getScreen().getId().equals(target.getId())) {
+                    AttachedScreen[] updated = new AttachedScreen[current.length - 1];
+                    System.arraycopy(current, 0, updated, 0, i);
+                    System.arraycopy(current, i + 1, updated, i, updated.length - i);
+                    attachedScreens = updated;
+                    closeAttachedScreen(current[i]);
+                    return;
+                }
+            }
+        }
+    }
+
+    private void closeAttachedScreens() {
+        synchronized (attachLock) {
+            AttachedScreen[] current = attachedScreens;
+            attachedScreens = new AttachedScreen[0];
+            for (AttachedScreen attached : current) {
+                closeAttachedScreen(attached);
+            }
+        }
+    }
+
+    private void closeAttachedScreen(AttachedScreen attached) {
+        attached.detach();
+        attached.getScreen().stopViewerCacheUpdater();
+        // Commands would otherwise still find this player for the screen after it stopped
+        plugin.releaseAttachedScreen(attached.getScreen(), this);
+        ScheduledExecutorService executor = scheduler;
+        if (executor != null && !executor.isShutdown()) {
+            // After the frame the player thread may be processing for it
+            executor.execute(attached::shutdown);
+        } else {
+            attached.shutdown();
+        }
+    }
+
+    private AttachedScreen findAttachedScreen(Screen target) {
+        for (AttachedScreen attached : attachedScreens) {
+            if (attached.getScreen().getId().equals(target.getId())) {
+                return attached;
+            }
+        }
+        return null;
+    }
+
+    private void startDispatchStage() {
+        if (!pipelinedDispatch || dispatchStage != null) {
+            return;
+        }
+        dispatchStage = new FrameDispatchStage(packetDispatcher, performanceMetrics, plugin.getLogger());
+        dispatchStage.start();
+    }
+
+    private void stopDispatchStage() {
+        FrameDispatchStage current = dispatchStage;
+        dispatchStage = null;
+        if (current != null) {
+            current.stop();
+        }
+    }
+
+    /**
+     * Moves the decoder to a frame. With read-ahead the decode thread has to be stopped around the seek.
+     *
+     * @return the frame decoding continues at, which can be slightly past the requested one
+     */
+    private long setGrabberFrame(long frameNumber) throws Exception {
+        if (bakedVideo != null) {
+            // Baked frames are found through the frame index when they are sent
+            return frameNumber;
+        }
+        FrameReadAhead currentReadAhead = readAhead;
+        if (currentReadAhead != null) {
+            return currentReadAhead.seek(frameNumber);
+        }
+        return catchUp.seek(frameNumber);
+    }
+
     private BufferedImage pollLiveFrame() {
         synchronized (liveFrameLock) {
             if (!liveBufferReady) {
@@ -640,6 +983,7 @@ public class VideoPlayer {
             t.setDaemon(true);
             return t;
         });
+        FrameScaler liveScaler = frameScaler;
         liveDecoderExecutor.execute(() -> {
             Java2DFrameConverter liveConverter = new Java2DFrameConverter();
             double sourceFramesPerOutputFrame = Math.max(1.0, sourceFrameRate / LIVE_TARGET_FRAME_RATE);
@@ -659,9 +1003,10 @@ public class VideoPlayer {
                     }
                     nextOutputFrame += sourceFramesPerOutputFrame;
 
-                    BufferedImage image = liveConverter.convert(frame);
-                    if (image != null) {
-                        enqueueLiveFrame(copyImage(image));
+                    // Queued frames are used after the grabber moved on, each gets its own canvas
+                    BufferedImage image = liveScaler.newCanvas();
+                    if (liveScaler.draw(frame, image, liveConverter)) {
+                        enqueueLiveFrame(image);
                     }
                 } catch (Exception e) {
                     if (liveDecoderRunning) {
@@ -698,12 +1043,22 @@ public class VideoPlayer {
         }
     }
 
-    private BufferedImage copyImage(BufferedImage source) {
-        BufferedImage copy = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
-        Graphics2D graphics = copy.createGraphics();
-        graphics.drawImage(source, 0, 0, null);
-        graphics.dispose();
-        return copy;
+    /**
+     * Dithering resolution of this player's screens, picked by the {@link ResolutionController}. The attached screens
+     * are processed on the same thread and count towards the same frame time.
+     */
+    private void applyResolutionScale(double scale) {
+        frameProcessor.setResolutionScale(scale);
+        for (AttachedScreen other : attachedScreens) {
+            FrameProcessor processor = other.getFrameProcessor();
+            if (processor != null) {
+                processor.setResolutionScale(scale);
+            }
+        }
+        if (avSyncDebugLogging) {
+            plugin.getLogger().fine("Dithering resolution set to " + Math.round(scale * 100) + "% (frame load "
+                + String.format("%.2f", resolutionController.getLoad()) + ")");
+        }
     }
 
     private void logAvSync(String message) {
@@ -719,8 +1074,12 @@ public class VideoPlayer {
     }
 
     private void onVideoComplete() {
+        List<Screen> attached = getAttachedScreens();
         stop();
         plugin.getScreenManager().fillScreenWithBlankColor(screen);
+        for (Screen other : attached) {
+            plugin.getScreenManager().fillScreenWithBlankColor(other);
+        }
         plugin.getLogger().info("Video playback complete");
         if (onComplete != null) {
             onComplete.accept(this);
@@ -737,17 +1096,19 @@ public class VideoPlayer {
         stop();
         screen.stopViewerCacheUpdater();
         frameProcessor.shutdown();
-        if (scheduler != null) {
+        if (scheduler != null && !scheduler.isShutdown()) {
+            // After the frame the player thread may be dispatching
+            scheduler.execute(packetDispatcher::close);
             scheduler.shutdown();
+        } else {
+            packetDispatcher.close();
         }
         if (audioManager != null) {
             audioManager.cleanup();
         }
-        if (resizedGraphics != null) {
-            resizedGraphics.dispose();
-            resizedGraphics = null;
-        }
         try {
+            closeReadAhead();
+            closeBakedVideo();
             if (grabber != null) {
                 grabber.close();
             }
@@ -766,6 +1127,15 @@ public class VideoPlayer {
         return totalFrames.get();
     }
 
+    /**
+     * Keyframes in the loaded video's index, -1 while there is no index (livestreams, or still being built).
+     */
+    public int getKeyframeCount() {
+        DecoderCatchUp current = catchUp;
+        KeyframeIndex index = current != null ? current.getKeyframeIndex() : null;
+        return index != null ? index.getKeyframeCount() : -1;
+    }
+
     public double getProgress() {
         long total = totalFrames.get();
         return !liveStream && total > 0 ? (double) currentFrame.get() / total : 0;
@@ -779,6 +1149,10 @@ public class VideoPlayer {
         return videoDurationMs;
     }
 
+    public boolean isBakedPlayback() {
+        return bakedVideo != null;
+    }
+
     public boolean isLiveStream() {
         return liveStream;
     }
@@ -795,14 +1169,69 @@ public class VideoPlayer {
         return screen;
     }
 
+    /**
+     * Identifies what is playing, for other screens that want to show the same source: the path of a video file,
+     * or the URL a livestream was requested with.
+     */
+    public String getSourceId() {
+        return sourceId;
+    }
+
+    /**
+     * Whether this is the player's screen or one attached to it.
+     */
+    public boolean showsScreen(Screen target) {
+        return isOwnScreen(target) || findAttachedScreen(target) != null;
+    }
+
+    /**
+     * Whether this is the screen the player was started on, not one that joined its playback.
+     */
+    public boolean isOwnScreen(Screen target) {
+        return screen.getId().equals(target.getId());
+    }
+
+    public List<Screen> getAttachedScreens() {
+        AttachedScreen[] current = attachedScreens;
+        List<Screen> screens = new ArrayList<>(current.length);
+        for (AttachedScreen attached : current) {
+            screens.add(attached.getScreen());
+        }
+        return screens;
+    }
+
+    /**
+     * Whether an attached screen uses the frames dithered for the player's screen.
+     */
+    public boolean isSharingFrames(Screen target) {
+        AttachedScreen attached = findAttachedScreen(target);
+        return attached != null && attached.isSharingFrames();
+    }
+
     public PacketDispatcher getPacketDispatcher() {
         return packetDispatcher;
     }
 
+    /**
+     * The dispatcher sending to a screen, the player's own one unless the screen is attached.
+     */
+    public PacketDispatcher getPacketDispatcher(Screen target) {
+        AttachedScreen attached = findAttachedScreen(target);
+        return attached != null ? attached.getPacketDispatcher() : packetDispatcher;
+    }
+
     public FrameProcessor getFrameProcessor() {
         return frameProcessor;
     }
 
+    /**
+     * The processor dithering for a screen. Attached screens that share the player's frames use its processor.
+     */
+    public FrameProcessor getFrameProcessor(Screen target) {
+        AttachedScreen attached = findAttachedScreen(target);
+        return attached != null && !attached.isSharingFrames() ? attached.getFrameProcessor() : frameProcessor;
+    }
+
     public PerformanceMetrics getPerformanceMetrics() {
         return performanceMetrics;
     }
@@ -884,6 +1313,9 @@ public class VideoPlayer {
         long upscale = performanceMetrics.getLastUpscalingUs();
         long tiles = performanceMetrics.getLastTileExtractionUs();
         long total = performanceMetrics.getLastTotalFrameUs();
+        int phases = performanceMetrics.getLastParallelPhases();
+        long queueDelay = performanceMetrics.getLastSchedulerQueueDelayUs();
+        long resolutionPercent = Math.round(frameProcessor.getResolutionScale() * 100);
         long frameBytes = packetDispatcher.getLastFrameBytesSent();
         int sentTiles = packetDispatcher.getLastFrameTileCount();
         int multiRegionTiles = packetDispatcher.getLastFrameMultiRegionTileCount();
@@ -899,7 +1331,7 @@ public class VideoPlayer {
         String message = String.format(
             "<gray>FPS: <white>%.1f</white> <dark_gray>|</dark_gray> " +
             "T: <white>%.1fms</white> <dark_gray>[</dark_gray>" +
-            "<yellow>D:%.1f</yellow> <gold>Di:%.1f</gold> <gold>U:%.1f</gold> <aqua>Ti:%.1f</aqua>" +
+            "<yellow>D:%.1f</yellow> <gold>Di:%.1f</gold> <gold>U:%.1f</gold> <aqua>Ti:%.1f</aqua> <gray>P:%d Q:%.1f R:%d%%</gray>" +
             "<dark_gray>]</dark_gray> " +
             "<dark_gray>|</dark_gray> BW: <white>%s/s</white> <gray>(%s/f cap:%s)</gray> " +
             "<dark_gray>|</dark_gray> <light_purple>Tiles:<white>%d</white> MR:<white>%d</white> Avg:<white>%s</white> Save:<white>%.0f%%</white>/<green>%.0f%%</green> M:<white>%.2f</white> A:<white>%s</white></light_purple>" +
@@ -910,6 +1342,9 @@ public class VideoPlayer {
             dither / 1000.0,
             upscale / 1000.0,
             tiles / 1000.0,
+            phases,
+            queueDelay / 1000.0,
+            resolutionPercent,
             formatBytes(bytesPerSecond),
             formatBytes(frameBytes),
             formatBytes(frameCapBytes),
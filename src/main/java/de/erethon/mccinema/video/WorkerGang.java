@@ -0,0 +1,115 @@
+package de.erethon.mccinema.video;
+
+import java.util.concurrent.Phaser;
+
+/**
+ * A fixed set of threads that stay with one {@link FrameProcessor} and run its parallel phases together.
+ * <p>
+ * A phase is a number of chunks and a {@link Task} that knows how to run chunk {@code i}. Chunk {@code i} always
+ * goes to member {@code i % size()}, the calling thread being member 0, and the call returns once every member has
+ * finished its chunks. Starting and ending a phase are two barriers on a {@link Phaser}, so there is no queue, no
+ * future per chunk and the members spin briefly before parking between phases.
+ * <p>
+ * As long as a phase has no more chunks than members, all of them run at the same time. Phases must not be started
+ * from more than one thread at a time. Processors of a running plugin use the shared {@link ProcessingScheduler}
+ * instead, a gang is for processors on their own such as in the benchmarks.
+ */
+final class WorkerGang implements PhaseRunner {
+
+    private final int size;
+    private final Phaser phaser;
+    private final Thread[] threads;
+
+    // Published by the start barrier, Phaser arrivals happen-before the matching advance
+    private Task task;
+    private int chunks;
+    private long phases;
+
+    WorkerGang(int size, String name) {
+        this.size = Math.max(1, size);
+        this.phaser = new Phaser(this.size);
+        this.threads = new Thread[this.size - 1];
+        for (int i = 0; i < threads.length; i++) {
+            int member = i + 1;
+            Thread thread = new Thread(() -> work(member), name + "-" + member);
+            thread.setDaemon(true);
+            threads[i] = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Number of members, including the thread that starts the phases.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Barrier phases run so far. Each costs a start and an end barrier, phases of a single chunk run inline on the
+     * caller and are not counted.
+     */
+    @Override
+    public long getPhaseCount() {
+        return phases;
+    }
+
+    /**
+     * Runs chunks {@code [0, chunks)} of the task across the gang and waits for all of them.
+     */
+    @Override
+    public void run(int chunks, Task task) {
+        if (chunks <= 0) {
+            return;
+        }
+        if (chunks == 1 || size == 1) {
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                runChunk(task, chunk);
+            }
+            return;
+        }
+        if (phaser.isTerminated()) {
+            throw new IllegalStateException("Worker gang has been shut down");
+        }
+        this.task = task;
+        this.chunks = chunks;
+        phases++;
+        phaser.arriveAndAwaitAdvance();
+        runShare(task, chunks, 0);
+        phaser.arriveAndAwaitAdvance();
+        this.task = null;
+    }
+
+    private void work(int member) {
+        while (true) {
+            if (phaser.arriveAndAwaitAdvance() < 0) {
+                return;
+            }
+            runShare(task, chunks, member);
+            if (phaser.arriveAndAwaitAdvance() < 0) {
+                return;
+            }
+        }
+    }
+
+    private void runShare(Task task, int chunks, int member) {
+        for (int chunk = member; chunk < chunks; chunk += size) {
+            runChunk(task, chunk);
+        }
+    }
+
+    private static void runChunk(Task task, int chunk) {
+        try {
+            task.run(chunk);
+        } catch (Throwable e) {
+            // A member that dies would leave the others waiting at the next barrier forever
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        phaser.forceTermination();
+    }
+}
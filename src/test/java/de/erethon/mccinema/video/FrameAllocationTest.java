@@ -0,0 +1,131 @@
+package de.erethon.mccinema.video;
+
+import de.erethon.mccinema.dither.DitherLookupUtil;
+import de.erethon.mccinema.screen.AspectRatio;
+import de.erethon.mccinema.screen.MapTile;
+import de.erethon.mccinema.screen.Screen;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Guards the steady-state allocation of {@link FrameProcessor#processFrame}, counted over all threads (caller and
+ * processing pool) through {@code ThreadMXBean.getThreadAllocatedBytes}.
+ * <p>
+ * Frame and tile buffers, the processed frame and the tiles' patch buffers are reused. What is left is a few small
+ * objects per frame (the content stats and the tasks handed to the processing threads) and the update and dirty
+ * region of every changed tile, which is what the budget allows for. A buffer allocated per frame costs tens of
+ * kilobytes and fails it.
+ */
+class FrameAllocationTest {
+
+    private static final int MAP_WIDTH = 6;
+    private static final int MAP_HEIGHT = 3;
+    private static final int WIDTH = MAP_WIDTH * MapTile.SIZE;
+    private static final int HEIGHT = MAP_HEIGHT * MapTile.SIZE;
+
+    private static final long BUDGET_FIXED_BYTES = 4 * 1024;
+    private static final long BUDGET_BYTES_PER_TILE = 128;
+
+    // Enough for the JIT to compile the dithering loops, its own allocations would otherwise count
+    private static final int WARMUP_FRAMES = 300;
+    private static final int MEASURED_FRAMES = 50;
+    private static final int FRAME_COUNT = 8;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @BeforeAll
+    static void initPalette() {
+        DitherLookupUtil.init();
+    }
+
+    // Each buffer path once: error diffusion and ordered dithering, tiles written while dithering and copied after,
+    // a source of the screen's size, one scaled up and one with black bars, and the vector kernels
+    @ParameterizedTest(name = "{0} {1} fused={2} vector={3}")
+    @CsvSource({
+        "FLOYD_STEINBERG_REDUCED, DIRECT, true, false",
+        "FLOYD_STEINBERG_REDUCED, UPSCALE, false, false",
+        "BAYER_8X8, LETTERBOX, true, false",
+        "BAYER_8X8, DIRECT, false, true"
+    })
+    void steadyStateAllocationStaysWithinBudget(String mode, String input, boolean fusedTiles, boolean vectorKernels) {
+        // The kernels gather bytes, which older JDKs run as boxed vectors instead of compiling
+        assumeTrue(!vectorKernels || Runtime.version().feature() >= 23, "byte gathers need JDK 23");
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("dithering.mode", mode);
+        config.set("performance.processing-threads", 2);
+        config.set("performance.fused-tile-output", fusedTiles);
+        config.set("dithering.vector-kernels", vectorKernels);
+        FrameProcessor processor = new FrameProcessor(createScreen(), config);
+        try {
+            BufferedImage[] frames = switch (input) {
+                case "LETTERBOX" -> frames(WIDTH, HEIGHT * 3 / 4);
+                case "UPSCALE" -> frames(WIDTH / 2, HEIGHT / 2);
+                default -> frames(WIDTH, HEIGHT);
+            };
+            for (int i = 0; i < WARMUP_FRAMES; i++) {
+                processor.processFrame(frames[i % FRAME_COUNT], WIDTH, HEIGHT, null);
+            }
+
+            long allocatedAtStart = totalAllocatedBytes();
+            for (int i = 0; i < MEASURED_FRAMES; i++) {
+                processor.processFrame(frames[i % FRAME_COUNT], WIDTH, HEIGHT, null);
+            }
+            long perFrame = (totalAllocatedBytes() - allocatedAtStart) / MEASURED_FRAMES;
+
+            long budget = BUDGET_FIXED_BYTES + BUDGET_BYTES_PER_TILE * MAP_WIDTH * MAP_HEIGHT;
+            assertTrue(perFrame <= budget, "processFrame allocated " + perFrame + " bytes per frame, budget is " + budget);
+        } finally {
+            processor.shutdown();
+        }
+    }
+
+    private static Screen createScreen() {
+        Screen screen = new Screen("allocation-test", MAP_WIDTH, MAP_HEIGHT, AspectRatio.CUSTOM);
+        for (int y = 0; y < MAP_HEIGHT; y++) {
+            for (int x = 0; x < MAP_WIDTH; x++) {
+                int tileIndex = y * MAP_WIDTH + x;
+                screen.addTile(new MapTile(tileIndex, x, y, tileIndex));
+            }
+        }
+        return screen;
+    }
+
+    /**
+     * A gradient moving across the frame, so every tile changes from one frame to the next.
+     */
+    private static BufferedImage[] frames(int width, int height) {
+        BufferedImage[] frames = new BufferedImage[FRAME_COUNT];
+        for (int f = 0; f < FRAME_COUNT; f++) {
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int red = (x * 255 / width + f * 32) & 0xFF;
+                    int green = y * 255 / height;
+                    int blue = (x + y + f * 16) & 0xFF;
+                    image.setRGB(x, y, red << 16 | green << 8 | blue);
+                }
+            }
+            frames[f] = image;
+        }
+        return frames;
+    }
+
+    private static long totalAllocatedBytes() {
+        long total = 0;
+        for (long allocated : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+            if (allocated > 0) {
+                total += allocated;
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,168 @@
+package de.erethon.mccinema.video;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import net.minecraft.network.HandlerNames;
+import net.minecraft.network.ProtocolInfo;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.game.ClientGamePacketListener;
+import net.minecraft.network.protocol.game.ClientboundBundlePacket;
+import net.minecraft.network.protocol.game.ClientboundMapItemDataPacket;
+import net.minecraft.world.level.saveddata.maps.MapId;
+import net.minecraft.world.level.saveddata.maps.MapItemSavedData;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that {@link MapPacketBroadcast} writes what a play connection's own outbound handlers make of the same
+ * packets, on the connections of {@link PlayConnectionFixture}.
+ */
+class MapPacketBroadcastTest {
+
+    private static ProtocolInfo<ClientGamePacketListener> protocol;
+
+    @BeforeAll
+    static void bootstrap() {
+        protocol = PlayConnectionFixture.protocol();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {-1, 0, 256})
+    void bundleMatchesConnectionEncoding(int compressionThreshold) throws DataFormatException {
+        List<ClientboundMapItemDataPacket> packets = packets();
+        EmbeddedChannel channel = PlayConnectionFixture.channel(compressionThreshold);
+        channel.writeAndFlush(new ClientboundBundlePacket(new ArrayList<Packet<? super ClientGamePacketListener>>(packets)));
+        byte[] expected = drain(channel);
+
+        try (MapPacketBroadcast.Frame frame = new MapPacketBroadcast(protocol).encode(packets, true)) {
+            assertTrue(frame.writeTo(channel), "broadcast refused a play pipeline");
+        }
+        assertSameStream(expected, drain(channel), compressionThreshold >= 0);
+        channel.finishAndReleaseAll();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {-1, 256})
+    void separatePacketsMatchConnectionEncoding(int compressionThreshold) throws DataFormatException {
+        List<ClientboundMapItemDataPacket> packets = packets();
+        EmbeddedChannel channel = PlayConnectionFixture.channel(compressionThreshold);
+        for (ClientboundMapItemDataPacket packet : packets) {
+            channel.writeAndFlush(packet);
+        }
+        byte[] expected = drain(channel);
+
+        try (MapPacketBroadcast.Frame frame = new MapPacketBroadcast(protocol).encode(packets, false)) {
+            assertTrue(frame.writeTo(channel), "broadcast refused a play pipeline");
+        }
+        assertSameStream(expected, drain(channel), compressionThreshold >= 0);
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void refusesPipelineWithOtherEncoders() {
+        EmbeddedChannel channel = PlayConnectionFixture.channel(-1);
+        // Like a protocol translation plugin rewriting encoded packets
+        channel.pipeline().addAfter(HandlerNames.PREPENDER, "translator", new ChannelOutboundHandlerAdapter());
+        try (MapPacketBroadcast.Frame frame = new MapPacketBroadcast(protocol).encode(packets(), true)) {
+            assertFalse(frame.writeTo(channel));
+        }
+        assertEquals(0, drain(channel).length);
+        channel.finishAndReleaseAll();
+    }
+
+    /**
+     * Full maps and patches, with a small patch that stays below a compression threshold.
+     */
+    private static List<ClientboundMapItemDataPacket> packets() {
+        Random random = new Random(42);
+        List<ClientboundMapItemDataPacket> packets = new ArrayList<>();
+        int[][] regions = {{0, 0, 128, 128}, {16, 32, 40, 24}, {100, 120, 4, 3}, {0, 0, 128, 128}};
+        for (int i = 0; i < regions.length; i++) {
+            int[] region = regions[i];
+            byte[] data = PlayConnectionFixture.ditheredPixels(random, region[2] * region[3]);
+            packets.add(new ClientboundMapItemDataPacket(new MapId(i), (byte) 0, false, null,
+                new MapItemSavedData.MapPatch(region[0], region[1], region[2], region[3], data)));
+        }
+        return packets;
+    }
+
+    /**
+     * Uncompressed streams have to match byte for byte. Deflate output depends on the compressor in use (Paper may
+     * use a native one), so compressed packets are compared by their length fields and inflated contents.
+     */
+    private static void assertSameStream(byte[] expected, byte[] actual, boolean compressed) throws DataFormatException {
+        if (!compressed) {
+            assertEquals(ByteBuffer.wrap(expected), ByteBuffer.wrap(actual));
+            return;
+        }
+        assertEquals(inflatePackets(expected), inflatePackets(actual));
+    }
+
+    private static List<ByteBuffer> inflatePackets(byte[] stream) throws DataFormatException {
+        List<ByteBuffer> packets = new ArrayList<>();
+        ByteBuffer in = ByteBuffer.wrap(stream);
+        while (in.hasRemaining()) {
+            int frameLength = readVarInt(in);
+            int frameEnd = in.position() + frameLength;
+            int dataLength = readVarInt(in);
+            byte[] body = new byte[frameEnd - in.position()];
+            in.get(body);
+            if (dataLength == 0) {
+                packets.add(ByteBuffer.wrap(body));
+                continue;
+            }
+            Inflater inflater = new Inflater();
+            inflater.setInput(body);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(dataLength);
+            byte[] chunk = new byte[8192];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(chunk);
+                if (length == 0 && inflater.needsInput()) {
+                    break;
+                }
+                out.write(chunk, 0, length);
+            }
+            inflater.end();
+            assertEquals(dataLength, out.size(), "inflated length differs from the packet's length field");
+            packets.add(ByteBuffer.wrap(out.toByteArray()));
+        }
+        return packets;
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static byte[] drain(EmbeddedChannel channel) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuf buf;
+        while ((buf = channel.readOutbound()) != null) {
+            out.writeBytes(ByteBufUtil.getBytes(buf));
+            buf.release();
+        }
+        return out.toByteArray();
+    }
+}
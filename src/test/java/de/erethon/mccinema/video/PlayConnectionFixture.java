@@ -0,0 +1,72 @@
+package de.erethon.mccinema.video;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import net.minecraft.SharedConstants;
+import net.minecraft.core.RegistryAccess;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.network.CompressionEncoder;
+import net.minecraft.network.HandlerNames;
+import net.minecraft.network.PacketBundleUnpacker;
+import net.minecraft.network.PacketEncoder;
+import net.minecraft.network.ProtocolInfo;
+import net.minecraft.network.RegistryFriendlyByteBuf;
+import net.minecraft.network.Varint21LengthFieldPrepender;
+import net.minecraft.network.protocol.game.ClientGamePacketListener;
+import net.minecraft.network.protocol.game.GameProtocols;
+import net.minecraft.server.Bootstrap;
+
+import java.util.Random;
+
+/**
+ * Play connections outside of a server, for {@code MapPacketBroadcastTest} and {@code MapBroadcastBenchmark}: embedded
+ * channels with the outbound handlers {@code Connection.send} passes packets through, minus encryption.
+ */
+final class PlayConnectionFixture {
+
+    private static ProtocolInfo<ClientGamePacketListener> protocol;
+
+    private PlayConnectionFixture() {
+    }
+
+    /**
+     * The play protocol the server sends with, bootstrapping the game's registries the first time.
+     */
+    static synchronized ProtocolInfo<ClientGamePacketListener> protocol() {
+        if (protocol == null) {
+            SharedConstants.tryDetectVersion();
+            Bootstrap.bootStrap();
+            RegistryAccess registryAccess = RegistryAccess.fromRegistryOfRegistries(BuiltInRegistries.REGISTRY);
+            protocol = GameProtocols.CLIENTBOUND_TEMPLATE.bind(RegistryFriendlyByteBuf.decorator(registryAccess));
+        }
+        return protocol;
+    }
+
+    /**
+     * @param compressionThreshold -1 for no compression, as behind a proxy
+     */
+    static EmbeddedChannel channel(int compressionThreshold) {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        channel.pipeline().addLast(HandlerNames.PREPENDER, new Varint21LengthFieldPrepender());
+        if (compressionThreshold >= 0) {
+            channel.pipeline().addLast(HandlerNames.COMPRESS, new CompressionEncoder(compressionThreshold));
+        }
+        channel.pipeline().addLast(HandlerNames.ENCODER, new PacketEncoder<>(protocol()));
+        channel.pipeline().addLast("unbundler", new PacketBundleUnpacker(protocol().bundlerInfo()));
+        return channel;
+    }
+
+    /**
+     * Map colors like a dithered video has them: mostly short runs of a few nearby colors.
+     */
+    static byte[] ditheredPixels(Random random, int length) {
+        byte[] data = new byte[length];
+        int color = 4 + random.nextInt(200);
+        for (int i = 0; i < length; i++) {
+            if (random.nextInt(4) == 0) {
+                color = Math.max(4, Math.min(247, color + random.nextInt(9) - 4));
+            }
+            data[i] = (byte) color;
+        }
+        return data;
+    }
+}